@@ -0,0 +1,73 @@
+package io.hyperfoil.tools.qdup.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.util.Statistics;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Runs the benchmarks with the gc profiler then prints the pipeline MB/s, allocated bytes per trace byte, prompt latency percentiles
+ * and signal to waiter wakeup percentiles.
+ * Accepts the same arguments as org.openjdk.jmh.Main, e.g. <code>java -jar benchmarks.jar SessionStreams -p trace=/tmp/run/host.raw.log</code>
+ */
+public class BenchMain {
+
+    private static final double MB = 1024 * 1024;
+
+    public static void main(String[] args) throws CommandLineOptionException, RunnerException, IOException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLine);
+        builder.addProfiler(GCProfiler.class);
+        if(commandLine.getIncludes().isEmpty()){
+            builder.include(BenchMain.class.getPackageName());
+        }
+        Collection<RunResult> results = new Runner(builder.build()).run();
+
+        Map<String,RawTrace> traces = new HashMap<>();
+        System.out.println();
+        for(RunResult runResult : results){
+            String benchmark = runResult.getParams().getBenchmark();
+            String trace = runResult.getParams().getParam("trace");
+            Result primary = runResult.getPrimaryResult();
+            if(benchmark.endsWith("SessionStreamsBenchmark.replay")){
+                RawTrace rawTrace = traces.computeIfAbsent(trace,BenchMain::load);
+                double bytesPerSecond = primary.getScore() * rawTrace.getSize();
+                Result allocated = runResult.getSecondaryResults().get("gc.alloc.rate.norm");
+                System.out.printf("%s %d writes %d bytes%n",trace,rawTrace.getWriteCount(),rawTrace.getSize());
+                System.out.printf("  throughput      %10.2f MB/s%n",bytesPerSecond / MB);
+                if(allocated != null){
+                    System.out.printf("  allocated       %10.2f bytes/byte%n",allocated.getScore() / rawTrace.getSize());
+                }
+            }else if(benchmark.endsWith("PromptLatencyBenchmark.detectPrompt")){
+                Statistics statistics = primary.getStatistics();
+                System.out.printf("%s delay=%s%n",trace,runResult.getParams().getParam("delay"));
+                System.out.printf("  prompt latency  p50=%.2f p99=%.2f max=%.2f %s%n",
+                        statistics.getPercentile(50),statistics.getPercentile(99),statistics.getMax(),primary.getScoreUnit());
+            }else if(benchmark.endsWith("CoordinatorBenchmark.signalToWakeup")){
+                Statistics statistics = primary.getStatistics();
+                System.out.printf("coordinator waiters=%s%n",runResult.getParams().getParam("waiters"));
+                System.out.printf("  wakeup latency  p50=%.2f p99=%.2f max=%.2f %s%n",
+                        statistics.getPercentile(50),statistics.getPercentile(99),statistics.getMax(),primary.getScoreUnit());
+            }
+        }
+    }
+
+    private static RawTrace load(String location){
+        try {
+            return RawTrace.load(location);
+        } catch (IOException e) {
+            throw new RuntimeException("failed to load trace "+location,e);
+        }
+    }
+}
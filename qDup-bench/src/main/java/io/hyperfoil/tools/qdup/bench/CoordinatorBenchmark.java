@@ -0,0 +1,94 @@
+package io.hyperfoil.tools.qdup.bench;
+
+import io.hyperfoil.tools.qdup.Coordinator;
+import io.hyperfoil.tools.qdup.Globals;
+import io.hyperfoil.tools.qdup.cmd.Cmd;
+import io.hyperfoil.tools.qdup.cmd.SpyContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time from the last signal until every waiter on that signal continued.
+ * The thread that sends the last signal releases the waiters, the same as a script's signal command, so the benchmark thread signals.
+ * The waiters are registered in the invocation setup so only the signal and the release are measured.
+ * Use <code>-p waiters=64</code> to see how the release scales with the number of waiting scripts.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CoordinatorBenchmark {
+
+    private static final String SIGNAL = "ready";
+
+    /**
+     * Context that counts when the coordinator continues it
+     */
+    private static class ReleasedContext extends SpyContext {
+        private final AtomicLong released;
+
+        ReleasedContext(AtomicLong released){
+            this.released = released;
+        }
+
+        @Override
+        public void next(String output){
+            released.incrementAndGet();
+        }
+    }
+
+    @Param({"1","16"})
+    public int waiters;
+
+    private Coordinator coordinator;
+    private Cmd command;
+    private List<ReleasedContext> contexts;
+    private final AtomicLong released = new AtomicLong();
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        coordinator = new Coordinator(new Globals());
+        command = Cmd.waitFor(SIGNAL);
+        contexts = new ArrayList<>();
+        for(int i = 0; i < waiters; i++){
+            contexts.add(new ReleasedContext(released));
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void addWaiters(){
+        coordinator.setSignal(SIGNAL,1,true);
+        for(ReleasedContext context : contexts){
+            coordinator.waitFor(SIGNAL,command,context,"");
+        }
+        expected = released.get() + waiters;
+    }
+
+    @Benchmark
+    public long signalToWakeup(){
+        coordinator.signal(SIGNAL);
+        long current = released.get();
+        if(current < expected){
+            throw new IllegalStateException("signal released "+(current - expected + waiters)+" of "+waiters+" waiters");
+        }
+        return current;
+    }
+}
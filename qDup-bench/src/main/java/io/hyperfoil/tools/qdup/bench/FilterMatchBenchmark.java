@@ -0,0 +1,108 @@
+package io.hyperfoil.tools.qdup.bench;
+
+import io.hyperfoil.tools.qdup.stream.FilteredStream;
+import io.hyperfoil.tools.qdup.stream.MultiPatternMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares checking each filter at each index with {@link FilteredStream#prefixLength(byte[], byte[], int, int)}
+ * against a single pass with {@link MultiPatternMatcher} and the resulting {@link FilteredStream#write(byte[], int, int)}.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FilterMatchBenchmark {
+
+    @Param({"1","8","32"})
+    public int filterCount;
+
+    @Param({"65536"})
+    public int size;
+
+    private Map<String,byte[]> filters;
+    private byte[] input;
+    private FilteredStream legacy;
+    private MultiPatternMatcher matcher;
+    private FilteredStream stream;
+    private ByteArrayOutputStream out;
+
+    @Setup(Level.Trial)
+    public void setup(){
+        filters = new LinkedHashMap<>();
+        for(int i=0; i<filterCount; i++){
+            filters.put("filter"+i,("<_#%@_qdup_"+i+"_@%#_>").getBytes());
+        }
+        input = new byte[size];
+        byte[] line = "some command output with a < and a _ that start partial matches\r\n".getBytes();
+        for(int i=0; i<size; i++){
+            input[i] = line[i % line.length];
+        }
+        legacy = new FilteredStream();
+        legacy.addInjectable((byte)'\r');
+        matcher = MultiPatternMatcher.compile(filters, Set.of((byte)'\r'));
+        stream = new FilteredStream();
+        stream.addInjectable((byte)'\r');
+        filters.forEach(stream::addFilter);
+        out = new ByteArrayOutputStream(size);
+        stream.addStream("out",out);
+    }
+
+    @Benchmark
+    public long perFilter(){
+        long rtrn = 0;
+        for(int index=0; index<input.length; index++){
+            for(byte[] filter : filters.values()){
+                if(legacy.prefixLength(input,filter,index,input.length-index).fullMatch()){
+                    rtrn++;
+                }
+            }
+        }
+        return rtrn;
+    }
+
+    @Benchmark
+    public long automaton(){
+        long rtrn = 0;
+        int state = MultiPatternMatcher.ROOT;
+        for(byte b : input){
+            if(matcher.skips(state,b)){
+                continue;
+            }
+            state = matcher.next(state,b);
+            if(matcher.getMatch(state) != MultiPatternMatcher.NO_MATCH){
+                rtrn++;
+            }
+        }
+        return rtrn;
+    }
+
+    @Benchmark
+    public int filteredStream() throws IOException {
+        out.reset();
+        for(int off=0; off<size; off+=4096){
+            stream.write(input,off,Math.min(4096,size-off));
+        }
+        return out.size();
+    }
+}
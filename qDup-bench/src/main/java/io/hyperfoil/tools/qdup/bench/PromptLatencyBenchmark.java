@@ -0,0 +1,98 @@
+package io.hyperfoil.tools.qdup.bench;
+
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.qdup.stream.SessionStreams;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Time from writing the bytes that end with the prompt until the prompt callback runs.
+ * The output before the prompt is written in the invocation setup so only the final write and the suffix executor are measured.
+ * Use <code>-p delay=100</code> to include the default suffix executor delay.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PromptLatencyBenchmark {
+
+    private static final long TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    @Param({SessionStreamsBenchmark.DEFAULT_TRACE})
+    public String trace;
+
+    @Param({"0"})
+    public int delay;
+
+    private ScheduledThreadPoolExecutor executor;
+    private SessionStreams streams;
+    private List<List<byte[]>> commands;
+    private final AtomicLong prompts = new AtomicLong();
+    private int commandIndex = 0;
+    private byte[] promptWrite;
+    private long expected;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        commands = RawTrace.load(trace).getCommands(AbstractShell.PROMPT);
+        if(commands.isEmpty()){
+            throw new IllegalStateException(trace+" does not contain a write that ends with the prompt");
+        }
+        executor = new ScheduledThreadPoolExecutor(2);
+        streams = SessionStreamsBenchmark.createStreams("latency",executor);
+        streams.setDelay(delay);
+        streams.addPromptCallback(name -> {
+            streams.reset();
+            prompts.incrementAndGet();
+        });
+    }
+
+    @Setup(Level.Invocation)
+    public void writeOutput() throws IOException {
+        List<byte[]> command = commands.get(commandIndex++ % commands.size());
+        for(int i = 0; i < command.size() - 1; i++){
+            byte[] write = command.get(i);
+            streams.write(write,0,write.length);
+        }
+        promptWrite = command.get(command.size() - 1);
+        expected = prompts.get() + 1;
+    }
+
+    @Benchmark
+    public long detectPrompt() throws IOException {
+        long start = System.nanoTime();
+        streams.write(promptWrite,0,promptWrite.length);
+        long current;
+        while( (current = prompts.get()) < expected ){
+            if(System.nanoTime() - start > TIMEOUT_NANOS){
+                throw new IllegalStateException("prompt was not detected within "+TimeUnit.NANOSECONDS.toSeconds(TIMEOUT_NANOS)+"s");
+            }
+            Thread.onSpinWait();
+        }
+        return current;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown(){
+        executor.shutdownNow();
+    }
+}
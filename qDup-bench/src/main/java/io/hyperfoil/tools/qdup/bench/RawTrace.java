@@ -0,0 +1,120 @@
+package io.hyperfoil.tools.qdup.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The writes recorded in a <code>.raw.log</code> trace from {@link io.hyperfoil.tools.qdup.stream.SessionStreams#setTrace(String)}.
+ * Each write is logged as a <code>[&gt;&gt;qdup[off,len]--]</code> header, a printout of the bytes,
+ * a <code>[&lt;&lt;qdup[off,len]--]</code> footer then the <code>len</code> bytes that were written.
+ */
+public class RawTrace {
+
+    public static final String CLASSPATH_PREFIX = "classpath:";
+    private static final byte[] FOOTER_START = "[<<qdup[".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] FOOTER_END = "]--]\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * @param location a file path or <code>classpath:</code> resource
+     */
+    public static RawTrace load(String location) throws IOException {
+        byte[] content;
+        if(location.startsWith(CLASSPATH_PREFIX)){
+            String resource = location.substring(CLASSPATH_PREFIX.length());
+            try(InputStream stream = RawTrace.class.getClassLoader().getResourceAsStream(resource)){
+                if(stream == null){
+                    throw new IOException("cannot find trace resource "+resource);
+                }
+                content = stream.readAllBytes();
+            }
+        }else{
+            content = Files.readAllBytes(Path.of(location));
+        }
+        return parse(location,content);
+    }
+
+    public static RawTrace parse(String name, byte[] content){
+        List<byte[]> writes = new ArrayList<>();
+        int index = 0;
+        while( (index = indexOf(content,FOOTER_START,index)) >= 0 ){
+            int end = indexOf(content,FOOTER_END,index + FOOTER_START.length);
+            if(end < 0){
+                break;
+            }
+            String offLen = new String(content,index + FOOTER_START.length,end - index - FOOTER_START.length,StandardCharsets.UTF_8);
+            int comma = offLen.indexOf(',');
+            int start = end + FOOTER_END.length;
+            int length = comma < 0 ? -1 : Integer.parseInt(offLen.substring(comma+1).trim());
+            if(length < 0 || start + length > content.length){
+                break;//truncated trace
+            }
+            writes.add(Arrays.copyOfRange(content,start,start + length));
+            index = start + length;
+        }
+        return new RawTrace(name,writes);
+    }
+
+    private static int indexOf(byte[] content, byte[] toFind, int from){
+        for(int i = from; i <= content.length - toFind.length; i++){
+            int matched = 0;
+            while(matched < toFind.length && content[i + matched] == toFind[matched]){
+                matched++;
+            }
+            if(matched == toFind.length){
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private final String name;
+    private final List<byte[]> writes;
+    private final long size;
+
+    private RawTrace(String name, List<byte[]> writes){
+        this.name = name;
+        this.writes = Collections.unmodifiableList(writes);
+        this.size = writes.stream().mapToLong(b -> b.length).sum();
+    }
+
+    public String getName(){return name;}
+    public List<byte[]> getWrites(){return writes;}
+    public int getWriteCount(){return writes.size();}
+
+    /**
+     * @return the total number of bytes written to the session
+     */
+    public long getSize(){return size;}
+
+    /**
+     * Groups the writes into the output of each command, the last write in a command ends with the prompt.
+     * Writes after the last prompt are not included.
+     */
+    public List<List<byte[]>> getCommands(String prompt){
+        byte[] promptBytes = prompt.getBytes(StandardCharsets.UTF_8);
+        List<List<byte[]>> rtrn = new ArrayList<>();
+        List<byte[]> current = new ArrayList<>();
+        for(byte[] write : writes){
+            current.add(write);
+            if(endsWith(write,promptBytes)){
+                rtrn.add(current);
+                current = new ArrayList<>();
+            }
+        }
+        return rtrn;
+    }
+
+    private static boolean endsWith(byte[] write, byte[] suffix){
+        if(write.length < suffix.length){
+            return false;
+        }
+        return Arrays.equals(write,write.length - suffix.length,write.length,suffix,0,suffix.length);
+    }
+}
@@ -0,0 +1,93 @@
+package io.hyperfoil.tools.qdup.bench;
+
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.qdup.stream.SessionStreams;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recorded trace through the SessionStreams pipeline (escape filter, suffix, filtered, line emitting and shStream).
+ * Each operation is the entire trace so throughput * trace size is the pipeline MB/s and gc.alloc.rate.norm / trace size is the allocations per byte.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class SessionStreamsBenchmark {
+
+    public static final String DEFAULT_TRACE = RawTrace.CLASSPATH_PREFIX + "traces/sh-session.raw.log";
+
+    /**
+     * @return SessionStreams with the default prompt and exit code prefix that AbstractShell uses
+     */
+    public static SessionStreams createStreams(String name, ScheduledThreadPoolExecutor executor){
+        SessionStreams streams = new SessionStreams(name,executor);
+        streams.setExitCodePrefix(AbstractShell.EXIT_CODE_PREFIX);
+        streams.addPrompt(AbstractShell.PROMPT);
+        return streams;
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long bytes;
+        public long lines;
+        public long prompts;
+    }
+
+    @Param({DEFAULT_TRACE})
+    public String trace;
+
+    private RawTrace rawTrace;
+    private SessionStreams streams;
+    private long lines;
+    private long prompts;
+
+    @Setup(Level.Trial)
+    public void setup(Blackhole blackhole) throws IOException {
+        rawTrace = RawTrace.load(trace);
+        //a null executor detects the prompt on the writing thread
+        streams = createStreams("bench",null);
+        //AbstractShell observes lines as views and only creates Strings for watchers or stream logging
+        streams.addLineViewConsumer(line -> {
+            lines++;
+            blackhole.consume(line.length());
+        });
+        streams.addPromptCallback(name -> {
+            prompts++;
+            blackhole.consume(streams.currentOutput());
+            streams.reset();
+        });
+    }
+
+    @Benchmark
+    public void replay(Counters counters) throws IOException {
+        long startLines = lines;
+        long startPrompts = prompts;
+        for(byte[] write : rawTrace.getWrites()){
+            streams.write(write,0,write.length);
+        }
+        streams.reset();
+        counters.bytes += rawTrace.getSize();
+        counters.lines += lines - startLines;
+        counters.prompts += prompts - startPrompts;
+    }
+}
@@ -0,0 +1,40 @@
+package io.hyperfoil.tools.qdup.bench;
+
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class RawTraceTest {
+
+    @Test
+    public void parse_writes(){
+        String content = "[>>qdup[0,3]--]\nbytes=[...]\n[<<qdup[0,3]--]\nfoo"+
+                "[>>qdup[2,4]--]\nbytes=[...]\n[<<qdup[2,4]--]\nbar\n";
+        RawTrace trace = RawTrace.parse("test",content.getBytes(StandardCharsets.UTF_8));
+        assertEquals(2,trace.getWriteCount());
+        assertEquals("foo",new String(trace.getWrites().get(0)));
+        assertEquals("bar\n",new String(trace.getWrites().get(1)));
+        assertEquals(7,trace.getSize());
+    }
+
+    @Test
+    public void parse_truncated(){
+        String content = "[>>qdup[0,3]--]\nbytes=[...]\n[<<qdup[0,3]--]\nfoo"+
+                "[>>qdup[0,10]--]\nbytes=[...]\n[<<qdup[0,10]--]\nbar";
+        RawTrace trace = RawTrace.parse("test",content.getBytes(StandardCharsets.UTF_8));
+        assertEquals(1,trace.getWriteCount());
+    }
+
+    @Test
+    public void default_trace_has_commands() throws IOException {
+        RawTrace trace = RawTrace.load(SessionStreamsBenchmark.DEFAULT_TRACE);
+        assertTrue("trace should have writes",trace.getWriteCount() > 0);
+        List<List<byte[]>> commands = trace.getCommands(AbstractShell.PROMPT);
+        assertFalse("trace should have prompts",commands.isEmpty());
+    }
+}
@@ -0,0 +1,135 @@
+package io.hyperfoil.tools.qdup;
+
+import org.jboss.logmanager.ExtHandler;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.handlers.AsyncHandler.OverflowAction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+
+/**
+ * Publishes log records to the nested handlers from one writer thread and flushes them in batches.
+ * The logging thread only copies the record (message, MDC and thread) into a bounded queue.
+ * The writer flushes the nested handlers after {@code flushSize} records or when {@code flushInterval} milliseconds
+ * pass with records that were not flushed, so the nested handlers should not auto flush.
+ * When the queue is full {@link OverflowAction#BLOCK} waits for space and {@link OverflowAction#DISCARD} drops the record
+ * and logs how many records were dropped with the next batch.
+ */
+public class AsyncLogHandler extends ExtHandler {
+
+    public static final int DEFAULT_QUEUE = 8 * 1024;
+    public static final int DEFAULT_FLUSH_SIZE = 512;
+    public static final long DEFAULT_FLUSH_INTERVAL = 200;
+
+    //added to the queue by close so the writer does not wait for the next poll timeout
+    private static final ExtLogRecord CLOSE = new ExtLogRecord(Level.OFF,"",AsyncLogHandler.class.getName());
+
+    private final BlockingQueue<ExtLogRecord> queue;
+    private final int flushSize;
+    private final long flushInterval;
+    private final OverflowAction overflow;
+    private final AtomicLong dropped;
+    private final AtomicBoolean closed;
+    private final Thread thread;
+
+    public AsyncLogHandler(int queueLength, int flushSize, long flushInterval, OverflowAction overflow){
+        this.queue = new ArrayBlockingQueue<>(queueLength);
+        this.flushSize = Math.max(1,flushSize);
+        this.flushInterval = Math.max(1,flushInterval);
+        this.overflow = overflow;
+        this.dropped = new AtomicLong(0);
+        this.closed = new AtomicBoolean(false);
+        this.thread = new Thread(this::drain,"qdup-log");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public OverflowAction getOverflowAction(){return overflow;}
+    public long getDropped(){return dropped.get();}
+
+    @Override
+    protected void doPublish(ExtLogRecord record){
+        if(closed.get()){
+            return;
+        }
+        //the writer thread formats the record so it needs the MDC and message from this thread
+        record.copyAll();
+        if(OverflowAction.BLOCK.equals(overflow)){
+            try {
+                queue.put(record);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }else if (!queue.offer(record)){
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes and flushes the queued records then closes the nested handlers
+     */
+    @Override
+    public void close() throws SecurityException {
+        if(closed.compareAndSet(false,true)){
+            try {
+                queue.put(CLOSE);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            super.close();
+        }
+    }
+
+    private void drain(){
+        List<ExtLogRecord> batch = new ArrayList<>();
+        int unflushed = 0;
+        long lastFlush = System.nanoTime();
+        boolean running = true;
+        while(running){
+            try {
+                ExtLogRecord first = queue.poll(flushInterval,TimeUnit.MILLISECONDS);
+                if(first != null){
+                    batch.add(first);
+                    queue.drainTo(batch,flushSize - 1);
+                    long discarded = dropped.getAndSet(0);
+                    if(discarded > 0){
+                        publishToNestedHandlers(new ExtLogRecord(Level.WARNING,"discarded "+discarded+" log messages because the log queue was full",AsyncLogHandler.class.getName()));
+                        unflushed++;
+                    }
+                    for(ExtLogRecord record : batch){
+                        if(record == CLOSE){
+                            running = false;
+                        }else{
+                            publishToNestedHandlers(record);
+                            unflushed++;
+                        }
+                    }
+                    batch.clear();
+                }
+                if(unflushed > 0 && (!running || unflushed >= flushSize || System.nanoTime() - lastFlush >= TimeUnit.MILLISECONDS.toNanos(flushInterval))){
+                    flushNestedHandlers();
+                    unflushed = 0;
+                    lastFlush = System.nanoTime();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+        }
+        //release any publish that passed the closed check while the queue was full
+        queue.clear();
+    }
+
+    private void flushNestedHandlers(){
+        for(Handler handler : getHandlers()){
+            handler.flush();
+        }
+    }
+}
@@ -8,6 +8,8 @@ import org.jboss.logging.Logger;
 import java.lang.invoke.MethodHandles;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
@@ -18,6 +20,9 @@ import java.util.function.Supplier;
  * Primarily used for the CountDownLatches that coordinate signal / waitFor commands
  * Also has counters that can increase / decrease depending on needs
  *
+ * Signals, counters and waiters are updated from many dispatcher threads without a lock.
+ * Each signal name has one latch with an atomic count and a queue of waiters and a waiter is
+ * released by whichever thread removes it from the queue.
  */
 public class Coordinator {
 
@@ -57,13 +62,25 @@ public class Coordinator {
         }
     }
 
-    private List<Consumer<String>> observers;
+    /**
+     * The count and waiters for one signal name.
+     * The count is {@link #MISSING} until a latch is set so waiters can queue for a signal before it is defined.
+     */
+    private static final class Latch {
+        static final int MISSING = Integer.MIN_VALUE;
 
-    private Map<String,AtomicInteger> signalLatches;
-    private Map<String,Long> latchTimes;
-    private Map<String,List<Waiter>> waitFors;
+        final AtomicInteger count = new AtomicInteger(MISSING);
+        final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+        volatile long reachedZero = -1;
 
-    private Map<String,AtomicInteger> counters;
+        boolean isSet(){return count.get() != MISSING;}
+    }
+
+    private final List<Consumer<String>> observers;
+
+    private final Map<String,Latch> latches;
+
+    private final Map<String,AtomicInteger> counters;
 
     private Globals globals;
 
@@ -71,27 +88,36 @@ public class Coordinator {
 //        this(new Globals());
 //    }
     public Coordinator(Globals globals){
-        signalLatches = new HashMap<>();
-        latchTimes = new LinkedHashMap<>();
-        counters = new HashMap<>();
-        observers = new LinkedList<>();
-        waitFors = new ConcurrentHashMap<>();
+        latches = new ConcurrentHashMap<>();
+        counters = new ConcurrentHashMap<>();
+        observers = new CopyOnWriteArrayList<>();
         this.globals = globals;
     }
 
     public Globals getGlobals(){return globals;}
 
-    public List<Waiter> ensureWaitFor(String name){
-        waitFors.putIfAbsent(name,Collections.synchronizedList(new LinkedList<>()));
-        return waitFors.get(name);
+    private Latch latch(String name){
+        return latches.computeIfAbsent(name,n->new Latch());
     }
 
     public Map<String,Integer> getLatches(){
         Map<String,Integer> rtrn = new HashMap<>();
-        signalLatches.forEach((k, v)->rtrn.put(k,v.intValue()));
+        latches.forEach((k, v)->{
+            int count = v.count.get();
+            if(count != Latch.MISSING){
+                rtrn.put(k,count);
+            }
+        });
         return rtrn;
     }
-    public Map<String,Long> getLatchTimes(){return Collections.unmodifiableMap(latchTimes);}
+    public Map<String,Long> getLatchTimes(){
+        Map<String,Long> rtrn = new LinkedHashMap<>();
+        latches.entrySet().stream()
+                .filter(entry->entry.getValue().reachedZero >= 0)
+                .sorted(Comparator.comparingLong(entry->entry.getValue().reachedZero))
+                .forEach(entry->rtrn.put(entry.getKey(),entry.getValue().reachedZero));
+        return Collections.unmodifiableMap(rtrn);
+    }
     public Map<String,Integer> getCounters(){
         Map<String,Integer> rtrn = new LinkedHashMap<>();
         counters.forEach((key,value)->{
@@ -109,10 +135,13 @@ public class Coordinator {
 
     public Json getWaitJson(){
         Json rtrn = new Json(false);
-        waitFors.keySet().forEach(key->{
+        latches.forEach((key,latch)->{
+            if(latch.waiters.isEmpty()){
+                return;
+            }
             Json entry = new Json();
             rtrn.set(key,entry);
-            waitFors.get(key).forEach(waiter->{
+            latch.waiters.forEach(waiter->{
                 Cmd head = waiter.getCommand().getHead();
                 Host host = waiter.getContext().getHost();
                 entry.add(head.toString()+"-"+head.getUid()+"@"+host.getShortHostName());
@@ -125,109 +154,125 @@ public class Coordinator {
         counters.put(name,new AtomicInteger(value));
     }
     public int increase(String name){
-        if(!counters.containsKey(name)){
-            counters.put(name,new AtomicInteger(0));
-        }
-        return counters.get(name).incrementAndGet();
+        return counters.computeIfAbsent(name,n->new AtomicInteger(0)).incrementAndGet();
     }
     public int decrease(String name, int initialValue){
-        if(!counters.containsKey(name)){
-            counters.put(name,new AtomicInteger(initialValue));
-        }
-        return counters.get(name).decrementAndGet();
+        return counters.computeIfAbsent(name,n->new AtomicInteger(initialValue)).decrementAndGet();
     }
     public int getCounter(String name){
-        if(!counters.containsKey(name)){
-            counters.put(name,new AtomicInteger(0));
-        }
-        return counters.get(name).get();
-
+        return counters.computeIfAbsent(name,n->new AtomicInteger(0)).get();
     }
     public void setSignal(String name, int count){
         setSignal(name,count,false);
     }
     public void setSignal(String name, int count,boolean force){
-        if(signalLatches.containsKey(name) && signalLatches.get(name).get()>0 && !force){
-            logger.warnf("duplicate setSignal for %s, using previous VALUE %s not new VALUE %d",name, signalLatches.get(name).get(),count);
-            return;
+        Latch latch = latch(name);
+        if(force){
+            latch.count.set(count);
+        }else{
+            int current;
+            do {
+                current = latch.count.get();
+                if(current != Latch.MISSING && current > 0){
+                    logger.warnf("duplicate setSignal for %s, using previous VALUE %s not new VALUE %d",name, current,count);
+                    return;
+                }
+            } while (!latch.count.compareAndSet(current,count));
         }
-        AtomicInteger latch = new AtomicInteger(count);
-        signalLatches.put(name,latch);
-        checkWatchers(name);
+        checkWatchers(name,latch);
     }
     public boolean hasSignal(String name){
-        return signalLatches.containsKey(name);
+        Latch latch = latches.get(name);
+        return latch != null && latch.isSet();
     }
     public int getSignalCount(String name){
-        if(!signalLatches.containsKey(name)){
+        Latch latch = latches.get(name);
+        if(latch == null || !latch.isSet()){
             logger.errorf("signal %s missing latch, defaulting to 0",name);
             return 0;
         }
-        return signalLatches.get(name).get();
+        return latch.count.get();
     }
     public int getWaitCount(String name){
-        if(!waitFors.containsKey(name)){
-            return 0;
-        }
-        return waitFors.get(name).size();
+        Latch latch = latches.get(name);
+        return latch == null ? 0 : latch.waiters.size();
     }
 
     public void clearWaiters(){
-        waitFors.clear();
+        latches.values().forEach(latch->latch.waiters.clear());
     }
-    private void checkWatchers(String name){
+    private void checkWatchers(String name,Latch latch){
         //TODO this should not signal missing once we correctly find singals inside for-each
-        if( !signalLatches.containsKey(name) || signalLatches.get(name).get()<=0  ) {//signal for a missing latch
-            if(signalLatches.containsKey(name) && signalLatches.get(name).get() < 0){
-                logger.errorf("Latch %s went below zero to %d",name, signalLatches.get(name).get());
+        int count = latch.count.get();
+        if( count == Latch.MISSING || count <= 0 ) {//signal for a missing latch
+            if(count != Latch.MISSING && count < 0){
+                logger.errorf("Latch %s went below zero to %d",name, count);
             }
-            if(!observers.isEmpty()){
-                for(Consumer<String> observer : observers){
-                    observer.accept(name);
-                }
-            }
-            List<Waiter> waiters = ensureWaitFor(name);
-            for(Waiter waiter: waiters){
-                waiter.next();
+            for(Consumer<String> observer : observers){
+                observer.accept(name);
             }
-            waiters.clear();
+            release(latch);
         }
     }
-    public void signal(String name){
 
-        if(!signalLatches.containsKey(name)){
-            logger.warnf("signal %s missing latch, ignoring",name);
-            //return;
-        }else if( signalLatches.get(name).get() > 0 ){
-            signalLatches.get(name).decrementAndGet();
-            if(signalLatches.get(name).get()==0){
-                latchTimes.put(name,System.currentTimeMillis());
-            }
+    /**
+     * Each waiter is removed by exactly one thread so it only continues once
+     */
+    private void release(Latch latch){
+        Waiter waiter;
+        while( (waiter = latch.waiters.poll()) != null ){
+            waiter.next();
         }
-
-        checkWatchers(name);
+    }
+    public void signal(String name){
+        Latch latch = latch(name);
+        int current;
+        do {
+            current = latch.count.get();
+            if(current == Latch.MISSING){
+                logger.warnf("signal %s missing latch, ignoring",name);
+                break;
+            }
+            if(current <= 0){
+                break;
+            }
+            if(latch.count.compareAndSet(current,current-1)){
+                if(current == 1){
+                    latch.reachedZero = System.currentTimeMillis();
+                }
+                break;
+            }
+        } while (true);
+        checkWatchers(name,latch);
     }
     public void waitFor(String name, Cmd command, Context context, String input){
         Waiter waiter = new Waiter(command,context,input);
         waitFor(name,waiter);
     }
     private void waitFor(String name,Waiter waiter){
-        if(!signalLatches.containsKey(name)){
+        Latch latch = latch(name);
+        int count = latch.count.get();
+        if(count == Latch.MISSING){
             logger.errorf("waitFor %s missing latch, using default latch WITH count=0",name);
             waiter.next();
+        }else if(count <= 0){
+            logger.debugf("waitFor %s count = %s, invoking next",name, count);
+            waiter.next();
         }else {
-            //TODO this is a race condition, need a check after adding to the list as well. Refactor out of signal to use same check code
-            if(signalLatches.get(name).get() <=0){
-                logger.debugf("waitFor %s count = %s, invoking next",name, signalLatches.get(name).get());
-                waiter.next();
-            }else {
-                logger.debugf("waitFor %s count = %s, queueing",name, signalLatches.get(name).get());
-                ensureWaitFor(name).add(waiter);
+            logger.debugf("waitFor %s count = %s, queueing",name, count);
+            latch.waiters.add(waiter);
+            //the last signal could happen before the waiter was queued
+            count = latch.count.get();
+            if(count != Latch.MISSING && count <= 0){
+                release(latch);
             }
         }
     }
     public void removeWaiter(String name,Cmd command){
-        waitFors.getOrDefault(name,new ArrayList<>()).removeIf((w)->w.hashCode() == command.hashCode());
+        Latch latch = latches.get(name);
+        if(latch != null){
+            latch.waiters.removeIf((w)->w.hashCode() == command.hashCode());
+        }
     }
     public void waitFor(String name,Cmd command,Context context,Supplier<String> input){
 
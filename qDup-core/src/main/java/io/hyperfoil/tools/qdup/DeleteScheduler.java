@@ -0,0 +1,191 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.cmd.Dispatcher;
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.yaup.HashedSets;
+import io.hyperfoil.tools.yaup.json.Json;
+import org.jboss.logging.Logger;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.function.Function;
+
+/**
+ * Runs the queued deletes for a Run with one shell per host.
+ * All the paths for a host are removed with one exec and the hosts are connected and cleaned up in parallel,
+ * at most maxConcurrent hosts at once.
+ * Paths are escaped so spaces, quotes and ; stay in the path while ~, globs and braces still expand, and missing paths do not fail the host.
+ */
+public class DeleteScheduler {
+
+    private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static final int DEFAULT_MAX_CONCURRENT = 16;
+
+    //characters that end the word or start another command, everything else (e.g. ~ * ? [ ] { } $) still expands like an unquoted path
+    private static final String SPECIAL = " \t'\"\\;&|<>()`#!";
+
+    public enum Status {DELETED, FAILED}
+
+    /**
+     * The outcome of the queued deletes for one host
+     */
+    public static class Result {
+        private final Host host;
+        private final List<String> paths;
+        private Status status = Status.FAILED;
+        private Integer exitCode = null;
+        private long start = -1;
+        private long connected = -1;
+        private long stop = -1;
+
+        Result(Host host, List<String> paths){
+            this.host = host;
+            this.paths = paths;
+        }
+        public Host getHost(){return host;}
+        public List<String> getPaths(){return Collections.unmodifiableList(paths);}
+        public Status getStatus(){return status;}
+        public Integer getExitCode(){return exitCode;}
+        public long getConnectDuration(){return start < 0 || connected < 0 ? 0 : connected - start;}
+        public long getDuration(){return start < 0 || stop < 0 ? 0 : stop - start;}
+
+        public Json toJson(){
+            Json rtrn = new Json();
+            rtrn.set("host",host.getSafeString());
+            Json paths = new Json();
+            this.paths.forEach(paths::add);
+            rtrn.set("paths",paths);
+            rtrn.set("status",status.name().toLowerCase());
+            if(exitCode != null){
+                rtrn.set("exitCode",exitCode);
+            }
+            rtrn.set("start",start);
+            rtrn.set("stop",stop);
+            rtrn.set("connect",getConnectDuration());
+            rtrn.set("duration",getDuration());
+            return rtrn;
+        }
+    }
+
+    private final Function<Host,AbstractShell> shellFactory;
+    private final int maxConcurrent;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param shellFactory creates a connected shell for the host
+     * @param maxConcurrent maximum hosts deleting at once
+     */
+    public DeleteScheduler(Function<Host,AbstractShell> shellFactory, int maxConcurrent){
+        this.shellFactory = shellFactory;
+        this.maxConcurrent = Math.max(1,maxConcurrent);
+        this.executor = Dispatcher.newDaemonExecutor("qDup-delete-",this.maxConcurrent);
+    }
+
+    public int getMaxConcurrent(){return maxConcurrent;}
+
+    public void shutdown(){
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return the rm command for the paths
+     */
+    static String getCommand(List<String> paths){
+        StringBuilder rtrn = new StringBuilder("rm -f --");
+        paths.forEach(path->rtrn.append(" ").append(quote(path)));
+        return rtrn.toString();
+    }
+
+    /**
+     * Escapes the characters that would split the path or run another command but leaves ~, globs, braces and variables to the shell
+     */
+    static String quote(String path){
+        StringBuilder rtrn = new StringBuilder(path.length()+8);
+        for(int i=0; i<path.length(); i++){
+            char c = path.charAt(i);
+            if(c == '\n'){
+                rtrn.append("'\n'");
+            }else{
+                if(SPECIAL.indexOf(c) >= 0){
+                    rtrn.append('\\');
+                }
+                rtrn.append(c);
+            }
+        }
+        return rtrn.toString();
+    }
+
+    /**
+     * Deletes everything in pending and waits for every host to finish
+     * @return the result for each host
+     */
+    public List<Result> delete(HashedSets<Host,String> pending){
+        List<Result> results = Collections.synchronizedList(new ArrayList<>());
+        if(pending == null || pending.isEmpty()){
+            return results;
+        }
+        List<Host> hosts = new ArrayList<>();
+        for(Host host : pending.keys()){
+            Set<String> paths = pending.get(host);
+            if(paths != null && !paths.isEmpty()){
+                hosts.add(host);
+            }
+        }
+        if(hosts.isEmpty()){
+            return results;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            hosts.forEach(host -> futures.add(executor.submit(() -> results.add(delete(host,new ArrayList<>(pending.get(host)))))));
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    logger.error("queued delete failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("interrupted while waiting for queued deletes");
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    Result delete(Host host, List<String> paths){
+        Result result = new Result(host,paths);
+        result.start = System.currentTimeMillis();
+        AbstractShell shell = shellFactory.apply(host);
+        result.connected = System.currentTimeMillis();
+        try {
+            if(shell == null || !shell.isOpen()){
+                logger.errorf("failed to connect to %s to delete %s",host.getSafeString(),paths);
+                return result;
+            }
+            AbstractShell.ExecResult execResult = shell.execAsync(getCommand(paths),null,null).get();
+            result.exitCode = execResult.exitCode();
+            if(execResult.exitCode() == null || execResult.exitCode() == 0){
+                result.status = Status.DELETED;
+            }else{
+                logger.errorf("failed to delete %s from %s\n%s",paths,host.getSafeString(),execResult.stderr());
+            }
+        } catch (ExecutionException e) {
+            logger.errorf("failed to delete %s from %s: %s",paths,host.getSafeString(),e.getCause().getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            result.stop = System.currentTimeMillis();
+            if(shell != null){
+                shell.close(true);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,241 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.cmd.Dispatcher;
+import io.hyperfoil.tools.qdup.cmd.impl.Download;
+import io.hyperfoil.tools.yaup.HashedSets;
+import io.hyperfoil.tools.yaup.json.Json;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.stream.Stream;
+
+/**
+ * Runs the queued downloads for a Run in parallel.
+ * Each host gets up to maxPerHost lanes that take downloads from the host's queue and at most maxConcurrent lanes run at once.
+ * Lanes are started round-robin across hosts so every host starts downloading before any host gets a second lane.
+ * A failed download is retried after a delay that grows with each attempt. Retries of the default ssh download add rsync --partial
+ * so a later retry resumes from the partial file instead of starting over.
+ * The scheduler keeps one pool of maxConcurrent threads for every call to download, call shutdown when the run ends.
+ */
+public class DownloadScheduler {
+
+    private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static final int DEFAULT_MAX_CONCURRENT = 8;
+    public static final int DEFAULT_MAX_PER_HOST = 2;
+    public static final int DEFAULT_RETRIES = 2;
+    public static final long DEFAULT_RETRY_DELAY = 1_000;
+
+    public enum Status {DOWNLOADED, SKIPPED, FAILED}
+
+    /**
+     * The outcome of one queued download
+     */
+    public static class Result {
+        private final Host host;
+        private final String path;
+        private final String destination;
+        private Status status = Status.FAILED;
+        private int attempts = 0;
+        private long bytes = -1;
+        private long start = -1;
+        private long stop = -1;
+
+        Result(Host host, String path, String destination){
+            this.host = host;
+            this.path = path;
+            this.destination = destination;
+        }
+        public Host getHost(){return host;}
+        public String getPath(){return path;}
+        public String getDestination(){return destination;}
+        public Status getStatus(){return status;}
+        public int getAttempts(){return attempts;}
+        public long getBytes(){return bytes;}
+        public long getDuration(){return start < 0 || stop < 0 ? 0 : stop - start;}
+
+        public Json toJson(){
+            Json rtrn = new Json();
+            rtrn.set("host",host.getSafeString());
+            rtrn.set("path",path);
+            rtrn.set("destination",destination);
+            rtrn.set("status",status.name().toLowerCase());
+            rtrn.set("attempts",attempts);
+            rtrn.set("bytes",bytes);
+            rtrn.set("start",start);
+            rtrn.set("stop",stop);
+            rtrn.set("duration",getDuration());
+            return rtrn;
+        }
+    }
+
+    private final Local local;
+    private final int maxConcurrent;
+    private final int maxPerHost;
+    private final int retries;
+    private final long retryDelay;
+    private final ThreadPoolExecutor executor;
+
+    public DownloadScheduler(Local local){
+        this(local,DEFAULT_MAX_CONCURRENT,DEFAULT_MAX_PER_HOST,DEFAULT_RETRIES,DEFAULT_RETRY_DELAY);
+    }
+
+    /**
+     * @param maxConcurrent maximum downloads running at once across all hosts
+     * @param maxPerHost maximum downloads running at once from one host
+     * @param retries how many times to retry a failed download
+     * @param retryDelay milliseconds to wait before the first retry, later retries wait a multiple of this delay
+     */
+    public DownloadScheduler(Local local, int maxConcurrent, int maxPerHost, int retries, long retryDelay){
+        this.local = local;
+        this.maxConcurrent = Math.max(1,maxConcurrent);
+        this.maxPerHost = Math.max(1,maxPerHost);
+        this.retries = Math.max(0,retries);
+        this.retryDelay = Math.max(0,retryDelay);
+        this.executor = Dispatcher.newDaemonExecutor("qDup-download-",this.maxConcurrent);
+    }
+
+    public int getMaxConcurrent(){return maxConcurrent;}
+    public int getMaxPerHost(){return maxPerHost;}
+    public int getRetries(){return retries;}
+
+    public void shutdown(){
+        executor.shutdownNow();
+    }
+
+    /**
+     * Downloads everything in pending and waits for the downloads to finish
+     * @return the result of each download
+     */
+    public List<Result> download(HashedSets<Host, Download> pending){
+        List<Result> results = Collections.synchronizedList(new ArrayList<>());
+        if(pending == null || pending.isEmpty()){
+            return results;
+        }
+        //lanes[n] holds the n-th lane of each host so starting them in order is round-robin across hosts
+        List<List<Runnable>> lanes = new ArrayList<>();
+        int laneCount = 0;
+        for(Host host : pending.keys()){
+            Set<Download> downloads = pending.get(host);
+            if(downloads == null || downloads.isEmpty()){
+                continue;
+            }
+            Queue<Download> queue = new ConcurrentLinkedQueue<>(downloads);
+            int hostLanes = Math.min(maxPerHost,downloads.size());
+            for(int i=0; i<hostLanes; i++){
+                if(lanes.size() <= i){
+                    lanes.add(new ArrayList<>());
+                }
+                lanes.get(i).add(()->{
+                    Download download;
+                    while( (download = queue.poll()) != null ){
+                        results.add(download(host,download));
+                    }
+                });
+                laneCount++;
+            }
+        }
+        if(laneCount == 0){
+            return results;
+        }
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            lanes.forEach(level -> level.forEach(lane -> futures.add(executor.submit(lane))));
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    logger.error("queued download failed", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            logger.warn("interrupted while waiting for queued downloads");
+            futures.forEach(future -> future.cancel(true));
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    Result download(Host host, Download download){
+        String remotePath = download.getPath();
+        String destination = download.getDestination();
+        Result result = new Result(host,remotePath,destination);
+        if(remotePath == null || destination == null){
+            logger.error("NULL in queue-download "+remotePath+" -> "+destination);
+            return result;
+        }
+        if(Download.needsShell(remotePath)){
+            logger.error("cannot download "+remotePath+" without a connection to resolve the full path");
+            return result;
+        }
+        result.start = System.currentTimeMillis();
+        if(!Download.prepare(local,host,remotePath,destination,download.getMaxSize())){
+            result.status = Status.SKIPPED;
+            result.stop = System.currentTimeMillis();
+            return result;
+        }
+        boolean worked = false;
+        while(!worked && result.attempts <= retries){
+            if(result.attempts > 0){
+                logger.warnf("retrying download of %s:%s (%d of %d)",host.getSafeString(),remotePath,result.attempts,retries);
+                try {
+                    Thread.sleep(retryDelay * result.attempts);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            result.attempts++;
+            worked = local.download(remotePath,destination,host,result.attempts > 1);
+        }
+        result.stop = System.currentTimeMillis();
+        if(worked){
+            result.status = Status.DOWNLOADED;
+            result.bytes = size(Paths.get(Download.downloadedPath(remotePath,destination)));
+        }else{
+            logger.errorf("failed to download %s:%s to %s after %d attempts",host.getSafeString(),remotePath,destination,result.attempts);
+        }
+        return result;
+    }
+
+    /**
+     * @return bytes in the file or directory, -1 if it does not exist
+     */
+    static long size(Path path){
+        if(!Files.exists(path)){
+            return -1;
+        }
+        if(!Files.isDirectory(path)){
+            try {
+                return Files.size(path);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            return paths.filter(Files::isRegularFile).mapToLong(p->{
+                try {
+                    return Files.size(p);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return -1;
+        }
+    }
+}
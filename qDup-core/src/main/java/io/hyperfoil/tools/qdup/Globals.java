@@ -13,10 +13,28 @@ import java.util.stream.Collectors;
 public class Globals {
 
     public static final String STREAM_LOGGING = "stream-logging";
+    public static final String JOURNAL = "journal";
+    public static final String LOG_QUEUE = "log-queue";
+    public static final String LOG_FLUSH_SIZE = "log-flush-size";
+    public static final String LOG_FLUSH_INTERVAL = "log-flush-interval";
+    public static final String LOG_OVERFLOW = "log-overflow";
+    public static final String SSH_MAX_CHANNELS = "ssh-max-channels";
+    public static final String SH_OUTPUT_WINDOW = "sh-output-window";
+    public static final String DOWNLOAD_MAX_CONCURRENT = "download-max-concurrent";
+    public static final String DOWNLOAD_MAX_PER_HOST = "download-max-per-host";
+    public static final String DOWNLOAD_RETRIES = "download-retries";
+    public static final String DELETE_MAX_CONCURRENT = "delete-max-concurrent";
+    public static final String CONNECT_MAX_CONCURRENT = "connect-max-concurrent";
+    public static final String CONNECT_FAILURE = "connect-failure";
+    public static final String PREWARM_THRESHOLD = "prewarm-threshold";
+    public static final String STAGE_BARRIER = "stage-barrier";
+    public static final String INLINE_CMD_BUDGET = "inline-cmd-budget";
 
     private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
 
     private final List<JsSnippet> jsSnippets;
+    //snippet functions for each javascript evaluation, replaced when a snippet is added
+    private volatile List<String> jsSnippetsContents;
     private Json settings;
 
     public Globals(List<JsSnippet> jsSnippets) {
@@ -53,6 +71,7 @@ public class Globals {
         if ( ! jsSnippets.add(snippet) ) {
             logger.warn("JS Snippet not added");
         }
+        jsSnippetsContents = null;
     }
 
     public List<String> getJsSnippetsList() {
@@ -60,7 +79,12 @@ public class Globals {
     }
 
     public List<String> getJsSnippetsContents() {
-        return this.jsSnippets.stream().map(jsSnippet -> jsSnippet.getFunction()).collect(Collectors.toList());
+        List<String> rtrn = jsSnippetsContents;
+        if(rtrn == null){
+            rtrn = this.jsSnippets.stream().map(jsSnippet -> jsSnippet.getFunction()).toList();
+            jsSnippetsContents = rtrn;
+        }
+        return rtrn;
     }
 
 
@@ -13,6 +13,7 @@ import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Semaphore;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Created by wreicher
@@ -95,6 +96,11 @@ public class Host {
         "${{host.username}}@${{host.hostname}}:${{source}}",
         "${{destination}}"
     );
+    //only used when retrying a download so rsync resumes from the partial file
+    public static final List<String> SSH_DOWNLOAD_PARTIAL = Stream.concat(
+        Stream.concat(SSH_DOWNLOAD.subList(0,2).stream(),Stream.of("--partial")),
+        SSH_DOWNLOAD.subList(2,SSH_DOWNLOAD.size()).stream()
+    ).collect(Collectors.toUnmodifiableList());
     public static final List<String> SSH_FILE_SIZE = Arrays.asList(
         SSH_FILE_PASS,
         "/usr/bin/rsync",
@@ -431,6 +437,13 @@ public class Host {
     public List<String> getDownload() {
         return download;
     }
+    /**
+     * @param resume true when retrying a download
+     * @return the download command, the default ssh download keeps partial files when resuming
+     */
+    public List<String> getDownload(boolean resume) {
+        return resume && SSH_DOWNLOAD.equals(download) ? SSH_DOWNLOAD_PARTIAL : download;
+    }
     public void setDownload(List<String> download) {
         this.download = download;
     }
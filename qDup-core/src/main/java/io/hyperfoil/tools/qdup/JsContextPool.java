@@ -0,0 +1,394 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.yaup.StringUtil;
+import io.hyperfoil.tools.yaup.json.Json;
+import io.hyperfoil.tools.yaup.json.ValueConverter;
+import io.hyperfoil.tools.yaup.json.graaljs.JsFetch;
+import io.hyperfoil.tools.yaup.json.graaljs.JsonProxyObject;
+import io.hyperfoil.tools.yaup.json.graaljs.MapProxyWrapper;
+import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
+import org.graalvm.polyglot.HostAccess;
+import org.graalvm.polyglot.PolyglotException;
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.io.IOAccess;
+import org.jboss.logging.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Evaluates ${{= }} expressions with re-used warmed polyglot Contexts. js commands use StringUtil.jsEval so each one gets a fresh Context.
+ * StringUtil.jsEval creates an Engine and Context then loads the helper scripts for each evaluation.
+ * This pool shares one Engine so parsed code is re-used, caches Sources by code text, and keeps idle Contexts
+ * that already evaluated the helper scripts and the js snippets.
+ * A Context is only used by the thread that acquired it and returns to the pool after the evaluation.
+ * Global properties added by an evaluation are removed and the global properties it replaced or removed are restored, including the
+ * properties of global objects and their prototypes (e.g. JSON.parse or Array.prototype.map), before the Context goes back to the pool.
+ * Top level let, const and class declarations cannot be removed so a Context that has them is closed instead of pooled.
+ * Only expressions that return a plain value are converted here, errors and promises are evaluated again with StringUtil.jsEval
+ * so they get the same result and exception as a fresh Context.
+ */
+public class JsContextPool {
+    private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    static final int MAX_SOURCES = 4096;
+    static final int MAX_POOLS = 16;
+    static final int MAX_IDLE = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static final String GLOBAL_PROXY = """
+        Object.setPrototypeOf(globalThis, new Proxy(Object.prototype, {
+            has(target, key) {
+                return  __yaupGlobal.containsKey(key) || key in target;
+            },
+            get(target, key, receiver) {
+                if (__yaupGlobal.containsKey(key)){ return __yaupGlobal.get(key); }
+                else { return Reflect.get( target, key, receiver); }
+            }
+        }))""";
+    private static final String INSTANCE_OF = """
+        Object.defineProperty(Object,Symbol.hasInstance, {
+          value: function myinstanceof(obj) {
+            return isInstanceLike(obj);
+          }
+        });""";
+    //returns a function that restores the own properties of globalThis, the global objects and their prototypes to when it was created
+    private static final String GLOBAL_CLEANUP = """
+        (()=>{
+            const snapshot = (target)=>{
+                const descriptors = new Map();
+                for (const key of Reflect.ownKeys(target)) {
+                    descriptors.set(key, Reflect.getOwnPropertyDescriptor(target, key));
+                }
+                return { target, descriptors };
+            };
+            const snapshots = [snapshot(globalThis)];
+            const seen = new Set([globalThis]);
+            const add = (target)=>{
+                if ((typeof target === 'object' || typeof target === 'function') && target !== null && !seen.has(target)) {
+                    seen.add(target);
+                    try { snapshots.push(snapshot(target)); } catch (e) {}
+                }
+            };
+            for (const descriptor of snapshots[0].descriptors.values()) {
+                if ('value' in descriptor) {
+                    add(descriptor.value);
+                    try { add(descriptor.value.prototype); } catch (e) {}
+                }
+            }
+            const restore = ({ target, descriptors })=>{
+                try {
+                    for (const key of Reflect.ownKeys(target)) {
+                        if (!descriptors.has(key)) {
+                            try { delete target[key]; } catch (e) {}
+                        }
+                    }
+                    for (const [key, descriptor] of descriptors) {
+                        const current = Reflect.getOwnPropertyDescriptor(target, key);
+                        if (current === undefined || !Object.is(current.value, descriptor.value) || current.get !== descriptor.get || current.set !== descriptor.set) {
+                            try { Reflect.defineProperty(target, key, descriptor); } catch (e) {}
+                        }
+                    }
+                } catch (e) {}
+            };
+            return ()=>{ snapshots.forEach(restore); };
+        })()""";
+    private static final Pattern LEXICAL_DECLARATION = Pattern.compile("\\b(let|const|class)\\b");
+
+    private static volatile Engine engine;
+    private static final Map<String,Source> SOURCES = new ConcurrentHashMap<>();
+    private static final Map<List<String>,JsContextPool> POOLS = new ConcurrentHashMap<>();
+
+    private static final LongAdder evaluations = new LongAdder();
+    private static final LongAdder created = new LongAdder();
+    private static final LongAdder fallbacks = new LongAdder();
+
+    public static long getEvaluations(){return evaluations.sum();}
+    public static long getCreated(){return created.sum();}
+    public static long getFallbacks(){return fallbacks.sum();}
+    public static int getSourceCacheSize(){return SOURCES.size();}
+
+    public static Json getStatsJson(){
+        Json rtrn = new Json();
+        rtrn.set("evaluations",getEvaluations());
+        rtrn.set("contexts",getCreated());
+        rtrn.set("fallbacks",getFallbacks());
+        rtrn.set("sources",getSourceCacheSize());
+        return rtrn;
+    }
+
+    /**
+     * Same as StringUtil.jsEval(js, globals, evals) using a pooled Context that already evaluated the evals.
+     * @param globals values to expose as javascript globals for this evaluation
+     * @param evals javascript to evaluate once when creating a Context (e.g. the js snippets from Globals)
+     */
+    public static Object jsEval(String js, Map globals, Collection<String> evals){
+        return getPool(evals).eval(js,globals);
+    }
+
+    public static JsContextPool getPool(Collection<String> evals){
+        List<String> key = evals == null || evals.isEmpty() ? Collections.emptyList() : List.copyOf(evals);
+        JsContextPool rtrn = POOLS.get(key);
+        if(rtrn == null){
+            if(POOLS.size() >= MAX_POOLS){//snippets changed too many times, drop the idle contexts of the old snippets
+                clear();
+            }
+            rtrn = POOLS.computeIfAbsent(key,JsContextPool::new);
+        }
+        return rtrn;
+    }
+
+    /**
+     * Closes the idle Contexts and clears the Source cache. Contexts that are in use are closed when they are released.
+     */
+    public static void clear(){
+        List<JsContextPool> pools = new ArrayList<>(POOLS.values());
+        POOLS.clear();
+        pools.forEach(JsContextPool::close);
+        SOURCES.clear();
+    }
+
+    private static Engine getEngine(){
+        if(engine == null){
+            synchronized (JsContextPool.class){
+                if(engine == null){
+                    engine = Engine.newBuilder().option("engine.WarnInterpreterOnly", "false").build();
+                }
+            }
+        }
+        return engine;
+    }
+
+    static Source getSource(String js){
+        Source rtrn = SOURCES.get(js);
+        if(rtrn == null){
+            rtrn = Source.create("js",js);
+            if(SOURCES.size() >= MAX_SOURCES){//populated expressions can change with state
+                SOURCES.clear();
+            }
+            SOURCES.put(js,rtrn);
+        }
+        return rtrn;
+    }
+
+    /**
+     * The helper scripts StringUtil.jsEval loads from yaup, read once
+     */
+    private static class Helpers {
+        static final Source JSONPATH = load("jsonpath.js");
+        static final Source LUXON = load("luxon.min.js");
+
+        private static Source load(String name){
+            InputStream stream = StringUtil.class.getClassLoader().getResourceAsStream(name);
+            if(stream == null){
+                throw new IllegalStateException("failed to find "+name);
+            }
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(stream))) {
+                return Source.newBuilder("js",reader.lines().collect(Collectors.joining("\n")),name).build();
+            } catch (IOException e) {
+                throw new IllegalStateException("failed to load "+name,e);
+            }
+        }
+    }
+
+    private final List<String> evals;
+    private final ConcurrentLinkedDeque<PooledContext> idle = new ConcurrentLinkedDeque<>();
+    private final AtomicInteger idleCount = new AtomicInteger(0);
+    private volatile boolean closed = false;
+
+    private JsContextPool(List<String> evals){
+        this.evals = evals;
+    }
+
+    public int getIdleCount(){return idleCount.get();}
+
+    public Object eval(String js, Map globals){
+        evaluations.increment();
+        PooledContext context = acquire();
+        try {
+            return context.eval(js,globals);
+        } catch (FallbackException e){
+            fallbacks.increment();
+        } finally {
+            release(context,js);
+        }
+        //StringUtil.jsEval retries the code as an async function and creates the JsException so errors match a fresh Context
+        return StringUtil.jsEval(js,globals == null ? Collections.emptyMap() : globals,evals);
+    }
+
+    private PooledContext acquire(){
+        PooledContext rtrn = idle.pollFirst();
+        if(rtrn != null){
+            idleCount.decrementAndGet();
+        }else{
+            rtrn = new PooledContext(evals);
+            created.increment();
+        }
+        return rtrn;
+    }
+
+    private void release(PooledContext context, String js){
+        boolean pooled = false;
+        if(!closed && context.cleanup(js)){
+            if(idleCount.incrementAndGet() <= MAX_IDLE){
+                idle.offerFirst(context);
+                pooled = true;
+            }else{
+                idleCount.decrementAndGet();
+            }
+        }
+        if(!pooled){
+            context.close();
+        }else if(closed){//cleared while the context was in use
+            close();
+        }
+    }
+
+    private void close(){
+        closed = true;
+        PooledContext context;
+        while( (context = idle.pollFirst()) != null){
+            idleCount.decrementAndGet();
+            context.close();
+        }
+    }
+
+    /**
+     * Signals the evaluation should use StringUtil.jsEval because the result is not a plain value
+     */
+    private static class FallbackException extends RuntimeException {
+        FallbackException(String message, Throwable cause){
+            super(message,cause,false,false);
+        }
+    }
+
+    private static class PooledContext {
+        private final Context context;
+        private final Value bindings;
+        private final Value cleanup;
+        //the bindings after setup, top level let, const and class declarations from an evaluation add to the bindings
+        private final int bindingCount;
+        private boolean open = true;
+
+        PooledContext(List<String> evals){
+            context = Context.newBuilder("js")
+                    .engine(getEngine())
+                    .allowAllAccess(true)
+                    .allowHostAccess(HostAccess.ALL)
+                    .allowIO(IOAccess.newBuilder().allowHostSocketAccess(true).allowHostFileAccess(true).build())
+                    .allowExperimentalOptions(true)
+                    .option("js.foreign-object-prototype", "true")
+                    .option("js.global-property", "true")
+                    .build();
+            context.enter();
+            try {
+                bindings = context.getBindings("js");
+                bindings.putMember("__yaupGlobal", new MapProxyWrapper(Collections.emptyMap()));
+                context.eval(getSource(GLOBAL_PROXY));
+                for (String s : evals) {
+                    try {
+                        context.eval("js", s);
+                    } catch (PolyglotException pge) {
+                        throw new RuntimeException("failed to evaluate " + s + " preparing js context", pge);
+                    }
+                }
+                bindings.putMember("_http", new JsFetch(null, null));
+                context.eval(getSource("fetch = async (url,options)=>new Promise(new (Java.type('io.hyperfoil.tools.yaup.json.graaljs.JsFetch'))(url,options));"));
+                context.eval(getSource("global.btoa = (str)=>Java.type('io.hyperfoil.tools.yaup.json.graaljs.JsFetch').btoa(str)"));
+                context.eval(getSource("global.atob = (str)=>Java.type('io.hyperfoil.tools.yaup.json.graaljs.JsFetch').atob(str)"));
+                context.eval(Helpers.JSONPATH);
+                context.eval(Helpers.LUXON);
+                bindings.putMember("isInstanceLike", new JsonProxyObject.InstanceCheck());
+                context.eval(getSource(INSTANCE_OF));
+                cleanup = context.eval(getSource(GLOBAL_CLEANUP));
+                bindingCount = bindings.getMemberKeys().size();
+            } catch (RuntimeException e){
+                context.leave();
+                context.close();
+                throw e;
+            }
+            context.leave();
+        }
+
+        /**
+         * @param js the code from the last evaluation, only code that has let, const or class can leave lexical declarations
+         * @return true if the context can be re-used
+         */
+        boolean cleanup(String js){
+            if(!open){
+                return false;
+            }
+            try {
+                bindings.putMember("__yaupGlobal", new MapProxyWrapper(Collections.emptyMap()));
+                cleanup.execute();
+                if(mayDeclareLexical(js) && bindings.getMemberKeys().size() > bindingCount){
+                    //the declarations would fail to redeclare in the next evaluation
+                    return false;
+                }
+                return true;
+            } catch (PolyglotException e){
+                logger.debugf("failed to reset js context, closing it\n%s",e.getMessage());
+                return false;
+            }
+        }
+
+        private static boolean mayDeclareLexical(String js){
+            return LEXICAL_DECLARATION.matcher(js).find();
+        }
+
+        void close(){
+            if(open){
+                open = false;
+                try {
+                    context.close(true);
+                } catch (PolyglotException | IllegalStateException e){
+                    logger.debugf("failed to close js context\n%s",e.getMessage());
+                }
+            }
+        }
+
+        /**
+         * Evaluates the code and calls the result if it is a function, like StringUtil.jsEval without arguments.
+         * @throws FallbackException if the code throws, returns a promise or converts to an exception
+         */
+        Object eval(String js, Map globals){
+            context.enter();
+            try {
+                bindings.putMember("__yaupGlobal", new MapProxyWrapper(globals == null ? Collections.emptyMap() : globals));
+                Value value = context.eval(getSource(js));
+                if (value.canExecute()) {
+                    value = value.execute();
+                }
+                if (value.toString().startsWith("Promise{[")) {
+                    throw new FallbackException("promise",null);
+                }
+                Object converted = ValueConverter.convert(value);
+                if (converted instanceof JsonProxyObject) {
+                    return ((JsonProxyObject) converted).getJson();
+                } else if (converted instanceof Exception) {
+                    throw new FallbackException("exception value",(Exception)converted);
+                }
+                return converted;
+            } catch (PolyglotException pe) {
+                throw new FallbackException(pe.getMessage(),pe);
+            } finally {
+                context.leave();
+            }
+        }
+    }
+}
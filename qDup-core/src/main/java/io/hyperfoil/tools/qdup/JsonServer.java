@@ -137,6 +137,11 @@ public class JsonServer implements RunObserver, ContextObserver {
         }
     }
 
+    @Override
+    public boolean observesUpdates(){
+        return server!=null;
+    }
+
     @Override
     public void onUpdate(Context context, Cmd command, String output) {
         if(server!=null) {
@@ -3,6 +3,7 @@ package io.hyperfoil.tools.qdup;
 import io.hyperfoil.tools.qdup.cmd.Cmd;
 import io.hyperfoil.tools.qdup.config.RunConfigBuilder;
 import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.qdup.shell.ProcessExec;
 import io.hyperfoil.tools.yaup.StringUtil;
 import io.hyperfoil.tools.yaup.json.Json;
 import org.apache.http.client.utils.URIBuilder;
@@ -19,6 +20,7 @@ import java.net.http.HttpResponse;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
@@ -244,6 +246,13 @@ public class Local {
    }
 
    public boolean download(String path, String destination, Host host) {
+      return download(path,destination,host,false);
+   }
+
+   /**
+    * @param resume true when retrying a failed download so the default ssh download keeps the partial file
+    */
+   public boolean download(String path, String destination, Host host, boolean resume) {
       if (path == null || path.isEmpty() || destination == null || destination.isEmpty() || !host.hasDownload()) {
          return false;
       } else if (!host.isLocal() && host.hasContainerId()){
@@ -269,7 +278,7 @@ public class Local {
          if(host.hasContainerId()){
             json.set("container",host.getContainerId());
          }
-         List<String> populated = Cmd.populateList(json,host.getDownload()).stream().filter(v->v!=null && !v.isBlank()).collect(Collectors.toUnmodifiableList());
+         List<String> populated = Cmd.populateList(json,host.getDownload(resume)).stream().filter(v->v!=null && !v.isBlank()).collect(Collectors.toUnmodifiableList());
          String mergedPopulated = populated.stream().collect(Collectors.joining(" "));
          if(mergedPopulated.contains(StringUtil.PATTERN_PREFIX)){
             logger.error("unable to fully populate download: "+mergedPopulated);
@@ -284,7 +293,7 @@ public class Local {
          String suffix = remoteFiles.size() == 1 ? "/"+remoteFiles.get(0) + (path.endsWith("/") ? "/" : "") : "/";
          //at this point the files should exist on remoteDestination
          //adding the / to end of remoteDestination to transfer content not folder
-         boolean rtrn = download(remoteDestination+suffix, destination, remoteHost);
+         boolean rtrn = download(remoteDestination+suffix, destination, remoteHost, resume);
          //at this point the files are local, we can delete the remote dir
          String remoteDeleteResp = downloadShell.shSync("rm -rf "+remoteDestination);
          downloadShell.close(false);
@@ -302,7 +311,7 @@ public class Local {
             json.set("container",host.getContainerId());
          }
          //this is painfully slow in vscode debugger :(
-         List<String> populated = Cmd.populateList(json,host.getDownload()).stream().filter(v->v!=null && !v.isBlank()).collect(Collectors.toUnmodifiableList());
+         List<String> populated = Cmd.populateList(json,host.getDownload(resume)).stream().filter(v->v!=null && !v.isBlank()).collect(Collectors.toUnmodifiableList());
          if(Cmd.hasPatternReference(populated,StringUtil.PATTERN_PREFIX)){
             return false;
          }
@@ -605,22 +614,12 @@ public class Local {
       }
       logger.debug("Running local command : " + cmd);
       try {
-         Process p;
-         if(processes.size()==1){
-            p = processes.get(0).start();
-         }else{
-            List<Process> started = ProcessBuilder.startPipeline(processes);
-            p = started.get(started.size()-1);
-         }
-         final InputStream inputStream = p.getInputStream();
-         //final OutputStream outputStream = p.getOutputStream();
-         final InputStream errorStream = p.getErrorStream();
-
-         int result = p.waitFor();
-         logger.debug(action.concat("result = {}"), result);
+         //reads stdout and stderr while the process runs so a full stderr pipe cannot block the process
+         AbstractShell.ExecResult result = ProcessExec.start(processes,null,null,null).get();
+         logger.debug(action.concat("result = {}"), result.exitCode());
          String line = null;
          BufferedReader reader = null;
-         reader = new BufferedReader(new InputStreamReader(errorStream));
+         reader = new BufferedReader(new StringReader(result.stderr()));
          while ((line = reader.readLine()) != null) {
             if(rtrn){
                logger.error(" E: {}", cmd.stream().collect(Collectors.joining(" ")));
@@ -628,7 +627,7 @@ public class Local {
             }
             logger.error("  E: {}", line);
          }
-         reader = new BufferedReader(new InputStreamReader(inputStream));
+         reader = new BufferedReader(new StringReader(result.stdout()));
          while ((line = reader.readLine()) != null) {
             inputStreamConsumer.accept(line);
          }
@@ -636,6 +635,9 @@ public class Local {
       } catch (IOException e) {
          rtrn = false;
          e.printStackTrace();
+      } catch (ExecutionException e) {
+         rtrn = false;
+         logger.error("{} failed: {}", action, e.getCause().getMessage());
       } catch (InterruptedException e) {
 //         logger.warn("rysnc was interrupted: " + path);
          rtrn = false;
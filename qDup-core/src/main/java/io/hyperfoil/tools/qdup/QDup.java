@@ -37,6 +37,8 @@ public class QDup {
     private final String trace;
     private final String traceName;
     private final boolean streamLogging;
+    private final boolean journal;
+    private final Map<String,String> logSettings;
 
     private String outputPath;
     private String version;
@@ -54,6 +56,7 @@ public class QDup {
     private List<Stage> skipStages;
 
     private boolean exitCode = false;
+    private boolean virtualThreads = false;
 
     private RunConfig config;
 
@@ -81,6 +84,10 @@ public class QDup {
         return commandThreads;
     }
 
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
     public String getKnownHosts() {
         return knownHosts;
     }
@@ -194,6 +201,13 @@ public class QDup {
                         .build()
         );
 
+        options.addOption(
+                Option.builder()
+                        .longOpt("virtual-threads")
+                        .desc("run each script on a virtual thread instead of the commandPool")
+                        .build()
+        );
+
         options.addOption(
                 Option.builder("t")
                         .longOpt("timeout")
@@ -332,6 +346,47 @@ public class QDup {
                         .build()
         );
 
+        options.addOption(
+                Option.builder()
+                        .longOpt(Globals.JOURNAL)
+                        .desc("record command, output, signal and state events in a binary run.journal")
+                        .build()
+        );
+
+        //async run.log writer
+        options.addOption(
+                Option.builder()
+                        .longOpt(Globals.LOG_QUEUE)
+                        .hasArg()
+                        .argName("size")
+                        .desc("messages queued for the run.log writer, 0 writes and flushes each message when it is logged (default "+AsyncLogHandler.DEFAULT_QUEUE+")")
+                        .build()
+        );
+        options.addOption(
+                Option.builder()
+                        .longOpt(Globals.LOG_FLUSH_SIZE)
+                        .hasArg()
+                        .argName("size")
+                        .desc("flush run.log after writing this many messages (default "+AsyncLogHandler.DEFAULT_FLUSH_SIZE+")")
+                        .build()
+        );
+        options.addOption(
+                Option.builder()
+                        .longOpt(Globals.LOG_FLUSH_INTERVAL)
+                        .hasArg()
+                        .argName("ms")
+                        .desc("flush run.log at least this often while there are messages (default "+AsyncLogHandler.DEFAULT_FLUSH_INTERVAL+")")
+                        .build()
+        );
+        options.addOption(
+                Option.builder()
+                        .longOpt(Globals.LOG_OVERFLOW)
+                        .hasArg()
+                        .argName("block|discard")
+                        .desc("wait for space or discard messages when the run.log queue is full (default block)")
+                        .build()
+        );
+
         CommandLineParser parser = new DefaultParser();
         HelpFormatter formatter = new HelpFormatter();
         CommandLine commandLine = null;
@@ -380,6 +435,7 @@ public class QDup {
             passphrase = getOpt(commandLine, "passphrase", RunConfigBuilder.DEFAULT_PASSPHRASE);
             timeout = Integer.parseInt(getOpt(commandLine, "timeout", "" + RunConfigBuilder.DEFAULT_SSH_TIMEOUT));
             commandThreads = Integer.parseInt(getOpt(commandLine, "commandPool", "24"));
+            virtualThreads = commandLine!=null && commandLine.hasOption("virtual-threads");
             scheduledThreads = Integer.parseInt(getOpt(commandLine, "scheduledPool", "24"));
             yamlPaths = commandLine!=null ? commandLine.getArgList() : Collections.emptyList();
             stateProps = commandLine!=null ? commandLine.getOptionProperties("S") : new Properties();
@@ -401,6 +457,13 @@ public class QDup {
 
             skipStages = commandLine.hasOption("skip-stages") ? Arrays.asList(commandLine.getOptionValues("skip-stages")).stream().map(str->StringUtil.getEnum(str,Stage.class,Stage.Invalid)).collect(Collectors.toList()) : Collections.EMPTY_LIST;
             streamLogging = commandLine.hasOption(Globals.STREAM_LOGGING);
+            journal = commandLine.hasOption(Globals.JOURNAL);
+            logSettings = new LinkedHashMap<>();
+            for(String setting : Arrays.asList(Globals.LOG_QUEUE,Globals.LOG_FLUSH_SIZE,Globals.LOG_FLUSH_INTERVAL,Globals.LOG_OVERFLOW)){
+                if(commandLine.hasOption(setting)){
+                    logSettings.put(setting,commandLine.getOptionValue(setting));
+                }
+            }
 
             if (commandLine.hasOption("basePath")) {
                 outputPath = commandLine.getOptionValue("basePath") + "/" + uid;
@@ -584,6 +647,8 @@ public class QDup {
         }
 
         runConfigBuilder.setStreamLogging(streamLogging);
+        runConfigBuilder.setJournal(journal);
+        logSettings.forEach(runConfigBuilder.getGlobals()::addSetting);
 
         config = runConfigBuilder.buildConfig(yamlParser);
         if (isTest()) {
@@ -634,7 +699,9 @@ public class QDup {
                     rtrn.setUncaughtExceptionHandler(uncaughtExceptionHandler);
                     return rtrn;
                 };
-                ThreadPoolExecutor executor = new ThreadPoolExecutor(getCommandThreads() / 2, getCommandThreads(), 30, TimeUnit.MINUTES, workQueue, factory);
+                ThreadPoolExecutor executor = isVirtualThreads() ?
+                        Dispatcher.newVirtualThreadExecutor() :
+                        new ThreadPoolExecutor(getCommandThreads() / 2, getCommandThreads(), 30, TimeUnit.MINUTES, workQueue, factory);
 
                 ScheduledThreadPoolExecutor scheduled = new ScheduledThreadPoolExecutor(getScheduledThreads(), runnable -> new Thread(runnable, "qdup-scheduled-" + scheduledCounter.getAndIncrement()));
                 ScheduledThreadPoolExecutor callback = new ScheduledThreadPoolExecutor(getScheduledThreads(), runnable -> new Thread(runnable, "qdup-callback-" + callbackCounter.getAndIncrement()));
@@ -657,6 +724,9 @@ public class QDup {
                 if(config.isStreamLogging()){
                     logger.info("stream logging enabled");
                 }
+                if(dispatcher.isVirtualThreads()){
+                    logger.info("virtual thread execution enabled");
+                }
 
                 Signal.handle(new Signal("INT"),(signal)->{
                     if (!run.isAborted() && dispatcher.isRunning() && !dispatcher.isStopping()) {
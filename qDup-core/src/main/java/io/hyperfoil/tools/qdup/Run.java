@@ -2,13 +2,19 @@ package io.hyperfoil.tools.qdup;
 
 import io.hyperfoil.tools.qdup.cmd.*;
 import io.hyperfoil.tools.qdup.cmd.impl.Download;
+import io.hyperfoil.tools.qdup.cmd.impl.Regex;
 import io.hyperfoil.tools.qdup.cmd.impl.RoleEnv;
 import io.hyperfoil.tools.qdup.cmd.impl.ScriptCmd;
 import io.hyperfoil.tools.qdup.config.Role;
 import io.hyperfoil.tools.qdup.config.RunConfig;
 import io.hyperfoil.tools.qdup.config.RunConfigBuilder;
+import io.hyperfoil.tools.qdup.journal.EventType;
+import io.hyperfoil.tools.qdup.journal.JournalObserver;
+import io.hyperfoil.tools.qdup.journal.JournalWriter;
 import io.hyperfoil.tools.qdup.shell.AbstractShell;
 import io.hyperfoil.tools.qdup.shell.ContainerShell;
+import io.hyperfoil.tools.qdup.shell.SshSessionPool;
+import io.hyperfoil.tools.qdup.stream.OutputCapture;
 import io.hyperfoil.tools.yaup.AsciiArt;
 import io.hyperfoil.tools.yaup.HashedSets;
 import io.hyperfoil.tools.yaup.StringUtil;
@@ -17,6 +23,7 @@ import io.hyperfoil.tools.yaup.time.SystemTimer;
 import org.jboss.logging.Logger;
 import org.jboss.logmanager.formatters.ColorPatternFormatter;
 import org.jboss.logmanager.formatters.PatternFormatter;
+import org.jboss.logmanager.handlers.AsyncHandler;
 import org.jboss.logmanager.handlers.ConsoleHandler;
 import org.jboss.logmanager.handlers.FileHandler;
 
@@ -26,12 +33,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.lang.invoke.MethodHandles;
 import java.nio.file.FileSystems;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
@@ -48,6 +59,12 @@ public class Run implements Runnable, DispatchObserver {
 
     public static final String RUN_LOGGER_NAME = "qdup.run";
 
+    /**
+     * STAGE waits for every role to finish setup before any run scripts start,
+     * ROLE starts the run scripts for each role when the role and its dependencies finish setup
+     */
+    public enum StageBarrier {STAGE, ROLE}
+
 
     private static final Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
 
@@ -92,6 +109,33 @@ public class Run implements Runnable, DispatchObserver {
     private Dispatcher dispatcher;
     private Profiles profiles;
     private Local local;
+    private final SshSessionPool sessionPool;
+    private final int outputWindow;
+    private final DownloadScheduler downloadScheduler;
+    private volatile JournalWriter journal;
+    private JournalObserver journalObserver;
+    private final List<DownloadScheduler.Result> downloadResults = Collections.synchronizedList(new ArrayList<>());
+    private final DeleteScheduler deleteScheduler;
+    private final StageLauncher stageLauncher;
+    //connects for the current stage
+    private volatile StageLauncher.Launch launch;
+    private final ShellWarmer shellWarmer;
+    private final int prewarmThreshold;
+    //the stage that the warm shells are for
+    private final AtomicReference<Stage> prewarmed = new AtomicReference<>(null);
+    private final StageBarrier stageBarrier;
+    private final int inlineCmdBudget;
+    //connects for each role in the setup stage when the stage barrier is ROLE
+    private final List<StageLauncher.Launch> roleLaunches = new CopyOnWriteArrayList<>();
+    //roles that finished setup when the stage barrier is ROLE
+    private final Set<String> roleSetupDone = ConcurrentHashMap.newKeySet();
+    //roles that queued their run scripts when the stage barrier is ROLE
+    private final Set<String> roleRunQueued = ConcurrentHashMap.newKeySet();
+    //true once a role queued run scripts, the run stage timestamps are recorded during the setup stage
+    private volatile boolean roleRunLaunched = false;
+    //cache counters when the run started, the caches are shared by every Run in the jvm
+    private volatile Json cacheStart;
+    private final List<DeleteScheduler.Result> deleteResults = Collections.synchronizedList(new ArrayList<>());
 
     private HashedSets<Host, Download> pendingDownloads;
     private HashedSets<Host,String> pendingDeletes;
@@ -99,6 +143,7 @@ public class Run implements Runnable, DispatchObserver {
     private CountDownLatch runLatch = new CountDownLatch(1);
 
     FileHandler fileHandler;
+    AsyncLogHandler asyncLogHandler;
     ConsoleHandler consoleHandler;
     Logger runLogger;// = XLoggerFactory.getXLogger(RUN_LOGGER_NAME);
     Logger stateLogger;// = XLoggerFactory.getXLogger(STATE_LOGGER_NAME);
@@ -128,8 +173,58 @@ public class Run implements Runnable, DispatchObserver {
         this.coordinator = new Coordinator(config.getGlobals());
         this.local = new Local(config);
         this.skipStages = config.getSkipStages();
+        this.sessionPool = new SshSessionPool(getIntSetting(Globals.SSH_MAX_CHANNELS,SshSessionPool.DEFAULT_MAX_CHANNELS));
+        this.outputWindow = getIntSetting(Globals.SH_OUTPUT_WINDOW,OutputCapture.DEFAULT_WINDOW);
+        this.downloadScheduler = new DownloadScheduler(
+                local,
+                getIntSetting(Globals.DOWNLOAD_MAX_CONCURRENT,DownloadScheduler.DEFAULT_MAX_CONCURRENT),
+                getIntSetting(Globals.DOWNLOAD_MAX_PER_HOST,DownloadScheduler.DEFAULT_MAX_PER_HOST),
+                getIntSetting(Globals.DOWNLOAD_RETRIES,DownloadScheduler.DEFAULT_RETRIES),
+                DownloadScheduler.DEFAULT_RETRY_DELAY
+        );
+        this.stageLauncher = new StageLauncher(
+                getIntSetting(Globals.CONNECT_MAX_CONCURRENT,StageLauncher.DEFAULT_MAX_CONCURRENT),
+                getConnectFailureSetting()
+        );
+        this.prewarmThreshold = getIntSetting(Globals.PREWARM_THRESHOLD,0);
+        this.stageBarrier = getStageBarrierSetting();
+        this.dispatcher.setRoleTracking(isRoleBarrier());
+        this.inlineCmdBudget = getIntSetting(Globals.INLINE_CMD_BUDGET,ScriptContext.DEFAULT_INLINE_CMD_BUDGET);
+        this.shellWarmer = new ShellWarmer(
+                host -> AbstractShell.getShell(
+                    host.getShortHostName()+"-prewarm",
+                    host,
+                    "",
+                    getDispatcher().getCallback(),
+                    getConfig().getState().getSecretFilter(),
+                    null,
+                    sessionPool),
+                stageLauncher.getExecutor()
+        );
+        if(prewarmThreshold > 0){
+            dispatcher.addScriptObserver(new ScriptObserver() {
+                @Override
+                public void onStop(ScriptContext context) {
+                    checkPrewarm();
+                }
+            });
+        }
+        this.deleteScheduler = new DeleteScheduler(
+                host -> AbstractShell.getShell(
+                    host.getShortHostName()+"-pendingDelete",
+                    host,
+                    "",
+                    getDispatcher().getCallback(),
+                    getConfig().getState().getSecretFilter(),
+                    null,
+                    sessionPool),
+                getIntSetting(Globals.DELETE_MAX_CONCURRENT,DeleteScheduler.DEFAULT_MAX_CONCURRENT)
+        );
 
         coordinator.addObserver((signal_name)->{
+            if(hasJournal()){
+                journal.record(EventType.SIGNAL,null,signal_name);
+            }
             runLogger.infof(
                     "%sreached %s%s",
                     config.isColorTerminal()?AsciiArt.ANSI_CYAN:"",
@@ -142,7 +237,48 @@ public class Run implements Runnable, DispatchObserver {
     }
 
 
+    private int getIntSetting(String key, int defaultValue){
+        Object value = config.getGlobals().getSetting(key,defaultValue);
+        return value instanceof Number ? ((Number)value).intValue() : Integer.parseInt(value.toString());
+    }
+
+    private AsyncHandler.OverflowAction getOverflowSetting(){
+        String value = config.getGlobals().getSetting(Globals.LOG_OVERFLOW,AsyncHandler.OverflowAction.BLOCK.name()).toString();
+        AsyncHandler.OverflowAction rtrn = StringUtil.getEnum(value.toUpperCase(),AsyncHandler.OverflowAction.class,null);
+        if(rtrn == null){
+            logger.warnf("unknown %s %s, expected block or discard",Globals.LOG_OVERFLOW,value);
+            rtrn = AsyncHandler.OverflowAction.BLOCK;
+        }
+        return rtrn;
+    }
+
+    private StageBarrier getStageBarrierSetting(){
+        String value = config.getGlobals().getSetting(Globals.STAGE_BARRIER,StageBarrier.STAGE.name()).toString();
+        StageBarrier rtrn = StringUtil.getEnum(value.toUpperCase(),StageBarrier.class,null);
+        if(rtrn == null){
+            logger.warnf("unknown %s %s, expected stage or role",Globals.STAGE_BARRIER,value);
+            rtrn = StageBarrier.STAGE;
+        }
+        return rtrn;
+    }
+
+    private StageLauncher.FailurePolicy getConnectFailureSetting(){
+        String value = config.getGlobals().getSetting(Globals.CONNECT_FAILURE,StageLauncher.FailurePolicy.ABORT.name()).toString();
+        StageLauncher.FailurePolicy rtrn = StringUtil.getEnum(value.toUpperCase(),StageLauncher.FailurePolicy.class,null);
+        if(rtrn == null){
+            logger.warnf("unknown %s %s, expected abort or continue",Globals.CONNECT_FAILURE,value);
+            rtrn = StageLauncher.FailurePolicy.ABORT;
+        }
+        return rtrn;
+    }
+
     private boolean removeLogger(){
+        if(asyncLogHandler!=null){
+            //writes the queued messages and closes the fileHandler
+            internalRunLogger.removeHandler(asyncLogHandler);
+            asyncLogHandler.close();
+            asyncLogHandler = null;
+        }
         if(fileHandler!=null){
             fileHandler.close();
             fileHandler = null;
@@ -175,7 +311,8 @@ public class Run implements Runnable, DispatchObserver {
 
                     }
                     fileHandler.setAppend(true);//changed from false to avoid overriding
-                    fileHandler.setAutoFlush(true);//was false
+                    int logQueue = getIntSetting(Globals.LOG_QUEUE,AsyncLogHandler.DEFAULT_QUEUE);
+                    fileHandler.setAutoFlush(logQueue <= 0);//the async handler flushes in batches
                     PatternFormatter formatter = new PatternFormatter(config.getConsoleFormatPattern());
                     fileHandler.setFormatter(formatter);
                     internalRunLogger = org.jboss.logmanager.Logger.getLogger(getLoggerName());
@@ -185,7 +322,18 @@ public class Run implements Runnable, DispatchObserver {
                     internalStateLogger = org.jboss.logmanager.Logger.getLogger(internalRunLogger.getName() + ".state");
                     //internalStateLogger.setParent(org.jboss.logmanager.Logger.getGlobal());//was commented out //disallowed
 
-                    internalRunLogger.addHandler(fileHandler);
+                    if(logQueue > 0){
+                        asyncLogHandler = new AsyncLogHandler(
+                            logQueue,
+                            getIntSetting(Globals.LOG_FLUSH_SIZE,AsyncLogHandler.DEFAULT_FLUSH_SIZE),
+                            getIntSetting(Globals.LOG_FLUSH_INTERVAL,(int)AsyncLogHandler.DEFAULT_FLUSH_INTERVAL),
+                            getOverflowSetting()
+                        );
+                        asyncLogHandler.addHandler(fileHandler);
+                        internalRunLogger.addHandler(asyncLogHandler);
+                    }else{
+                        internalRunLogger.addHandler(fileHandler);
+                    }
                     fileHandler.setEnabled(true);
                     runLogger = Logger.getLogger(internalRunLogger.getName());
                     stateLogger = Logger.getLogger(internalStateLogger.getName());
@@ -199,6 +347,26 @@ public class Run implements Runnable, DispatchObserver {
         return fileHandler != null;
     }
 
+    private void openJournal(){
+        if(config.isJournal() && journal == null){
+            try {
+                journal = new JournalWriter(Path.of(getOutputPath(),JournalWriter.FILE_NAME),config.getState().getSecretFilter());
+                journalObserver = new JournalObserver(journal);
+                dispatcher.addContextObserver(journalObserver);
+            } catch (IOException e) {
+                logger.errorf("failed to create %s in %s: %s",JournalWriter.FILE_NAME,getOutputPath(),e.getMessage());
+            }
+        }
+    }
+    private void closeJournal(){
+        if(journal != null){
+            dispatcher.removeContextObserver(journalObserver);
+            journal.close();
+        }
+    }
+    public boolean hasJournal(){return journal != null;}
+    public JournalWriter getJournal(){return journal;}
+
     public void ensureConsoleLogging(){
         ensureLogger();
         if(internalRunLogger!=null && consoleHandler==null){
@@ -229,17 +397,68 @@ public class Run implements Runnable, DispatchObserver {
     public void preStart(){
         ensureLogger();
         timestamps.put(stage.getName()+"Start",System.currentTimeMillis());
+        if(hasJournal()){
+            journal.record(EventType.STAGE_START,null,stage.getName());
+        }
+        if(isRoleBarrier() && Stage.Setup.equals(stage)){
+            //roles without setup scripts already finished setup and queued their run scripts
+            if(roleSetupDone.containsAll(config.getRoleNames())){
+                recordStageOnce(Stage.Setup,false);
+            }
+            if(roleRunLaunched){
+                recordStageOnce(Stage.Run,true);
+            }
+        }
     }
     @Override
     public void postStop(){
         //ensureLogger();//this was overriding the previous file :(
-        timestamps.put(stage.getName()+"Stop",System.currentTimeMillis());
+        if(isRoleBarrier() && Stage.Setup.equals(stage)){
+            //the run scripts ran in the setup stage so the dispatcher stopping is the end of the run stage
+            recordStageOnce(Stage.Setup,false);
+            if(roleRunLaunched){
+                recordStageOnce(Stage.Run,false);
+            }
+        }else {
+            timestamps.put(stage.getName() + "Stop", System.currentTimeMillis());
+            if (hasJournal()) {
+                journal.record(EventType.STAGE_STOP, null, stage.getName());
+            }
+        }
         boolean started = nextStage();
         if(!started){
 
         }
         //this.setupEnvDiff.clear();//why are we clearing the setup env diff? don't we need it for cleanup too?
     }
+    @Override
+    public void postStop(String roleName){
+        if(isRoleBarrier() && Stage.Setup.equals(stage) && roleSetupDone.add(roleName)){
+            //the run scripts for a role also drain the role but the role is already in roleSetupDone
+            logger.debugf("%s %s finished setup",config.getName(),roleName);
+            if(roleSetupDone.containsAll(config.getRoleNames())){
+                recordStageOnce(Stage.Setup,false);
+            }
+            queueReadyRoles();
+        }
+    }
+
+    /**
+     * Records the timestamp and journal event for a stage that starts or stops while the dispatcher runs another stage.
+     * Role stage barriers run the run scripts in the setup stage so the setup stop and run start are not a dispatcher start or stop.
+     */
+    private void recordStageOnce(Stage toRecord,boolean start){
+        String key = toRecord.getName()+(start ? "Start" : "Stop");
+        synchronized (timestamps){
+            if(timestamps.containsKey(key)){
+                return;
+            }
+            timestamps.put(key,System.currentTimeMillis());
+        }
+        if(hasJournal()){
+            journal.record(start ? EventType.STAGE_START : EventType.STAGE_STOP,null,toRecord.getName());
+        }
+    }
     private boolean nextStage(){
         boolean startDispatcher = false;
         if(hasRunObserver()){
@@ -273,7 +492,8 @@ public class Run implements Runnable, DispatchObserver {
             case Setup:
                 //if we are able to set the stage to Run
                 if(stageUpdated.compareAndSet(this,Stage.Setup,Stage.Run)){
-                    if(skipStages.contains(stage)){
+                    //role stage barriers already ran the run scripts during setup
+                    if(skipStages.contains(stage) || (isRoleBarrier() && !skipStages.contains(Stage.Setup))){
                         return nextStage();
                     } else {
                         startDispatcher = queueRunScripts();
@@ -325,12 +545,60 @@ public class Run implements Runnable, DispatchObserver {
                 }
             }
             dispatcher.start();
+            StageLauncher.Launch toStart = launch;
+            if(toStart != null){
+                toStart.start();
+            }
+            roleLaunches.forEach(StageLauncher.Launch::start);
         }
         return startDispatcher;
     }
 
+    private static Json getCacheJson(){
+        Json rtrn = new Json();
+        rtrn.set("regex", Regex.getCacheJson());
+        rtrn.set("js", JsContextPool.getStatsJson());
+        rtrn.set("patterns", PatternTemplate.getCacheJson());
+        return rtrn;
+    }
+
+    /**
+     * The caches are static so the counters include every Run in the jvm.
+     * Counters are reported as the change since start while the cache sizes (size, sources) are the current size of the shared cache.
+     * @param start the cache json when the run started, null to report the jvm totals
+     */
+    static Json getCacheDelta(Json start, Json current){
+        if(start == null){
+            return current;
+        }
+        Json rtrn = new Json();
+        current.forEach((cacheName,cacheValue)->{
+            if(cacheValue instanceof Json && start.get(cacheName) instanceof Json){
+                Json cache = (Json)cacheValue;
+                Json startCache = (Json)start.get(cacheName);
+                Json delta = new Json();
+                cache.forEach((key,value)->{
+                    if(value instanceof Number && !"size".equals(key) && !"sources".equals(key)){
+                        delta.set(key,((Number)value).longValue() - startCache.getLong(key,0));
+                    }else{
+                        delta.set(key,value);
+                    }
+                });
+                rtrn.set(cacheName,delta);
+            }else{
+                rtrn.set(cacheName,cacheValue);
+            }
+        });
+        return rtrn;
+    }
+
     public Stage getStage(){return stage;}
     public Local getLocal(){return local;}
+    public SshSessionPool getSessionPool(){return sessionPool;}
+    /**
+     * @return the commands that cannot block a ScriptContext runs on one thread before it queues again
+     */
+    public int getInlineCmdBudget(){return inlineCmdBudget;}
     public RunConfig getConfig(){return config;}
     public boolean isAborted(){return aborted.get();}
     public Logger getRunLogger(){
@@ -348,46 +616,30 @@ public class Run implements Runnable, DispatchObserver {
     public void addPendingDownload(Host host,String path,String destination, Long maxSize){
         pendingDownloads.put(host,new Download(path,destination,maxSize));
     }
-    public void runPendingDeletes(){
+    public synchronized void runPendingDeletes(){
         if(!pendingDeletes.isEmpty()){
-            for(Host host : pendingDeletes.keys()){
-                AbstractShell shell = AbstractShell.getShell(
-                    host.getShortHostName()+"-pendingDelete",
-                    host,
-                    "",
-                    getDispatcher().getCallback(),
-                    getConfig().getState().getSecretFilter(),
-                    null);
-                Set<String> deleteList = pendingDeletes.get(host);
-                for(String delete : deleteList){
-                    shell.execSync("rm "+delete);
-                }
-                shell.close(true);
-            }
+            logger.infof("%s deleting queued deletes",config.getName());
+            timestamps.put("deleteStart",System.currentTimeMillis());
+            deleteResults.addAll(deleteScheduler.delete(pendingDeletes));
+            timestamps.put("deleteStop",System.currentTimeMillis());
+            pendingDeletes.clear();
         }
     }
-    public void runPendingDownloads(){
-        //TODO synchronize so only one thread tries the downloads (run ending while being aborted?)
+    public synchronized void runPendingDownloads(){
         if(!pendingDownloads.isEmpty()){
             logger.infof("%s downloading queued downloads",config.getName());
             timestamps.put("downloadStart",System.currentTimeMillis());
-            for(Host host : pendingDownloads.keys()){
-                Set<Download> downloadList = pendingDownloads.get(host);
-                for(Download pendingDownload : downloadList){
-                    String downloadPath = pendingDownload.getPath();
-                    String downloadDestination = pendingDownload.getDestination();
-                    if(downloadDestination == null || downloadPath == null){
-                        logger.error("NULL in queue-download "+downloadPath+" -> "+downloadDestination);
-                    }else {
-                        pendingDownload.execute(null, () -> local, () -> host);
-                    }
-                }
-            }
+            downloadResults.addAll(downloadScheduler.download(pendingDownloads));
             timestamps.put("downloadStop",System.currentTimeMillis());
             pendingDownloads.clear();
-        }else{
         }
     }
+    public List<DownloadScheduler.Result> getDownloadResults(){
+        return Collections.unmodifiableList(downloadResults);
+    }
+    public List<DeleteScheduler.Result> getDeleteResults(){
+        return Collections.unmodifiableList(deleteResults);
+    }
     public void done(){
         coordinator.clearWaiters();
         dispatcher.stop(false);
@@ -438,6 +690,17 @@ public class Run implements Runnable, DispatchObserver {
             toWrite.set("latches",latches);
             toWrite.set("counters",counters);
             toWrite.set("profiles",getProfiles());
+            Json downloads = new Json();
+            synchronized (downloadResults){
+                downloadResults.forEach(result->downloads.add(result.toJson()));
+            }
+            toWrite.set("downloads",downloads);
+            Json deletes = new Json();
+            synchronized (deleteResults){
+                deleteResults.forEach(result->deletes.add(result.toJson()));
+            }
+            toWrite.set("deletes",deletes);
+            toWrite.set("caches",getCacheDelta(cacheStart,getCacheJson()));
 
             String filtered = getConfig().getState().getSecretFilter().filter(toWrite.toString(2));
 
@@ -457,6 +720,12 @@ public class Run implements Runnable, DispatchObserver {
      */
     public boolean abort(Boolean skipCleanUp){
         if(aborted.compareAndSet(false,true)){
+            StageLauncher.Launch connecting = launch;
+            if(connecting != null){
+                connecting.cancel();//stop adding scripts from this stage before the dispatcher stops
+            }
+            roleLaunches.forEach(StageLauncher.Launch::cancel);
+            shellWarmer.close();
             getConfig().getState().set(QDUP_GLOBAL+"."+QDUP_GLOBAL_ABORTED,true);//add ABORTED state for any cleanup scripts
             coordinator.clearWaiters();
             if (!skipCleanUp && stage.isBefore(Stage.Cleanup)) {
@@ -501,6 +770,7 @@ public class Run implements Runnable, DispatchObserver {
 //            jitterThread.start();
 
             timestamps.put("start",System.currentTimeMillis());
+            cacheStart = getCacheJson();
             if(config.hasErrors()){
                 logger.error("cannot start run due to config errors");
                 config.getErrors().forEach(e->logger.error(e.toString()));
@@ -518,6 +788,7 @@ public class Run implements Runnable, DispatchObserver {
 
             String filteredTree = getConfig().getState().getSecretFilter().filter(tree);
             stateLogger.debugf("%s starting state:\n%s",config.getName(),filteredTree);
+            openJournal();
             boolean ok = nextStage();
             if(ok) {
                 try {
@@ -537,6 +808,9 @@ public class Run implements Runnable, DispatchObserver {
             //will need to move if runLatch becomes optional
 
             //logAppender.stop(5,TimeUnit.SECONDS);
+            shellWarmer.close();
+            stageLauncher.shutdown();
+            closeJournal();
             removeLogger();
             writeRunJson();
         }
@@ -558,31 +832,89 @@ public class Run implements Runnable, DispatchObserver {
             return false;
         }
     }
-    private boolean connectAll(List<Callable<Boolean>> toCall,int timeout){
-        boolean ok = false;
-        try {
-            ok = getDispatcher().invokeAll(toCall/*,timeout, TimeUnit.SECONDS*/).stream().map((f) -> {
+    /**
+     * Starts connecting the shells for the next stage once fewer than prewarmThreshold scripts are still running.
+     * Each stage is warmed at most once.
+     */
+    private void checkPrewarm(){
+        if(isAborted() || !dispatcher.isRunning() || dispatcher.getPendingContexts() > 0 || dispatcher.getActiveCount() >= prewarmThreshold){
+            return;
+        }
+        Stage next = switch (stage){
+            case Setup -> isRoleBarrier() ? Stage.Cleanup : Stage.Run;
+            case Run -> Stage.Cleanup;
+            default -> null;
+        };
+        if(next == null || skipStages.contains(next)){
+            return;
+        }
+        Stage previous = prewarmed.get();
+        if(next.equals(previous) || !prewarmed.compareAndSet(previous,next)){
+            return;
+        }
+        List<Host> hosts = getStageHosts(next);
+        if(!hosts.isEmpty()){
+            logger.debugf("%s connecting %d shells for %s",config.getName(),hosts.size(),next.getName());
+            shellWarmer.close();//anything left from the previous stage
+            shellWarmer.warm(hosts);
+        }
+    }
 
-                boolean rtrn = false;
-                try {
-                    if(f != null) { //can be null when failed to authenticate
-                        rtrn = f.get();
-                    }else{
+    /**
+     * @return the host for each shell the stage will connect
+     */
+    private List<Host> getStageHosts(Stage target){
+        List<Host> rtrn = new ArrayList<>();
+        for(String roleName : config.getRoleNames()){
+            Role role = config.getRole(roleName);
+            if(Stage.Run.equals(target)){
+                role.getRun().forEach(script -> rtrn.addAll(role.getHosts(config)));
+            }else if (Stage.Cleanup.equals(target) && !role.getCleanup().isEmpty()){
+                rtrn.addAll(role.getHosts(config));
+            }
+        }
+        return rtrn;
+    }
 
-                    }
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                } catch (ExecutionException e) {
-                    e.printStackTrace();
-                }
-                return rtrn;
-            })
-                    .collect(Collectors.reducing(Boolean::logicalAnd)).get();
+    /**
+     * Uses a warm shell for the host if there is one, otherwise connects a new shell.
+     * Traced shells are not taken from the warm shells because the trace file is opened when the shell connects.
+     */
+    private AbstractShell getStageShell(String name, Host host, String setupCommand, String tracePath){
+        AbstractShell shell = tracePath == null ? shellWarmer.take(host) : null;
+        if(shell != null){
+            shell.setName(name);
+            if(setupCommand != null && !setupCommand.isBlank()){
+                shell.shSync(setupCommand);
+            }
+            return shell;
+        }
+        return AbstractShell.getShell(
+                name,
+                host,
+                setupCommand,
+                getDispatcher().getCallback(),
+                getConfig().getState().getSecretFilter(),
+                tracePath,
+                sessionPool
+        );
+    }
 
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Prepares the connects for the next stage. nextStage starts them after the dispatcher starts so each script runs as soon as its shell connects.
+     * @param skipCleanup passed to abort when a connect fails and the failure policy is abort
+     * @return true to start the dispatcher
+     */
+    private boolean launchWhenConnected(String stageName,List<Callable<ScriptContext>> connectSessions,boolean skipCleanup){
+        if(connectSessions.isEmpty()){
+            launch = null;
+        }else{
+            launch = stageLauncher.prepare(getDispatcher(),stageName,connectSessions,()->{
+                getRunLogger().error("failed to connect all ssh sessions for "+stageName);
+                abort(skipCleanup);
+            });
         }
-        return ok;
+        return true;
     }
     private Script createTempDirectory(){
         Script script = new Script("create-qdup-temp");
@@ -607,7 +939,7 @@ public class Run implements Runnable, DispatchObserver {
 
     private boolean queuePostCleanupScripts(){
         logger.debugf("%s.post-cleanup",this);
-        List<Callable<Boolean>> connectSessions = new LinkedList<>();
+        List<Callable<ScriptContext>> connectSessions = new LinkedList<>();
 
         Script setup = removeTempDirectory();
         config.getAllHostsInRoles().forEach(host->{
@@ -622,9 +954,11 @@ public class Run implements Runnable, DispatchObserver {
                         "",
                         getDispatcher().getCallback(),
                         getConfig().getState().getSecretFilter(),
-                        isTrace(name) ? getOutputPath() : null
+                        isTrace(name) ? getOutputPath() : null,
+                        sessionPool
                 );
                 shell.setName(name);
+                shell.setOutputWindow(outputWindow);
 
 //                SshSession session = new SshSession(
 //                    name,
@@ -647,33 +981,21 @@ public class Run implements Runnable, DispatchObserver {
                         setup,
                             (Boolean)config.getGlobals().getSetting("check-exit-code",false)
                     );
-                    getDispatcher().addScriptContext(scriptContext);
-                    return shell.isOpen();
+                    return shell.isOpen() ? scriptContext : null;
                 }
                 else {
                     shell.close();
-                    return false;
+                    return null;
                 }
             });
         });
 
-        boolean ok = true;
-        if(!connectSessions.isEmpty()) {
-            ok = connectAll(connectSessions, 60);
-            if (!ok) {
-                abort(false);
-            }
-
-        }else{
-
-        }
-        return ok;
-
+        return launchWhenConnected("post-cleanup",connectSessions,false);
     }
 
     private boolean queuePreSetupScripts(){
         logger.debugf("%s.pre-setup",this);
-        List<Callable<Boolean>> connectSessions = new LinkedList<>();
+        List<Callable<ScriptContext>> connectSessions = new LinkedList<>();
 
         Script setup = createTempDirectory();
         config.getAllHostsInRoles().forEach(host->{
@@ -685,9 +1007,11 @@ public class Run implements Runnable, DispatchObserver {
                         "",
                         getDispatcher().getCallback(),
                         getConfig().getState().getSecretFilter(),
-                        isTrace(name) ? getOutputPath() : null
+                        isTrace(name) ? getOutputPath() : null,
+                        sessionPool
                 );
                 shell.setName(name);
+                shell.setOutputWindow(outputWindow);
                 if ( shell.isReady() ) {
                     //TODO configure session delay
                     //session.setDelay(SuffixStream.NO_DELAY);
@@ -699,218 +1023,238 @@ public class Run implements Runnable, DispatchObserver {
                         setup,
                             (Boolean)config.getGlobals().getSetting("check-exit-code",false)
                     );
-                    getDispatcher().addScriptContext(scriptContext);
-                    return shell.isOpen();
+                    return shell.isOpen() ? scriptContext : null;
                 }
                 else {
                     shell.close();
-                    return false;
+                    return null;
                 }
             });
         });
 
-        boolean ok = true;
-        if(!connectSessions.isEmpty()) {
-            ok = connectAll(connectSessions, 60);
-            if (!ok) {
-                abort(false);
-            }
-
-        }else{
-
-        }
-        return ok;
-
+        return launchWhenConnected("pre-setup",connectSessions,false);
     }
     private State getHostState(State root,String role, Host host){
         State roleState = root.getChild(role,State.ROLE_PREFIX);
         return roleState.getChild(host.isContainer() ? host.getAlias() : host.getHostName(), State.HOST_PREFIX);
     }
-    private boolean queueSessions(List<Callable<Boolean>> connectSessions){
-        boolean ok = true;
-        if(!connectSessions.isEmpty()){
-            ok = connectAll(connectSessions, 60);
-            if (!ok) {
-                abort(false);
-            }
-        }
-        return ok;
-    }
     private boolean queueSetupScripts(){
         logger.debugf("%s.setup",this);
 
+        roleLaunches.clear();
+        roleSetupDone.clear();
+        roleRunQueued.clear();
+        roleRunLaunched = false;
         //Observer to set the Env.Diffs
-        List<Callable<Boolean>> connectSessions = new LinkedList<>();
+        List<Callable<ScriptContext>> connectSessions = new LinkedList<>();
         //TODO don't run an ALL-setup but rather put it in the start of each connection?
         config.getRoleNames().stream().forEach(roleName->{
-            final Role role = config.getRole(roleName);
-            if(!role.getSetup().isEmpty()){
-               //final Script setup = new Script(roleName+"-setup");
-                final Script setup = new Script("setup");
-               setup.then(new RoleEnv(role,true));
-               role.getSetup().forEach(cmd->{
-                   setup.then(cmd);
-               });
-               setup.then(new RoleEnv(role,false));
-
-               role.getHosts(config).forEach(host->{
-                   connectSessions.add(()->{
-                       String name = roleName+"-setup@"+host.getShortHostName()+"."+Cmd.populateStateVariables(config.getGlobals().getSettings().getString(RunConfig.TRACE_NAME),null,getConfig().getState(),getCoordinator(),Json.fromMap(getTimestamps()));
-                       AbstractShell shell =  AbstractShell.getShell(
-                               name,
-                               host,
-                               "",
-                               getDispatcher().getCallback(),
-                               getConfig().getState().getSecretFilter(),
-                               isTrace(name) ? getOutputPath() : null
-                       );
-                       shell.setName(name);
-                       if ( shell.isReady() ) {
-                           //TODO configure session delay
-                           //session.setDelay(SuffixStream.NO_DELAY);
-                           Cmd setupCopy = setup.deepCopy();
-                           State hostState = getHostState(config.getState(),role.getName(),host);
-                           State scriptState = hostState.getChild(setup.getName()).getChild("id=" + setupCopy.getUid());
-
-                           profiles.getProperties(name).set("host",host.getShortHostName());
-                           profiles.getProperties(name).set("role",role.getName());
-                           profiles.getProperties(name).set("script",setup.getName());
-                           profiles.getProperties(name).set("scriptId",setupCopy.getUid());
-                           ScriptContext scriptContext = new ScriptContext(
-                                   shell,
-                                   scriptState,
-                                   this,
-                                   profiles.get(name),
-                                   setupCopy,
-                                   (Boolean)config.getGlobals().getSetting("check-exit-code",false)
-                           );
-                           scriptContext.setRoleName(role.getName());
-
-                           getDispatcher().addScriptContext(scriptContext);
-                           return shell.isOpen();
-                       } else {
-                           logger.error("setup failed to connect "+host.getSafeString());
-                           shell.close();
-                           return false;
-                       }
-                   });
-               });
+            List<Callable<ScriptContext>> roleConnects = getSetupConnects(roleName);
+            if(!isRoleBarrier()){
+                connectSessions.addAll(roleConnects);
+            }else if(roleConnects.isEmpty()){
+                roleSetupDone.add(roleName);
+            }else{
+                roleLaunches.add(prepareRoleLaunch("setup",roleName,roleConnects));
             }
-
         });
-        boolean ok = true;
-        if(!connectSessions.isEmpty()) {
-            ok = connectAll(connectSessions, 60);
-            if (!ok) {
-                getRunLogger().error("failed to connect all ssh sessions for setup");
-                abort(true);
-            }
-
-        }else{
+        if(isRoleBarrier()){
+            launch = null;
+            queueReadyRoles();
+            return true;
+        }
+        return launchWhenConnected("setup",connectSessions,true);
+    }
 
+    /**
+     * @return the connects for the setup scripts of the role, empty if the role does not have setup scripts
+     */
+    private List<Callable<ScriptContext>> getSetupConnects(String roleName){
+        List<Callable<ScriptContext>> connectSessions = new LinkedList<>();
+        final Role role = config.getRole(roleName);
+        if(!role.getSetup().isEmpty()){
+           //final Script setup = new Script(roleName+"-setup");
+            final Script setup = new Script("setup");
+           setup.then(new RoleEnv(role,true));
+           role.getSetup().forEach(cmd->{
+               setup.then(cmd);
+           });
+           setup.then(new RoleEnv(role,false));
+
+           role.getHosts(config).forEach(host->{
+               connectSessions.add(()->{
+                   String name = roleName+"-setup@"+host.getShortHostName()+"."+Cmd.populateStateVariables(config.getGlobals().getSettings().getString(RunConfig.TRACE_NAME),null,getConfig().getState(),getCoordinator(),Json.fromMap(getTimestamps()));
+                   AbstractShell shell =  AbstractShell.getShell(
+                           name,
+                           host,
+                           "",
+                           getDispatcher().getCallback(),
+                           getConfig().getState().getSecretFilter(),
+                           isTrace(name) ? getOutputPath() : null,
+                           sessionPool
+                   );
+                   shell.setName(name);
+                   shell.setOutputWindow(outputWindow);
+                   if ( shell.isReady() ) {
+                       //TODO configure session delay
+                       //session.setDelay(SuffixStream.NO_DELAY);
+                       Cmd setupCopy = setup.deepCopy();
+                       State hostState = getHostState(config.getState(),role.getName(),host);
+                       State scriptState = hostState.getChild(setup.getName()).getChild("id=" + setupCopy.getUid());
+
+                       profiles.getProperties(name).set("host",host.getShortHostName());
+                       profiles.getProperties(name).set("role",role.getName());
+                       profiles.getProperties(name).set("script",setup.getName());
+                       profiles.getProperties(name).set("scriptId",setupCopy.getUid());
+                       ScriptContext scriptContext = new ScriptContext(
+                               shell,
+                               scriptState,
+                               this,
+                               profiles.get(name),
+                               setupCopy,
+                               (Boolean)config.getGlobals().getSetting("check-exit-code",false)
+                       );
+                       scriptContext.setRoleName(role.getName());
+
+                       return shell.isOpen() ? scriptContext : null;
+                   } else {
+                       logger.error("setup failed to connect "+host.getSafeString());
+                       shell.close();
+                       return null;
+                   }
+               });
+           });
         }
-        return ok;
+        return connectSessions;
     }
     private boolean queueRunScripts(){
         logger.debugf("%s.queueRunScripts",this);
 
-        List<Callable<Boolean>> connectSessions = new LinkedList<>();
+        List<Callable<ScriptContext>> connectSessions = new LinkedList<>();
+        for(String roleName : config.getRoleNames()){
+            connectSessions.addAll(getRunConnects(roleName));
+        }
+        return launchWhenConnected("run",connectSessions,true);
+    }
 
+    /**
+     * @return the connects for each run script on each host of the role
+     */
+    private List<Callable<ScriptContext>> getRunConnects(String roleName){
+        List<Callable<ScriptContext>> connectSessions = new LinkedList<>();
         Role allRole = config.getRole(RunConfigBuilder.ALL_ROLE);
-        for(String roleName : config.getRoleNames()){
-            Role role = config.getRole(roleName);
-            if (!role.getRun().isEmpty()) {
-                for (ScriptCmd script : role.getRun()) {
-                    for (Host host : role.getHosts(config)) {
-                        ScriptCmd scriptCopy = (ScriptCmd) script.deepCopy();
-                        State hostState = getHostState(config.getState(),roleName,host);
-                        State scriptState = hostState.getChild(scriptCopy.getName()).getChild("id=" + scriptCopy.getUid());
-                        String profileName = scriptCopy.getName() + "-" + scriptCopy.getUid() + "@" + host;
-                        SystemTimer timer = profiles.get(profileName);
-                        profiles.getProperties(profileName).set("host",host.getShortHostName());
-                        profiles.getProperties(profileName).set("role",role.getName());
-                        profiles.getProperties(profileName).set("script",scriptCopy.getName());
-                        profiles.getProperties(profileName).set("scriptId",scriptCopy.getUid());
-                        Env env = role.hasEnvironment(host) ? role.getEnv(host) : new Env();
-                        if(!role.getName().equals(RunConfigBuilder.ALL_ROLE) && allRole!=null && allRole.hasEnvironment(host)){
-                            env.merge(allRole.getEnv(host));
-                        }
-                        String setupCommand = env.getDiff().getCommand();
-                        connectSessions.add(() -> {
-
-                            String name = scriptCopy.getName()+":"+scriptCopy.getUid()+"@"+host.getShortHostName()+"."+Cmd.populateStateVariables(config.getGlobals().getSettings().getString(RunConfig.TRACE_NAME),null,getConfig().getState(),getCoordinator(),Json.fromMap(getTimestamps()));
-                            timer.start("connect:" + host.toString());
-                            AbstractShell shell = AbstractShell.getShell(
-                                    name,
-                                    host,
-                                    setupCommand,
-                                    getDispatcher().getCallback(),
-                                    getConfig().getState().getSecretFilter(),
-                                    isTrace(name) ? getOutputPath() : null
-                            );
-                            shell.setName(name);
-                            if (shell.isReady()) {
-                                //shell.shSync(setupCommand); //moved into getShell
-                                //session.setDelay(SuffixStream.NO_DELAY);
-                                timer.start("context:" + host.toString());
-                                ScriptContext scriptContext = new ScriptContext(
-                                        shell,
-                                        scriptState,
-                                        this,
-                                        timer,
-                                        scriptCopy,
-                                        (Boolean)config.getGlobals().getSetting("check-exit-code",false)
-                                );
-                                scriptContext.setRoleName(role.getName());
-                                getDispatcher().addScriptContext(scriptContext);
-                                boolean rtrn = shell.isOpen();
-                                timer.start("waiting for start");
-                                return rtrn;
-                            } else {
-                                logger.error("run failed to connect "+host.getSafeString()
-                                        +(host.hasContainerId() ? " "+host.getContainerId() : "")
-                                        +(host.hasPassword() ?
-                                            ", verify ssh works with the provided username and password" :
-                                            ", verify password-less ssh works with the selected keys"
-                                        +"\n"+shell.peekOutput())
-                                );
-                                shell.close();
-                                return false;
-                            }
-                        });
+        Role role = config.getRole(roleName);
+        if (!role.getRun().isEmpty()) {
+            for (ScriptCmd script : role.getRun()) {
+                for (Host host : role.getHosts(config)) {
+                    ScriptCmd scriptCopy = (ScriptCmd) script.deepCopy();
+                    State hostState = getHostState(config.getState(),roleName,host);
+                    State scriptState = hostState.getChild(scriptCopy.getName()).getChild("id=" + scriptCopy.getUid());
+                    String profileName = scriptCopy.getName() + "-" + scriptCopy.getUid() + "@" + host;
+                    SystemTimer timer = profiles.get(profileName);
+                    profiles.getProperties(profileName).set("host",host.getShortHostName());
+                    profiles.getProperties(profileName).set("role",role.getName());
+                    profiles.getProperties(profileName).set("script",scriptCopy.getName());
+                    profiles.getProperties(profileName).set("scriptId",scriptCopy.getUid());
+                    Env env = role.hasEnvironment(host) ? role.getEnv(host) : new Env();
+                    if(!role.getName().equals(RunConfigBuilder.ALL_ROLE) && allRole!=null && allRole.hasEnvironment(host)){
+                        env.merge(allRole.getEnv(host));
                     }
+                    String setupCommand = env.getDiff().getCommand();
+                    connectSessions.add(() -> {
+
+                        String name = scriptCopy.getName()+":"+scriptCopy.getUid()+"@"+host.getShortHostName()+"."+Cmd.populateStateVariables(config.getGlobals().getSettings().getString(RunConfig.TRACE_NAME),null,getConfig().getState(),getCoordinator(),Json.fromMap(getTimestamps()));
+                        timer.start("connect:" + host.toString());
+                        AbstractShell shell = getStageShell(
+                                name,
+                                host,
+                                setupCommand,
+                                isTrace(name) ? getOutputPath() : null
+                        );
+                        shell.setName(name);
+                        shell.setOutputWindow(outputWindow);
+                        if (shell.isReady()) {
+                            //shell.shSync(setupCommand); //moved into getShell
+                            //session.setDelay(SuffixStream.NO_DELAY);
+                            timer.start("context:" + host.toString());
+                            ScriptContext scriptContext = new ScriptContext(
+                                    shell,
+                                    scriptState,
+                                    this,
+                                    timer,
+                                    scriptCopy,
+                                    (Boolean)config.getGlobals().getSetting("check-exit-code",false)
+                            );
+                            scriptContext.setRoleName(role.getName());
+                            timer.start("waiting for start");
+                            return shell.isOpen() ? scriptContext : null;
+                        } else {
+                            logger.error("run failed to connect "+host.getSafeString()
+                                    +(host.hasContainerId() ? " "+host.getContainerId() : "")
+                                    +(host.hasPassword() ?
+                                        ", verify ssh works with the provided username and password" :
+                                        ", verify password-less ssh works with the selected keys"
+                                    +"\n"+shell.peekOutput())
+                            );
+                            shell.close();
+                            return null;
+                        }
+                    });
                 }
             }
         }
-        boolean ok = true;
+        return connectSessions;
+    }
 
-        if(!connectSessions.isEmpty()) {
-            ok = false; // it better be set by dispatcher then
-            try {
-                List<Boolean> oks = getDispatcher().invokeAll(connectSessions).stream().map((f)->{
-                    boolean rtrn = false;
-                    try{
-                        rtrn = f.get();
-                    } catch (InterruptedException e){
-                        e.printStackTrace();
-                    } catch (Exception e ){
-                        e.printStackTrace();
-                    }
-                    return rtrn;
-                }).toList();
-                ok = oks.stream().reduce(Boolean::logicalAnd).orElse(false);
-                        //;.collect(Collectors.reducing(Boolean::logicalAnd)).get();
-            } catch (InterruptedException e){
+    private boolean isRoleBarrier(){
+        return StageBarrier.ROLE.equals(stageBarrier);
+    }
 
-            }
-            if(!ok){
-                getRunLogger().error("failed to connect all ssh sessions for run");
-                abort(true);
-            }
-        }else{
+    /**
+     * @return the roles that need to finish setup before the run scripts for the role start with role stage barriers
+     */
+    private Set<String> getRunDependencies(Role role){
+        Set<String> rtrn = new HashSet<>(role.getDependsOn());
+        rtrn.add(role.getName());
+        //the run scripts use the environment changes from the ALL role setup
+        if(config.getRoleNames().contains(RunConfigBuilder.ALL_ROLE)){
+            rtrn.add(RunConfigBuilder.ALL_ROLE);
+        }
+        return rtrn;
+    }
 
+    /**
+     * Queues the run scripts for each role that has not started them and whose dependencies finished setup.
+     * The connects start immediately if the dispatcher is running, otherwise nextStage starts them with the dispatcher.
+     */
+    private void queueReadyRoles(){
+        if(isAborted() || skipStages.contains(Stage.Run)){
+            return;
+        }
+        for(String roleName : config.getRoleNames()){
+            Role role = config.getRole(roleName);
+            if(roleSetupDone.containsAll(getRunDependencies(role)) && roleRunQueued.add(roleName)){
+                List<Callable<ScriptContext>> connects = getRunConnects(roleName);
+                if(!connects.isEmpty()){
+                    logger.debugf("%s queueing %d run scripts for %s",config.getName(),connects.size(),roleName);
+                    StageLauncher.Launch roleLaunch = prepareRoleLaunch("run",roleName,connects);
+                    roleLaunches.add(roleLaunch);
+                    roleRunLaunched = true;
+                    if(dispatcher.isRunning()){
+                        //otherwise preStart records the run start when the dispatcher starts
+                        recordStageOnce(Stage.Run,true);
+                        roleLaunch.start();
+                    }
+                }
+            }
         }
-        return ok;
+    }
+
+    private StageLauncher.Launch prepareRoleLaunch(String stageName,String roleName,List<Callable<ScriptContext>> connects){
+        return stageLauncher.prepare(getDispatcher(),stageName,roleName,connects,()->{
+            getRunLogger().error("failed to connect all ssh sessions for "+roleName+" "+stageName);
+            abort(true);
+        });
     }
 
     private boolean isTrace(String value){
@@ -920,7 +1264,7 @@ public class Run implements Runnable, DispatchObserver {
 
     private boolean queueCleanupScripts(){
         //Observer to set the Env.Diffs
-        List<Callable<Boolean>> connectSessions = new LinkedList<>();
+        List<Callable<ScriptContext>> connectSessions = new LinkedList<>();
 
         config.getRoleNames().forEach(roleName->{
             Role role = config.getRole(roleName);
@@ -934,15 +1278,14 @@ public class Run implements Runnable, DispatchObserver {
                     String setupCommand = role.hasEnvironment(host) ? role.getEnv(host).getDiff().getCommand() : "";
                     connectSessions.add(()->{
                         String name = roleName + "-cleanup@"+host.getShortHostName()+"."+Cmd.populateStateVariables(config.getGlobals().getSettings().getString(RunConfig.TRACE_NAME),null,getConfig().getState(),getCoordinator(),Json.fromMap(getTimestamps()));
-                        AbstractShell shell = AbstractShell.getShell(
+                        AbstractShell shell = getStageShell(
                                 name,
                                 host,
                                 "",
-                                getDispatcher().getCallback(),
-                                getConfig().getState().getSecretFilter(),
                                 isTrace(name) ? getOutputPath() : null
                         );
                         shell.setName(name);
+                        shell.setOutputWindow(outputWindow);
                         if ( shell.isReady() ) {
                             Script cleanupCopy = (Script)cleanup.deepCopy();
                             State hostState = getHostState(config.getState(),role.getName(),host);
@@ -964,47 +1307,18 @@ public class Run implements Runnable, DispatchObserver {
                             );
                             scriptContext.setRoleName(role.getName());
 
-                            getDispatcher().addScriptContext(scriptContext);
-                            return shell.isOpen();
+                            return shell.isOpen() ? scriptContext : null;
                         }
                         else {
                             logger.error("cleanup failed to connect "+host.getSafeString());
                             shell.close();
-                            return false;
+                            return null;
                         }
                     });
                 });
             }
         });
-        boolean ok = true;
-        if(!connectSessions.isEmpty()){
-            ok = false; // it better be set by dispatcher then
-            try {
-                List<Boolean> oks = getDispatcher().invokeAll(connectSessions).stream().map((f)->{
-                    boolean rtrn = false;
-                    try{
-                        rtrn = f.get();
-                    } catch (InterruptedException e){
-                        e.printStackTrace();
-                    } catch (Exception e ){
-                        e.printStackTrace();
-                    }
-                    return rtrn;
-                }).toList();
-                ok = oks.stream().reduce(Boolean::logicalAnd).orElse(false);
-                //;.collect(Collectors.reducing(Boolean::logicalAnd)).get();
-            } catch (InterruptedException e){
-
-            }
-            if(!ok){
-                getRunLogger().error("failed to connect all ssh sessions for cleanup");
-                abort(true);
-            }
-
-        }else{
-
-        }
-        return ok;
+        return launchWhenConnected("cleanup",connectSessions,true);
     }
     private void postRun(){
         logger.debugf("%s.postRun",this);
@@ -1023,6 +1337,10 @@ public class Run implements Runnable, DispatchObserver {
             }
         });
 
+        sessionPool.close();
+        downloadScheduler.shutdown();
+        deleteScheduler.shutdown();
+
         String tree = config.getState().tree();//tree filters itself
         stateLogger.debugf("%s closing state:\n%s",config.getName(),tree);
         if(consoleHandler != null){
@@ -5,13 +5,173 @@ import io.hyperfoil.tools.yaup.json.Json;
 import java.util.*;
 import java.util.stream.Collectors;
 
+/**
+ * Replaces secret values with {@link #REPLACEMENT}.
+ * The secrets are compiled into an Aho-Corasick automaton over chars so filtering is one pass over the input no matter
+ * how many secrets there are. Each index uses the longest secret that ends there and secrets that overlap
+ * (e.g. foobar and barbiz in foobarbiz) are replaced with one REPLACEMENT so no part of either secret is left in the output.
+ * The automaton is rebuilt on the next filter after a secret is added.
+ */
 public class SecretFilter {
 
    public static final String SECRET_NAME_PREFIX = "_";
 
    public static final String REPLACEMENT = "********";
 
+   /**
+    * Immutable automaton for the secrets at the time it was compiled
+    */
+   private static class Matcher {
+
+      private static final int ROOT = 0;
+      private static final int ASCII = 128;
+      private static final Matcher EMPTY = new Matcher(Collections.emptySet());
+
+      //the root uses a dense table for ascii and the other states store their transitions in sorted arrays
+      private final int[] rootAscii;
+      private final char[][] keys;
+      private final int[][] next;
+      private final int[] fail;
+      private final int[] match;//length of the longest secret that ends at the state, 0 for none
+      private final boolean empty;
+
+      Matcher(Collection<String> secrets){
+         List<TreeMap<Character,Integer>> transitions = new ArrayList<>();
+         List<Integer> lengths = new ArrayList<>();
+         transitions.add(new TreeMap<>());
+         lengths.add(0);
+         for(String secret : secrets){
+            int state = ROOT;
+            for(int i=0; i<secret.length(); i++){
+               Integer target = transitions.get(state).get(secret.charAt(i));
+               if(target == null){
+                  target = transitions.size();
+                  transitions.add(new TreeMap<>());
+                  lengths.add(0);
+                  transitions.get(state).put(secret.charAt(i),target);
+               }
+               state = target;
+            }
+            lengths.set(state,secret.length());
+         }
+         int size = transitions.size();
+         empty = size == 1;
+         keys = new char[size][];
+         next = new int[size][];
+         fail = new int[size];
+         match = new int[size];
+         for(int state=0; state<size; state++){
+            TreeMap<Character,Integer> stateTransitions = transitions.get(state);
+            keys[state] = new char[stateTransitions.size()];
+            next[state] = new int[stateTransitions.size()];
+            int index = 0;
+            for(Map.Entry<Character,Integer> entry : stateTransitions.entrySet()){
+               keys[state][index] = entry.getKey();
+               next[state][index] = entry.getValue();
+               index++;
+            }
+            match[state] = lengths.get(state);
+         }
+         rootAscii = new int[ASCII];
+         Arrays.fill(rootAscii,-1);
+         for(int i=0; i<keys[ROOT].length; i++){
+            if(keys[ROOT][i] < ASCII){
+               rootAscii[keys[ROOT][i]] = next[ROOT][i];
+            }
+         }
+         //breadth first so fail[state] is set before the states below it
+         Queue<Integer> todo = new ArrayDeque<>();
+         for(int child : next[ROOT]){
+            fail[child] = ROOT;
+            todo.add(child);
+         }
+         while(!todo.isEmpty()){
+            int state = todo.remove();
+            for(int i=0; i<keys[state].length; i++){
+               int child = next[state][i];
+               fail[child] = step(fail[state],keys[state][i]);
+               if(match[child] == 0){
+                  match[child] = match[fail[child]];
+               }
+               todo.add(child);
+            }
+         }
+      }
+
+      private int transition(int state, char c){
+         if(state == ROOT && c < ASCII){
+            return rootAscii[c];
+         }
+         int index = Arrays.binarySearch(keys[state],c);
+         return index >= 0 ? next[state][index] : -1;
+      }
+
+      int step(int state, char c){
+         int target;
+         while( (target = transition(state,c)) < 0 ){
+            if(state == ROOT){
+               return ROOT;
+            }
+            state = fail[state];
+         }
+         return target;
+      }
+
+      String filter(String input){
+         if(empty){
+            return input;
+         }
+         //start and end of each replacement, overlapping matches are merged
+         int[] replacements = null;
+         int count = 0;
+         int state = ROOT;
+         for(int i=0; i<input.length(); i++){
+            char c = input.charAt(i);
+            if(state == ROOT && c < ASCII){
+               //most characters do not start a secret
+               state = rootAscii[c];
+               if(state < 0){
+                  state = ROOT;
+                  continue;
+               }
+            }else{
+               state = step(state,c);
+            }
+            int length = match[state];
+            if(length > 0){
+               int end = i + 1;
+               int start = end - length;
+               while(count > 0 && start < replacements[2*count-1]){
+                  start = Math.min(start,replacements[2*count-2]);
+                  count--;
+               }
+               if(replacements == null){
+                  replacements = new int[8];
+               }else if(replacements.length < 2*count+2){
+                  replacements = Arrays.copyOf(replacements,replacements.length*2);
+               }
+               replacements[2*count] = start;
+               replacements[2*count+1] = end;
+               count++;
+            }
+         }
+         if(count == 0){
+            return input;
+         }
+         StringBuilder rtrn = new StringBuilder(input.length() + count * REPLACEMENT.length());
+         int last = 0;
+         for(int i=0; i<count; i++){
+            rtrn.append(input,last,replacements[2*i]);
+            rtrn.append(REPLACEMENT);
+            last = replacements[2*i+1];
+         }
+         rtrn.append(input,last,input.length());
+         return rtrn.toString();
+      }
+   }
+
    private SortedSet<String> secrets;
+   private volatile Matcher matcher = Matcher.EMPTY;
 
    public SecretFilter(){
       //sorts longest to shortest then alphabetically
@@ -24,24 +184,51 @@ public class SecretFilter {
       if(secret == null || secret.isEmpty()){
 
       } else {
-         secrets.add(secret);
+         synchronized (this){
+            if(secrets.add(secret)){
+               matcher = null;
+            }
+         }
       }
    }
    public void loadSecrets(SecretFilter filter){
-      secrets.addAll(filter.secrets);
+      if(filter == this){
+         return;
+      }
+      Set<String> toLoad;
+      synchronized (filter){
+         toLoad = new HashSet<>(filter.secrets);
+      }
+      synchronized (this){
+         if(secrets.addAll(toLoad)){
+            matcher = null;
+         }
+      }
    }
 
-   //This is an easy way to replace a bunch of strings but what is the performance hit?
-   //TODO https://stackoverflow.com/questions/1326682/java-replacing-multiple-different-substring-in-a-string-at-once-or-in-the-most
-   public String filter(String input){
-      String rtrn = input;
-      if (input != null) {
-         for(String secret : secrets){
-            rtrn = rtrn.replace(secret,REPLACEMENT);
+   private Matcher matcher(){
+      Matcher rtrn = matcher;
+      if(rtrn == null){
+         synchronized (this){
+            rtrn = matcher;
+            if(rtrn == null){
+               rtrn = new Matcher(secrets);
+               matcher = rtrn;
+            }
          }
       }
       return rtrn;
    }
+
+   /**
+    * @return the input with each secret replaced, or the input instance when it does not contain a secret
+    */
+   public String filter(String input){
+      if (input == null || input.isEmpty()) {
+         return input;
+      }
+      return matcher().filter(input);
+   }
    public Json filter(Json json){
       Json rtrn = json.clone();
       Queue<Json> todo = new LinkedList<>();
@@ -0,0 +1,91 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import org.jboss.logging.Logger;
+
+import java.lang.invoke.MethodHandles;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+/**
+ * Connects shells for the next stage while the current stage is still running.
+ * Each warm shell has the qDup prompt but no setup command, the stage applies its own setup command when it takes the shell.
+ * A stage that takes a shell before it finishes connecting waits for that connect instead of starting another one.
+ */
+public class ShellWarmer {
+
+    private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    private final Function<Host,AbstractShell> connect;
+    private final Executor executor;
+    private final ConcurrentHashMap<Host,Queue<CompletableFuture<AbstractShell>>> warm;
+
+    /**
+     * @param connect creates a connected shell for the host
+     * @param executor runs the connects
+     */
+    public ShellWarmer(Function<Host,AbstractShell> connect, Executor executor){
+        this.connect = connect;
+        this.executor = executor;
+        this.warm = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Starts connecting one shell for each entry in hosts, a host that needs more than one shell is in hosts more than once
+     */
+    public void warm(List<Host> hosts){
+        hosts.forEach(host->{
+            CompletableFuture<AbstractShell> future = CompletableFuture.supplyAsync(()->connect.apply(host),executor)
+                .exceptionally(e->{
+                    logger.debugf("failed to warm a shell for %s: %s",host.getSafeString(),e.getMessage());
+                    return null;
+                });
+            warm.computeIfAbsent(host,h->new ConcurrentLinkedQueue<>()).add(future);
+        });
+    }
+
+    /**
+     * @return a ready shell for the host or null if there is not one
+     */
+    public AbstractShell take(Host host){
+        Queue<CompletableFuture<AbstractShell>> queue = warm.get(host);
+        CompletableFuture<AbstractShell> future;
+        while(queue != null && (future = queue.poll()) != null){
+            AbstractShell shell = future.join();
+            if(shell != null && shell.isReady()){
+                return shell;
+            }else if (shell != null){
+                shell.close(false);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the shells that are connected or connecting and not taken
+     */
+    public int size(){
+        return warm.values().stream().mapToInt(Queue::size).sum();
+    }
+
+    /**
+     * Closes the shells that were not taken
+     */
+    public void close(){
+        warm.forEach((host,queue)->{
+            CompletableFuture<AbstractShell> future;
+            while( (future = queue.poll()) != null ){
+                future.thenAccept(shell->{
+                    if(shell != null){
+                        shell.close(false);
+                    }
+                });
+            }
+        });
+    }
+}
@@ -0,0 +1,182 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.cmd.Dispatcher;
+import io.hyperfoil.tools.qdup.cmd.ScriptContext;
+import org.jboss.logging.Logger;
+
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Connects the shells for a stage on a dedicated pool so connecting does not use the command threads.
+ * The Dispatcher keeps the stage open until every connect from the stage has finished.
+ * The FailurePolicy decides if a failed connect aborts the run or only skips the scripts for that shell.
+ * With ABORT no script starts until every shell for the launch connected, so a failed connect aborts before any script has side effects.
+ * With CONTINUE each ScriptContext goes to the Dispatcher as soon as its shell is ready and a slow host does not delay the other hosts.
+ */
+public class StageLauncher {
+
+    private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static final int DEFAULT_MAX_CONCURRENT = 32;
+
+    public enum FailurePolicy {ABORT, CONTINUE}
+
+    /**
+     * The connects for one stage
+     */
+    public class Launch {
+        private final Dispatcher dispatcher;
+        private final String stageName;
+        private final String roleName;
+        private final List<Callable<ScriptContext>> connects;
+        private final Runnable onFailure;
+        private final AtomicInteger failed;
+        private final AtomicBoolean started;
+        //connected contexts waiting for the other connects with FailurePolicy.ABORT
+        private final List<ScriptContext> held;
+        private int remaining;
+        private boolean cancelled = false;
+
+        private Launch(Dispatcher dispatcher, String stageName, String roleName, List<Callable<ScriptContext>> connects, Runnable onFailure){
+            this.dispatcher = dispatcher;
+            this.stageName = stageName;
+            this.roleName = roleName;
+            this.connects = connects;
+            this.onFailure = onFailure;
+            this.failed = new AtomicInteger(0);
+            this.started = new AtomicBoolean(false);
+            this.held = new ArrayList<>();
+            this.remaining = connects.size();
+        }
+
+        public String getStageName(){return stageName;}
+        public String getRoleName(){return roleName;}
+        public int getFailed(){return failed.get();}
+        public synchronized boolean isCancelled(){return cancelled;}
+
+        /**
+         * Starts connecting, call after the Dispatcher is started so each context runs as soon as it is added
+         */
+        public void start(){
+            if(!started.compareAndSet(false,true)){
+                return;
+            }
+            connects.forEach(connect -> pool.execute(() -> connect(connect)));
+        }
+
+        /**
+         * Stops adding contexts to the Dispatcher, shells that connect after this are closed
+         */
+        public synchronized void cancel(){
+            cancelled = true;
+            closeHeld();
+        }
+
+        private void closeHeld(){
+            held.forEach(context -> context.getShell().close(false));
+            held.clear();
+        }
+
+        private void removePending(int count){
+            if(roleName == null){
+                dispatcher.removePendingContexts(count);
+            }else{
+                dispatcher.removePendingContexts(roleName,count);
+            }
+        }
+
+        private void connect(Callable<ScriptContext> connect){
+            ScriptContext context = null;
+            try {
+                context = connect.call();
+            } catch (Exception e) {
+                logger.errorf("%s failed to connect: %s",stageName,e.getMessage());
+            }
+            boolean abort = false;
+            synchronized (this){
+                if(cancelled){
+                    if(context != null){
+                        context.getShell().close(false);
+                    }
+                    return;
+                }
+                remaining--;
+                if(FailurePolicy.ABORT.equals(policy)){
+                    if(context == null){
+                        failed.incrementAndGet();
+                        //the abort stops the dispatcher so the remaining connects are ignored
+                        cancelled = true;
+                        abort = true;
+                        closeHeld();
+                    }else{
+                        held.add(context);
+                        if(remaining == 0){
+                            held.forEach(dispatcher::addScriptContext);
+                            held.clear();
+                            removePending(connects.size());
+                        }
+                    }
+                }else{
+                    if(context != null){
+                        dispatcher.addScriptContext(context);
+                    }else{
+                        failed.incrementAndGet();
+                    }
+                    removePending(1);
+                }
+            }
+            if(abort && onFailure != null){
+                onFailure.run();
+            }
+        }
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final FailurePolicy policy;
+
+    /**
+     * @param maxConcurrent maximum shells connecting at once
+     * @param policy what to do when a shell fails to connect
+     */
+    public StageLauncher(int maxConcurrent, FailurePolicy policy){
+        this.pool = Dispatcher.newDaemonExecutor("qDup-connect-",Math.max(1,maxConcurrent));
+        this.policy = policy;
+    }
+
+    public FailurePolicy getFailurePolicy(){return policy;}
+    public int getMaxConcurrent(){return pool.getMaximumPoolSize();}
+    /**
+     * @return the connect pool, for other connects that should not use the command threads
+     */
+    public Executor getExecutor(){return pool;}
+
+    /**
+     * Tells the dispatcher to expect a context from each connect. Start the returned Launch after the dispatcher starts.
+     * @param connects return the connected ScriptContext or null if the shell did not connect
+     * @param onFailure called once when a connect fails and the policy is ABORT
+     */
+    public Launch prepare(Dispatcher dispatcher, String stageName, List<Callable<ScriptContext>> connects, Runnable onFailure){
+        dispatcher.addPendingContexts(connects.size());
+        return new Launch(dispatcher,stageName,null,connects,onFailure);
+    }
+
+    /**
+     * Same as {@link #prepare(Dispatcher, String, List, Runnable)} but the connects count towards the role finishing in the dispatcher
+     * @param roleName the role for every context from connects
+     */
+    public Launch prepare(Dispatcher dispatcher, String stageName, String roleName, List<Callable<ScriptContext>> connects, Runnable onFailure){
+        dispatcher.addPendingContexts(roleName,connects.size());
+        return new Launch(dispatcher,stageName,roleName,connects,onFailure);
+    }
+
+    public void shutdown(){
+        pool.shutdownNow();
+    }
+}
@@ -25,6 +25,12 @@ import java.util.stream.Collectors;
  *     All KEY's will match the prefix check so no set(KEY,VALUE) operations will modify a parent State.
  *   A State with a null prefix will never match a prefix check so it becomes read only from a child perspective but the parents are still mutable.
  *
+ * Lookups
+ *   Each State keeps a concurrent index of its top level keys. A write updates the index entry for the top level key it changed
+ *   while it holds the lock on the State so reads never rebuild the index. A plain key is a single hash lookup per scope.
+ *   Dotted keys (e.g. foo.bar) are split once, cached, and walked through the nested Json. Only keys that need JSONPath
+ *   (filters, deep scans, array indexes) fall back to Json.find.
+ *
  */
 public class State {
 
@@ -36,12 +42,61 @@ public class State {
     public static final String HOST_PREFIX = "HOST"+CHILD_DELIMINATOR;
     public static final String ROLE_PREFIX = "ROLE"+CHILD_DELIMINATOR;
 
+    private static final int MAX_PATH_CACHE_SIZE = 4096;
+    private static final Map<String,KeyPath> PATH_CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * A key parsed for lookup in the state json.
+     * segments is null when the key needs JSONPath, otherwise the dotted names to walk through nested Json
+     */
+    private record KeyPath(String[] segments, String jsonPath){
+
+        static KeyPath parse(String key){
+            KeyPath rtrn = PATH_CACHE.get(key);
+            if(rtrn == null){
+                String[] segments = key.split("\\.",-1);
+                for(String segment : segments){
+                    if(!isSimpleSegment(segment)){
+                        segments = null;
+                        break;
+                    }
+                }
+                rtrn = new KeyPath(segments,key.startsWith("$") ? key : "$."+key);
+                if(PATH_CACHE.size() >= MAX_PATH_CACHE_SIZE){
+                    PATH_CACHE.clear();
+                }
+                PATH_CACHE.put(key,rtrn);
+            }
+            return rtrn;
+        }
+
+        /**
+         * @return true if JSONPath would treat the segment as a plain property name
+         */
+        private static boolean isSimpleSegment(String segment){
+            if(segment.isEmpty()){
+                return false;
+            }
+            boolean allDigits = true;
+            for(int i=0; i<segment.length(); i++){
+                char c = segment.charAt(i);
+                if(!Character.isLetterOrDigit(c) && c != '_' && c != '-'){
+                    return false;
+                }
+                allDigits = allDigits && c >= '0' && c <= '9';
+            }
+            //Json treats numeric keys as array indexes
+            return !allDigits;
+        }
+    }
+
 
     private State parent;
     private Json json;
     private Map<String,State> childStates;
     private String prefix;
     private SecretFilter secretFilter;
+    private final Map<Object,Object> index;
 
     public static class CmdState extends State {
         private final Cmd cmd;
@@ -118,15 +173,95 @@ public class State {
         this.json = new Json();
         this.childStates = new ConcurrentHashMap<>();
         this.prefix = prefix;
+        this.index = new ConcurrentHashMap<>();
     }
 
     public SecretFilter getSecretFilter(){return secretFilter;}
 
+    /**
+     * Updates the index after a write to key, call while holding the lock on this State
+     */
+    private void reindex(String key){
+        String[] segments = KeyPath.parse(key).segments();
+        if(segments == null){
+            //Json.chainSet may have changed any top level key
+            json.forEach((name,value)->index.put(name,value));
+            index.keySet().removeIf(name->!json.has(name));
+            return;
+        }
+        reindexKey(segments[0]);
+        if(segments[0].startsWith(SecretFilter.SECRET_NAME_PREFIX)){
+            //scanSecrets renames the key
+            reindexKey(segments[0].substring(SecretFilter.SECRET_NAME_PREFIX.length()));
+        }
+    }
+    private void reindexKey(String name){
+        Object indexKey = indexKey(name);
+        Object value = json.has(indexKey) ? json.get(indexKey) : null;
+        if(value == null){
+            index.remove(indexKey);
+        }else{
+            index.put(indexKey,value);
+        }
+    }
+
+    /**
+     * The same as json.has(key) ? json.get(key) : Json.find(json,"$."+key) without building a JSONPath for plain or dotted keys
+     */
+    private Object lookup(String key){
+        Object rtrn = index.get(indexKey(key));
+        return rtrn != null ? rtrn : find(key);
+    }
+
+    /**
+     * The same as json.has(key) || Json.find(json,"$."+key)!=null
+     */
+    private boolean contains(String key){
+        return index.containsKey(indexKey(key)) || find(key) != null;
+    }
+
+    private Object find(String key){
+        KeyPath path = KeyPath.parse(key);
+        String[] segments = path.segments();
+        if(segments == null){
+            return Json.find(json,path.jsonPath());
+        }
+        //a plain key that is not in the index is not in the json
+        Object rtrn = segments.length > 1 ? index.get(segments[0]) : null;
+        for(int i=1; i<segments.length && rtrn != null; i++){
+            if(rtrn instanceof Json && !((Json)rtrn).isArray()){
+                rtrn = ((Json)rtrn).get(segments[i]);
+            }else{
+                return Json.find(json,path.jsonPath());
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * Json stores numeric keys as Long
+     */
+    private static Object indexKey(String key){
+        if(key.isEmpty() || key.length() > 18){
+            return key;
+        }
+        for(int i=0; i<key.length(); i++){
+            char c = key.charAt(i);
+            if(c < '0' || c > '9'){
+                return key;
+            }
+        }
+        return Long.parseLong(key);
+    }
+
     public void merge(State state){
         if(this.prefix == state.prefix){
             state.getKeys().forEach(key->{
-                if(!this.json.has(key)){
-                    this.json.set(key,state.get(key));
+                synchronized (this){
+                    if(!this.json.has(key)){
+                        this.json.set(key,state.get(key));
+                        reindexKey(key);
+                    }
                 }
             });
             state.getChildNames().forEach(childName->{
@@ -241,9 +376,12 @@ public class State {
             do {
                 if (target.prefix != null && key.startsWith(target.prefix)) {
                     String newKey = key.substring(target.prefix.length());
-                    //use chain set to break .'s into child objects
-                    Json.chainSet(target.json,newKey,value);
-                    target.scanSecrets();
+                    synchronized (target){
+                        //use chain set to break .'s into child objects
+                        Json.chainSet(target.json,newKey,value);
+                        target.scanSecrets();
+                        target.reindex(newKey);
+                    }
                     return;
                 }
             } while ((target = target.parent) != null);
@@ -257,8 +395,11 @@ public class State {
             }
         }
         //at this point there wasn't a prefix match
-        Json.chainSet(this.json,key,value);
-        scanSecrets();
+        synchronized (this){
+            Json.chainSet(this.json,key,value);
+            scanSecrets();
+            reindex(key);
+        }
     }
     public void set(Json json){
         for(Object key : json.keys()){
@@ -284,11 +425,11 @@ public class State {
             if(target.prefix!=null && currentKey.startsWith(target.prefix)){
                 currentKey = currentKey.substring(target.prefix.length());
             }
-            rtrn = target.json.has(currentKey) || Json.find(target.json,currentKey.startsWith("$") ? currentKey : "$." + currentKey)!=null;
+            rtrn = target.contains(currentKey);
             if(!rtrn && Json.isJsonSearchPath(currentKey)){
                 String keyPrefix = Json.getPreSearchPath(currentKey);
                 if(!keyPrefix.isBlank()){
-                    rtrn = target.json.has(keyPrefix) || Json.find(target.json,keyPrefix.startsWith("$") ? keyPrefix : "$." + keyPrefix)!=null;
+                    rtrn = target.contains(keyPrefix);
                 }
             }
             target = target.parent;
@@ -303,17 +444,23 @@ public class State {
         do {
             if(target.prefix!=null && currentKey.startsWith(target.prefix)){
                 currentKey = currentKey.substring(target.prefix.length());
-                if(target.json.has(currentKey)){
-                    rtrn = true;
-                    target.json.remove(currentKey);
+                synchronized (target){
+                    if(target.json.has(currentKey)){
+                        rtrn = true;
+                        target.json.remove(currentKey);
+                        target.reindexKey(currentKey);
+                    }
                 }
             }
         }while((target=target.parent)!=null && !rtrn);
 
         if(!rtrn){
-            if(this.json.has(key)){
-                rtrn = true;
-                this.json.remove(key);
+            synchronized (this){
+                if(this.json.has(key)){
+                    rtrn = true;
+                    this.json.remove(key);
+                    reindexKey(key);
+                }
             }
         }
         return rtrn;
@@ -326,8 +473,7 @@ public class State {
         do {
             if(target.prefix!=null && currentKey.startsWith(target.prefix)){
                 currentKey = currentKey.substring(target.prefix.length());
-                String searchKey = currentKey.startsWith("$") ? currentKey : "$."+currentKey;
-                rtrn = target.json.has(currentKey) ? target.json.get(currentKey) : Json.find(target.json,searchKey);
+                rtrn = target.lookup(currentKey);
             }
         }while( (target=target.parent)!=null && rtrn==null);
 
@@ -339,7 +485,7 @@ public class State {
                 if(target.prefix!=null && currentKey.startsWith(target.prefix)){
                     currentKey = currentKey.substring(target.prefix.length());
                 }
-                rtrn = target.json.has(currentKey) ? target.json.get(currentKey) : Json.find(target.json,currentKey.startsWith("$") ? currentKey : "$."+currentKey);
+                rtrn = target.lookup(currentKey);
                 //why was this part added? doesn't it incorrectly skip the filtering for valid filters that don't match?
                 //was this copied from has which needed this logic for ensuring jsonpaths exist?
                 if(rtrn == null && Json.isJsonSearchPath(currentKey)){
@@ -459,6 +605,9 @@ public class State {
         //break abstraction to avoid prefix checks
         this.json.forEach((k,v)->{
             rtrn.json.set(k,v);
+            if(v != null){
+                rtrn.index.put(k,v);
+            }
         });
         this.childStates.forEach((k,v)->{
             rtrn.childStates.put(k,deep ? v.clone() : v);
@@ -235,6 +235,9 @@ public abstract class Cmd {
          context.next(input);
       }
 
+      @Override
+      public boolean isBlocking(){return false;}
+
       @Override
       public Cmd copy() {
          return new NO_OP(name).with(this.withDef);
@@ -545,7 +548,7 @@ public abstract class Cmd {
       return list.stream().map(v->{
          String rtrn = v;
          try {
-            rtrn = StringUtil.populatePattern(v,map);//,StringUtil.PATTERN_PREFIX,"__",StringUtil.PATTERN_SUFFIX,StringUtil.PATTERN_JAVASCRIPT_PREFIX);
+            rtrn = PatternTemplate.populatePattern(v,map,Collections.emptyList());//,StringUtil.PATTERN_PREFIX,"__",StringUtil.PATTERN_SUFFIX,StringUtil.PATTERN_JAVASCRIPT_PREFIX);
             if(v!=null & v.contains(StringUtil.PATTERN_PREFIX) && (rtrn == null || rtrn.isBlank())){
                rtrn = null;
             }
@@ -584,15 +587,11 @@ public abstract class Cmd {
       }else {
          PatternValuesMap map = new PatternValuesMap(cmd, state, coordinator, timestamps, ref);
          try {
-            List<String> jsSnippets = ((coordinator != null && coordinator.getGlobals().getJsSnippets() != null) ? coordinator.getGlobals().getJsSnippets() : new ArrayList<>())
-                    .stream()
-                    .map(v->(JsSnippet)v)
-                    .map(JsSnippet::getFunction)
-                    .toList();
+            List<String> jsSnippets = coordinator != null ? coordinator.getGlobals().getJsSnippetsContents() : Collections.emptyList();
             if (cmd != null) {
-               rtrn = StringUtil.populatePattern(command, map, jsSnippets, cmd.getPatternPrefix(), cmd.getPatternSeparator(), cmd.getPatternSuffix(), cmd.getPatternJavascriptPrefix());
+               rtrn = PatternTemplate.populatePattern(command, map, jsSnippets, cmd.getPatternPrefix(), cmd.getPatternSeparator(), cmd.getPatternSuffix(), cmd.getPatternJavascriptPrefix());
             } else {
-               rtrn = StringUtil.populatePattern(command, map, jsSnippets, StringUtil.PATTERN_PREFIX, StringUtil.PATTERN_DEFAULT_SEPARATOR, StringUtil.PATTERN_SUFFIX, StringUtil.PATTERN_JAVASCRIPT_PREFIX);
+               rtrn = PatternTemplate.populatePattern(command, map, jsSnippets);
             }
          } catch (PopulatePatternException pe) {
             if (pe.isJsFailure() && !partial) {//partial means we expect there could be missing expressions
@@ -632,6 +631,8 @@ public abstract class Cmd {
 
    int uid;
    private String output;
+   //the with values when this command was added to a reused tree, restored by resetRunState
+   private Json savedWith = null;
 
    protected Cmd() {
       this(false);
@@ -650,6 +651,33 @@ public abstract class Cmd {
       this.uid = uidGenerator.incrementAndGet();
    }
 
+   /**
+    * Saves the with values that {@link #resetRunState()} restores, call once on each command of a tree that will be reused
+    */
+   public void saveRunState(){
+      savedWith = withDef.isEmpty() ? null : withDef.clone();
+   }
+
+   /**
+    * Clears the values from the previous run so a reused command tree runs like a new copy of the same commands.
+    * Commands that keep other values between calls to run override this and call super.
+    */
+   public void resetRunState(){
+      output = null;
+      deferredCmd.clear();
+      if(savedWith == null){
+         if(!withDef.isEmpty()){
+            withDef = new Json();
+         }
+         if(!withActive.isEmpty()){
+            withActive = new Json();
+         }
+      }else{
+         withDef = savedWith.clone();
+         withActive = savedWith.clone();
+      }
+   }
+
    public boolean hasDeferredCmd(){ return !deferredCmd.isEmpty();}
    public void addDeferredCmd(Cmd command){
        deferredCmd.add(command);
@@ -845,6 +873,14 @@ public abstract class Cmd {
       }
    }
 
+   /**
+    * Commands that only change memory return false so the next command can start on the same thread instead of queueing the context again.
+    * @return true if run can wait on a shell, file or other resource
+    */
+   public boolean isBlocking(){
+      return true;
+   }
+
    public boolean isSilent() {
       return silent;
    }
@@ -1162,6 +1198,13 @@ public abstract class Cmd {
 
    public void preRun(String input,Context context){
 
+   }
+   /**
+    * Called on each watcher after the last line of the watched command.
+    * Watchers that keep state across lines use this to emit what is left.
+    */
+   public void postWatch(Context context){
+
    }
    protected void runDeferred(String output, Context context){
 
@@ -6,5 +6,9 @@ public interface ContextObserver {
     default void preNext(Context context, Cmd command, String output){}
     default void preSkip(Context context, Cmd command, String output){}
     default void onUpdate(Context context, Cmd command, String output){}
+    /**
+     * @return false if onUpdate does nothing so contexts can skip creating the output String for each line
+     */
+    default boolean observesUpdates(){return true;}
     default void onDone(Context context){}
 }
@@ -3,4 +3,12 @@ package io.hyperfoil.tools.qdup.cmd;
 public interface DispatchObserver {
     default void preStart(){}
     default void postStop(){}
+
+    /**
+     * Called when a role no longer has any running or connecting scripts in the current stage.
+     * Runs on the thread that finished the last script, before the Dispatcher checks if the stage is over,
+     * so contexts that are added or expected from this method keep the stage open.
+     * @param roleName the role that finished
+     */
+    default void postStop(String roleName){}
 }
@@ -13,7 +13,6 @@ import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Consumer;
 
 /**
  *
@@ -63,12 +62,22 @@ public class Dispatcher {
     private final ThreadPoolExecutor executor;
     private final ScheduledThreadPoolExecutor scheduler;
     private final ScheduledThreadPoolExecutor callback;
-    private ScheduledFuture<?> nannyFuture;
+    //the next idle check for each active ScriptContext, ordered by deadline in the scheduler queue
+    private final ConcurrentHashMap<ScriptContext,ScheduledFuture<?>> idleChecks;
+    //set by the first idle check that finds every context waiting so the stage is only ended once
+    private final AtomicBoolean isStalled;
+    //contexts that are still connecting for the current stage, the stage does not end until they are added
+    private final AtomicInteger pendingContexts;
+    //running and connecting contexts for each role in the current stage
+    private final ConcurrentHashMap<String,AtomicInteger> roleCounts;
+    private volatile boolean roleTracking = false;
+    //onDone calls that are still notifying role observers, the stage does not end until they finish
+    private final AtomicInteger roleNotifying;
     private final AtomicBoolean isRunning;
     private final AtomicBoolean isStopping;
-    private final Consumer<Long> nannyTask;
 
     private final boolean autoClose;
+    private final boolean virtualThreads;
 
     private final ContextObserver observer = new ContextObserver() {
 
@@ -80,6 +89,17 @@ public class Dispatcher {
                 }
             }
         }
+        @Override
+        public boolean observesUpdates(){
+            if(hasContextObserver()){
+                for(ContextObserver o : contextObservers){
+                    if(o.observesUpdates()){
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
 
         @Override
         public void preStart(Context context,Cmd command){
@@ -124,11 +144,25 @@ public class Dispatcher {
             if(context instanceof ScriptContext){
                 ScriptContext scriptContext = (ScriptContext)context;
                 scriptContext.getContextTimer().stop(); //fix bug where last timer has stop = 0
-
-                scriptContexts.remove(scriptContext.getRootCmd());
-                scriptObservers.forEach(observer -> observer.onStop(scriptContext));
-                context.close();
-                //context.getSession().close(); //using close on context to only close base context
+                String roleName = scriptContext.getRoleName();
+                boolean hasRole = roleName != null && !roleName.isEmpty();
+                if(hasRole){
+                    roleNotifying.incrementAndGet();
+                }
+                try {
+                    scriptContexts.remove(scriptContext.getRootCmd());
+                    cancelIdleCheck(scriptContext);
+                    scriptObservers.forEach(observer -> observer.onStop(scriptContext));
+                    context.close();
+                    //context.getSession().close(); //using close on context to only close base context
+                    if(hasRole){
+                        updateRoleCount(roleName,-1);
+                    }
+                } finally {
+                    if(hasRole){
+                        roleNotifying.decrementAndGet();
+                    }
+                }
                 checkActiveCount();
             }
         }
@@ -186,17 +220,25 @@ public class Dispatcher {
             3
         );
     }
+
+    /**
+     * Creates a Dispatcher that runs each ScriptContext (and any watcher loop) on its own virtual thread when virtualThreads is true.
+     * The scheduler and callback pools are platform threads in either mode.
+     * @param virtualThreads use a thread per ScriptContext instead of a fixed size command pool
+     */
+    public Dispatcher(boolean virtualThreads){
+        this(
+            virtualThreads ? newVirtualThreadExecutor() : newCommandExecutor(Runtime.getRuntime().availableProcessors()),
+            getMinimumScheduleCorePoolSize(),
+            3
+        );
+    }
     public Dispatcher(int executorCount,int scheduledCount,int callbackCount){
+        this(newCommandExecutor(executorCount),scheduledCount,callbackCount);
+    }
+    private Dispatcher(ThreadPoolExecutor executor,int scheduledCount,int callbackCount){
         this(
-                new ThreadPoolExecutor(executorCount, executorCount, 30, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), new ThreadFactory() {
-                    final AtomicInteger count = new AtomicInteger(0);
-                    @Override
-                    public Thread newThread(Runnable runnable) {
-                        Thread rtrn = new Thread(runnable,"qDup-execute-"+count.getAndAdd(1));
-                        rtrn.setUncaughtExceptionHandler(DefaultUncaughtExceptionHandler);
-                        return rtrn;
-                    }
-                }),
+                executor,
                 new ScheduledThreadPoolExecutor(scheduledCount,new ThreadFactory() {
                     final AtomicInteger count = new AtomicInteger(0);
                     @Override
@@ -219,6 +261,8 @@ public class Dispatcher {
     }
     private Dispatcher(ThreadPoolExecutor executor, ScheduledThreadPoolExecutor scheduler, ScheduledThreadPoolExecutor callback, boolean autoClose){
         this.executor = executor;
+        //newVirtualThreadExecutor falls back to platform threads before java 21
+        this.virtualThreads = executor.getThreadFactory() instanceof VirtualThreadFactory && ((VirtualThreadFactory)executor.getThreadFactory()).isVirtual();
         this.scheduler = scheduler;
         this.callback = callback;
         this.autoClose=autoClose;
@@ -229,93 +273,121 @@ public class Dispatcher {
         this.dispatchObservers = new LinkedList<>();
         this.contextObservers = new LinkedList<>();
 
-        this.nannyFuture = null;
-        this.nannyTask = (timestamp)->{
-            AtomicInteger nonWaitingContexts = new AtomicInteger(0);
-            scriptContexts.forEach((script, context)->{
-                Cmd command = context.getCurrentCmd();
-                long lastUpdate = context.getUpdateTime();
-
-                logger.tracef("Nanny checking:\n  host=%s\n  command=%s",
-                        context.getShell().getHost(),
-                        command);
-
-                //checking if the command is waiting for a signal
-                if(command instanceof WaitFor){
-                    //the context is waiting by definition
-                }else {
-                    //check for repeat-until
-                    Cmd target = command;
-                    boolean isWaiting = false; //if the context is waiting for a signal
-
-                    do {
-                        if (target instanceof RepeatUntilSignal) {
-                            RepeatUntilSignal repeatUntilSignal = (RepeatUntilSignal) target;
-                            String repeatUntilSignalName = Cmd.populateStateVariables(repeatUntilSignal.getName(),target,context);
-                            boolean selfSignals = ((RepeatUntilSignal)target).isSelfSignaling();
-                            if(!selfSignals){
-                                //check if the repeat-until is already signalled
-                                int signalCount = context.getCoordinator().getSignalCount(repeatUntilSignalName);
-                                if(signalCount > 0){
-                                    isWaiting = true;
-                                }
-                                //TODO check for remote signalling?
-                                if(!isWaiting){}
-                            }else{//selfSignaling is not waiting
-                                isWaiting = false;
-                            }
-                        }
-                    } while (!isWaiting && target.hasParent() && (target = target.getParent()) != null);
-                    if(!isWaiting){
-                        nonWaitingContexts.incrementAndGet();
-                    }else{
-                    }
-                }
-
-                //check for idle sh
-
-                if(command.hasIdleTimer() &&  timestamp - lastUpdate > command.getIdleTimer(context.getState())){
-                    if(command instanceof Sh){
-                        String output = context.getShell().peekOutput();
-                        boolean hasPrompt = output.contains(context.getHost().hasPrompt() ? context.getHost().getPrompt() : AbstractShell.PROMPT);
-                        boolean moreInput = output.endsWith("> ");
-                        String parentName = null;
-                        if (command.getParent() instanceof Script)
-                            parentName = ((Script) (command).getParent()).getName();
-                        if(!command.isSilent()){
-                            logger.warnf("%sNanny found idle%s\n  command=%s\n  host=%s\n  contextId=%s script=%s\n  idle=%s\n  lastLine=%s"
-                                    + (hasPrompt ? "\n  output includes qdup prompt, a background or child process may be running independent of the current command" : "")
-                                    + (moreInput ? "\n terminal is waiting for input, a quote may not be closed":""),
-                                    context.isColorTerminal() ? AsciiArt.ANSI_RED : "",
-                                    context.isColorTerminal() ? AsciiArt.ANSI_RESET : "",
-                                    command,
-                                    context.getShell().getHost().getHostName(),
-                                    context.getContextId(),
-                                    script + (parentName.equals(null)? "" : ":" + parentName),
-                                    String.format("%5.2f", (1.0 * timestamp - lastUpdate) / 1_000),
-                                    context.getShell().peekOutputTail());
-                        }
+        this.idleChecks = new ConcurrentHashMap<>();
+        this.isStalled = new AtomicBoolean(false);
+        this.pendingContexts = new AtomicInteger(0);
+        this.roleCounts = new ConcurrentHashMap<>();
+        this.roleNotifying = new AtomicInteger(0);
+        this.isRunning = new AtomicBoolean(false);
+        this.isStopping = new AtomicBoolean(false);
+    }
 
+    /**
+     * Schedules the next idle check for the context.
+     * ScriptContext.update only records the update time so the check moves its own deadline when it finds a newer update.
+     */
+    private void armIdleCheck(ScriptContext context, long delay){
+        if(isRunning()){
+            idleChecks.put(context,scheduler.schedule(()->checkIdle(context),delay,TimeUnit.MILLISECONDS));
+        }
+    }
+    private void cancelIdleCheck(ScriptContext context){
+        ScheduledFuture<?> future = idleChecks.remove(context);
+        if(future!=null){
+            future.cancel(false);
+        }
+    }
 
-                    }
+    /**
+     * Warns if the context's command is idle then ends the stage if the context is waiting and so is every other context.
+     * Runs at most once per idle timer for each context no matter how often the context is updated.
+     */
+    private void checkIdle(ScriptContext context){
+        if(!isRunning() || scriptContexts.get(context.getRootCmd()) != context){
+            idleChecks.remove(context);
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        long lastUpdate = context.getUpdateTime();
+        Cmd command = context.getCurrentCmd();
+        long delay = Cmd.DEFAULT_IDLE_TIMER;
+        if(command != null){
+            logger.tracef("Nanny checking:\n  host=%s\n  command=%s",
+                    context.getShell().getHost(),
+                    command);
+            if(command.hasIdleTimer()){
+                long idleTimer = command.getIdleTimer(context.getState());
+                if(timestamp - lastUpdate > idleTimer){
+                    warnIdle(context,command,timestamp,lastUpdate);
+                }else{
+                    //check again when the command would be idle
+                    delay = Math.min(delay, lastUpdate + idleTimer - timestamp + 1);
                 }
-            });
-            if(nonWaitingContexts.get() == 0){
-                if(!scriptContexts.isEmpty()){
+            }
+            if(pendingContexts.get() == 0 && isWaiting(context,command) && scriptContexts.values().stream().allMatch(c->isWaiting(c,c.getCurrentCmd()))){
+                if(isStalled.compareAndSet(false,true)){
                     logger.warnf("ending phase with %d active idle waiting scripts\n%s",
-                       scriptContexts.size(),
-                       getActiveJson().toString(2)
+                            scriptContexts.size(),
+                            getActiveJson().toString(2)
                     );
-                    ScriptContext first = scriptContexts.values().iterator().next();
-                    first.done();//use context.done to also stop the waiters
+                    context.done();//use context.done to also stop the waiters
                 }
+                return;
             }
+        }
+        armIdleCheck(context,delay);
+    }
+    private void warnIdle(ScriptContext context,Cmd command,long timestamp,long lastUpdate){
+        if(command instanceof Sh && !command.isSilent()){
+            String output = context.getShell().peekOutput();
+            boolean hasPrompt = output.contains(context.getHost().hasPrompt() ? context.getHost().getPrompt() : AbstractShell.PROMPT);
+            boolean moreInput = output.endsWith("> ");
+            String parentName = null;
+            if (command.getParent() instanceof Script)
+                parentName = ((Script) (command).getParent()).getName();
+            logger.warnf("%sNanny found idle%s\n  command=%s\n  host=%s\n  contextId=%s script=%s\n  idle=%s\n  lastLine=%s"
+                            + (hasPrompt ? "\n  output includes qdup prompt, a background or child process may be running independent of the current command" : "")
+                            + (moreInput ? "\n terminal is waiting for input, a quote may not be closed":""),
+                    context.isColorTerminal() ? AsciiArt.ANSI_RED : "",
+                    context.isColorTerminal() ? AsciiArt.ANSI_RESET : "",
+                    command,
+                    context.getShell().getHost().getHostName(),
+                    context.getContextId(),
+                    context.getRootCmd() + (parentName == null ? "" : ":" + parentName),
+                    String.format("%5.2f", (1.0 * timestamp - lastUpdate) / 1_000),
+                    context.getShell().peekOutputTail());
+        }
+    }
 
-        };
-        this.isRunning = new AtomicBoolean(false);
-        this.isStopping = new AtomicBoolean(false);
+    /**
+     * A context is waiting if the command is a wait-for or is inside a repeat-until that does not signal itself and the signal has not been reached.
+     * Self signaling is computed once for each repeat-until so this only walks up the parents of the command.
+     */
+    private static boolean isWaiting(ScriptContext context,Cmd command){
+        if(command instanceof WaitFor){
+            return true;
+        }
+        Cmd target = command;
+        while(target != null){
+            if(target instanceof RepeatUntilSignal){
+                RepeatUntilSignal repeatUntilSignal = (RepeatUntilSignal) target;
+                if(!repeatUntilSignal.isSelfSignaling()){
+                    String repeatUntilSignalName = Cmd.populateStateVariables(repeatUntilSignal.getName(),target,context);
+                    //TODO check for remote signalling?
+                    if(context.getCoordinator().getSignalCount(repeatUntilSignalName) > 0){
+                        return true;
+                    }
+                }
+            }
+            target = target.hasParent() ? target.getParent() : null;
+        }
+        return false;
     }
 
+    /**
+     * @return true if the executor creates virtual threads, false if virtual threads were requested but are not supported by the jvm
+     */
+    public boolean isVirtualThreads(){return virtualThreads;}
     public ScheduledThreadPoolExecutor getScheduler(){return scheduler;}
     public ScheduledThreadPoolExecutor getCallback(){return callback;}
 
@@ -344,6 +416,68 @@ public class Dispatcher {
     public void addScriptContext(ScriptContext context){
        addScriptContext(context,true);
     }
+
+    /**
+     * Keeps the stage from ending until {@link #removePendingContexts(int)} is called for each expected context.
+     * Call before {@link #start()} for contexts that are added after the dispatcher starts.
+     */
+    public void addPendingContexts(int count){
+        pendingContexts.addAndGet(count);
+    }
+
+    /**
+     * Call after the expected context is added or will not be added, ends the stage if nothing else is active
+     */
+    public void removePendingContexts(int count){
+        if(pendingContexts.addAndGet(-count) <= 0 && isRunning()){
+            checkActiveCount();
+        }
+    }
+    /**
+     * Same as {@link #addPendingContexts(int)} but the contexts also count towards roleName finishing
+     */
+    public void addPendingContexts(String roleName,int count){
+        updateRoleCount(roleName,count);
+        addPendingContexts(count);
+    }
+
+    /**
+     * Same as {@link #removePendingContexts(int)} for contexts from {@link #addPendingContexts(String, int)}
+     */
+    public void removePendingContexts(String roleName,int count){
+        //before the pending count so anything queued by the role observers keeps the stage open
+        updateRoleCount(roleName,-count);
+        removePendingContexts(count);
+    }
+    public int getPendingContexts(){return pendingContexts.get();}
+
+    /**
+     * Counts the contexts for each role and calls {@link DispatchObserver#postStop(String)} when a role finishes.
+     * Only needed for role stage barriers so it is off by default.
+     */
+    public void setRoleTracking(boolean roleTracking){this.roleTracking = roleTracking;}
+    public boolean isRoleTracking(){return roleTracking;}
+
+    /**
+     * @return the running and connecting contexts for the role in the current stage, 0 unless role tracking is on
+     */
+    public int getRoleCount(String roleName){
+        AtomicInteger count = roleCounts.get(roleName);
+        return count == null ? 0 : count.get();
+    }
+    private void updateRoleCount(String roleName,int delta){
+        if(!roleTracking || roleName == null || roleName.isEmpty() || delta == 0){
+            return;
+        }
+        int count = roleCounts.computeIfAbsent(roleName,name->new AtomicInteger(0)).addAndGet(delta);
+        if(count == 0 && delta < 0 && isRunning()){
+            dispatchObservers.forEach(o->o.postStop(roleName));
+        }
+    }
+    /**
+     * @return the number of ScriptContexts that have not finished
+     */
+    public int getActiveCount(){return scriptContexts.size();}
     public void addScriptContext(ScriptContext context, boolean autoRun){
         logger.tracef("add script %s to %s",context.getRootCmd(),context.getShell().getHost().getHostName());
 
@@ -354,6 +488,7 @@ public class Dispatcher {
                 context
         );
         contextById.put(context.getContextId(),context);
+        updateRoleCount(context.getRoleName(),1);
         if(previous!=null){
             logger.errorf("already have getScript.tail=%s mapped to %s@%s",
                     context.getRootCmd().getTail().getUid(),
@@ -363,6 +498,7 @@ public class Dispatcher {
         if(isRunning.get()){
             ScriptContext contextResult = scriptContexts.get(context.getRootCmd());
             scriptObservers.forEach(observer -> observer.onStart(contextResult));
+            armIdleCheck(context,Cmd.DEFAULT_IDLE_TIMER);
             if(autoRun) {
                logger.infof("queueing\n  host=%s\n  script=%s",
                   contextResult.getShell().getHost().getHostName(),
@@ -384,19 +520,14 @@ public class Dispatcher {
     public void start(){ //start all the scripts attached to this dispatcher
         if(isRunning.compareAndSet(false,true)){
             isStopping.set(false);
+            isStalled.set(false);
             dispatchObservers.forEach(c->c.preStart());
             if(!scriptContexts.isEmpty()){
                 logger.infof("starting %d scripts", scriptContexts.size());
-                if(nannyFuture == null) {
-                    logger.debug("starting nanny");
-                    nannyFuture = scheduler.scheduleAtFixedRate(() -> {
-                        long timestamp = System.currentTimeMillis();
-                        nannyTask.accept(timestamp);
-                    }, Cmd.DEFAULT_IDLE_TIMER, Cmd.DEFAULT_IDLE_TIMER, TimeUnit.MILLISECONDS);
-                }
                 for(Cmd script : scriptContexts.keySet()){
                     ScriptContext contextResult = scriptContexts.get(script);
                     scriptObservers.forEach(observer -> observer.onStart(contextResult));
+                    armIdleCheck(contextResult,Cmd.DEFAULT_IDLE_TIMER);
                     logger.tracef("queueing\n  host=%s\n  script=%s",
                             contextResult.getShell().getHost().getHostName(),
                             script);
@@ -433,10 +564,10 @@ public class Dispatcher {
             if(isRunning.compareAndSet(true,false)){
                 logger.debug("stop");
 
-                if(nannyFuture!=null){
-                    boolean cancelledFuture= nannyFuture.cancel(true);
-                    nannyFuture = null;
-                }
+                idleChecks.values().forEach(future->future.cancel(false));
+                idleChecks.clear();
+                pendingContexts.set(0);
+                roleCounts.clear();
                 //needs to occur before we notify observers because observers can queue next stage
                 scriptContexts.forEach((cmd,ctx)->{
                     try {
@@ -478,12 +609,12 @@ public class Dispatcher {
      * @return
      */
     private boolean onlyWaiters(){
-        boolean rtrn = !scriptContexts.isEmpty() && scriptContexts.values().stream().allMatch(c->{
+        boolean rtrn = pendingContexts.get() == 0 && !scriptContexts.isEmpty() && scriptContexts.values().stream().allMatch(c->{
             return c.getCurrentCmd() instanceof WaitFor && !c.getCurrentCmd().hasTimers();});
         return rtrn;
     }
     private void checkActiveCount(){
-        if( (scriptContexts.isEmpty() && isRunning.compareAndSet(true,false))){
+        if( (scriptContexts.isEmpty() && pendingContexts.get() <= 0 && roleNotifying.get() == 0 && isRunning.compareAndSet(true,false))){
             executor.execute(() -> {
                 dispatchObservers.forEach(o->o.postStop());
             });
@@ -491,6 +622,95 @@ public class Dispatcher {
             stop();
         }
     }
+    /**
+     * Creates the fixed size executor used to run ScriptContexts.
+     * Each command with watchers holds one of these threads until the command ends.
+     * @param executorCount number of threads in the pool
+     * @return
+     */
+    public static ThreadPoolExecutor newCommandExecutor(int executorCount){
+        return new ThreadPoolExecutor(executorCount, executorCount, 30, TimeUnit.MINUTES, new LinkedBlockingQueue<>(), new ThreadFactory() {
+            final AtomicInteger count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread rtrn = new Thread(runnable,"qDup-execute-"+count.getAndAdd(1));
+                rtrn.setUncaughtExceptionHandler(DefaultUncaughtExceptionHandler);
+                return rtrn;
+            }
+        });
+    }
+
+    /**
+     * Creates a fixed size pool of daemon threads for work that runs outside the scripts (e.g. queued downloads and deletes).
+     * Idle threads stop after 30 seconds so a pool that is kept for the whole run does not hold threads between uses.
+     * @param prefix thread name prefix
+     * @param threadCount maximum threads running at once
+     * @return
+     */
+    public static ThreadPoolExecutor newDaemonExecutor(String prefix, int threadCount){
+        ThreadPoolExecutor rtrn = new ThreadPoolExecutor(threadCount, threadCount, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), new ThreadFactory() {
+            final AtomicInteger count = new AtomicInteger(0);
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread rtrn = new Thread(runnable,prefix+count.getAndAdd(1));
+                rtrn.setDaemon(true);
+                rtrn.setUncaughtExceptionHandler(DefaultUncaughtExceptionHandler);
+                return rtrn;
+            }
+        });
+        rtrn.allowCoreThreadTimeOut(true);
+        return rtrn;
+    }
+
+    /**
+     * Creates an unbounded executor that starts a new virtual thread for each task.
+     * Blocking in a watcher loop (lineQueue.take) then only parks the virtual thread instead of holding a pool thread.
+     * Falls back to an unbounded pool of platform threads when the JVM does not support virtual threads (before java 21).
+     * @return
+     */
+    public static ThreadPoolExecutor newVirtualThreadExecutor(){
+        VirtualThreadFactory factory = new VirtualThreadFactory("qDup-virtual-");
+        if(!factory.isVirtual()){
+            logger.warn("virtual threads are not supported by this jvm, using an unbounded platform thread pool");
+        }
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE, 0, TimeUnit.SECONDS, new SynchronousQueue<>(), factory);
+    }
+
+    /**
+     * ThreadFactory for Thread.ofVirtual() that is looked up reflectively so qDup can still be compiled for java 17.
+     */
+    static class VirtualThreadFactory implements ThreadFactory {
+        private final ThreadFactory factory;
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger(0);
+
+        VirtualThreadFactory(String prefix){
+            this.prefix = prefix;
+            ThreadFactory virtualFactory = null;
+            try {
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 0L);
+                builder = builderClass.getMethod("uncaughtExceptionHandler", Thread.UncaughtExceptionHandler.class).invoke(builder, DefaultUncaughtExceptionHandler);
+                virtualFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                logger.debugf("virtual thread lookup failed: %s", e.getMessage());
+            }
+            this.factory = virtualFactory;
+        }
+        public boolean isVirtual(){return factory != null;}
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            if(factory != null){
+                return factory.newThread(runnable);
+            }
+            Thread rtrn = new Thread(runnable,prefix+count.getAndAdd(1));
+            rtrn.setUncaughtExceptionHandler(DefaultUncaughtExceptionHandler);
+            return rtrn;
+        }
+    }
+
     /*
      * See: https://github.com/Hyperfoil/qDup/issues/229
      */
@@ -9,6 +9,12 @@ public abstract class LoopCmd extends Cmd {
       public int getRunCount(){return  runCount;}
       public void resetRunCount(){runCount = 0;}
 
+      @Override
+      public void resetRunState(){
+         super.resetRunState();
+         resetRunCount();
+      }
+
       @Override
       public Cmd getNext(){
          return LoopCmd.this;
@@ -0,0 +1,312 @@
+package io.hyperfoil.tools.qdup.cmd;
+
+import io.hyperfoil.tools.qdup.JsContextPool;
+import io.hyperfoil.tools.yaup.PopulatePatternException;
+import io.hyperfoil.tools.yaup.StringUtil;
+import io.hyperfoil.tools.yaup.json.Json;
+import io.hyperfoil.tools.yaup.json.graaljs.JsException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A ${{name:default}} pattern parsed once into literal text and the patterns to replace.
+ * Templates are cached by the pattern text and the prefix, separator, suffix and javascript prefix used to parse it
+ * so populating the same command text again does not scan the text for patterns.
+ *
+ * Rendering gives the same result as StringUtil.populatePattern for patterns that do not nest, except javascript is evaluated
+ * with the {@link Evaluator} instead of a new context from StringUtil.jsEval.
+ * Patterns with a pattern in the name, unclosed patterns, or a replacement value that adds a new pattern to the text
+ * use StringUtil.populatePattern because those need the text to be scanned again after each replacement.
+ */
+public class PatternTemplate {
+
+    /**
+     * Evaluates the javascript from a ${{= }} pattern or a name that is an expression
+     */
+    @FunctionalInterface
+    public interface Evaluator {
+        Object eval(String js, Map<Object, Object> globals, Collection<String> evals);
+    }
+
+    public static final Evaluator POOLED = JsContextPool::jsEval;
+
+    private static final int MAX_CACHE_SIZE = 4096;
+    private static final Map<Key, PatternTemplate> TEMPLATES = new ConcurrentHashMap<>();
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder fallbacks = new LongAdder();
+
+    private record Key(String pattern, String prefix, String separator, String suffix, String javascriptPrefix) {}
+
+    /**
+     * A ${{name:default}} in the template. source is the original text that remains when the pattern cannot be resolved
+     */
+    private record Variable(String source, String name, String defaultValue, boolean javascript, boolean evaluate) {}
+
+    //used for patterns that need StringUtil.populatePattern so they are not scanned again
+    private static final PatternTemplate DYNAMIC = new PatternTemplate(null, null, null, null, null, Collections.emptyList());
+
+    public static String populatePattern(String pattern, Map<Object, Object> map, Collection<String> evals) throws PopulatePatternException {
+        return populatePattern(pattern, map, evals, StringUtil.PATTERN_PREFIX, StringUtil.PATTERN_DEFAULT_SEPARATOR, StringUtil.PATTERN_SUFFIX, StringUtil.PATTERN_JAVASCRIPT_PREFIX);
+    }
+
+    public static String populatePattern(String pattern, Map<Object, Object> map, Collection<String> evals, String prefix, String separator, String suffix, String javascriptPrefix) throws PopulatePatternException {
+        return populatePattern(pattern, map, evals, prefix, separator, suffix, javascriptPrefix, POOLED);
+    }
+
+    public static String populatePattern(String pattern, Map<Object, Object> map, Collection<String> evals, String prefix, String separator, String suffix, String javascriptPrefix, Evaluator evaluator) throws PopulatePatternException {
+        PatternTemplate template = compile(pattern, prefix, separator, suffix, javascriptPrefix);
+        if (template == DYNAMIC) {
+            return StringUtil.populatePattern(pattern, map, evals, prefix, separator, suffix, javascriptPrefix);
+        }
+        return template.render(map, evals, evaluator);
+    }
+
+    static PatternTemplate compile(String pattern, String prefix, String separator, String suffix, String javascriptPrefix) {
+        Key key = new Key(pattern, prefix, separator, suffix, javascriptPrefix);
+        PatternTemplate rtrn = TEMPLATES.get(key);
+        if (rtrn != null) {
+            hits.increment();
+            return rtrn;
+        }
+        misses.increment();
+        rtrn = parse(pattern, prefix, separator, suffix, javascriptPrefix);
+        if (TEMPLATES.size() >= MAX_CACHE_SIZE) {
+            TEMPLATES.clear();
+        }
+        TEMPLATES.put(key, rtrn);
+        return rtrn;
+    }
+
+    private static PatternTemplate parse(String pattern, String prefix, String separator, String suffix, String javascriptPrefix) {
+        //StringUtil.populatePattern finds the end of a pattern with the default suffix length
+        if (suffix.length() != StringUtil.PATTERN_SUFFIX.length()) {
+            return DYNAMIC;
+        }
+        List<Object> segments = new ArrayList<>();
+        int from = 0;
+        while (from < pattern.length()) {
+            int[] found = findPattern(pattern, from, prefix, separator, suffix, javascriptPrefix);
+            int nameStart = found[0];
+            if (nameStart < 0) {
+                break;
+            }
+            if (found[4] != 0) {
+                return DYNAMIC;
+            }
+            int nameEnd = found[1];
+            int defaultStart = found[2];
+            int defaultEnd = found[3];
+            String name = pattern.substring(nameStart + prefix.length(), nameEnd).trim();
+            if (name.contains(prefix)) {
+                return DYNAMIC;
+            }
+            String defaultValue = defaultStart > -1 ? pattern.substring(defaultStart + separator.length(), defaultEnd) : null;
+            boolean javascript = false;
+            if (name.startsWith(javascriptPrefix)) {
+                javascript = true;
+                name = name.substring(javascriptPrefix.length());
+            }
+            if (name.contains("...")) {
+                javascript = true;
+            }
+            boolean evaluate = javascript || StringUtil.findAny(name, "()/*^+-") > -1 || name.matches(".*?\\.\\.\\.\\s*[{\\[].*");
+            int end = Math.max(nameEnd, defaultEnd) + StringUtil.PATTERN_SUFFIX.length();
+            if (nameStart > from) {
+                segments.add(pattern.substring(from, nameStart));
+            }
+            segments.add(new Variable(pattern.substring(nameStart, end), name, defaultValue, javascript, evaluate));
+            from = end;
+        }
+        if (from < pattern.length()) {
+            segments.add(pattern.substring(from));
+        }
+        return new PatternTemplate(pattern, prefix, separator, suffix, javascriptPrefix, segments);
+    }
+
+    public static void clearCache() {
+        TEMPLATES.clear();
+    }
+
+    public static Json getCacheJson() {
+        Json rtrn = new Json(false);
+        rtrn.set("hits", hits.sum());
+        rtrn.set("misses", misses.sum());
+        rtrn.set("fallbacks", fallbacks.sum());
+        rtrn.set("size", TEMPLATES.size());
+        return rtrn;
+    }
+
+    private final String pattern;
+    private final String prefix;
+    private final String separator;
+    private final String suffix;
+    private final String javascriptPrefix;
+    //String for literal text or Variable
+    private final List<Object> segments;
+
+    private PatternTemplate(String pattern, String prefix, String separator, String suffix, String javascriptPrefix, List<Object> segments) {
+        this.pattern = pattern;
+        this.prefix = prefix;
+        this.separator = separator;
+        this.suffix = suffix;
+        this.javascriptPrefix = javascriptPrefix;
+        this.segments = segments;
+    }
+
+    public String render(Map<Object, Object> map, Collection<String> evals) throws PopulatePatternException {
+        return render(map, evals, POOLED);
+    }
+
+    public String render(Map<Object, Object> map, Collection<String> evals, Evaluator evaluator) throws PopulatePatternException {
+        if (map == null) {
+            map = new HashMap<>();
+        }
+        StringBuilder rtrn = new StringBuilder(pattern.length());
+        //start and end of each replacement to check if it created a new pattern
+        List<int[]> replacements = new ArrayList<>();
+        String failure = null;
+        JsException jsEvalException = null;
+        for (Object segment : segments) {
+            if (segment instanceof String) {
+                rtrn.append((String) segment);
+                continue;
+            }
+            Variable variable = (Variable) segment;
+            String name = variable.name();
+            String replacement = null;
+            boolean fromJs = false;
+            Object value = null;
+            boolean checkedMap = false;
+            if (!variable.javascript()) {
+                value = map.containsKey(name) ? map.get(name) : null;
+                checkedMap = true;
+                if (value != null && !value.toString().isEmpty()) {
+                    replacement = value.toString();
+                }
+            }
+            if (replacement == null && variable.evaluate()) {
+                try {
+                    Object evalResult = evaluator.eval(name, map, evals);
+                    if (evalResult != null) {
+                        replacement = evalResult.toString();
+                        fromJs = true;
+                    }
+                } catch (JsException ise) {
+                    jsEvalException = ise;
+                }
+            }
+            if (replacement == null || (!fromJs && "".equals(replacement))) {
+                if (variable.defaultValue() != null) {
+                    replacement = variable.defaultValue();
+                } else {
+                    if (!checkedMap) {
+                        value = map.containsKey(name) ? map.get(name) : null;
+                    }
+                    replacement = value != null ? value.toString() : null;
+                }
+            }
+            if (replacement == null) {
+                if (failure == null) {
+                    failure = "Unable to resolve replacement for: " + name + " in " + pattern + " Either state variable has not been set, or JS expression is invalid";
+                }
+                rtrn.append(variable.source());
+            } else {
+                replacements.add(new int[]{rtrn.length(), rtrn.length() + replacement.length()});
+                rtrn.append(replacement);
+            }
+        }
+        if (createsPattern(rtrn, replacements)) {
+            fallbacks.increment();
+            return StringUtil.populatePattern(pattern, map, evals, prefix, separator, suffix, javascriptPrefix);
+        }
+        if (failure != null) {
+            if (jsEvalException != null) {
+                throw new PopulatePatternException("Failed to evaluate JS: " + jsEvalException.getMessage(), rtrn.toString(), true);
+            }
+            throw new PopulatePatternException(failure, rtrn.toString(), false);
+        }
+        return rtrn.toString();
+    }
+
+    /**
+     * @return true if a prefix in the populated text overlaps a replacement, StringUtil.populatePattern would populate that prefix too
+     */
+    private boolean createsPattern(StringBuilder populated, List<int[]> replacements) {
+        for (int[] replacement : replacements) {
+            int index = populated.indexOf(prefix, Math.max(0, replacement[0] - prefix.length() + 1));
+            if (index > -1 && index < replacement[1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the first ${{name:default}} at or after from the same way StringUtil.populatePattern scans the text.
+     * @return {nameStart, nameEnd, defaultStart, defaultEnd, count} where count is the number of prefixes that were not closed
+     */
+    private static int[] findPattern(String text, int from, String prefix, String separator, String suffix, String javascriptPrefix) {
+        int nameStart = -1;
+        int nameEnd = -1;
+        int defaultStart = -1;
+        int defaultEnd = -1;
+        int count = 0;
+        char quoteChar = '"';
+        boolean inQuote = false;
+        boolean isJs = false;
+        int isJsBoolean = 0;
+        for (int i = from; i < text.length(); i++) {
+            if (inQuote) {
+                if (text.charAt(i) == quoteChar) {
+                    inQuote = false;
+                }
+            } else if (count > 0 && (text.charAt(i) == '"' || text.charAt(i) == '\'' || text.charAt(i) == '`')) {
+                quoteChar = text.charAt(i);
+                inQuote = true;
+            }
+            if (text.startsWith("?", i) && isJs && !inQuote) {
+                isJsBoolean++;
+            }
+            //the : of a ternary is not the default separator
+            if (text.startsWith(StringUtil.PATTERN_DEFAULT_SEPARATOR, i) && !inQuote && isJs && isJsBoolean > 0) {
+                i++;
+                isJsBoolean--;
+            }
+            if (text.startsWith(prefix, i)) {
+                if (count == 0) {
+                    nameStart = i;
+                }
+                count++;
+                i += prefix.length() - 1;
+                if (text.startsWith(javascriptPrefix, i + 1) && count == 1) {
+                    isJs = true;
+                }
+            } else if (text.startsWith(separator, i) && !inQuote) {
+                if (count == 1) {
+                    nameEnd = i;
+                    defaultStart = i;
+                }
+            } else if (text.startsWith(suffix, i) && count > 0) {
+                count--;
+                if (count == 0) {
+                    if (nameEnd > -1 && defaultStart > -1) {
+                        defaultEnd = i;
+                    } else {
+                        nameEnd = i;
+                    }
+                    i = text.length();
+                }
+                i += suffix.length() - 1;
+            }
+        }
+        return new int[]{nameStart, nameEnd, defaultStart, defaultEnd, count};
+    }
+}
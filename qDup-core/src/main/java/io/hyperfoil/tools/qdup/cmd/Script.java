@@ -20,6 +20,9 @@ public class Script extends Cmd {
         context.next(input);
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
 
     public Script then(Cmd command) {
         super.then(command);
@@ -3,7 +3,9 @@ package io.hyperfoil.tools.qdup.cmd;
 import io.hyperfoil.tools.qdup.*;
 import io.hyperfoil.tools.qdup.cmd.impl.ScriptCmd;
 import io.hyperfoil.tools.qdup.cmd.impl.Sh;
+import io.hyperfoil.tools.qdup.journal.EventType;
 import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.qdup.stream.LineView;
 import io.hyperfoil.tools.yaup.AsciiArt;
 import io.hyperfoil.tools.yaup.PopulatePatternException;
 import io.hyperfoil.tools.yaup.StringUtil;
@@ -16,6 +18,7 @@ import java.lang.invoke.MethodHandles;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.Supplier;
 
@@ -28,6 +31,8 @@ public class ScriptContext implements Context, Runnable{
     //final static XLogger logger = XLoggerFactory.getXLogger(MethodHandles.lookup().lookupClass());
     final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
 
+    public static final int DEFAULT_INLINE_CMD_BUDGET = 0;
+
     private class SharedScriptContext extends ScriptContext{
         public SharedScriptContext(SystemTimer timer,Cmd root, boolean checkExitCode){
             super(ScriptContext.this.getShell(),
@@ -101,6 +106,23 @@ public class ScriptContext implements Context, Runnable{
     private String roleName="";
     private boolean isAborted=false;
 
+    /**
+     * The state for one call to run(). Only the thread that created the frame changes the budget and the inline flag.
+     */
+    private static class InlineFrame {
+        private final Thread thread;
+        private int budget;
+        private boolean runInline = false;
+
+        private InlineFrame(Thread thread, int budget){
+            this.thread = thread;
+            this.budget = budget;
+        }
+    }
+
+    //the frame for the current run(), startCurrentCmd on the frame's thread continues the run loop instead of resubmitting this context
+    private final AtomicReference<InlineFrame> inlineFrame = new AtomicReference<>();
+
     public boolean checkExitCode(){return checkExitCode;}
 
     public String getContextId(){
@@ -134,11 +156,9 @@ public class ScriptContext implements Context, Runnable{
         this.checkExitCode = checkExitCode;
 
         if(this.shell !=null){
-            this.shell.addLineObserver(
+            this.shell.addLineViewObserver(
                 getClass().getSimpleName(),
-                (line)->{
-                    this.update(line);
-                }
+                this::update
             );
         }
         this.lineQueueSemaphore = new Semaphore(1);
@@ -388,11 +408,21 @@ public class ScriptContext implements Context, Runnable{
 
         }
     }
+    /**
+     * Runs the current command on this thread when it cannot block and the current run loop has budget left, otherwise queues this context on the dispatcher
+     */
     protected void startCurrentCmd(){
         Run run = getRun();
         if(run!=null && !isAborted()) {
-            getContextTimer().start("waiting in run queue");
-            run.getDispatcher().submit(this);
+            Cmd cmd = getCurrentCmd();
+            InlineFrame frame = inlineFrame.get();
+            if(frame != null && frame.thread == Thread.currentThread() && frame.budget > 0 && (cmd == null || !cmd.isBlocking()) && run.getDispatcher().isRunning()){
+                frame.budget--;
+                frame.runInline = true;
+            }else {
+                getContextTimer().start("waiting in run queue");
+                run.getDispatcher().submit(this);
+            }
         }
     }
 
@@ -404,7 +434,31 @@ public class ScriptContext implements Context, Runnable{
         Cmd cmd = getCurrentCmd();
         if(cmd!=null){
             observerUpdate(cmd,output);
-            lineQueue.add(output);
+            if(cmd.hasWatchers()){//only watchers read the lineQueue
+                lineQueue.add(output);
+            }
+        }
+    }
+
+    /**
+     * Only creates the output String if an observer or watcher needs it
+     */
+    public void update(LineView line) {
+        long timestamp = System.currentTimeMillis();
+        setUpdateTime(timestamp);
+        Cmd cmd = getCurrentCmd();
+        if(cmd!=null){
+            boolean observed = observer!=null && observer.observesUpdates();
+            boolean watched = cmd.hasWatchers();
+            if(observed || watched){
+                String output = line.toString();
+                if(observed){
+                    observerUpdate(cmd,output);
+                }
+                if(watched){
+                    lineQueue.add(output);
+                }
+            }
         }
     }
     public boolean setCurrentCmd(Cmd current,Cmd next){
@@ -431,6 +485,9 @@ public class ScriptContext implements Context, Runnable{
     private void addTimer(Cmd toWatch,Cmd toRun,long timeout){
         ScheduledFuture future = run.getDispatcher().getScheduler().schedule(()->{
             if(toWatch.equals(getCurrentCmd())){
+                if(run.hasJournal()){
+                    run.getJournal().record(EventType.TIMER,getContextId(),toWatch.toString(),Long.toString(timeout));
+                }
                 toRun.doRun(""+timeout,new SyncContext(
                     this.getShell(),
                     this.getState(),
@@ -446,12 +503,22 @@ public class ScriptContext implements Context, Runnable{
 
     @Override
     public void run() {
-        Cmd cmd = getCurrentCmd();
-        Cmd previous = cmd !=null ? cmd.getPrevious() : null;
-        Cmd inputSource = cmd != null ? cmd.getInputSource() : null;
-        String input = previous != null ? previous.getOutput() : "";
-        String sourceInput = inputSource!=null ? inputSource.getOutput() : "";
-        run(cmd,sourceInput);
+        InlineFrame frame = new InlineFrame(Thread.currentThread(), run != null ? run.getInlineCmdBudget() : 0);
+        inlineFrame.set(frame);
+        try {
+            do {
+                frame.runInline = false;
+                Cmd cmd = getCurrentCmd();
+                Cmd previous = cmd != null ? cmd.getPrevious() : null;
+                Cmd inputSource = cmd != null ? cmd.getInputSource() : null;
+                String input = previous != null ? previous.getOutput() : "";
+                String sourceInput = inputSource != null ? inputSource.getOutput() : "";
+                run(cmd, sourceInput);
+                //another thread took over the context if the frame was replaced
+            } while (frame.runInline && inlineFrame.get() == frame && !isAborted());
+        } finally {
+            inlineFrame.compareAndSet(frame,null);
+        }
     }
     public void run(Cmd cmd,String input){
         if (cmd == null) {
@@ -537,6 +604,22 @@ public class ScriptContext implements Context, Runnable{
                             }
                         }
                     }
+                    for (Cmd watcher : cmd.getWatchers()) {
+                        SyncContext watcherContext = new SyncContext(
+                           this.getShell(),
+                           this.getState(),
+                           this.getRun(),
+                           this.getCommandTimer(),
+                           watcher,
+                           this
+                        );
+                        try {
+                            watcherContext.forceCurrentCmd(watcher);
+                            watcher.postWatch(watcherContext);
+                        } catch (Exception e) {
+                            logger.warn("Exception from watcher " + watcher + "\n  currentCmd=" + watcherContext.getCurrentCmd(), e);
+                        }
+                    }
                 } catch (InterruptedException e) {
                     e.printStackTrace();
                 } finally {
@@ -212,6 +212,13 @@ public class SyncContext implements Context, Runnable{
         return session.getHost();
     }
 
+    /**
+     * @return the ScriptContext that created this context or null
+     */
+    public ScriptContext getScriptContext() {
+        return scriptContext;
+    }
+
     @Override
     public State getState() {
         return state;
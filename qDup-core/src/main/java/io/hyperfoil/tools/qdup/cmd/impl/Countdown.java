@@ -25,6 +25,9 @@ public class Countdown extends Cmd {
             context.skip(input);
         }
     }
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() { return new Countdown(this.name,this.initial); }
     @Override
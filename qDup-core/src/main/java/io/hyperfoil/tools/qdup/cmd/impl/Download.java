@@ -77,12 +77,7 @@ public class Download extends Cmd {
         String destinationPath =  context == null ? destination : populateStateVariables(basePath + File.separator +destination,this,context);
 
 
-        if(context!=null && context.getShell().isActive() && (
-                QueueDownload.hasBashEnv(remotePath) ||
-                remotePath.startsWith("~/") ||
-                !remotePath.startsWith("/")
-            )
-        ){
+        if(context!=null && context.getShell().isActive() && needsShell(remotePath)){
             if(isObserving()){
                 getObservedCmd().addDeferredCmd(
                         new Download(remotePath,populateStateVariables(destination,this,context),maxSize)
@@ -93,11 +88,7 @@ public class Download extends Cmd {
             }
         }else{
 
-            if(context==null && (
-                    QueueDownload.hasBashEnv(remotePath) ||
-                            remotePath.startsWith("~/") ||
-                            !remotePath.startsWith("/")
-            )){
+            if(context==null && needsShell(remotePath)){
                 //This is an error condition, abort
                 logger.error("cannot download "+remotePath+" without a connection to resolve the full path");
                 return null;
@@ -119,18 +110,7 @@ public class Download extends Cmd {
                 remotePath = normalized;
             }
 
-            File destinationFile = new File(destinationPath);
-            if(!destinationFile.exists()){
-                destinationFile.mkdirs();
-            }
-            boolean canDownload = true;
-            if(maxSize != null){
-                Long remoteFileSize = local.remoteFileSize(remotePath,host);
-                if(remoteFileSize > maxSize){
-                    canDownload = false;
-                    logger.warnf("Download File: `%s`; is larger %s than max size: %s bytes", remotePath, remoteFileSize, maxSize);
-                }
-            }
+            boolean canDownload = prepare(local, host, remotePath, destinationPath, maxSize);
             if(canDownload) {
                 boolean worked = local.download(remotePath, destinationPath, host);
                 if(!worked){
@@ -141,13 +121,46 @@ public class Download extends Cmd {
                     return null;
                 }
             }
-            return canDownload ?
-                    destinationPath.endsWith(File.separator) ?
-                            destinationPath + (new File(remotePath)).getName() :
-                            destinationPath + File.separator + (new File(remotePath)).getName()
-                    : null;
+            return canDownload ? downloadedPath(remotePath, destinationPath) : null;
         }
         return null; // something went wrong
     }
 
+    /**
+     * @return true if the remote path needs a shell on the host to resolve environment variables, ~/ or the working directory
+     */
+    public static boolean needsShell(String remotePath){
+        return QueueDownload.hasBashEnv(remotePath) || remotePath.startsWith("~/") || !remotePath.startsWith("/");
+    }
+
+    /**
+     * Creates the destination folder and checks the remote size against maxSize
+     * @param remotePath absolute path on the host
+     * @param maxSize maximum bytes to download, null for no limit
+     * @return false if the remote file is larger than maxSize
+     */
+    public static boolean prepare(Local local, Host host, String remotePath, String destinationPath, Long maxSize){
+        File destinationFile = new File(destinationPath);
+        if(!destinationFile.exists()){
+            destinationFile.mkdirs();
+        }
+        if(maxSize != null){
+            Long remoteFileSize = local.remoteFileSize(remotePath,host);
+            if(remoteFileSize > maxSize){
+                logger.warnf("Download File: `%s`; is larger %s than max size: %s bytes", remotePath, remoteFileSize, maxSize);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the local path of the downloaded file or folder
+     */
+    public static String downloadedPath(String remotePath, String destinationPath){
+        return destinationPath.endsWith(File.separator) ?
+                destinationPath + (new File(remotePath)).getName() :
+                destinationPath + File.separator + (new File(remotePath)).getName();
+    }
+
 }
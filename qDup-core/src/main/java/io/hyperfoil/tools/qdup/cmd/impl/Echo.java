@@ -18,6 +18,9 @@ public class Echo extends Cmd {
         context.next(input);
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() {
         return new Echo();
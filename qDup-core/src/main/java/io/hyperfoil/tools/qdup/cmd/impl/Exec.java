@@ -61,9 +61,7 @@ public class Exec extends Cmd {
             );
             scriptContext.getRun().getDispatcher().addScriptContext(newContext,false);
             Cmd skip = getSkip();
-            newContext.getShell().exec(populatedCommand, (response ) ->{
-                newContext.next(response);
-            });
+            execute(populatedCommand,newContext);
             if (skip != null) {
                 scriptContext.setCurrentCmd(this,skip);
                 scriptContext.run(skip,input);
@@ -73,11 +71,20 @@ public class Exec extends Cmd {
                 scriptContext.run();
             }
         }else {
-            context.getShell().exec(populatedCommand, (response) -> {
-                context.next(response);
-            });
+            execute(populatedCommand,context);
         }
     }
+
+    private void execute(String populatedCommand, Context context){
+        context.getShell().execAsync(populatedCommand,null,null).whenComplete((result,error)->{
+            if(error != null){
+                context.error("failed to exec "+populatedCommand+"\n"+error.getMessage());
+                context.abort(false);
+            }else{
+                context.next(result.stdout());
+            }
+        });
+    }
     @Override
     public Cmd copy() {
         return new Exec(getCommand(),isAsync(),isSilent());
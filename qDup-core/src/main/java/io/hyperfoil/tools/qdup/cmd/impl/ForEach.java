@@ -155,10 +155,22 @@ public class ForEach extends LoopCmd {
       split.clear();
    }
 
+   @Override
+   public void resetRunState(){
+      super.resetRunState();
+      clearLoopState();
+      populatedName = name;
+      loadedInput = declaredInput;
+      lastInput = null;
+   }
+
    private boolean isEmptyLoopState() {
       return split.isEmpty() && index == -1;
    }
 
+   @Override
+   public boolean isBlocking(){return false;}
+
    @Override
    public Cmd copy() {
       return new ForEach(this.name, this.declaredInput);
@@ -103,6 +103,13 @@ public class JsCmd extends CmdWithElse {
         }
     }
 
+    @Override
+    public void resetRunState(){
+        super.resetRunState();
+        ran = false;
+        rtrn = null;
+    }
+
     @Override
     public Cmd copy() {
         return new JsCmd(this.codeString);
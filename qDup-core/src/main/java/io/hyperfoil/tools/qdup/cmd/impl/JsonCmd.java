@@ -40,6 +40,9 @@ public class JsonCmd extends CmdWithElse {
         }
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() {
         return new JsonCmd(path);
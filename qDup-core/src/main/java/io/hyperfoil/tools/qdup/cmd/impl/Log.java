@@ -20,6 +20,9 @@ public class Log extends Cmd {
         context.log(Cmd.populateStateVariables(message,this,context));
         context.next(input);
     }
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() {
         return new Log(message);
@@ -5,10 +5,23 @@ import io.hyperfoil.tools.qdup.cmd.Cmd;
 import io.hyperfoil.tools.qdup.cmd.Context;
 import io.hyperfoil.tools.yaup.json.Json;
 
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses the input with an io.hyperfoil.tools.parse.Parser.
+ * When parse is a watcher of a command (e.g. a long running sh) the parser is created for the first line and kept until the command ends.
+ * Each line is parsed as it arrives and the parsed json is passed to the then commands as soon as the parser emits it
+ * so the output is never parsed as one String.
+ */
 public class ParseCmd extends Cmd {
 
    private String config;
 
+   //only used when parse is a watcher
+   private Parser streamParser;
+   private final List<Json> streamed = new ArrayList<>();
+
    public ParseCmd(String config) {
       this.config = config;
    }
@@ -17,8 +30,7 @@ public class ParseCmd extends Cmd {
       return config;
    }
 
-   @Override
-   public void run(String input, Context context) {
+   private Parser createParser(Context context){
       String populatedConfig = Cmd.populateStateVariables(getConfig(),this,context);
       Object parserConfig = populatedConfig;
       if(Json.isJsonLike(populatedConfig)){
@@ -30,7 +42,23 @@ public class ParseCmd extends Cmd {
       if(Cmd.hasStateReference(populatedConfig,this)){
          abort("failed to populate template pattern in "+populatedConfig);
       }
-      Parser p = Parser.fromJson(parserConfig);
+      return Parser.fromJson(parserConfig);
+   }
+
+   /**
+    * @return true if this is a watcher and not a command inside a watcher
+    */
+   public boolean isWatcher(){
+      return !hasParent() && hasStateParent() && getStateParent().getWatchers().contains(this);
+   }
+
+   @Override
+   public void run(String input, Context context) {
+      if(isWatcher()){
+         stream(input,context);
+         return;
+      }
+      Parser p = createParser(context);
 
       Json result = new Json();
       p.add(json ->result.add(json));
@@ -46,10 +74,62 @@ public class ParseCmd extends Cmd {
       }
    }
 
+   private void stream(String line, Context context){
+      if(streamParser == null){
+         streamParser = createParser(context);
+         streamParser.add(streamed::add);
+      }
+      streamParser.onLine(line);
+      emit(line,context);
+   }
+
+   /**
+    * Closes the parser for the watched command and emits the last json
+    */
+   @Override
+   public void postWatch(Context context){
+      if(streamParser != null){
+         Parser p = streamParser;
+         streamParser = null;
+         p.close();
+         emit("",context);
+      }
+   }
+
+   private void emit(String input, Context context){
+      if(streamed.isEmpty()){
+         context.skip(input);
+         return;
+      }
+      String output;
+      if(streamed.size()==1){
+         output = streamed.get(0).toString();
+      }else{
+         Json result = new Json();
+         streamed.forEach(result::add);
+         output = result.toString();
+      }
+      streamed.clear();
+      context.next(output);
+   }
+
+   /**
+    * Drops the parser from a watched command that did not finish (e.g. the run aborted) so a reused tree starts with a new parser
+    */
+   @Override
+   public void resetRunState(){
+      super.resetRunState();
+      streamParser = null;
+      streamed.clear();
+   }
+
    @Override //disables default logging after the command finishes
    public void postRun(String output, Context context) {
    }
 
+   @Override
+   public boolean isBlocking(){return false;}
+
    @Override
    public Cmd copy() {
       return new ParseCmd(getConfig());
@@ -59,4 +139,4 @@ public class ParseCmd extends Cmd {
    public String getLogOutput(String output, Context context) {
       return "parse: {...}";
    }
-}
\ No newline at end of file
+}
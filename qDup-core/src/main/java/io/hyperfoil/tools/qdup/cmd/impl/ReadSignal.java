@@ -83,6 +83,17 @@ public class ReadSignal extends CmdWithElse {
         }
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
+    @Override
+    public void resetRunState(){
+        super.resetRunState();
+        ran = false;
+        remaining = Integer.MAX_VALUE;
+        populatedName = null;
+    }
+
     @Override
     public Cmd copy() {
         return new ReadSignal(name);
@@ -63,6 +63,16 @@ public class ReadState extends CmdWithElse {
         }
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
+    @Override
+    public void resetRunState(){
+        super.resetRunState();
+        ran = false;
+        populatedKey = null;
+    }
+
     @Override
     public Cmd copy() {
         return new ReadState(key);
@@ -5,8 +5,11 @@ import io.hyperfoil.tools.qdup.cmd.CmdWithElse;
 import io.hyperfoil.tools.qdup.cmd.Context;
 import io.hyperfoil.tools.yaup.AsciiArt;
 import io.hyperfoil.tools.yaup.StringUtil;
+import io.hyperfoil.tools.yaup.json.Json;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -14,6 +17,63 @@ import java.util.regex.PatternSyntaxException;
 
 public class Regex extends CmdWithElse {
 
+   /**
+    * A compiled pattern with the regex friendly capture names mapped to the user provided names
+    */
+   record CompiledPattern(Pattern pattern, boolean fullMatch, Map<String,String> renames){}
+
+   static final int MAX_CACHE_SIZE = 4096;
+   private static final Map<String,CompiledPattern> PATTERN_CACHE = new ConcurrentHashMap<>();
+   private static final LongAdder cacheHits = new LongAdder();
+   private static final LongAdder cacheMisses = new LongAdder();
+
+   public static long getCacheHits(){return cacheHits.sum();}
+   public static long getCacheMisses(){return cacheMisses.sum();}
+   public static int getCacheSize(){return PATTERN_CACHE.size();}
+   public static void clearCache(){
+      PATTERN_CACHE.clear();
+      cacheHits.reset();
+      cacheMisses.reset();
+   }
+   public static Json getCacheJson(){
+      Json rtrn = new Json();
+      rtrn.set("hits",getCacheHits());
+      rtrn.set("misses",getCacheMisses());
+      rtrn.set("size",getCacheSize());
+      return rtrn;
+   }
+
+   /**
+    * @param populatedPattern the pattern after state variables are populated
+    * @throws PatternSyntaxException if the pattern is not valid, invalid patterns are not cached
+    */
+   static CompiledPattern compile(String populatedPattern){
+      CompiledPattern rtrn = PATTERN_CACHE.get(populatedPattern);
+      if(rtrn != null){
+         cacheHits.increment();
+         return rtrn;
+      }
+      cacheMisses.increment();
+      String newPattern = populatedPattern;
+      //key is a regex friendly capture name and message is the user provided capture name
+      LinkedHashMap<String, String> renames = new LinkedHashMap<>();
+      Matcher fieldMatcher = NAMED_CAPTURE.matcher(populatedPattern);
+      while (fieldMatcher.find()) {
+         String realName = fieldMatcher.group(1);
+         String compName = realName.replaceAll("[\\*\\.\\\\_\\-]", "x");
+         if (!compName.equals(realName)) {
+            newPattern = newPattern.replace(realName, compName);
+         }
+         renames.put(compName, realName);
+      }
+      rtrn = new CompiledPattern(Pattern.compile(newPattern),newPattern.startsWith("^"),Collections.unmodifiableMap(renames));
+      if(PATTERN_CACHE.size() >= MAX_CACHE_SIZE){//patterns populated from changing state values should not grow without bound
+         PATTERN_CACHE.clear();
+      }
+      PATTERN_CACHE.put(populatedPattern,rtrn);
+      return rtrn;
+   }
+
    private String pattern;
    private String patternString;
    private boolean matched = false;
@@ -63,46 +123,23 @@ public class Regex extends CmdWithElse {
    @Override
    public void run(String input, Context context) {
       ran = true;
-      String populatedPattern = populateStateVariables(patternString, this, context);
-      String newPattern = populatedPattern;
+      String populatedPattern = hasStateReference(patternString, this) ? populateStateVariables(patternString, this, context) : patternString;
 
       matches.clear();
 
-      //key is a regex friendly capture name and message is the user provided capture name
-      LinkedHashMap<String, String> renames = new LinkedHashMap<>();
-      Matcher fieldMatcher = NAMED_CAPTURE.matcher(populatedPattern);
-
-      while (fieldMatcher.find()) {
-         String realName = fieldMatcher.group(1);
-         String compName = realName.replaceAll("[\\*\\.\\\\_\\-]", "x");
-         if (!compName.equals(realName)) {
-            newPattern = newPattern.replace(realName, compName);
-         }
-         renames.put(compName, realName);
-      }
       try {
-         Pattern pattern = Pattern.compile(newPattern);
+         CompiledPattern compiled = compile(populatedPattern);
 
-         Matcher matcher = pattern.matcher(input);
+         Matcher matcher = compiled.pattern().matcher(input);
 
          //full line matching only if the pattern specifies start of line
-         matched = newPattern.startsWith("^") ? matcher.matches() : matcher.find();
+         matched = compiled.fullMatch() ? matcher.matches() : matcher.find();
          if (matched == !miss) {//if matched and !miss or miss and !match
             logger.tracef("{} match {} ", this, input);
             if (!miss) { //cannot populate name capture groups for miss becasue it didn't match
-               fieldMatcher = NAMED_CAPTURE.matcher(newPattern);
-               List<String> names = new LinkedList<>();
-               while (fieldMatcher.find()) {
-                  names.add(fieldMatcher.group(1));
-               }
-               if (!names.isEmpty()) {
-                  for (String name : names) {
-                     String capturedValue = matcher.group(name);
-                     String realName = renames.get(name);
-                     matches.put(realName, capturedValue);
-                     //context.getState().set(realName,capturedValue);
-                  }
-               }
+               compiled.renames().forEach((name,realName)->{
+                  matches.put(realName, matcher.group(name));
+               });
                if (!matches.isEmpty()) {
                   for (String key : matches.keySet()) {
                      context.getState().set(key, matches.get(key), this.autoConvert);
@@ -125,7 +162,7 @@ public class Regex extends CmdWithElse {
             }
          }
       } catch (PatternSyntaxException e) {
-         context.error("failed to parse regex pattern from " + newPattern + "\n" + e.getMessage());
+         context.error("failed to parse regex pattern from " + populatedPattern + "\n" + e.getMessage());
          context.abort(false);
       }
 
@@ -148,6 +185,16 @@ public class Regex extends CmdWithElse {
 //      }
    }
 
+   @Override
+   public boolean isBlocking(){return false;}
+
+   @Override
+   public void resetRunState(){
+      super.resetRunState();
+      matched = false;
+      ran = false;
+   }
+
    @Override
    public Cmd copy() {
       return new Regex(this.patternString, this.miss, this.autoConvert);
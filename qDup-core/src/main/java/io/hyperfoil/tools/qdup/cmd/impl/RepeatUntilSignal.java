@@ -10,6 +10,7 @@ public class RepeatUntilSignal extends LoopCmd {
     private String name;
     private String populatedName;
     private int amount=-1;
+    private volatile Boolean selfSignaling;
     public RepeatUntilSignal(String name){
         super(false);
         this.name = name;
@@ -31,13 +32,27 @@ public class RepeatUntilSignal extends LoopCmd {
         }
     }
 
+    /**
+     * Returns true if a command in the loop sends the signal. The loop is walked on the first call, which is when the config is loaded,
+     * and the result is shared with copies of this command.
+     */
     public boolean isSelfSignaling(){
-        return walk(CmdLocation.createTmp(), cmd-> cmd instanceof Signal && ((Signal)cmd).getName().equals(getName())).stream().filter(v->v).findAny().orElse(false);
+        Boolean rtrn = selfSignaling;
+        if(rtrn == null){
+            rtrn = walk(CmdLocation.createTmp(), cmd-> cmd instanceof Signal && ((Signal)cmd).getName().equals(getName())).stream().filter(v->v).findAny().orElse(false);
+            selfSignaling = rtrn;
+        }
+        return rtrn;
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() {
-        return new RepeatUntilSignal(this.name);
+        RepeatUntilSignal rtrn = new RepeatUntilSignal(this.name);
+        rtrn.selfSignaling = selfSignaling;
+        return rtrn;
     }
     @Override
     public String toString(){return "repeat-until: "+name;}
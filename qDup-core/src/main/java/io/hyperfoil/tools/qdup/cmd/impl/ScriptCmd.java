@@ -49,6 +49,10 @@ public class ScriptCmd extends Cmd {
     private final boolean async;
     private final boolean addToCmdTree;
     private Cmd foundScript = null;
+    //the script and context from the last call and the tree that ran it, reused when the next call is for the same script in the same context
+    private Script calledScript = null;
+    private Context calledContext = null;
+    private Cmd calledTree = null;
 
     @Override
     public String getOutput() {
@@ -68,6 +72,9 @@ public class ScriptCmd extends Cmd {
     }
 
     public boolean isAsync(){return async;}
+
+    @Override
+    public boolean isBlocking(){return isAsync();}
     public String getName(){
         if(populatedName != null){
             return populatedName;
@@ -113,37 +120,66 @@ public class ScriptCmd extends Cmd {
         Cmd originalNext = getNext();
         if(toCall == null){
             logger.warnf("could not find script: %s",populatedName);
+        }else if(!isAsync()){
+            setToCall(getCalledTree(toCall,context));
         }else {
             Cmd copyCmd = toCall.deepCopy();
-            if(isAsync()){
-                //TODO how to invoke the script?
-                AbstractShell ssh = context.getShell() != null ? context.getShell().openCopy() : null;
-                State state = context.getState().clone();
-                Run run = context instanceof ScriptContext ? ((ScriptContext)context).getRun() : null;
-                if(run == null && context instanceof SyncContext){
-                    run = ((SyncContext)context).getRun();
-                }
-
-                //copy withs because it will not be inherited
-                copyCmd.loadWith(this);
-
-                ScriptContext scriptContext = new ScriptContext(ssh,state,run,context.getContextTimer().start(populatedName,true),copyCmd,context.checkExitCode());
-                if(run!=null){ //register context so phase does not end before script completes
-                    //dispatcher will also start the context
-                    run.getDispatcher().addScriptContext(scriptContext);
-                }
-            }else{
-                copyCmd.setParent(this);
-                setToCall(copyCmd);
-                if(hasThens()) {
-                    getToCall().then(callback);
-                }
+            //TODO how to invoke the script?
+            AbstractShell ssh = context.getShell() != null ? context.getShell().openCopy() : null;
+            State state = context.getState().clone();
+            Run run = context instanceof ScriptContext ? ((ScriptContext)context).getRun() : null;
+            if(run == null && context instanceof SyncContext){
+                run = ((SyncContext)context).getRun();
+            }
+
+            //copy withs because it will not be inherited
+            copyCmd.loadWith(this);
+
+            ScriptContext scriptContext = new ScriptContext(ssh,state,run,context.getContextTimer().start(populatedName,true),copyCmd,context.checkExitCode());
+            if(run!=null){ //register context so phase does not end before script completes
+                //dispatcher will also start the context
+                run.getDispatcher().addScriptContext(scriptContext);
             }
         }
         context.next(input);
 
     }
 
+    /**
+     * A call in the same ScriptContext cannot start until the previous call finished so the tree from the previous call is reset and reused
+     * instead of copying the script for each call, e.g. when the script is called from a for-each.
+     * Calls from a SyncContext (watchers, timers and signal handlers) can overlap so they always copy the script.
+     */
+    private Cmd getCalledTree(Script toCall,Context context){
+        if(toCall == calledScript && context == calledContext && calledTree != null && context instanceof ScriptContext){
+            calledTree.walk(CmdLocation.createTmp(), cmd->{
+                cmd.resetRunState();
+                return null;
+            });
+        }else{
+            Cmd copyCmd = toCall.deepCopy();
+            copyCmd.setParent(this);
+            if(hasThens()) {
+                copyCmd.then(callback);
+            }
+            copyCmd.walk(CmdLocation.createTmp(), cmd->{
+                cmd.saveRunState();
+                return null;
+            });
+            calledScript = toCall;
+            calledContext = context;
+            calledTree = copyCmd;
+        }
+        return calledTree;
+    }
+
+    @Override
+    public void resetRunState(){
+        super.resetRunState();
+        clearToCall();
+        populatedName = null;
+    }
+
     @Override
     public Cmd copy() {
         return new ScriptCmd(name,async,addToCmdTree);
@@ -38,6 +38,9 @@ public class SetSignal extends Cmd {
       context.next(input);
    }
 
+   @Override
+   public boolean isBlocking(){return false;}
+
    @Override
    public Cmd copy() {
       return new SetSignal(name,initial,reset);
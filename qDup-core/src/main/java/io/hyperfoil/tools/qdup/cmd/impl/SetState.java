@@ -44,6 +44,14 @@ public class SetState extends Cmd {
         return value;
     }
 
+    public String getPopulatedKey() {
+        return populatedKey;
+    }
+
+    public String getPopulatedValue() {
+        return populatedValue;
+    }
+
     @Override
     public String toString() {
         return "set-state: " + this.key + (this.value == null ? "" : " " + this.value);
@@ -79,6 +87,9 @@ public class SetState extends Cmd {
         context.next(populatedValue);
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() {
         return new SetState(key, value, getPatternSeparator(), silent, autoConvert);
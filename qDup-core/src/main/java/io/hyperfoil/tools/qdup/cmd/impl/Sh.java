@@ -21,6 +21,7 @@ public class Sh extends Cmd {
     private String exitCode = "";
     private String ignoreExitCode = "";
     private String previousPrompt="";
+    private String promptExitCode=null;
 
     private SystemTimer commandTimer = null;
 
@@ -28,6 +29,10 @@ public class Sh extends Cmd {
         this.previousPrompt = prompt;
     }
     public String getPreviousPrompt(){return previousPrompt;}
+    private void setPromptExitCode(String exitCode){
+        this.promptExitCode = exitCode;
+    }
+    public String getPromptExitCode(){return promptExitCode;}
 
     public Sh(String command){
         this(command,false);
@@ -86,6 +91,7 @@ public class Sh extends Cmd {
         if(prompt.isEmpty()) {
             context.getShell().sh(populatedCommand, (output, promptName)->{
                 setPreviousPrompt(promptName);
+                setPromptExitCode(context.getShell().getPromptExitCode());
                 context.next(output);
             });
         }else{
@@ -100,6 +106,7 @@ public class Sh extends Cmd {
                     populatedCommand,
                     (output,promptName)->{
                         setPreviousPrompt(promptName);
+                        setPromptExitCode(context.getShell().getPromptExitCode());
                         context.next(output);
                     },
                     populated
@@ -138,20 +145,24 @@ public class Sh extends Cmd {
             context.getShell().getHost().isShell() &&
             shouldCheckExit(context))
         {
-            long start = System.currentTimeMillis();
-            String response = context.getShell().shSync("export __qdup_ec=$?; echo \"${__qdup_ec}\"; (exit $__qdup_ec)");
-            long rount_trip_time = System.currentTimeMillis() - start;
-            rount_trip_time = rount_trip_time - context.getShell().getDelay();
-            if(rount_trip_time > DEFAULT_DELAY){
-                rount_trip_time = DEFAULT_DELAY;
-            }
-            if(rount_trip_time > 0){
-                context.getShell().setDelay((int)rount_trip_time);
-            }
-            int retry = 0;
-            while ((response == null || !response.matches("-?\\d+")) && retry < 5 && context.getShell().isReady() && !context.isAborted()) {
-                response = context.getShell().shSync("echo \"${__qdup_ec}\"; (exit $__qdup_ec)");
-                retry++;
+            String response = getPromptExitCode();
+            //the prompt did not include the exit code so ask the shell for it
+            if(response == null || !response.matches("-?\\d+")) {
+                long start = System.currentTimeMillis();
+                response = context.getShell().shSync("export __qdup_ec=$?; echo \"${__qdup_ec}\"; (exit $__qdup_ec)");
+                long rount_trip_time = System.currentTimeMillis() - start;
+                rount_trip_time = rount_trip_time - context.getShell().getDelay();
+                if (rount_trip_time > DEFAULT_DELAY) {
+                    rount_trip_time = DEFAULT_DELAY;
+                }
+                if (rount_trip_time > 0) {
+                    context.getShell().setDelay((int) rount_trip_time);
+                }
+                int retry = 0;
+                while ((response == null || !response.matches("-?\\d+")) && retry < 5 && context.getShell().isReady() && !context.isAborted()) {
+                    response = context.getShell().shSync("echo \"${__qdup_ec}\"; (exit $__qdup_ec)");
+                    retry++;
+                }
             }
             if(response.matches("-?\\d+")){
                 try {
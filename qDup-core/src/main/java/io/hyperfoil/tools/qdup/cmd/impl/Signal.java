@@ -20,6 +20,9 @@ public class Signal extends Cmd {
         }
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() {
         return new Signal(this.name);
@@ -36,6 +36,9 @@ public class WaitFor extends Cmd {
         }
     }
 
+    @Override
+    public boolean isBlocking(){return false;}
+
     @Override
     public Cmd copy() {
         return new WaitFor(this.name);
@@ -17,6 +17,7 @@ public class Role {
     private List<ScriptCmd> setup;
     private List<ScriptCmd> run;
     private List<ScriptCmd> cleanup;
+    private Set<String> dependsOn;
 
     public Role(){
         this("");
@@ -29,6 +30,7 @@ public class Role {
         this.setup = new ArrayList<>();
         this.run = new ArrayList<>();
         this.cleanup = new ArrayList<>();
+        this.dependsOn = new LinkedHashSet<>();
         this.environments = new ConcurrentHashMap<>();
     }
     public boolean hasHostExpression(){return hostExpression!=null;}
@@ -95,6 +97,14 @@ public class Role {
     public boolean hasHostRefs(){return !hostRefs.isEmpty();}
     public Set<String> getHostRefs(){return Collections.unmodifiableSet(hostRefs);}
 
+    /**
+     * Roles that need to finish setup before the run scripts for this role start when the run uses role stage barriers
+     */
+    public void addDependsOn(String roleName){
+        this.dependsOn.add(roleName);
+    }
+    public Set<String> getDependsOn(){return Collections.unmodifiableSet(dependsOn);}
+
 
 
 }
@@ -115,6 +115,7 @@ public class RunConfig {
 
     public String getConsoleFormatPattern(){return consoleFormatPattern;}
     public boolean isStreamLogging(){return globals.getSetting(Globals.STREAM_LOGGING,false);}
+    public boolean isJournal(){return globals.getSetting(Globals.JOURNAL,false);}
     public boolean hasSkipStages(){return !skipStages.isEmpty();}
     public List<Stage> getSkipStages(){return skipStages;}
 
@@ -276,6 +277,12 @@ public class RunConfig {
                     roleJson.getJson("cleanup-scripts").add(cmd.toJson());
                 });
             }
+            if(!role.getDependsOn().isEmpty()){
+                roleJson.add("depends-on",new Json(true));
+                role.getDependsOn().forEach(dependsOn->{
+                    roleJson.getJson("depends-on").add(dependsOn);
+                });
+            }
         });
         return rtrn;
     }
@@ -75,6 +75,7 @@ public class RunConfigBuilder {
    private HashedLists<String, ScriptCmd> roleRun;
    private HashedLists<String, ScriptCmd> roleCleanup;
    private HashMap<String, String> roleHostExpression;
+   private HashedSets<String, String> roleDependsOn;
    private HashMap<String, HostDefinition> hostDefinitions;
    private Set<String> traceTargets;
    private Globals globals;
@@ -97,6 +98,7 @@ public class RunConfigBuilder {
       roleRun = new HashedLists<>();
       roleCleanup = new HashedLists<>();
       roleHostExpression = new HashMap<>();
+      roleDependsOn = new HashedSets<>();
       hostDefinitions = new HashMap<>();
       traceTargets = new HashSet<>();
       errors = new LinkedList<>();
@@ -139,6 +141,14 @@ public class RunConfigBuilder {
    public boolean isStreamLogging(){
       return globals.getSetting(Globals.STREAM_LOGGING,false);
    }
+   public void setJournal(Boolean journal){
+      if(journal) {
+          this.globals.addSetting(Globals.JOURNAL, journal);
+      }
+   }
+   public boolean isJournal(){
+      return globals.getSetting(Globals.JOURNAL,false);
+   }
    public int errorCount() {
       return errors.size();
    }
@@ -180,6 +190,9 @@ public class RunConfigBuilder {
          role.getCleanup().forEach(cmd -> {
             addRoleCleanup(name, ((ScriptCmd) cmd).getName(), cmd.getWith());
          });
+         role.getDependsOn().forEach(dependsOn -> {
+            addRoleDependsOn(name, dependsOn);
+         });
       });
       yamlFile.getGlobals().getSettings().forEach((k, v) -> {
          if (globals.hasSetting(k.toString())) {
@@ -249,6 +262,7 @@ public class RunConfigBuilder {
             getRoleSetup(roleName).forEach(role::addSetup);
             getRoleRun(roleName).forEach(role::addRun);
             getRoleCleanup(roleName).forEach(role::addCleanup);
+            getRoleDependsOn(roleName).forEach(role::addDependsOn);
          }
       });
       rtrn.getState().merge(getState());
@@ -279,6 +293,27 @@ public class RunConfigBuilder {
       return roleCleanup.containsKey(name) ? roleCleanup.get(name) : Collections.emptyList();
    }
 
+   private Set<String> getRoleDependsOn(String name) {
+      return roleDependsOn.has(name) ? roleDependsOn.get(name) : Collections.emptySet();
+   }
+
+   /**
+    * @return true when stage-barrier is role and each role starts its run-scripts without waiting for the setup-scripts of every role
+    */
+   public boolean isRoleBarrier() {
+      return "role".equalsIgnoreCase(globals.getSetting(Globals.STAGE_BARRIER, "stage").toString());
+   }
+
+   /**
+    * @return the roles whose setup-scripts finish before the role's run-scripts start with a role stage barrier
+    */
+   public Set<String> getRunDependencies(String name) {
+      Set<String> rtrn = new HashSet<>(getRoleDependsOn(name));
+      rtrn.add(name);
+      rtrn.add(ALL_ROLE);
+      return rtrn;
+   }
+
    private Map<String, HostDefinition> getHostDefinitions() {
       return Collections.unmodifiableMap(hostDefinitions);
    }
@@ -335,6 +370,10 @@ public class RunConfigBuilder {
    public void addHostAlias(String alias, String expression){
       addHostAlias(alias,new HostDefinition(expression));
    }
+   public void addRoleDependsOn(String role, String dependsOn) {
+      roleDependsOn.put(role, dependsOn);
+   }
+
    public void addRoleSetup(String role, String script, Map<String, String> with) {
       addRoleScript(role, script, with, roleSetup);
    }
@@ -629,6 +668,18 @@ public class RunConfigBuilder {
          }
       });
 
+      roleDependsOn.forEach((roleName, dependsOn) -> {
+         if (roles.containsKey(roleName)) {
+            dependsOn.forEach(dependency -> {
+               if (roles.containsKey(dependency)) {
+                  roles.get(roleName).addDependsOn(dependency);
+               } else {
+                  addError(roleName + " depends-on unknown role " + dependency);
+               }
+            });
+         }
+      });
+
       //perform static analysis
       RunSummary summary = new RunSummary();
       SignalCounts signalCounts = new SignalCounts();
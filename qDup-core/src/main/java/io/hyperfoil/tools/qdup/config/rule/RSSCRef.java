@@ -2,6 +2,7 @@ package io.hyperfoil.tools.qdup.config.rule;
 
 import io.hyperfoil.tools.qdup.Stage;
 import io.hyperfoil.tools.qdup.cmd.Cmd;
+import io.hyperfoil.tools.qdup.config.RunConfigBuilder;
 
 class RSSCRef {
     private final String role;
@@ -26,6 +27,19 @@ class RSSCRef {
         return stage.isBefore(ref.getStage()) ||
                 (stage.isSequential() && stage == ref.getStage() && getRole().equals(ref.getRole()));
     }
+    /**
+     * Same as isBeforeOrSequentiallyWith(ref) except a setup-script with stage-barrier: role is only before the run-scripts of
+     * the same role, the roles that depends-on it, or every role for the ALL role.
+     */
+    public boolean isBeforeOrSequentiallyWith(RSSCRef ref, RunConfigBuilder config){
+        if(!isBeforeOrSequentiallyWith(ref)){
+            return false;
+        }
+        if(config.isRoleBarrier() && Stage.Setup.equals(stage) && Stage.Run.equals(ref.getStage())){
+            return config.getRunDependencies(ref.getRole()).contains(getRole());
+        }
+        return true;
+    }
 
 
     public String getRole() {
@@ -66,7 +66,7 @@ public class SignalCounts implements RunRule {
                     RSSCRef signalRef = new RSSCRef(location.getRoleName(),location.getStage(),location.getScriptName(), command);
                     waits.get(populated).stream().filter(rssc -> {
                         return signalRef.isSameScript(rssc) ||
-                                rssc.isBeforeOrSequentiallyWith(signalRef);
+                                rssc.isBeforeOrSequentiallyWith(signalRef, config);
                     }).forEach(rssc -> {
                         summary.addError(
                                 rssc.getRole(),
@@ -92,6 +92,8 @@ public class SignalCounts implements RunRule {
         }else if (command instanceof RepeatUntilSignal){
             RepeatUntilSignal repeatUntilSignal = (RepeatUntilSignal) command;
             String populated = Cmd.populateStateVariables(repeatUntilSignal.getName(),command, config.getState(), null, null, ref);
+            //computed now so the dispatcher does not walk the loop while the run is active
+            repeatUntilSignal.isSelfSignaling();
         }
     }
 
@@ -4,6 +4,7 @@ import io.hyperfoil.tools.qdup.Coordinator;
 import io.hyperfoil.tools.qdup.Globals;
 import io.hyperfoil.tools.qdup.JsSnippet;
 import io.hyperfoil.tools.qdup.SecretFilter;
+import io.hyperfoil.tools.qdup.Stage;
 import io.hyperfoil.tools.qdup.State;
 import io.hyperfoil.tools.qdup.cmd.Cmd;
 import io.hyperfoil.tools.qdup.cmd.PatternValuesMap;
@@ -155,13 +156,43 @@ public class UndefinedStateVariables implements RunRule {
         return
             setVariables.containsKey(trimmed) ||
                 setVariables.keys().stream()
-                    .filter(var -> {
-                        return trimmed.equals(var) ||
-                        (trimmed.startsWith(var)  && trimmed.length() > var.length() && ".[".contains(""+trimmed.charAt(var.length()))) ||
-                        (var.startsWith(trimmed) && var.length() > trimmed.length() && ".[".contains(""+var.charAt(trimmed.length())) );
-                    })
+                    .filter(var -> isSameVariable(trimmed,var))
                     .findAny().orElse(null) != null;
     }
+    private static boolean isSameVariable(String trimmed, String var){
+        return trimmed.equals(var) ||
+            (trimmed.startsWith(var)  && trimmed.length() > var.length() && ".[".contains(""+trimmed.charAt(var.length()))) ||
+            (var.startsWith(trimmed) && var.length() > trimmed.length() && ".[".contains(""+var.charAt(trimmed.length())) );
+    }
+    private List<RSSCRef> getSetRefs(String name){
+        String trimmed = trim(name);
+        return setVariables.keys().stream()
+            .filter(var -> isSameVariable(trimmed,var))
+            .flatMap(var -> setVariables.get(var).stream())
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * With stage-barrier: role a run-script can start before the setup-scripts of the roles it does not depends-on
+     * so a variable that is only set by those setup-scripts may not be set yet.
+     */
+    private void checkRoleBarrier(String name, RSSCRef ref, RunConfigBuilder config, RunSummary summary){
+        if(!config.isRoleBarrier() || !Stage.Run.equals(ref.getStage())){
+            return;
+        }
+        List<RSSCRef> setRefs = getSetRefs(name);
+        if(setRefs.isEmpty() || setRefs.stream().anyMatch(set -> !Stage.Setup.equals(set.getStage()) || set.isBeforeOrSequentiallyWith(ref,config))){
+            return;
+        }
+        String roles = setRefs.stream().map(RSSCRef::getRole).distinct().sorted().collect(Collectors.joining(", "));
+        summary.addError(
+            ref.getRole(),
+            ref.getStage(),
+            ref.getScript(),
+            ref.getCommand().toString(),
+            trim(name)+" is set by the setup-scripts of "+roles+", add "+roles+" to depends-on for "+ref.getRole()+" when stage-barrier is role"
+        );
+    }
 
     @Override
     public void scan(CmdLocation location, Cmd command, Cmd.Ref ref, RunConfigBuilder config, RunSummary summary) {
@@ -241,15 +272,14 @@ public class UndefinedStateVariables implements RunRule {
                     return rtrn;
                     })
                     .forEach(neededVariable -> {
-                        addNeededVariable(
-                            neededVariable,
-                            new RSSCRef(
-                                location.getRoleName(),
-                                location.getStage(),
-                                location.getScriptName(),
-                                command
-                            )
+                        RSSCRef neededRef = new RSSCRef(
+                            location.getRoleName(),
+                            location.getStage(),
+                            location.getScriptName(),
+                            command
                         );
+                        checkRoleBarrier(neededVariable, neededRef, config, summary);
+                        addNeededVariable(neededVariable, neededRef);
                     });
             }
         }
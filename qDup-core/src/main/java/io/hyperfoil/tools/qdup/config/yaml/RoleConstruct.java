@@ -30,6 +30,9 @@ public class RoleConstruct extends DeferableConstruct {
         rtrn.put("setup-scripts",role.getSetup());
         rtrn.put("run-scripts",role.getRun());
         rtrn.put("cleanup-scripts",role.getCleanup());
+        if(!role.getDependsOn().isEmpty()){
+            rtrn.put("depends-on",role.getDependsOn());
+        }
         return rtrn;
     };
 
@@ -96,6 +99,21 @@ public class RoleConstruct extends DeferableConstruct {
                         case "cleanup-scripts":
                             parseScript.apply("cleanup-scripts",tupleValue).forEach(role::addCleanup);
                             break;
+                        case "depends-on":
+                            if(tupleValue instanceof ScalarNode){
+                                role.addDependsOn(((ScalarNode)tupleValue).getValue());
+                            }else if(tupleValue instanceof SequenceNode){
+                                ((SequenceNode)tupleValue).getValue().forEach(dependsNode->{
+                                    if(dependsNode instanceof ScalarNode){
+                                        role.addDependsOn(((ScalarNode)dependsNode).getValue());
+                                    }else{
+                                        throw new YAMLException("role '"+role.getName()+"' depends-on entries must be role names"+dependsNode.getStartMark());
+                                    }
+                                });
+                            }else{
+                                throw new YAMLException("role '"+role.getName()+"' depends-on must be a role name or sequence"+tupleValue.getStartMark());
+                            }
+                            break;
                         default:
                             throw new YAMLException("unknown role key '"+key+"' "+nodeTuple.getKeyNode().getStartMark());
 
@@ -80,6 +80,9 @@ public class YamlFileConstruct extends DeferableConstruct {
                 if(!role.getCleanup().isEmpty()){
                     roleMap.put("cleanup-scripts",new ArrayList<Object>(toScriptMap.apply(role.getCleanup())));
                 }
+                if(!role.getDependsOn().isEmpty()){
+                    roleMap.put("depends-on",new ArrayList<>(role.getDependsOn()));
+                }
             });
             map.put("roles",rolesMap);
         }
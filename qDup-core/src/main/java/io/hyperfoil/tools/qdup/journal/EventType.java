@@ -0,0 +1,33 @@
+package io.hyperfoil.tools.qdup.journal;
+
+/**
+ * The kinds of events in a run journal. The code is written to the journal so existing codes must not change.
+ */
+public enum EventType {
+    STAGE_START(1),
+    STAGE_STOP(2),
+    CMD_START(3),
+    CMD_STOP(4),
+    OUTPUT(5),
+    SIGNAL(6),
+    STATE(7),
+    TIMER(8),
+    DONE(9);
+
+    private final int code;
+
+    EventType(int code){
+        this.code = code;
+    }
+
+    public int getCode(){return code;}
+
+    public static EventType fromCode(int code){
+        for(EventType type : values()){
+            if(type.code == code){
+                return type;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,203 @@
+package io.hyperfoil.tools.qdup.journal;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Queries a run.journal without loading it into memory.
+ * <pre>
+ * java -cp qDup.jar io.hyperfoil.tools.qdup.journal.JournalCli [options] &lt;run.journal or run folder&gt;
+ * </pre>
+ */
+public class JournalCli {
+
+    private static final int SUMMARY_COMMANDS = 20;
+
+    /**
+     * Total and maximum duration of each command name for the summary
+     */
+    private static class Durations {
+        long count;
+        long total;
+        long max;
+
+        void add(long duration){
+            count++;
+            total += duration;
+            max = Math.max(max,duration);
+        }
+    }
+
+    private final Path path;
+    private final Predicate<JournalEvent> filter;
+    //milliseconds from the start of the journal
+    private final long from;
+    private final long to;
+    private final boolean json;
+    private final boolean summary;
+
+    JournalCli(Path path, Predicate<JournalEvent> filter, long from, long to, boolean json, boolean summary){
+        this.path = Files.isDirectory(path) ? path.resolve(JournalWriter.FILE_NAME) : path;
+        this.filter = filter;
+        this.from = from;
+        this.to = to;
+        this.json = json;
+        this.summary = summary;
+    }
+
+    public static void main(String[] args) {
+        Options options = new Options();
+        options.addOption(Option.builder("t").longOpt("type").hasArg().argName("type,...")
+                .desc("only events of these comma separated types: "+Arrays.toString(EventType.values())).build());
+        options.addOption(Option.builder("c").longOpt("context").hasArg().argName("regex")
+                .desc("only events from a context id (script:uid@host) that contains a match").build());
+        options.addOption(Option.builder("n").longOpt("name").hasArg().argName("regex")
+                .desc("only events with a command, stage, signal or state name that contains a match").build());
+        options.addOption(Option.builder("g").longOpt("grep").hasArg().argName("regex")
+                .desc("only events with output or a value that contains a match").build());
+        options.addOption(Option.builder().longOpt("from").hasArg().argName("seconds")
+                .desc("only events at or after seconds from the start of the run").build());
+        options.addOption(Option.builder().longOpt("to").hasArg().argName("seconds")
+                .desc("only events at or before seconds from the start of the run").build());
+        options.addOption(Option.builder().longOpt("json").desc("print each event as a json object").build());
+        options.addOption(Option.builder().longOpt("summary").desc("print event counts and the slowest commands instead of the events").build());
+
+        String cmdLineSyntax = "java -cp qDup.jar "+JournalCli.class.getName()+" [options] <run.journal or run folder>";
+        HelpFormatter formatter = new HelpFormatter();
+        CommandLine commandLine;
+        try {
+            commandLine = new DefaultParser().parse(options, args);
+        } catch (ParseException e) {
+            System.err.println(e.getMessage());
+            formatter.printHelp(cmdLineSyntax, options);
+            System.exit(1);
+            return;
+        }
+        if(commandLine.getArgList().size() != 1){
+            formatter.printHelp(cmdLineSyntax, options);
+            System.exit(1);
+            return;
+        }
+        try {
+            JournalCli cli = new JournalCli(
+                Path.of(commandLine.getArgList().get(0)),
+                getFilter(commandLine),
+                milliseconds(commandLine.getOptionValue("from"),Long.MIN_VALUE),
+                milliseconds(commandLine.getOptionValue("to"),Long.MAX_VALUE),
+                commandLine.hasOption("json"),
+                commandLine.hasOption("summary")
+            );
+            cli.run(System.out);
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static Predicate<JournalEvent> getFilter(CommandLine commandLine){
+        Predicate<JournalEvent> rtrn = event -> true;
+        if(commandLine.hasOption("type")){
+            Set<EventType> types = EnumSet.noneOf(EventType.class);
+            for(String value : commandLine.getOptionValues("type")){
+                for(String type : value.split(",")){
+                    types.add(EventType.valueOf(type.trim().toUpperCase()));
+                }
+            }
+            rtrn = rtrn.and(event -> types.contains(event.getType()));
+        }
+        if(commandLine.hasOption("context")){
+            Pattern pattern = Pattern.compile(commandLine.getOptionValue("context"));
+            rtrn = rtrn.and(event -> event.hasContext() && pattern.matcher(event.getContext()).find());
+        }
+        if(commandLine.hasOption("name")){
+            Pattern pattern = Pattern.compile(commandLine.getOptionValue("name"));
+            rtrn = rtrn.and(event -> event.getName() != null && pattern.matcher(event.getName()).find());
+        }
+        if(commandLine.hasOption("grep")){
+            Pattern pattern = Pattern.compile(commandLine.getOptionValue("grep"));
+            rtrn = rtrn.and(event -> event.hasPayload() && pattern.matcher(event.getPayload()).find());
+        }
+        return rtrn;
+    }
+
+    void run(PrintStream out) throws IOException {
+        try (JournalReader reader = new JournalReader(path)) {
+            run(out,reader,reader.getStart());
+        }
+    }
+
+    private static long milliseconds(String seconds, long defaultValue){
+        return seconds == null ? defaultValue : (long)(Double.parseDouble(seconds) * 1000);
+    }
+
+    private void run(PrintStream out, JournalReader reader, long start){
+        Map<EventType,Long> counts = new EnumMap<>(EventType.class);
+        Map<String,Deque<Long>> running = new HashMap<>();
+        Map<String,Durations> durations = new HashMap<>();
+        long last = start;
+        while(reader.hasNext()){
+            JournalEvent event = reader.next();
+            last = event.getTimestamp();
+            long offset = event.getTimestamp() - start;
+            if(offset < from || offset > to || !filter.test(event)){
+                continue;
+            }
+            if(summary){
+                counts.merge(event.getType(),1L,Long::sum);
+                if(EventType.CMD_START.equals(event.getType())){
+                    running.computeIfAbsent(event.getContext()+" "+event.getName(),k->new ArrayDeque<>()).push(event.getTimestamp());
+                }else if (EventType.CMD_STOP.equals(event.getType())){
+                    Deque<Long> started = running.get(event.getContext()+" "+event.getName());
+                    if(started != null && !started.isEmpty()){
+                        durations.computeIfAbsent(event.getName(),k->new Durations()).add(event.getTimestamp() - started.pop());
+                    }
+                }
+            }else if (json){
+                out.println(event.toJson().toString());
+            }else{
+                out.printf("+%.3f %s%s%s%s%n",
+                    offset / 1000.0,
+                    event.getType(),
+                    event.hasContext() ? " "+event.getContext() : "",
+                    event.getName() != null ? " "+event.getName() : "",
+                    event.hasPayload() ? " "+event.getPayload() : "");
+            }
+        }
+        if(summary){
+            out.printf("journal: %s%nduration: %.3fs%n",path,(last - start) / 1000.0);
+            counts.forEach((type,count)->out.printf("%-12s %d%n",type,count));
+            Map<String,Durations> slowest = new LinkedHashMap<>();
+            durations.entrySet().stream()
+                .sorted((a,b)->Long.compare(b.getValue().total,a.getValue().total))
+                .limit(SUMMARY_COMMANDS)
+                .forEach(e->slowest.put(e.getKey(),e.getValue()));
+            if(!slowest.isEmpty()){
+                out.printf("%10s %10s %10s  %s%n","count","total(s)","max(s)","command");
+                slowest.forEach((name,d)->out.printf("%10d %10.3f %10.3f  %s%n",d.count,d.total / 1000.0,d.max / 1000.0,name));
+            }
+        }
+        if(reader.isTruncated()){
+            System.err.println("journal ends with a partial event, the run did not close the journal");
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package io.hyperfoil.tools.qdup.journal;
+
+import io.hyperfoil.tools.yaup.json.Json;
+
+/**
+ * One entry in a run journal.
+ * The context is the ScriptContext id (script:uid@host), the name is the command, stage, signal or state key
+ * and the payload is the output or value. Any of them can be null.
+ */
+public class JournalEvent {
+
+    private final EventType type;
+    private final long timestamp;
+    private final String context;
+    private final String name;
+    private final String payload;
+
+    public JournalEvent(EventType type, long timestamp, String context, String name, String payload){
+        this.type = type;
+        this.timestamp = timestamp;
+        this.context = context;
+        this.name = name;
+        this.payload = payload;
+    }
+
+    public EventType getType(){return type;}
+    public long getTimestamp(){return timestamp;}
+    public String getContext(){return context;}
+    public String getName(){return name;}
+    public String getPayload(){return payload;}
+    public boolean hasContext(){return context != null;}
+    public boolean hasPayload(){return payload != null;}
+
+    public Json toJson(){
+        Json rtrn = new Json(false);
+        rtrn.set("type",type.name());
+        rtrn.set("timestamp",timestamp);
+        if(context != null){
+            rtrn.set("context",context);
+        }
+        if(name != null){
+            rtrn.set("name",name);
+        }
+        if(payload != null){
+            rtrn.set("payload",payload);
+        }
+        return rtrn;
+    }
+
+    @Override
+    public String toString(){
+        return timestamp+" "+type+(context == null ? "" : " "+context)+(name == null ? "" : " "+name)+(payload == null ? "" : " "+payload);
+    }
+}
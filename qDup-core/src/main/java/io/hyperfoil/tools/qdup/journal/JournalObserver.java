@@ -0,0 +1,96 @@
+package io.hyperfoil.tools.qdup.journal;
+
+import io.hyperfoil.tools.qdup.cmd.Cmd;
+import io.hyperfoil.tools.qdup.cmd.Context;
+import io.hyperfoil.tools.qdup.cmd.ContextObserver;
+import io.hyperfoil.tools.qdup.cmd.ScriptContext;
+import io.hyperfoil.tools.qdup.cmd.SyncContext;
+import io.hyperfoil.tools.qdup.cmd.impl.SetState;
+import io.hyperfoil.tools.qdup.cmd.impl.Sh;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the command events from the dispatcher's contexts in a {@link JournalWriter}.
+ * Sh output is recorded one line at a time as OUTPUT events so the CMD_STOP for an sh does not repeat it.
+ * The CMD_STOP for other commands only has a payload when the command changed the output it received.
+ * OUTPUT events do not have a name because they belong to the last CMD_START from the same context.
+ */
+public class JournalObserver implements ContextObserver {
+
+    private final JournalWriter writer;
+    //context ids are built from the root command and host so they are cached for the output events
+    //only ScriptContexts are cached, watchers and timers create a SyncContext for each line or tick
+    private final Map<ScriptContext,String> contextIds;
+
+    public JournalObserver(JournalWriter writer){
+        this.writer = writer;
+        this.contextIds = new ConcurrentHashMap<>();
+    }
+
+    public static String getContextId(Context context){
+        if(context instanceof ScriptContext){
+            return ((ScriptContext)context).getContextId();
+        }
+        if(context instanceof SyncContext && ((SyncContext)context).getScriptContext() != null){
+            //timers and watchers run in a SyncContext for the context that started the command
+            return ((SyncContext)context).getScriptContext().getContextId();
+        }
+        return context.getHost() != null ? context.getHost().getShortHostName() : null;
+    }
+
+    private String contextId(Context context){
+        if(context instanceof SyncContext && ((SyncContext)context).getScriptContext() != null){
+            context = ((SyncContext)context).getScriptContext();
+        }
+        if(!(context instanceof ScriptContext)){
+            return getContextId(context);
+        }
+        ScriptContext scriptContext = (ScriptContext)context;
+        String rtrn = contextIds.get(scriptContext);
+        if(rtrn == null){
+            rtrn = scriptContext.getContextId();
+            if(rtrn != null){
+                contextIds.put(scriptContext,rtrn);
+            }
+        }
+        return rtrn;
+    }
+
+    int getCachedCount(){
+        return contextIds.size();
+    }
+
+    @Override
+    public void preStart(Context context, Cmd command){
+        writer.record(EventType.CMD_START,contextId(context),command.toString());
+    }
+
+    @Override
+    public void preStop(Context context, Cmd command, String output){
+        String contextId = contextId(context);
+        boolean hasPayload = output != null && !output.isEmpty() && !(command instanceof Sh);
+        if(command instanceof SetState){
+            SetState setState = (SetState)command;
+            if(setState.getPopulatedKey() != null){
+                writer.record(EventType.STATE,contextId,setState.getPopulatedKey(),command.isSilent() ? null : setState.getPopulatedValue());
+            }
+            hasPayload = false;
+        }else if (hasPayload && command.getPrevious() != null && output.equals(command.getPrevious().getOutput())){
+            hasPayload = false;
+        }
+        writer.record(EventType.CMD_STOP,contextId,command.toString(),hasPayload ? output : null);
+    }
+
+    @Override
+    public void onUpdate(Context context, Cmd command, String output){
+        writer.record(EventType.OUTPUT,contextId(context),null,output);
+    }
+
+    @Override
+    public void onDone(Context context){
+        String contextId = context instanceof ScriptContext ? contextIds.remove(context) : null;
+        writer.record(EventType.DONE,contextId != null ? contextId : getContextId(context),null);
+    }
+}
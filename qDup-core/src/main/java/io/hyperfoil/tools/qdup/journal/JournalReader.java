@@ -0,0 +1,168 @@
+package io.hyperfoil.tools.qdup.journal;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads the events from a journal created by {@link JournalWriter}.
+ * A journal from a run that did not finish can end with a partial record. The reader stops before the partial record
+ * and {@link #isTruncated()} returns true.
+ */
+public class JournalReader implements Iterator<JournalEvent>, Closeable {
+
+    public static List<JournalEvent> readAll(Path path) throws IOException {
+        List<JournalEvent> rtrn = new ArrayList<>();
+        try (JournalReader reader = new JournalReader(path)) {
+            reader.forEachRemaining(rtrn::add);
+        }
+        return rtrn;
+    }
+
+    private final DataInputStream input;
+    private final long start;
+    private final List<String> strings;
+    private long previous;
+    private JournalEvent next;
+    private boolean truncated;
+    private boolean done;
+
+    public JournalReader(Path path) throws IOException {
+        this(Files.newInputStream(path));
+    }
+    public JournalReader(InputStream stream) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(stream));
+        this.strings = new ArrayList<>();
+        this.strings.add(null);
+        try {
+            byte[] magic = new byte[JournalWriter.MAGIC.length];
+            input.readFully(magic);
+            for(int i=0; i<magic.length; i++){
+                if(magic[i] != JournalWriter.MAGIC[i]){
+                    throw new IOException("not a qDup journal");
+                }
+            }
+            int version = input.readUnsignedByte();
+            if(version != JournalWriter.VERSION){
+                throw new IOException("unsupported journal version "+version);
+            }
+            this.start = input.readLong();
+            this.previous = start;
+        } catch (EOFException e) {
+            input.close();
+            throw new IOException("not a qDup journal",e);
+        } catch (IOException e) {
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the millisecond timestamp when the journal was created
+     */
+    public long getStart(){return start;}
+    public boolean isTruncated(){return truncated;}
+
+    @Override
+    public boolean hasNext(){
+        if(next == null && !done){
+            try {
+                next = read();
+            } catch (IOException e) {
+                throw new RuntimeException("failed to read journal",e);
+            }
+            if(next == null){
+                done = true;
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public JournalEvent next(){
+        if(!hasNext()){
+            throw new NoSuchElementException();
+        }
+        JournalEvent rtrn = next;
+        next = null;
+        return rtrn;
+    }
+
+    public Stream<JournalEvent> stream(){
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this,Spliterator.ORDERED | Spliterator.NONNULL),false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private JournalEvent read() throws IOException {
+        try {
+            while(true){
+                int tag = input.read();
+                if(tag < 0){
+                    return null;
+                }
+                if(tag == JournalWriter.DEFINE){
+                    strings.add(readString((int)readVarLong()));
+                }else{
+                    EventType type = EventType.fromCode(tag);
+                    if(type == null){
+                        throw new IOException("unknown journal record "+tag);
+                    }
+                    long zigzag = readVarLong();
+                    long timestamp = previous + ((zigzag >>> 1) ^ -(zigzag & 1));
+                    previous = timestamp;
+                    String context = string(readVarLong());
+                    String name = string(readVarLong());
+                    int payloadLength = (int)readVarLong();
+                    String payload = payloadLength == 0 ? null : readString(payloadLength - 1);
+                    return new JournalEvent(type,timestamp,context,name,payload);
+                }
+            }
+        } catch (EOFException e) {
+            truncated = true;
+            return null;
+        }
+    }
+
+    private String string(long id) throws IOException {
+        if(id < 0 || id >= strings.size()){
+            throw new IOException("journal references undefined string "+id);
+        }
+        return strings.get((int)id);
+    }
+
+    private String readString(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes,StandardCharsets.UTF_8);
+    }
+
+    private long readVarLong() throws IOException {
+        long rtrn = 0;
+        for(int shift = 0; shift < 64; shift += 7){
+            int b = input.readUnsignedByte();
+            rtrn |= (long)(b & 0x7F) << shift;
+            if((b & 0x80) == 0){
+                return rtrn;
+            }
+        }
+        throw new IOException("malformed journal varint");
+    }
+}
@@ -0,0 +1,258 @@
+package io.hyperfoil.tools.qdup.journal;
+
+import io.hyperfoil.tools.qdup.SecretFilter;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Appends {@link JournalEvent}s to a binary journal file from a dedicated writer thread.
+ * Callers only create the event and put it in a bounded queue. The writer thread drains the queue in batches,
+ * encodes them and writes each batch with one write then forces the file to disk at most once per sync interval.
+ * A full queue blocks the caller so events are never dropped.
+ * <p>
+ * The file starts with {@link #MAGIC}, a version byte and the start time as 8 bytes.
+ * Each record is a tag byte followed by varints.
+ * Tag 0 defines the next string id for context and command names so they are only written once.
+ * Any other tag is an {@link EventType} code followed by the zigzag time delta from the previous event,
+ * the context id, the name id and the payload length + 1 (0 for no payload) then the payload as UTF-8.
+ * String id 0 is null.
+ */
+public class JournalWriter implements AutoCloseable {
+
+    private static final Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static final String FILE_NAME = "run.journal";
+    public static final byte[] MAGIC = {'Q','D','J'};
+    public static final int VERSION = 1;
+    static final int DEFINE = 0;
+
+    public static final int DEFAULT_CAPACITY = 64 * 1024;
+    public static final long DEFAULT_SYNC_INTERVAL = 1_000;
+    private static final int MAX_BATCH = 4 * 1024;
+
+    //added to the queue by close so the writer thread does not wait for the next poll timeout
+    private static final JournalEvent CLOSE = new JournalEvent(EventType.DONE,0,null,null,null);
+
+    private final Path path;
+    private final BlockingQueue<JournalEvent> queue;
+    private final long syncInterval;
+    private final SecretFilter filter;
+    private final AtomicBoolean closed;
+    private final FileChannel channel;
+    private final Thread thread;
+
+    //only used by the writer thread
+    private final Map<String,Integer> ids;
+    private final List<JournalEvent> batch;
+    private byte[] buffer;
+    private int length;
+    private long previous;
+    private long lastSync;
+    private boolean dirty;
+    private boolean failed;
+
+    public JournalWriter(Path path, SecretFilter filter) throws IOException {
+        this(path,filter,DEFAULT_CAPACITY,DEFAULT_SYNC_INTERVAL);
+    }
+    public JournalWriter(Path path, SecretFilter filter, int capacity, long syncInterval) throws IOException {
+        this.path = path;
+        this.filter = filter;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.syncInterval = syncInterval;
+        this.closed = new AtomicBoolean(false);
+        this.ids = new HashMap<>();
+        this.batch = new ArrayList<>();
+        this.buffer = new byte[8 * 1024];
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        this.previous = System.currentTimeMillis();
+        this.lastSync = System.nanoTime();
+        writeHeader();
+        this.thread = new Thread(this::drain,"qdup-journal");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    public Path getPath(){return path;}
+    public boolean isClosed(){return closed.get();}
+
+    public void record(EventType type, String context, String name){
+        record(type,context,name,null);
+    }
+    public void record(EventType type, String context, String name, String payload){
+        if(closed.get()){
+            return;
+        }
+        try {
+            queue.put(new JournalEvent(type,System.currentTimeMillis(),context,name,payload));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writes the queued events, forces them to disk and waits for the writer thread to stop
+     */
+    @Override
+    public void close(){
+        if(closed.compareAndSet(false,true)){
+            try {
+                queue.put(CLOSE);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.warnf("failed to close journal %s: %s",path,e.getMessage());
+            }
+        }
+    }
+
+    private void drain(){
+        boolean running = true;
+        while(running){
+            try {
+                JournalEvent first = queue.poll(syncInterval,TimeUnit.MILLISECONDS);
+                if(first != null){
+                    batch.add(first);
+                    queue.drainTo(batch,MAX_BATCH - 1);
+                    length = 0;
+                    for(JournalEvent event : batch){
+                        if(event == CLOSE){
+                            running = false;
+                        }else{
+                            encode(event);
+                        }
+                    }
+                    batch.clear();
+                    write();
+                }
+                if(dirty && (!running || System.nanoTime() - lastSync >= TimeUnit.MILLISECONDS.toNanos(syncInterval))){
+                    sync();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+        }
+        //release any record call that passed the closed check while the queue was full
+        queue.clear();
+    }
+
+    private void writeHeader() throws IOException {
+        length = 0;
+        ensure(MAGIC.length + 9);
+        System.arraycopy(MAGIC,0,buffer,0,MAGIC.length);
+        length = MAGIC.length;
+        buffer[length++] = VERSION;
+        for(int shift = 56; shift >= 0; shift -= 8){
+            buffer[length++] = (byte)(previous >>> shift);
+        }
+        ByteBuffer toWrite = ByteBuffer.wrap(buffer,0,length);
+        while(toWrite.hasRemaining()){
+            channel.write(toWrite);
+        }
+    }
+
+    private void write(){
+        if(failed || length == 0){
+            return;
+        }
+        try {
+            ByteBuffer toWrite = ByteBuffer.wrap(buffer,0,length);
+            while(toWrite.hasRemaining()){
+                channel.write(toWrite);
+            }
+            dirty = true;
+        } catch (IOException e) {
+            failed = true;
+            logger.errorf("failed to write journal %s, no more events will be recorded: %s",path,e.getMessage());
+        }
+    }
+
+    private void sync(){
+        if(failed){
+            return;
+        }
+        try {
+            channel.force(false);
+            dirty = false;
+            lastSync = System.nanoTime();
+        } catch (IOException e) {
+            failed = true;
+            logger.errorf("failed to sync journal %s, no more events will be recorded: %s",path,e.getMessage());
+        }
+    }
+
+    private void encode(JournalEvent event){
+        int context = id(event.getContext());
+        int name = id(filter(event.getName()));
+        byte[] payload = event.hasPayload() ? filter(event.getPayload()).getBytes(StandardCharsets.UTF_8) : null;
+        long delta = event.getTimestamp() - previous;
+        previous = event.getTimestamp();
+        ensure(1 + 10 + 5 + 5 + 5 + (payload == null ? 0 : payload.length));
+        buffer[length++] = (byte)event.getType().getCode();
+        writeVarLong((delta << 1) ^ (delta >> 63));
+        writeVarLong(context);
+        writeVarLong(name);
+        if(payload == null){
+            writeVarLong(0);
+        }else{
+            writeVarLong(payload.length + 1);
+            System.arraycopy(payload,0,buffer,length,payload.length);
+            length += payload.length;
+        }
+    }
+
+    private String filter(String value){
+        return value == null || filter == null ? value : filter.filter(value);
+    }
+
+    private int id(String value){
+        if(value == null){
+            return 0;
+        }
+        Integer id = ids.get(value);
+        if(id == null){
+            id = ids.size() + 1;
+            ids.put(value,id);
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            ensure(1 + 5 + bytes.length);
+            buffer[length++] = DEFINE;
+            writeVarLong(bytes.length);
+            System.arraycopy(bytes,0,buffer,length,bytes.length);
+            length += bytes.length;
+        }
+        return id;
+    }
+
+    private void ensure(int needed){
+        if(length + needed > buffer.length){
+            buffer = Arrays.copyOf(buffer,Math.max(buffer.length * 2,length + needed));
+        }
+    }
+
+    private void writeVarLong(long value){
+        while((value & ~0x7FL) != 0){
+            buffer[length++] = (byte)((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte)value;
+    }
+}
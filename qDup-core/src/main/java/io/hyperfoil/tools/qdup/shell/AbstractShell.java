@@ -2,6 +2,8 @@ package io.hyperfoil.tools.qdup.shell;
 
 import io.hyperfoil.tools.qdup.Host;
 import io.hyperfoil.tools.qdup.SecretFilter;
+import io.hyperfoil.tools.qdup.stream.LineView;
+import io.hyperfoil.tools.qdup.stream.OutputCapture;
 import io.hyperfoil.tools.qdup.stream.SessionStreams;
 import io.hyperfoil.tools.yaup.AsciiArt;
 import org.apache.sshd.common.session.Session;
@@ -14,10 +16,13 @@ import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.concurrent.locks.StampedLock;
 import java.util.function.BiConsumer;
@@ -32,6 +37,7 @@ import java.util.stream.Collectors;
 public abstract class AbstractShell {
 
     public static final String PROMPT = "<_#__qdup__#_> "; // a string unlikely to appear in the output of any command
+    public static final String EXIT_CODE_PREFIX = "<_#__qdup_ec__#_>"; // precedes the exit code in the default PROMPT
     public static final int RECONNECT_RETRY_DELAY = 10_000;
     public static final int MAX_RECONNECT_ATTEMPTS = 10;
 
@@ -86,6 +92,7 @@ public abstract class AbstractShell {
     String setupCommand;
     ScheduledThreadPoolExecutor executor;
     String tracePath;
+    int outputWindow = 0;
 
     private StampedLock connectingLock = new StampedLock();
     private static final String SH_CALLBACK = "qdup-sh-callback";
@@ -98,10 +105,13 @@ public abstract class AbstractShell {
     volatile ShAction currentAction = null;
 
     Consumer<String> semaphoreCallback;
+    private volatile String promptExitCode;
+    private boolean exitCodePrompt = false;
     private Semaphore blockingSemaphore;
     private Consumer<String> blockingConsumer;
     private StringBuffer blockingResponse;
     private Map<String, Consumer<String>> lineObservers;
+    private Map<String, Consumer<LineView>> lineViewObservers;
     private Map<String, BiConsumer<String,String>> shObservers;
     PrintStream commandStream;
     Semaphore shellLock;
@@ -116,13 +126,16 @@ public abstract class AbstractShell {
         return getShell(name,host,"",executor,filter,tracePath);
     }
     public static final AbstractShell getShell(String name, Host host,String setupCommand, ScheduledThreadPoolExecutor executor,SecretFilter filter, String tracePath){
+        return getShell(name,host,setupCommand,executor,filter,tracePath,null);
+    }
+    public static final AbstractShell getShell(String name, Host host,String setupCommand, ScheduledThreadPoolExecutor executor,SecretFilter filter, String tracePath, SshSessionPool sessionPool){
         AbstractShell shell = null;
         if(host.isContainer()){
-            shell = new ContainerShell(name,host,setupCommand,executor,filter,tracePath);
+            shell = new ContainerShell(name,host,setupCommand,executor,filter,tracePath,sessionPool);
         }else if (host.isLocal()){
             shell = new LocalShell(name,host,setupCommand,executor,filter,tracePath);
         }else {
-            shell = new SshShell(name,host,setupCommand,executor,filter,tracePath);
+            shell = new SshShell(name,host,setupCommand,executor,filter,tracePath,sessionPool);
         }
         //should this conect the shell or just create the correct shell?
         boolean connected = shell.connect();
@@ -138,6 +151,7 @@ public abstract class AbstractShell {
 
         shellLock = new Semaphore(1);
         lineObservers = new ConcurrentHashMap<>();
+        lineViewObservers = new ConcurrentHashMap<>();
         shObservers = new ConcurrentHashMap<>();
         //for shSync
         blockingSemaphore = new Semaphore(0);
@@ -158,6 +172,7 @@ public abstract class AbstractShell {
     final void setSessionStreams(SessionStreams sessionStreams){
         //TODO copy prompts from original sessionStreams to new sessionStreams
         this.sessionStreams.sharePrompts(sessionStreams);
+        applyOutputWindow(sessionStreams);
         if(this.sessionStreams.hasTrace()){
             sessionStreams.setTrace(this.sessionStreams.getTraceName());
         }
@@ -167,7 +182,7 @@ public abstract class AbstractShell {
         //trying fix shSync after setSessionStreams is called
         if(this.sessionStreams!=null) {
             this.sessionStreams.addPromptCallback(this.semaphoreCallback);
-            this.sessionStreams.addLineConsumer(this::lineConsumers);
+            this.sessionStreams.addLineViewConsumer(this::lineConsumers);
         }
 
 
@@ -175,6 +190,21 @@ public abstract class AbstractShell {
     }
     SessionStreams getSessionStreams(){return this.sessionStreams;}
 
+    /**
+     * Limits how much of the current command output is kept in memory, the rest is spilled to a temporary file outside the run output
+     * @param window maximum bytes in memory, &lt;= 0 to keep all output in memory
+     */
+    public void setOutputWindow(int window){
+        this.outputWindow = window;
+        applyOutputWindow(sessionStreams);
+    }
+    public int getOutputWindow(){return outputWindow;}
+    private void applyOutputWindow(SessionStreams streams){
+        if(streams!=null){
+            streams.setOutputWindow(outputWindow, OutputCapture.defaultSpillDirectory());
+        }
+    }
+
     
     public ScheduledThreadPoolExecutor getScheduledExector(){
         return executor;
@@ -201,8 +231,10 @@ public abstract class AbstractShell {
             }
             //is setting this new breaking something in LocalShell??
             sessionStreams = new SessionStreams(getName(),getScheduledExector());
+            applyOutputWindow(sessionStreams);
             //TODO need to replace lambda with method access for changes to sessionStream to be visible
             semaphoreCallback = (name) -> {
+                promptExitCode = sessionStreams.getPromptExitCode();
                 String output = getShOutput(true);
                 if(isTracing()){
 
@@ -237,6 +269,13 @@ public abstract class AbstractShell {
                 addPrompt(getHost().getPrompt(), getHost().isShell());
             }
             sessionStreams.addPromptCallback(this.semaphoreCallback);
+            //custom prompts are left alone so they do not include the exit code
+            boolean useExitCodePrompt = getHost().isShell() && !getHost().hasPrompt();
+            if(useExitCodePrompt){
+                sessionStreams.setExitCodePrefix(EXIT_CODE_PREFIX);
+            }
+            exitCodePrompt = false;
+            promptExitCode = null;
 
             commandStream = connectShell();
             if(commandStream == null){
@@ -248,14 +287,17 @@ public abstract class AbstractShell {
                 return false;
             }
             if(getHost().isShell()){
+                String exitCodePrefix = useExitCodePrompt ? EXIT_CODE_PREFIX : "";
                 //bash
-                shConnecting("unset PROMPT_COMMAND; export PS1='" + getPrompt(getHost()) + "'; set +o history; export HISTCONTROL=\"ignoreboth\"; unset PS0;");// "function fish_prompt; echo -n \""+ PROMPT+"\"; end");
+                shConnecting("unset PROMPT_COMMAND; export PS1='" + exitCodePrefix + (useExitCodePrompt ? "$?" : "") + getPrompt(getHost()) + "'; set +o history; export HISTCONTROL=\"ignoreboth\"; unset PS0;");// "function fish_prompt; echo -n \""+ PROMPT+"\"; end");
                 //fish
-                shConnecting("function fish_prompt; echo -n \"" + getPrompt(getHost()) + "\"; end");
+                shConnecting("function fish_prompt; echo -n \"" + exitCodePrefix + (useExitCodePrompt ? "$status" : "") + getPrompt(getHost()) + "\"; end");
             }
             if(setupCommand !=null && !setupCommand.trim().isEmpty()){
                 shConnecting(setupCommand);
             }
+            //shells that do not expand $? or $status in the prompt fall back to checking the exit code with another command
+            exitCodePrompt = useExitCodePrompt && promptExitCode != null && promptExitCode.matches("-?\\d+");
             //is this what is bugging out envTest?
             try {
                 shellLock.acquire();//technically should be before try{ for cases where acquire throws the exception
@@ -276,7 +318,7 @@ public abstract class AbstractShell {
             }
             if (sessionStreams != null) { //sessionStreams can be null if an exception was thrown trying to connect
                 //allow session to be fully setup before adding watcher support to lineEmittingStream
-                sessionStreams.addLineConsumer(this::lineConsumers);
+                sessionStreams.addLineViewConsumer(this::lineConsumers);
             } else {
                 logger.errorf("failed to setup terminal streams for %s", host);
             }
@@ -328,6 +370,18 @@ public abstract class AbstractShell {
 
     public boolean postConnect(){return true;}
 
+    /**
+     * @return true if each prompt includes the exit code of the previous command
+     */
+    public boolean isExitCodePrompt(){return exitCodePrompt;}
+
+    /**
+     * @return the exit code from the most recent prompt or null if the prompt did not include an exit code
+     */
+    public String getPromptExitCode(){
+        return exitCodePrompt ? promptExitCode : null;
+    }
+
     public String shSync(String command) {
         return shSync(command, null);
     }
@@ -390,7 +444,17 @@ public abstract class AbstractShell {
         lineObservers.remove(name);
     }
     public boolean hasLineObserver(String name) {
-        return lineObservers.containsKey(name);
+        return lineObservers.containsKey(name) || lineViewObservers.containsKey(name);
+    }
+
+    /**
+     * @param consumer receives a reusable view of each line that is only valid until the consumer returns
+     */
+    public void addLineViewObserver(String name, Consumer<LineView> consumer) {
+        lineViewObservers.put(name, consumer);
+    }
+    public void removeLineViewObserver(String name) {
+        lineViewObservers.remove(name);
     }
 
     public void sh(String command, Map<String, String> prompt) {
@@ -505,50 +569,45 @@ public abstract class AbstractShell {
         return execSync(command,0).output();
     }
     public SyncResponse execSync(String command,int seconds){
-        Semaphore semaphore = new Semaphore(0);
-        StringBuilder sb = new StringBuilder();
-        exec(command, (output) -> {
-            sb.append(output);
-            semaphore.release();
-        });
-        /*
-        boolean acquired = false;
-        try {
-            if(seconds > 0){
-              acquired = blockingSemaphore.tryAcquire(seconds,TimeUnit.SECONDS);
-
-            } else {
-                blockingSemaphore.acquire();//released in the observer
-                acquired = true;
-            }
-        } catch (InterruptedException e) {
-            if(isReady()) {
-                logger.error("Interrupted waiting for shSync " + command, e);
-            }else{
-                //this is expected
-            }
-            Thread.currentThread().interrupt();
-        } finally {
-            removeShObserver(SH_BLOCK_CALLBACK);
-        }
-                                     */
-        boolean acquired = false;
+        CompletableFuture<ExecResult> future = execAsync(command,null,null);
         try {
-
-            if( seconds > 0){
-                //assert semaphore.availablePermits() == 0;
-                acquired = semaphore.tryAcquire(seconds, TimeUnit.SECONDS);
-            }else{
-                semaphore.acquire();
-                acquired = true;
-            }
+            ExecResult result = seconds > 0 ? future.get(seconds, TimeUnit.SECONDS) : future.get();
+            return new SyncResponse(result.stdout(),false);
+        } catch (TimeoutException e) {
+            return new SyncResponse("",true);
+        } catch (ExecutionException e) {
+            logger.error("Failed to execSync "+getFilter().filter(command), e.getCause());
         } catch (InterruptedException e) {
             if(isReady()){
                 logger.error("Interrupted waiting for execSync "+ command, e);
             }
             Thread.currentThread().interrupt();
         }
-        return  new SyncResponse(sb.toString(),!acquired);
+        return new SyncResponse("",false);
+    }
+
+    /**
+     * Output from an exec. The exit code is null if the shell cannot report it
+     */
+    public record ExecResult(String stdout, String stderr, Integer exitCode){}
+
+    /**
+     * Runs the command outside the interactive shell without blocking the calling thread.
+     * Shells that only support {@link #exec(String, Consumer)} pass the whole output to {@code stdout} when the command finishes.
+     * @param stdout receives stdout as it arrives, can be null
+     * @param stderr receives stderr as it arrives, can be null
+     * @return completes when the command finishes
+     */
+    public CompletableFuture<ExecResult> execAsync(String command, Consumer<String> stdout, Consumer<String> stderr){
+        CompletableFuture<ExecResult> rtrn = new CompletableFuture<>();
+        exec(command, (output)->{
+            String response = output == null ? "" : output;
+            if(stdout != null && !response.isEmpty()){
+                stdout.accept(response);
+            }
+            rtrn.complete(new ExecResult(response,"",null));
+        });
+        return rtrn;
     }
     public void exec(String command) {
         exec(command, null);
@@ -703,13 +762,8 @@ public abstract class AbstractShell {
         if(flush){
             sessionStreams.flushBuffer();
         }
-        String streamString = sessionStreams.currentOutput();
-
-        String output = streamString
-                .replaceAll("^[\r\n]+", "")  //replace leading newlines
-                .replaceAll("[\r\n]+$", "") //replace trailing newlines
-                .replaceAll("\r\n", "\n"); //change \r\n to just \n
-        return output;
+        //removes leading and trailing newlines and changes \r\n to \n without copying the full output for each step
+        return sessionStreams.shOutput();
     }
 
 
@@ -734,14 +788,21 @@ public abstract class AbstractShell {
 
     public AbstractShell openCopy(){
         AbstractShell rtrn = copy();
+        rtrn.setOutputWindow(outputWindow);
         rtrn.connect();
         return rtrn;
     }
 
-    private void lineConsumers(String line) {
+    private void lineConsumers(LineView line) {
+        if (!lineViewObservers.isEmpty()) {
+            for (Consumer<LineView> consumer : lineViewObservers.values()) {
+                consumer.accept(line);
+            }
+        }
         if (!lineObservers.isEmpty()) {
+            String toEmit = line.toString();
             for (Consumer<String> consumer : lineObservers.values()) {
-                consumer.accept(line);
+                consumer.accept(toEmit);
             }
         }
     }
@@ -752,7 +813,7 @@ public abstract class AbstractShell {
     }
     public String peekOutput() {
 
-        return sessionStreams==null ? "" : sessionStreams.currentOutput();
+        return sessionStreams==null ? "" : sessionStreams.peekOutput();
     }
 
     public String peekOutputTail() {
@@ -11,6 +11,7 @@ import io.hyperfoil.tools.yaup.json.Json;
 
 import java.io.PrintStream;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
@@ -32,9 +33,14 @@ public class ContainerShell extends AbstractShell{
     private AbstractShell shell;
     private String containerId = null;
     private String subShellIdentifier = null;
+    private final SshSessionPool sessionPool;
 
     public ContainerShell(String name,Host host, String setupCommand, ScheduledThreadPoolExecutor executor, SecretFilter filter, String tracePath) {
+        this(name,host, setupCommand, executor, filter, tracePath, null);
+    }
+    public ContainerShell(String name,Host host, String setupCommand, ScheduledThreadPoolExecutor executor, SecretFilter filter, String tracePath, SshSessionPool sessionPool) {
         super(name,host, setupCommand, executor, filter, tracePath);
+        this.sessionPool = sessionPool;
     }
 
     public static String populateList(List<String> toPopulate, Json variables){
@@ -137,7 +143,7 @@ public class ContainerShell extends AbstractShell{
         if(getHost().isLocal()){
             shell = new LocalShell(getName()+"-sub-shell",subHost,setupCommand,executor,getFilter(),tracePath);
         } else {
-            shell = new SshShell(getName()+"-sub-shell",subHost,setupCommand,executor,getFilter(),tracePath);
+            shell = new SshShell(getName()+"-sub-shell",subHost,setupCommand,executor,getFilter(),tracePath,sessionPool);
         }
         boolean connected = shell.connect();
         if(!connected){
@@ -411,24 +417,32 @@ public class ContainerShell extends AbstractShell{
 
     @Override
     public void exec(String command, Consumer<String> callback) {
-        if(getHost().hasExec()){
-            Json json = new Json();
-            json.set("host",getHost().toJson());
-            json.set("image",getHost().getDefinedContainer());
-            json.set("container",containerId);//idk which we should use
-            json.set("containerId",containerId);//TODO decide if container or containerId
-            json.set("command",command);
-            String populatedCommand = populateList(getHost().getExec(),json);
-            if(populatedCommand.contains(StringUtil.PATTERN_PREFIX)){
-                logPopulateError(populatedCommand,HostDefinition.EXEC);
-                //how do we fail
-            }else{
-                String output = shell.execSync(populatedCommand);
-                callback.accept(output);
+        execAsync(command,null,null).whenComplete((result,error)->{
+            if(error != null){
+                logger.error(getName()+" could not exec in "+containerId+" "+error.getMessage());
+            }else if(callback != null){
+                callback.accept(result.stdout());
             }
-        }else{
-            //is it okay for a host to not support exec??
+        });
+    }
+
+    @Override
+    public CompletableFuture<ExecResult> execAsync(String command, Consumer<String> stdout, Consumer<String> stderr) {
+        if(!getHost().hasExec()){
+            return CompletableFuture.failedFuture(new UnsupportedOperationException(getHost().getSafeString()+" does not define "+HostDefinition.EXEC));
+        }
+        Json json = new Json();
+        json.set("host",getHost().toJson());
+        json.set("image",getHost().getDefinedContainer());
+        json.set("container",containerId);//idk which we should use
+        json.set("containerId",containerId);//TODO decide if container or containerId
+        json.set("command",command);
+        String populatedCommand = populateList(getHost().getExec(),json);
+        if(populatedCommand.contains(StringUtil.PATTERN_PREFIX)){
+            logPopulateError(populatedCommand,HostDefinition.EXEC);
+            return CompletableFuture.failedFuture(new IllegalStateException("failed to populate "+HostDefinition.EXEC+" for "+getHost().getSafeString()));
         }
+        return shell.execAsync(populatedCommand,stdout,stderr);
     }
 
     @Override
@@ -447,7 +461,8 @@ public class ContainerShell extends AbstractShell{
             setupCommand,
             executor,
             getFilter(),
-            tracePath
+            tracePath,
+            sessionPool
         );
     }
 
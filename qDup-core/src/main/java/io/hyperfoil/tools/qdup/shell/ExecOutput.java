@@ -0,0 +1,74 @@
+package io.hyperfoil.tools.qdup.shell;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/**
+ * Decodes one output stream of an exec as chunks arrive, passes each chunk to an optional consumer and keeps the full text.
+ * Multi-byte characters that are split between chunks are kept until the rest of the character arrives.
+ */
+class ExecOutput {
+
+    private static final byte[] NONE = new byte[0];
+
+    private final Consumer<String> consumer;
+    private final CharsetDecoder decoder;
+    private final StringBuilder text;
+    private byte[] partial = NONE;
+
+    ExecOutput(Consumer<String> consumer){
+        this.consumer = consumer;
+        this.decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.text = new StringBuilder();
+    }
+
+    synchronized void write(byte[] bytes, int offset, int length){
+        if(length <= 0){
+            return;
+        }
+        ByteBuffer in;
+        if(partial.length > 0){
+            in = ByteBuffer.allocate(partial.length + length);
+            in.put(partial).put(bytes,offset,length).flip();
+        }else{
+            in = ByteBuffer.wrap(bytes,offset,length);
+        }
+        CharBuffer out = CharBuffer.allocate(in.remaining());
+        decoder.decode(in,out,false);
+        partial = in.hasRemaining() ? new byte[in.remaining()] : NONE;
+        in.get(partial);
+        emit(out);
+    }
+
+    /**
+     * Decodes any partial character at the end of the stream
+     */
+    synchronized void finish(){
+        CharBuffer out = CharBuffer.allocate(partial.length + 1);
+        decoder.decode(ByteBuffer.wrap(partial),out,true);
+        decoder.flush(out);
+        partial = NONE;
+        emit(out);
+    }
+
+    synchronized String getText(){
+        return text.toString();
+    }
+
+    private void emit(CharBuffer out){
+        out.flip();
+        if(out.hasRemaining()){
+            String chunk = out.toString();
+            text.append(chunk);
+            if(consumer != null){
+                consumer.accept(chunk);
+            }
+        }
+    }
+}
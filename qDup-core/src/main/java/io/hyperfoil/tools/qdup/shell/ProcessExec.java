@@ -0,0 +1,147 @@
+package io.hyperfoil.tools.qdup.shell;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs a local process (or pipeline) without a reader thread for each process.
+ * The stdout and stderr pipes are read with non-blocking reads of the available bytes from a shared scheduler
+ * until the processes exit. Both pipes are read on each poll so a process cannot block on a full stderr pipe
+ * while stdout is being read. The remaining output is read when the last process exits and the future completes with the exit code.
+ * Cancelling the future destroys the processes.
+ */
+public class ProcessExec {
+
+    private static final Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static final long POLL_INTERVAL = 10;
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static volatile ScheduledExecutorService defaultScheduler;
+
+    /**
+     * scheduler for callers that do not have one, e.g. static helpers in Local
+     */
+    private static ScheduledExecutorService getDefaultScheduler(){
+        ScheduledExecutorService rtrn = defaultScheduler;
+        if(rtrn == null){
+            synchronized (ProcessExec.class){
+                rtrn = defaultScheduler;
+                if(rtrn == null){
+                    rtrn = Executors.newSingleThreadScheduledExecutor(runnable->{
+                        Thread thread = new Thread(runnable,"qdup-process-exec");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    defaultScheduler = rtrn;
+                }
+            }
+        }
+        return rtrn;
+    }
+
+    /**
+     * Starts the processes, connecting the stdout of each process to the stdin of the next.
+     * @param stdout receives stdout from the last process as it is read, can be null
+     * @param stderr receives stderr from every process as it is read, can be null
+     * @param scheduler runs the reads, uses a shared daemon scheduler when null
+     */
+    public static CompletableFuture<AbstractShell.ExecResult> start(List<ProcessBuilder> builders, Consumer<String> stdout, Consumer<String> stderr, ScheduledExecutorService scheduler) throws IOException {
+        if(builders.isEmpty()){
+            throw new IOException("no process to start");
+        }
+        List<Process> processes = builders.size() == 1 ? List.of(builders.get(0).start()) : ProcessBuilder.startPipeline(builders);
+        ProcessExec exec = new ProcessExec(processes,stdout,stderr,scheduler != null ? scheduler : getDefaultScheduler());
+        exec.poll();
+        CompletableFuture.allOf(processes.stream().map(Process::onExit).toArray(CompletableFuture[]::new))
+            .whenComplete((ignored,error)->exec.finish());
+        return exec.future;
+    }
+
+    private final List<Process> processes;
+    private final Process last;
+    private final InputStream out;
+    private final List<InputStream> errs;
+    private final ExecOutput stdout;
+    private final ExecOutput stderr;
+    private final ScheduledExecutorService scheduler;
+    private final CompletableFuture<AbstractShell.ExecResult> future;
+    private final byte[] buffer;
+
+    private ProcessExec(List<Process> processes, Consumer<String> stdout, Consumer<String> stderr, ScheduledExecutorService scheduler){
+        this.processes = processes;
+        this.last = processes.get(processes.size() - 1);
+        this.out = last.getInputStream();
+        this.errs = new ArrayList<>();
+        processes.forEach(p->errs.add(p.getErrorStream()));
+        this.stdout = new ExecOutput(stdout);
+        this.stderr = new ExecOutput(stderr);
+        this.scheduler = scheduler;
+        this.future = new CompletableFuture<>();
+        this.buffer = new byte[BUFFER_SIZE];
+        future.whenComplete((result,error)->{
+            if(future.isCancelled()){
+                processes.forEach(Process::destroy);
+            }
+        });
+    }
+
+    private void poll(){
+        if(future.isDone()){
+            return;
+        }
+        try {
+            read();
+            scheduler.schedule(this::poll,POLL_INTERVAL,TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        } catch (RuntimeException e){
+            //the scheduler rejected the next poll, finish() still reads the output when the processes exit
+            logger.debugf("stopped polling process output: %s",e.getMessage());
+        }
+    }
+
+    private void finish(){
+        try {
+            read();
+            synchronized (this){
+                stdout.finish();
+                stderr.finish();
+            }
+            future.complete(new AbstractShell.ExecResult(stdout.getText(),stderr.getText(),last.exitValue()));
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Reads the bytes that are available without blocking
+     */
+    private synchronized void read() throws IOException {
+        read(out,stdout);
+        for(InputStream err : errs){
+            read(err,stderr);
+        }
+    }
+
+    private void read(InputStream stream, ExecOutput target) throws IOException {
+        int available;
+        while( (available = stream.available()) > 0 ){
+            int length = stream.read(buffer,0,Math.min(available,buffer.length));
+            if(length <= 0){
+                return;
+            }
+            target.write(buffer,0,length);
+        }
+    }
+}
@@ -0,0 +1,419 @@
+package io.hyperfoil.tools.qdup.shell;
+
+import io.hyperfoil.tools.qdup.Host;
+import org.apache.sshd.client.SshClient;
+import org.apache.sshd.client.future.ConnectFuture;
+import org.apache.sshd.client.session.ClientSession;
+import org.apache.sshd.common.NamedResource;
+import org.apache.sshd.common.channel.Channel;
+import org.apache.sshd.common.channel.ChannelListener;
+import org.apache.sshd.common.session.Session;
+import org.apache.sshd.common.session.SessionContext;
+import org.apache.sshd.common.session.SessionListener;
+import org.apache.sshd.common.util.GenericUtils;
+import org.apache.sshd.common.util.io.resource.URLResource;
+import org.apache.sshd.common.util.security.SecurityUtils;
+import org.apache.sshd.core.CoreModuleProperties;
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.file.Paths;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shares authenticated ssh sessions between the shells connected to the same Host.
+ * Each session is limited to a maximum number of open channels (shell or exec) and a new session is created when
+ * all the sessions for a Host are full. Sessions that are no longer open are discarded the next time a channel is needed
+ * so shells that reconnect will get a new session. Connecting a new session does not block shells that can use an open session.
+ * A Run creates one pool and closes it when the run is finished.
+ */
+public class SshSessionPool {
+
+    private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    public static final int DEFAULT_MAX_CHANNELS = 10; //default MaxSessions for OpenSSH sshd
+    private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+
+    /**
+     * A reserved channel on a shared session. The lease must be released when the channel closes.
+     */
+    public static class Lease {
+        private final PooledSession pooledSession;
+        private final AtomicBoolean released = new AtomicBoolean(false);
+
+        private Lease(PooledSession pooledSession){
+            this.pooledSession = pooledSession;
+        }
+        public ClientSession getSession(){return pooledSession.session;}
+        public boolean isOpen(){return !released.get() && pooledSession.isOpen();}
+        public boolean isReleased(){return released.get();}
+        public void release(){
+            if(released.compareAndSet(false,true)){
+                pooledSession.channels.decrementAndGet();
+            }
+        }
+
+        /**
+         * @return a listener that releases this lease when the channel closes
+         */
+        public ChannelListener releaseOnClose(){
+            return new ChannelListener() {
+                @Override
+                public void channelOpenFailure(Channel channel, Throwable reason) {
+                    release();
+                }
+                @Override
+                public void channelClosed(Channel channel, Throwable reason) {
+                    release();
+                }
+            };
+        }
+    }
+
+    private static class PooledSession {
+        private final ClientSession session;
+        private final AtomicInteger channels = new AtomicInteger(0);
+
+        private PooledSession(ClientSession session){
+            this.session = session;
+        }
+        private boolean isOpen(){
+            return session.isOpen() && !session.isClosing();
+        }
+    }
+
+    private static class HostSessions {
+        private SshClient client;
+        private final List<PooledSession> sessions = new LinkedList<>();
+        //the session being connected, other shells for the host wait for it instead of opening their own
+        private CompletableFuture<PooledSession> connecting;
+    }
+
+    private final int maxChannels;
+    private final Map<String,HostSessions> hostSessions;
+    private volatile boolean closed = false;
+
+    public SshSessionPool(){
+        this(DEFAULT_MAX_CHANNELS);
+    }
+    public SshSessionPool(int maxChannels){
+        this.maxChannels = Math.max(1,maxChannels);
+        this.hostSessions = new ConcurrentHashMap<>();
+    }
+
+    public int getMaxChannels(){return maxChannels;}
+    public boolean isClosed(){return closed;}
+
+    /**
+     * @return the number of open sessions for the host
+     */
+    public int getSessionCount(Host host){
+        HostSessions entry = hostSessions.get(getKey(host));
+        if(entry == null){
+            return 0;
+        }
+        synchronized (entry){
+            return (int)entry.sessions.stream().filter(PooledSession::isOpen).count();
+        }
+    }
+
+    /**
+     * Reserves a channel on an open session for the host, connecting a new session if all sessions are full.
+     * @param host the host to connect
+     * @param name used for logging
+     * @return the lease or null if the pool could not connect to the host
+     */
+    public Lease acquire(Host host, String name){
+        if(closed){
+            logger.errorf("%s cannot connect to %s after session pool is closed",name,host.getSafeString());
+            return null;
+        }
+        HostSessions entry = hostSessions.computeIfAbsent(getKey(host),(key)->new HostSessions());
+        while(true){
+            CompletableFuture<PooledSession> pending;
+            SshClient sshClient;
+            synchronized (entry){
+                for(Iterator<PooledSession> iter = entry.sessions.iterator(); iter.hasNext();){
+                    PooledSession pooledSession = iter.next();
+                    if(!pooledSession.isOpen()){
+                        logger.debugf("%s discarding closed session to %s",name,host.getSafeString());
+                        iter.remove();
+                        continue;
+                    }
+                    if(pooledSession.channels.incrementAndGet() <= maxChannels){
+                        return new Lease(pooledSession);
+                    }
+                    pooledSession.channels.decrementAndGet();
+                }
+                pending = entry.connecting;
+                if(pending == null){
+                    sshClient = getClient(entry,host,name);
+                    if(sshClient == null){
+                        return null;
+                    }
+                    entry.connecting = new CompletableFuture<>();
+                }else{
+                    sshClient = null;
+                }
+            }
+            if(pending != null){
+                //another shell is connecting to the host, wait for it then look for a channel again
+                if(pending.join() == null){
+                    logger.errorf("%s cannot connect to %s, the shared session failed to connect",name,host.getSafeString());
+                    return null;
+                }
+                continue;
+            }
+            //connect without the lock so shells that can use an open session do not wait for the handshake
+            ClientSession session = null;
+            PooledSession pooledSession = null;
+            int count = 0;
+            try {
+                session = connectSession(sshClient,host,name);
+            } finally {
+                synchronized (entry){
+                    if(session != null && !closed){
+                        pooledSession = new PooledSession(session);
+                        pooledSession.channels.incrementAndGet();
+                        entry.sessions.add(pooledSession);
+                        count = entry.sessions.size();
+                    }
+                    pending = entry.connecting;
+                    entry.connecting = null;
+                }
+                if(pooledSession == null && session != null){//the pool closed while connecting
+                    session.close(true);
+                }
+                if(pending != null){
+                    pending.complete(pooledSession);
+                }
+            }
+            if(pooledSession == null){
+                return null;
+            }
+            logger.debugf("%s opened session %d to %s",name,count,host.getSafeString());
+            return new Lease(pooledSession);
+        }
+    }
+
+    public void close(){
+        closed = true;
+        hostSessions.values().forEach(entry->{
+            synchronized (entry){
+                entry.sessions.forEach(pooledSession->{
+                    try {
+                        if(pooledSession.session.isOpen()){
+                            pooledSession.session.close();
+                        }
+                    } catch (IOException e) {
+                        logger.errorf("error closing session %s",e.getMessage(),e);
+                    }
+                });
+                entry.sessions.clear();
+                if(entry.connecting != null){
+                    entry.connecting.complete(null);
+                }
+                if(entry.client!=null && entry.client.isStarted()){
+                    entry.client.stop();
+                }
+                entry.client = null;
+            }
+        });
+        hostSessions.clear();
+    }
+
+    /**
+     * Hosts only share sessions when they authenticate the same way.
+     * The identity, password and passphrase are part of the key as a SHA-256 hash so the key does not hold the secrets.
+     */
+    static String getKey(Host host){
+        String credentials = (host.hasIdentity() ? host.getIdentity() : "")
+                +"\0"+(host.hasPassword() ? host.getPassword() : "")
+                +"\0"+(host.hasPassphrase() ? host.getPassphrase() : "");
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(credentials.getBytes(StandardCharsets.UTF_8));
+            return host.getUserName()+"@"+host.getHostName()+":"+host.getPort()+"#"+HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {//every jvm has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private SshClient getClient(HostSessions entry, Host host, String name){
+        if(entry.client != null && entry.client.isStarted()){
+            return entry.client;
+        }
+        SshClient sshClient = SshClient.setUpDefaultClient();
+        sshClient.addSessionListener(new SessionListener() {
+            @Override
+            public void sessionEstablished(Session session) {
+                logger.debugf("%s client established",name);
+            }
+
+            @Override
+            public void sessionCreated(Session session) {
+                logger.debugf("%s client created",name);
+            }
+
+            @Override
+            public void sessionDisconnect(Session session, int reason, String msg, String language, boolean initiator) {
+                logger.debugf("%s client disconnected",name);
+            }
+
+            @Override
+            public void sessionClosed(Session session) {
+                logger.debugf("%s client disconnected",name);
+            }
+        });
+        CoreModuleProperties.IDLE_TIMEOUT.set(sshClient, Duration.ofSeconds(7*24*3600));
+        CoreModuleProperties.NIO2_READ_TIMEOUT.set(sshClient, Duration.ofSeconds(7*24*3600));
+        CoreModuleProperties.NIO_WORKERS.set(sshClient, 1);
+        // StrictHostKeyChecking=no
+        sshClient.setServerKeyVerifier((clientSession1, remoteAddress, serverKey) -> {
+            logger.tracef("%s accept server key for %s",name,remoteAddress);
+            return true;
+        });
+        if(host.hasPassword()){
+            logger.tracef("%s setting client password provider",name);
+            sshClient.setPasswordIdentityProvider((sc) -> Arrays.asList(host.getPassword()));
+        }
+        if(host.hasPassphrase()){
+            logger.tracef("%s setting client passphrase",name);
+            sshClient.setFilePasswordProvider((SessionContext sessionContext, NamedResource namedResource, int i)->{
+                return host.getPassphrase();
+            });
+        }
+        if(host.hasIdentity()){
+            logger.tracef("%s setting client identity %s",name,host.getIdentity());
+            try {
+                URLResource urlResource = new URLResource(Paths.get(host.getIdentity()).toUri().toURL());
+                try (InputStream inputStream = urlResource.openInputStream()) {
+                    Iterable<KeyPair> keyPairs = SecurityUtils.loadKeyPairIdentities(
+                            null,
+                            urlResource,
+                            inputStream,
+                            (session, resourceKey, retryIndex) -> host.getPassphrase()
+                    );
+                    KeyPair keyPair = GenericUtils.head(keyPairs);
+                    if (keyPair == null) {
+                        if (!host.hasPassphrase()) {
+                            logger.errorf("%s cannot set client identity %s without a passphrase", name, host.getIdentity());
+                        } else {
+                            logger.errorf("%s cannot set client identity %s using the provided passphrase", name, host.getIdentity());
+                        }
+                        return null; // we failed to connect
+                    }
+                    sshClient.setKeyIdentityProvider((sessionContext -> {
+                        return keyPairs;
+                    }));
+                }
+            } catch (IOException | GeneralSecurityException e) {
+                logger.errorf("%s client failed to access custom identity %s", host.getHostName(), e.getMessage());
+                return null;
+            }
+        }
+        sshClient.start();
+        entry.client = sshClient;
+        return sshClient;
+    }
+
+    private ClientSession connectSession(SshClient sshClient, Host host, String name){
+        ClientSession clientSession = null;
+        boolean authenticated = false;
+        try {
+            ConnectFuture future = sshClient.connect(host.getUserName(), host.getHostName(), host.getPort());
+            future.await(10, TimeUnit.SECONDS);
+            if(!future.isConnected()){
+                logger.errorf("%s client failed to connect before 10s timeout",host.getHostName());
+                return null;
+            }
+            future = future.verify(TIMEOUT_MILLIS);
+            future.await(10, TimeUnit.SECONDS);
+            if(!future.isConnected()){
+                logger.errorf("%s client failed to verify connection before timeout",name);
+                return null;
+            }
+            clientSession = future.getSession();
+            clientSession.addSessionListener(new SessionListener() {
+                @Override
+                public void sessionException(Session session, Throwable t) {
+                    logger.tracef("%s session exception: %s",name,t.getMessage());
+                }
+
+                @Override
+                public void sessionDisconnect(Session session, int reason, String msg, String language, boolean initiator) {
+                    logger.tracef("%s session disconnect",name);
+                }
+
+                @Override
+                public void sessionClosed(Session session) {
+                    logger.tracef("%s session closed",name);
+                }
+            });
+
+            if(!host.hasPassphrase()){
+                logger.tracef("%s using %s identity without passphrase",name,host.getIdentity());
+            }else{
+                logger.tracef("%s using %s identity with a passphrase",name,host.getIdentity());
+            }
+            URLResource urlResource = new URLResource(Paths.get(host.getIdentity()).toUri().toURL());
+            try (InputStream inputStream = urlResource.openInputStream()) {
+                Iterable<KeyPair> keyPairs = SecurityUtils.loadKeyPairIdentities(
+                        clientSession,
+                        urlResource,
+                        inputStream,
+                        (session, resourceKey, retryIndex) -> host.getPassphrase()
+                );
+                KeyPair keyPair = GenericUtils.head(keyPairs);
+                if(keyPair == null){
+                    if(!host.hasPassphrase()){
+                        logger.errorf("cannot connect %s using %s without a passphrase",name,host.getIdentity());
+                    }else{
+                        logger.errorf("cannot connect %s using %s using the provided passphrase",name,host.getIdentity());
+                    }
+                    return null; // we failed to connect
+                }
+                clientSession.addPublicKeyIdentity(keyPair);
+            } catch (GeneralSecurityException e) {
+                logger.errorf("%s failed to load identity %s\n%s",name,host.getIdentity(),e.getMessage());
+                return null;
+            }
+            if (host.hasPassword()) {
+                logger.tracef("%s adding password-identity",name);
+                clientSession.addPasswordIdentity(host.getPassword());
+            }
+
+            logger.tracef("%s authenticating client session",name);
+            clientSession.auth().verify(TIMEOUT_MILLIS);
+            logger.tracef("%s waiting for authentication",name);
+            clientSession.waitFor(EnumSet.of(ClientSession.ClientSessionEvent.AUTHED), 0L);
+            authenticated = true;
+            return clientSession;
+        } catch (IOException e) {//sshClient.connect, future.await or auth().verify()
+            logger.errorf("%s failed to connect client to %s %s",name,host.getSafeString(),e.getMessage());
+        } finally {
+            if(!authenticated && clientSession != null){
+                clientSession.close(true);
+            }
+        }
+        return null;
+    }
+}
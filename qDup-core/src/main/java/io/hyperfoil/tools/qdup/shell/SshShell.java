@@ -2,96 +2,107 @@ package io.hyperfoil.tools.qdup.shell;
 
 import io.hyperfoil.tools.qdup.Host;
 import io.hyperfoil.tools.qdup.SecretFilter;
-import io.hyperfoil.tools.qdup.stream.MultiStream;
 import io.hyperfoil.tools.qdup.stream.SessionStreams;
-import org.apache.sshd.client.SshClient;
 import org.apache.sshd.client.channel.ChannelExec;
 import org.apache.sshd.client.channel.ChannelShell;
 import org.apache.sshd.client.channel.ClientChannelEvent;
-import org.apache.sshd.client.future.ConnectFuture;
 import org.apache.sshd.client.session.ClientSession;
-import org.apache.sshd.common.NamedResource;
 import org.apache.sshd.common.channel.Channel;
 import org.apache.sshd.common.channel.ChannelListener;
 import org.apache.sshd.common.channel.PtyMode;
-import org.apache.sshd.common.kex.KexProposalOption;
-import org.apache.sshd.common.session.Session;
-import org.apache.sshd.common.session.SessionContext;
-import org.apache.sshd.common.session.SessionListener;
-import org.apache.sshd.common.util.GenericUtils;
-import org.apache.sshd.common.util.io.resource.URLResource;
-import org.apache.sshd.common.util.security.SecurityUtils;
-import org.apache.sshd.core.CoreModuleProperties;
-
-import java.io.ByteArrayOutputStream;
+import org.apache.sshd.common.channel.StreamingChannel;
+import org.apache.sshd.common.io.IoInputStream;
+import org.apache.sshd.common.io.IoReadFuture;
+import org.apache.sshd.common.util.buffer.Buffer;
+import org.apache.sshd.common.util.buffer.ByteArrayBuffer;
+
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.PrintStream;
-import java.net.MalformedURLException;
-import java.nio.file.Paths;
-import java.security.GeneralSecurityException;
-import java.security.KeyPair;
-import java.time.Duration;
-import java.util.Arrays;
 import java.util.EnumSet;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 /**
  * This shell uses an ssh connection. SshShell can use either identity files or username and password authentication.
  * The authentication mechanism is based on the information in the Host used to connect the shell.
+ * Shells created with an SshSessionPool open their channels on a session shared with other shells for the same Host.
  */
 public class SshShell extends AbstractShell{
 
-    private SshClient sshClient;
+    private final SshSessionPool sessionPool;
+    private final boolean ownsPool;
+    private SshSessionPool.Lease shellLease;
     private ClientSession clientSession;
     private ChannelShell channelShell;
-    private long timeout = 10_000;
-
-    private static class ExecWatcher implements ChannelListener {
-
-        Consumer<String> callback;
-        ByteArrayOutputStream baos;
-        String name;
 
-        public ExecWatcher(String name, Runnable callback) {
-            this.name = name;
-            this.callback = a -> callback.run();
-            this.baos = null;
+    private static final int READ_SIZE = 8 * 1024;
+
+    /**
+     * Reads stdout and stderr of an exec channel with the channel's async streams and completes when both streams end and the channel closes.
+     */
+    private static class AsyncExec implements ChannelListener {
+
+        private final ChannelExec channel;
+        private final ExecOutput out;
+        private final ExecOutput err;
+        private final AtomicInteger remaining;
+        private final CompletableFuture<ExecResult> future;
+
+        public AsyncExec(ChannelExec channel, Consumer<String> stdout, Consumer<String> stderr) {
+            this.channel = channel;
+            this.out = new ExecOutput(stdout);
+            this.err = new ExecOutput(stderr);
+            this.remaining = new AtomicInteger(3);//stdout, stderr, and the channel
+            this.future = new CompletableFuture<>();
         }
 
-        public ExecWatcher(String name, Consumer<String> callback, ByteArrayOutputStream baos) {
-            this.name = name;
-            this.callback = callback;
-            this.baos = baos;
+        public void start() {
+            read(channel.getAsyncOut(), out);
+            read(channel.getAsyncErr(), err);
         }
 
-        @Override
-        public void channelInitialized(Channel channel) {
-        }
-
-        @Override
-        public void channelOpenSuccess(Channel channel) {
+        private void read(IoInputStream stream, ExecOutput target) {
+            Buffer buffer = new ByteArrayBuffer(READ_SIZE);
+            IoReadFuture read;
+            do {
+                buffer.clear();
+                read = stream.read(buffer);
+            } while (read.isDone() && consume(read, target));
+            if (!read.isDone()) {
+                read.addListener(done -> {
+                    if (consume(done, target)) {
+                        read(stream, target);
+                    }
+                });
+            }
         }
 
-        @Override
-        public void channelOpenFailure(Channel channel, Throwable reason) {
-            if (callback != null) {
-
+        /**
+         * @return true if the stream has more data
+         */
+        private boolean consume(IoReadFuture read, ExecOutput target) {
+            if (read.getException() != null) {
+                //EOFException at the end of the stream, anything else means the channel closed
+                target.finish();
+                done();
+                return false;
             }
+            Buffer buffer = read.getBuffer();
+            target.write(buffer.array(), buffer.rpos(), buffer.available());
+            return true;
         }
 
-        @Override
-        public void channelStateChanged(Channel channel, String hint) {
+        private void done() {
+            if (remaining.decrementAndGet() == 0) {
+                future.complete(new ExecResult(out.getText(), err.getText(), channel.getExitStatus()));
+            }
         }
 
         @Override
         public void channelClosed(Channel channel, Throwable reason) {
-            String response = baos != null ? baos.toString() : "";
-            callback.accept(response);
+            done();
         }
     }
     private class SessionWatcher implements ChannelListener {
@@ -150,9 +161,20 @@ public class SshShell extends AbstractShell{
 
 
     public SshShell(String name,Host host, String setupCommand, ScheduledThreadPoolExecutor executor, SecretFilter filter, String tracePath) {
+        this(name,host, setupCommand, executor, filter, tracePath, null);
+    }
+
+    /**
+     * @param sessionPool the pool that provides the ssh session or null to use a session that is only used by this shell
+     */
+    public SshShell(String name,Host host, String setupCommand, ScheduledThreadPoolExecutor executor, SecretFilter filter, String tracePath, SshSessionPool sessionPool) {
         super(name,host, setupCommand, executor, filter, tracePath);
+        this.ownsPool = sessionPool == null;
+        this.sessionPool = sessionPool == null ? new SshSessionPool() : sessionPool;
     }
 
+    public SshSessionPool getSessionPool(){return sessionPool;}
+
     @Override
     void updateSessionStream(SessionStreams sessionStreams){
         channelShell.setOut(getSessionStreams());//efs or ss
@@ -165,191 +187,19 @@ public class SshShell extends AbstractShell{
         }
         statusUpdater.set(this,Status.Connecting);
         logger.tracef("%s connecting",getName());
-        boolean rtrn = false;
         try {
-            if(sshClient != null && sshClient.isStarted()){
-                sshClient.stop();
-            }
-            if(clientSession!=null && clientSession.isOpen()){
-                clientSession.close(true);
-                clientSession.waitFor(EnumSet.of(ClientSession.ClientSessionEvent.CLOSED),0L);
-            }
             if(channelShell != null && channelShell.isOpen()){
                 channelShell.close(true);
                 channelShell.waitFor(EnumSet.of(ClientChannelEvent.CLOSED),0L);
             }
-            sshClient = SshClient.setUpDefaultClient();
-            sshClient.addSessionListener(new SessionListener() {
-                @Override
-                public void sessionEstablished(Session session) {
-                    logger.debugf("%s client established",getName());
-                }
-
-                @Override
-                public void sessionCreated(Session session) {
-                    logger.debugf("%s client created",getName());
-                }
-
-                @Override
-                public void sessionDisconnect(Session session, int reason, String msg, String language, boolean initiator) {
-                    logger.debugf("%s client disconnected",getName());
-                }
-
-                @Override
-                public void sessionClosed(Session session) {
-                    logger.debugf("%s client disconnected",getName());
-                }
-            });
-            CoreModuleProperties.IDLE_TIMEOUT.set(sshClient, Duration.ofSeconds(7*24*3600));
-            CoreModuleProperties.NIO2_READ_TIMEOUT.set(sshClient, Duration.ofSeconds(7*24*3600));
-            CoreModuleProperties.NIO_WORKERS.set(sshClient, 1);
-            // StrictHostKeyChecking=no
-            //        sshConfig = new Properties();
-            //        sshConfig.put("StrictHostKeyChecking", "no");
-            sshClient.setServerKeyVerifier((clientSession1, remoteAddress, serverKey) -> {
-                logger.tracef("%s accept server key for %s",getName(),remoteAddress);
-                return true;
-            });
-            if(getHost().hasPassword()){
-                logger.tracef("%s setting client password provider %s",getName());
-                sshClient.setPasswordIdentityProvider((sc) -> Arrays.asList(getHost().getPassword()));
-            }
-            if(getHost().hasPassphrase()){
-                logger.tracef("%s setting client passphrase",getName());
-                sshClient.setFilePasswordProvider((SessionContext sessionContext, NamedResource namedResource, int i)->{
-                    return getHost().getPassphrase();
-                });
-            }
-            if(getHost().hasIdentity()){
-                logger.tracef("%s setting client identity %s",getName(),getHost().getIdentity());
-                try {
-                    URLResource urlResource = new URLResource(Paths.get(getHost().getIdentity()).toUri().toURL());
-                    try (InputStream inputStream = urlResource.openInputStream()) {
-                        Iterable<KeyPair> keyPairs = SecurityUtils.loadKeyPairIdentities(
-                                clientSession,
-                                urlResource,
-                                inputStream,
-                                (session, resourceKey, retryIndex) -> getHost().getPassphrase()
-                        );
-                        KeyPair keyPair = GenericUtils.head(keyPairs);
-                        if (keyPair == null) {
-                            if (!getHost().hasPassphrase()) {
-                                logger.errorf("%s cannot set client identity %s without a passphrase", getName(), getHost().getIdentity());
-                            } else {
-                                logger.errorf("%s cannot set client identity %s using the provided passphrase", getName(), getHost().getIdentity());
-                            }
-                            return null; // we failed to connect
-                        }
-                        sshClient.setKeyIdentityProvider((sessionContext -> {
-                            return keyPairs;
-                        }));
-                    } catch (IOException | GeneralSecurityException e) {
-                        logger.errorf("%s client failed to connect with custom identity before timeout", getHost().getHostName(), e);
-                        return null;
-                    }
-                } catch (MalformedURLException e) {
-                    //due to bad identity?
-                    logger.errorf("%s client failed to access custom identity", getHost().getHostName());
-                    return null;
-                }
-            }
-            sshClient.start();
-            ConnectFuture future = sshClient.connect(getHost().getUserName(), getHost().getHostName(), getHost().getPort());
-            future.await(10, TimeUnit.SECONDS);
-            if(!future.isConnected()){
-                logger.errorf("%s client failed to connect before 10s timeout",getHost().getHostName());
-                return null;
-            }
-            future = future.verify(timeout);
-            future.await(10, TimeUnit.SECONDS);
-            if(!future.isConnected()){
-                logger.errorf("%s client failed to verify connection before timeout",getName());
-                return null;
+            if(shellLease != null){
+                shellLease.release();
             }
-            clientSession = future.getSession();
-            clientSession.addSessionListener(new SessionListener() {
-                @Override
-                public void sessionEstablished(Session session) {
-                    logger.tracef("%s session established",getName());
-                }
-
-                @Override
-                public void sessionCreated(Session session) {
-                    logger.tracef("%s session created",getName());
-                }
-
-                @Override
-                public void sessionPeerIdentificationReceived(Session session, String version, List<String> extraLines) {
-                    logger.tracef("%s session identification received",getName());
-                }
-
-                @Override
-                public void sessionNegotiationStart(Session session, Map<KexProposalOption, String> clientProposal, Map<KexProposalOption, String> serverProposal) {
-                    logger.tracef("%s session negotiation start",getName());
-                }
-
-                @Override
-                public void sessionNegotiationEnd(Session session, Map<KexProposalOption, String> clientProposal, Map<KexProposalOption, String> serverProposal, Map<KexProposalOption, String> negotiatedOptions, Throwable reason) {
-                    logger.tracef("%s session negotiation end",getName());
-                }
-
-                @Override
-                public void sessionEvent(Session session, Event event) {
-
-                }
-
-                @Override
-                public void sessionException(Session session, Throwable t) {
-                    logger.tracef("%s session exception: %s",getName(),t.getMessage());
-                }
-
-                @Override
-                public void sessionDisconnect(Session session, int reason, String msg, String language, boolean initiator) {
-                    logger.tracef("%s session disconnect",getName());
-                }
-
-                @Override
-                public void sessionClosed(Session session) {
-                    logger.tracef("%s session closed",getName());
-                }
-            });
-
-            if(!getHost().hasPassphrase()){
-                logger.tracef("%s using %s identity without passphrase",getName(),getHost().getIdentity());
-            }else{
-                logger.tracef("%s using %s identity with a passphrase",getName(),getHost().getIdentity());
-            }
-            URLResource urlResource = new URLResource(Paths.get(getHost().getIdentity()).toUri().toURL());
-            try (InputStream inputStream = urlResource.openInputStream()) {
-                Iterable<KeyPair> keyPairs = SecurityUtils.loadKeyPairIdentities(
-                        clientSession,
-                        urlResource,
-                        inputStream,
-                        (session, resourceKey, retryIndex) -> getHost().getPassphrase()
-                );
-                KeyPair keyPair = GenericUtils.head(keyPairs);
-                if(keyPair == null){
-                    if(!getHost().hasPassphrase()){
-                        logger.errorf("cannot connect %s using %s without a passphrase",getName(),getHost().getIdentity());
-                    }else{
-                        logger.errorf("cannot connect %s using %s using the provided passphrase",getName(),getHost().getIdentity());
-                    }
-                    return null; // we failed to connect
-                }
-                clientSession.addPublicKeyIdentity(keyPair);
-            } catch (GeneralSecurityException e) {
-                logger.errorf("%s failed to load identity %s\n%s",getName(),getHost().getIdentity(),e.getMessage());
+            shellLease = sessionPool.acquire(getHost(),getName());
+            if(shellLease == null){
                 return null;
             }
-            if (getHost().hasPassword()) {
-                logger.tracef("%s adding password-identity",getName());
-                clientSession.addPasswordIdentity(getHost().getPassword());
-            }
-
-            logger.tracef("%s authenticating client session",getName());
-            boolean sessionResponse = clientSession.auth().verify().await(timeout * 1_000);
-            logger.tracef("%s waiting for authentication",getName());
-            clientSession.waitFor(EnumSet.of(ClientSession.ClientSessionEvent.AUTHED), 0L);
+            clientSession = shellLease.getSession();
 
             channelShell = clientSession.createShellChannel();
             channelShell.getPtyModes().put(PtyMode.ECHO, 1);//need echo for \n from real SH but adds gargage chars for test :(
@@ -362,6 +212,7 @@ public class SshShell extends AbstractShell{
 
             channelShell.setOut(getSessionStreams());//efs or ss
             channelShell.setErr(getSessionStreams());//PROMPT goes to error stream so have to listen there too
+            channelShell.addChannelListener(shellLease.releaseOnClose());
             channelShell.addChannelListener(new SessionWatcher());
 
             long timeoutMillis = 5;
@@ -378,8 +229,11 @@ public class SshShell extends AbstractShell{
 
             return new PrintStream(channelShell.getInvertedIn());
 
-        } catch (IOException e) {//sshClient.connect or future.await
+        } catch (IOException e) {//createShellChannel or open
             //throw new RuntimeException(e);
+            if(shellLease != null){
+                shellLease.release();
+            }
             logger.errorf("%s failed to connect client to %s %s",getName(),getHost().getSafeString(),e.getMessage());
         }
         return null;
@@ -387,24 +241,42 @@ public class SshShell extends AbstractShell{
 
     @Override
     public void exec(String command, Consumer<String> callback) {
-        if (isOpen()) {
-            try {
-                ChannelExec channelExec = clientSession.createExecChannel(command);
-                if (callback != null) {
-                    ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                    ExecWatcher watcher = new ExecWatcher(command, callback, baos);
-                    MultiStream stream = new MultiStream();
-                    stream.addStream("baos", baos);
-                    //stream.addStream("sout", System.err);
-                    channelExec.setOut(stream);
-                    //channelExec.setErr(baos); //added to try and catch echo output
-                    channelExec.addChannelListener(watcher);
-                }
-                channelExec.open().verify(9L, TimeUnit.SECONDS);
-            } catch (IOException e) {
-                logger.errorf("%s failed to connect client to {} {}",getName(),getHost().getSafeString(),e.getMessage());
-
+        execAsync(command,null,null).whenComplete((result,error)->{
+            if(error != null){
+                logger.errorf("%s failed to exec on %s %s",getName(),getHost().getSafeString(),error.getMessage());
+            }else if(callback != null){
+                callback.accept(result.stdout());
             }
+        });
+    }
+
+    @Override
+    public CompletableFuture<ExecResult> execAsync(String command, Consumer<String> stdout, Consumer<String> stderr) {
+        if (!isOpen()) {
+            return CompletableFuture.failedFuture(new IOException(getName()+" is not connected to "+getHost().getSafeString()));
+        }
+        SshSessionPool.Lease execLease = sessionPool.acquire(getHost(),getName()+"-exec");
+        if(execLease == null){
+            return CompletableFuture.failedFuture(new IOException(getName()+" failed to connect exec channel to "+getHost().getSafeString()));
+        }
+        try {
+            ChannelExec channelExec = execLease.getSession().createExecChannel(command);
+            channelExec.setStreaming(StreamingChannel.Streaming.Async);
+            channelExec.addChannelListener(execLease.releaseOnClose());
+            AsyncExec exec = new AsyncExec(channelExec, stdout, stderr);
+            channelExec.addChannelListener(exec);
+            channelExec.open().addListener(opened -> {
+                if (opened.isOpened()) {
+                    exec.start();
+                } else {
+                    exec.future.completeExceptionally(opened.getException() != null ? opened.getException() : new IOException(getName()+" failed to open exec channel"));
+                    channelExec.close(true);
+                }
+            });
+            return exec.future;
+        } catch (IOException e) {
+            execLease.release();
+            return CompletableFuture.failedFuture(e);
         }
     }
 
@@ -422,7 +294,8 @@ public class SshShell extends AbstractShell{
                 setupCommand,
                 executor,
                 getFilter(),
-                tracePath
+                tracePath,
+                ownsPool ? null : sessionPool
         );
     }
 
@@ -433,11 +306,12 @@ public class SshShell extends AbstractShell{
             if(channelShell!=null && channelShell.isOpen()) {
                 channelShell.close();
             }
-            if(clientSession!=null && clientSession.isOpen()) {
-                clientSession.close();
+            if(shellLease!=null){
+                shellLease.release();
             }
-            if(sshClient!=null && sshClient.isStarted()) {
-                sshClient.stop();
+            //only close the sessions if they are not shared with other shells
+            if(ownsPool){
+                sessionPool.close();
             }
         } catch (IOException e) {
             logger.errorf("%s error while closing %s",getName(),e.getMessage(),e);
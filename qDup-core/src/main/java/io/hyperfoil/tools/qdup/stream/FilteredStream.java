@@ -13,8 +13,7 @@ import java.util.stream.Collectors;
 /**
  * Created by wreicher
  * A MultiStream that filters content before writing to subsequent OutputStreams.
- * TODO tree of filters to speed up filtering content
- * TODO need to also create a suffix filter (for PROMPT)
+ * The filters are compiled into a MultiPatternMatcher that is rebuilt when the filters or injectables change.
  */
 public class FilteredStream extends MultiStream{
     private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
@@ -24,6 +23,8 @@ public class FilteredStream extends MultiStream{
     private final Map<String,byte[]> filters;
     private final Map<String,byte[]> replacements;
     private HashSet<Byte> injectable;
+    private volatile MultiPatternMatcher matcher;
+    private MultiPatternMatcher.Positions positions;
 
     private final List<Consumer<String>> observers;
 
@@ -39,9 +40,11 @@ public class FilteredStream extends MultiStream{
 
     public void addInjectable(byte b){
         injectable.add(b);
+        matcher = null;
     }
     public void removeInjectable(byte b){
         injectable.remove(b);
+        matcher = null;
     }
     public boolean hasInjectable(byte b){
         return injectable.contains(b);
@@ -100,6 +103,7 @@ public class FilteredStream extends MultiStream{
     public void addFilter(String name,byte bytes[]){
         filters.put(name,bytes);
         replacements.remove(name);
+        matcher = null;
     }
     public void addFilter(String name,String filter,String replacement) {
         addFilter(name,filter.getBytes(),replacement.getBytes());
@@ -107,6 +111,7 @@ public class FilteredStream extends MultiStream{
     public void addFilter(String name,byte filter[],byte replacement[]){
         filters.put(name,filter);
         replacements.put(name,replacement);
+        matcher = null;
     }
     public boolean hasFilter(String name){
         return filters.containsKey(name);
@@ -124,6 +129,19 @@ public class FilteredStream extends MultiStream{
     public void remove(String name){
         filters.remove(name);
         replacements.remove(name);
+        matcher = null;
+    }
+
+    /**
+     * @return the automaton for the current filters, compiling a new one if the filters changed
+     */
+    public MultiPatternMatcher getMatcher(){
+        MultiPatternMatcher rtrn = matcher;
+        if(rtrn == null){
+            rtrn = MultiPatternMatcher.compile(new LinkedHashMap<>(filters),new HashSet<>(injectable));
+            matcher = rtrn;
+        }
+        return rtrn;
     }
 
     protected void superWrite(byte b[], int off, int len) throws IOException {
@@ -169,67 +187,72 @@ public class FilteredStream extends MultiStream{
                 //copy the content to write into the buffered content
                 System.arraycopy(b,off,buffered, writeIndex,len);
                 writeIndex +=len;
-                boolean filteredAtLeastOnce = false;
-                for(int currentIndex = 0; currentIndex < writeIndex; currentIndex++){
-                    boolean filtered = false;
-                    do{
-                        filtered = false;
-                        int dropLength = 0;
-                        String matchedName = "";
-
-                        //hack because ConcurrentModificationException from Sh calling before loop finishes :(
-                        //Set<String> filterNames = new HashSet<>(filters.keySet());
-                        //for(String name : filterNames){
-                        String filterNames[] = filters.keySet().toArray(new String[0]);
-                        for(int i=0; i<filterNames.length; i++){
-                            String name = filterNames[i];
-                            byte[] filter = filters.get(name);
-                            if(filter!=null){
-                                MatchLength matchLength = prefixLength(buffered, filter, currentIndex, writeIndex-currentIndex);
-                                int prefixLength = matchLength.length();
-                                if(matchLength.fullMatch()) {//full match
-                                    if(prefixLength > dropLength){
-                                        dropLength=prefixLength;
-                                        filtered=true;
-                                        filteredAtLeastOnce=true;
-                                        matchedName = name;
-                                    }
-                                }else if (prefixLength > 0) {
-                                    if(trailingPrefixIndex > currentIndex){
-                                        trailingPrefixIndex = currentIndex;
-                                    }
-                                }
-                            }
+                MultiPatternMatcher currentMatcher = getMatcher();
+                int scanIndex = 0;
+                while(!currentMatcher.isEmpty() && scanIndex < writeIndex){
+                    if(positions == null || positions.capacity() < currentMatcher.getMaxLength() + 1){
+                        positions = new MultiPatternMatcher.Positions(currentMatcher);
+                    }
+                    positions.reset();
+                    int state = MultiPatternMatcher.ROOT;
+                    int matchedPattern = MultiPatternMatcher.NO_MATCH;
+                    int matchStart = -1;
+                    int matchEnd = -1;
+                    for(int currentIndex = scanIndex; currentIndex < writeIndex; currentIndex++){
+                        byte value = buffered[currentIndex];
+                        if(currentMatcher.skips(state,value)){
+                            continue;
                         }
-                        if(filtered){
-                            //tellObservers(matchedName); //FIX, move to after using the filter
-                            //used 2 for \r\n but there can also be a \r from bracket paste mode's ?2004l\r
-                            postFilterDrop += 3;
-                            if ( flushIndex < currentIndex) {
-                                superWrite(buffered,flushIndex, currentIndex - flushIndex);
-                            }
-                            if(hasReplacement(matchedName) && replacements.get(matchedName).length > 0){
-                                superWrite(replacements.get(matchedName),0,replacements.get(matchedName).length);
-                            }
-                            int nextIndex = currentIndex + filters.get(matchedName).length;
-                            //trap the potential \r\n if we filtered the entire write / line
-                            //TODO BUG, this can increment currentIndex && flushIndex beyondWriteIndex
-                            //TODO BUG, this only works if /r/n are on the same write, what about a subsequent call to write
-                            if(postFilterDrop > 0 && currentIndex == off && nextIndex < writeIndex && (buffered[nextIndex]=='\n' || buffered[nextIndex]=='\r') ){
-                                nextIndex++;
-                                postFilterDrop--;
-                            }
-                            if(postFilterDrop > 0 && currentIndex == off && nextIndex < writeIndex &&  (buffered[nextIndex]=='\n' || buffered[nextIndex]=='\r') ){
-                                nextIndex++;
-                                postFilterDrop--;
+                        state = currentMatcher.next(state,value);
+                        positions.add(currentIndex);
+                        //use the earliest match, a later partial match cannot start before it
+                        if(matchedPattern != MultiPatternMatcher.NO_MATCH &&
+                           (state == MultiPatternMatcher.ROOT || positions.start(currentMatcher.getDepth(state)) > matchStart)){
+                            break;
+                        }
+                        int pattern = currentMatcher.getMatch(state);
+                        if(pattern != MultiPatternMatcher.NO_MATCH){
+                            int start = positions.start(currentMatcher.getLength(pattern));
+                            if(matchedPattern == MultiPatternMatcher.NO_MATCH || start < matchStart || (start == matchStart && currentIndex > matchEnd)){
+                                matchedPattern = pattern;
+                                matchStart = start;
+                                matchEnd = currentIndex;
                             }
-                            //currentIndex += filters.get(matchedName).length;
-                            currentIndex = nextIndex;
-                            flushIndex = currentIndex;
-                            trailingPrefixIndex = Integer.MAX_VALUE;
-                            tellObservers(matchedName); //FIX, move to after using hte filter
                         }
-                    }while(filtered);
+                    }
+                    if(matchedPattern == MultiPatternMatcher.NO_MATCH){
+                        if(state != MultiPatternMatcher.ROOT){
+                            trailingPrefixIndex = positions.start(currentMatcher.getDepth(state));
+                        }
+                        break;
+                    }
+                    String matchedName = currentMatcher.getName(matchedPattern);
+                    //used 2 for \r\n but there can also be a \r from bracket paste mode's ?2004l\r
+                    postFilterDrop += 3;
+                    if ( flushIndex < matchStart) {
+                        superWrite(buffered,flushIndex, matchStart - flushIndex);
+                    }
+                    byte[] replacement = replacements.get(matchedName);
+                    if(replacement != null && replacement.length > 0){
+                        superWrite(replacement,0,replacement.length);
+                    }
+                    int nextIndex = matchEnd + 1;
+                    //trap the potential \r\n if we filtered the entire write / line
+                    //TODO BUG, this only works if /r/n are on the same write, what about a subsequent call to write
+                    if(postFilterDrop > 0 && matchStart == off && nextIndex < writeIndex && (buffered[nextIndex]=='\n' || buffered[nextIndex]=='\r') ){
+                        nextIndex++;
+                        postFilterDrop--;
+                    }
+                    if(postFilterDrop > 0 && matchStart == off && nextIndex < writeIndex &&  (buffered[nextIndex]=='\n' || buffered[nextIndex]=='\r') ){
+                        nextIndex++;
+                        postFilterDrop--;
+                    }
+                    scanIndex = nextIndex;
+                    flushIndex = nextIndex;
+                    trailingPrefixIndex = Integer.MAX_VALUE;
+                    tellObservers(matchedName);
+                    //observers can change the filters (e.g. removing the command filter)
+                    currentMatcher = getMatcher();
                 }
 
                 if (trailingPrefixIndex < Integer.MAX_VALUE) { // flush from flushIndex to trailingPrefixIndex
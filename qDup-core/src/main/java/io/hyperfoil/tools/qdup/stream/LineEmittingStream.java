@@ -15,6 +15,7 @@ import java.util.stream.Collectors;
 /**
  * Created by wreicher
  * A Stream that synchronously emits lines to Consumers
+ * LineView consumers receive a reusable view of the buffer so a String is only created when a consumer asks for one.
  */
 public class LineEmittingStream extends OutputStream {
     private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
@@ -24,6 +25,8 @@ public class LineEmittingStream extends OutputStream {
     byte buffered[] = new byte[4*1024];
 
     private List<Consumer<String>> consumers = new LinkedList<>();
+    private List<Consumer<LineView>> viewConsumers = new LinkedList<>();
+    private final LineView view = new LineView();
 
     public LineEmittingStream(){this(""+System.currentTimeMillis());}
     public LineEmittingStream(String name){
@@ -41,6 +44,16 @@ public class LineEmittingStream extends OutputStream {
         return consumers.remove(consumer);
     }
 
+    /**
+     * @param consumer receives a view that is only valid until the consumer returns
+     */
+    public boolean addViewConsumer(Consumer<LineView> consumer){
+        return viewConsumers.add(consumer);
+    }
+    public boolean removeViewConsumer(Consumer<LineView> consumer){
+        return viewConsumers.remove(consumer);
+    }
+
     public void reset() {
         writeIndex = 0;
     }
@@ -156,9 +169,17 @@ public class LineEmittingStream extends OutputStream {
         return -1;
     }
     private void emit(byte content[], int start,int length){
-        //trips out ANSI escape sequences (such as terminal coloring)
-        String toEmit = new String(content,start,length);
+        if(consumers.isEmpty() && viewConsumers.isEmpty()){
+            return;
+        }
+        view.set(content,start,length);
+        if(!viewConsumers.isEmpty()){
+            for(Consumer<LineView> consumer : viewConsumers){
+                consumer.accept(view);
+            }
+        }
         if(!consumers.isEmpty()){
+            String toEmit = view.toString();
             for(Consumer<String> consumer : consumers){
                 consumer.accept(toEmit);
             }
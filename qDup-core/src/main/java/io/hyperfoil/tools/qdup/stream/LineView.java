@@ -0,0 +1,94 @@
+package io.hyperfoil.tools.qdup.stream;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A reusable view of a line in the {@link LineEmittingStream} buffer.
+ * The view is only valid while the consumer is being called and will change for the next line.
+ * Call {@link #toString()} to keep the line, the String is created at most once per line and shared by all consumers.
+ * {@link #charAt(int)} treats each byte as a character, use {@link #toString()} for multi-byte content.
+ */
+public class LineView implements CharSequence {
+
+    private byte[] bytes;
+    private int offset;
+    private int length;
+    private String string;
+
+    public LineView(){
+        this(new byte[0],0,0);
+    }
+    public LineView(byte[] bytes, int offset, int length){
+        set(bytes,offset,length);
+    }
+
+    void set(byte[] bytes, int offset, int length){
+        this.bytes = bytes;
+        this.offset = offset;
+        this.length = length;
+        this.string = null;
+    }
+
+    public byte[] getBytes(){return bytes;}
+    public int getOffset(){return offset;}
+
+    public byte byteAt(int index){
+        return bytes[offset + index];
+    }
+
+    /**
+     * @return true if the line contains the bytes
+     */
+    public boolean contains(byte[] toFind){
+        return indexOf(toFind) >= 0;
+    }
+    public int indexOf(byte[] toFind){
+        if(toFind.length == 0){
+            return 0;
+        }
+        for(int i = 0; i <= length - toFind.length; i++){
+            if(Arrays.equals(bytes,offset + i,offset + i + toFind.length,toFind,0,toFind.length)){
+                return i;
+            }
+        }
+        return -1;
+    }
+    public boolean isBlank(){
+        for(int i = 0; i < length; i++){
+            if(!Character.isWhitespace(bytes[offset + i])){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if(index < 0 || index >= length){
+            throw new IndexOutOfBoundsException("index "+index+" length "+length);
+        }
+        return (char)(bytes[offset + index] & 0xFF);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if(start < 0 || end > length || start > end){
+            throw new IndexOutOfBoundsException("start "+start+" end "+end+" length "+length);
+        }
+        return new LineView(bytes,offset + start,end - start);
+    }
+
+    @Override
+    public String toString(){
+        if(string == null){
+            string = new String(bytes,offset,length,Charset.defaultCharset());
+        }
+        return string;
+    }
+}
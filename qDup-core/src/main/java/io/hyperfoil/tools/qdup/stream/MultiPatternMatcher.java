@@ -0,0 +1,244 @@
+package io.hyperfoil.tools.qdup.stream;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An immutable Aho-Corasick automaton over byte patterns so a stream can check all of its filters (or suffixes)
+ * with one pass over the buffer instead of comparing each pattern at each index.
+ * Streams build a new matcher when their patterns change and keep the current state between bytes.
+ * Injectable bytes (e.g. \r from column wrapping) are skipped while part of a pattern is matched, the same as
+ * {@link FilteredStream#prefixLength(byte[], byte[], int, int)} and {@link SuffixStream#suffixLength(byte[], byte[], int)}.
+ */
+public class MultiPatternMatcher {
+
+    public static final int ROOT = 0;
+    public static final int NO_MATCH = -1;
+
+    public static final MultiPatternMatcher EMPTY = compile(Collections.emptyMap(),Collections.emptySet());
+
+    /**
+     * @param patterns the pattern bytes by name. Empty patterns are ignored.
+     * @param injectable bytes that can appear inside a pattern match
+     */
+    public static MultiPatternMatcher compile(Map<String,byte[]> patterns, Set<Byte> injectable){
+        int size = 1;
+        for(byte[] pattern : patterns.values()){
+            if(pattern != null){
+                size += pattern.length;
+            }
+        }
+        return new MultiPatternMatcher(patterns,injectable,size);
+    }
+
+    private final String[] names;
+    private final int[] lengths;
+    private final int maxLength;
+    private final boolean[] injectable;
+
+    //goto function, the root is a dense table and the other states store their transitions in sorted arrays
+    private final int[] rootNext;
+    private final byte[][] keys;
+    private final int[][] next;
+    private final int[] depth;
+    private final int[] fail;
+    private final int[] match;//longest pattern that ends at the state
+    private final int stateCount;
+
+    private MultiPatternMatcher(Map<String,byte[]> patterns, Set<Byte> injectable, int size){
+        this.names = new String[patterns.size()];
+        this.lengths = new int[patterns.size()];
+        this.injectable = new boolean[256];
+        if(injectable!=null){
+            for(Byte b : injectable){
+                if(b!=null){
+                    this.injectable[b & 0xFF] = true;
+                }
+            }
+        }
+        rootNext = new int[256];
+        Arrays.fill(rootNext,NO_MATCH);
+        keys = new byte[size][];
+        next = new int[size][];
+        depth = new int[size];
+        fail = new int[size];
+        match = new int[size];
+        Arrays.fill(match,NO_MATCH);
+
+        int states = 1;
+        int maxLength = 0;
+        int patternIndex = 0;
+        for(Map.Entry<String,byte[]> entry : patterns.entrySet()){
+            byte[] pattern = entry.getValue();
+            if(pattern == null || pattern.length == 0){
+                continue;
+            }
+            int state = ROOT;
+            for(byte b : pattern){
+                int target = go(state,b);
+                if(target == NO_MATCH){
+                    target = states++;
+                    depth[target] = depth[state] + 1;
+                    addTransition(state,b,target);
+                }
+                state = target;
+            }
+            //first pattern wins when two names have the same bytes
+            if(match[state] == NO_MATCH){
+                names[patternIndex] = entry.getKey();
+                lengths[patternIndex] = pattern.length;
+                match[state] = patternIndex;
+                patternIndex++;
+            }
+            maxLength = Math.max(maxLength,pattern.length);
+        }
+        this.stateCount = states;
+        this.maxLength = maxLength;
+
+        //breadth first to set the failure links and inherit matches from the failure state
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        for(int b=0; b<256; b++){
+            int target = rootNext[b];
+            if(target != NO_MATCH){
+                fail[target] = ROOT;
+                queue.add(target);
+            }
+        }
+        while(!queue.isEmpty()){
+            int state = queue.poll();
+            if(keys[state] == null){
+                continue;
+            }
+            for(int i=0; i<keys[state].length; i++){
+                byte b = keys[state][i];
+                int target = next[state][i];
+                int f = fail[state];
+                while(f != ROOT && go(f,b) == NO_MATCH){
+                    f = fail[f];
+                }
+                int failTarget = go(f,b);
+                fail[target] = failTarget == NO_MATCH || failTarget == target ? ROOT : failTarget;
+                if(match[target] == NO_MATCH){
+                    match[target] = match[fail[target]];
+                }
+                queue.add(target);
+            }
+        }
+    }
+
+    private void addTransition(int state, byte b, int target){
+        if(state == ROOT){
+            rootNext[b & 0xFF] = target;
+            return;
+        }
+        byte[] stateKeys = keys[state];
+        if(stateKeys == null){
+            keys[state] = new byte[]{b};
+            next[state] = new int[]{target};
+        }else{
+            int index = -(Arrays.binarySearch(stateKeys,b) + 1);
+            byte[] newKeys = new byte[stateKeys.length + 1];
+            int[] newNext = new int[stateKeys.length + 1];
+            System.arraycopy(stateKeys,0,newKeys,0,index);
+            System.arraycopy(next[state],0,newNext,0,index);
+            newKeys[index] = b;
+            newNext[index] = target;
+            System.arraycopy(stateKeys,index,newKeys,index+1,stateKeys.length-index);
+            System.arraycopy(next[state],index,newNext,index+1,stateKeys.length-index);
+            keys[state] = newKeys;
+            next[state] = newNext;
+        }
+    }
+
+    private int go(int state, byte b){
+        if(state == ROOT){
+            return rootNext[b & 0xFF];
+        }
+        byte[] stateKeys = keys[state];
+        if(stateKeys == null){
+            return NO_MATCH;
+        }
+        if(stateKeys.length == 1){
+            return stateKeys[0] == b ? next[state][0] : NO_MATCH;
+        }
+        int index = Arrays.binarySearch(stateKeys,b);
+        return index < 0 ? NO_MATCH : next[state][index];
+    }
+
+    public boolean isEmpty(){return maxLength == 0;}
+    public int getMaxLength(){return maxLength;}
+    public int getStateCount(){return stateCount;}
+
+    /**
+     * @return true if b is an injectable byte that does not advance the current partial match
+     */
+    public boolean skips(int state, byte b){
+        return state != ROOT && injectable[b & 0xFF] && go(state,b) == NO_MATCH;
+    }
+
+    /**
+     * @return the state after consuming b, ROOT if no pattern prefix ends with b
+     */
+    public int next(int state, byte b){
+        int target = go(state,b);
+        while(target == NO_MATCH && state != ROOT){
+            state = fail[state];
+            target = go(state,b);
+        }
+        return target == NO_MATCH ? ROOT : target;
+    }
+
+    /**
+     * @return the number of consumed bytes matched by the state
+     */
+    public int getDepth(int state){return depth[state];}
+
+    /**
+     * @return index of the longest pattern that ends at state or NO_MATCH
+     */
+    public int getMatch(int state){return match[state];}
+    public String getName(int pattern){return names[pattern];}
+    public int getLength(int pattern){return lengths[pattern];}
+
+    /**
+     * Tracks the buffer index of the most recently consumed bytes so a stream can find where the current partial or full match started.
+     */
+    public static class Positions {
+        private final int[] ring;
+        private long consumed = 0;
+
+        public Positions(MultiPatternMatcher matcher){
+            this.ring = new int[matcher.getMaxLength() + 1];
+        }
+        public int capacity(){return ring.length;}
+        public void reset(){
+            consumed = 0;
+        }
+        public void add(int index){
+            ring[(int)(consumed % ring.length)] = index;
+            consumed++;
+        }
+
+        /**
+         * @return buffer index where the last length consumed bytes started
+         */
+        public int start(int length){
+            return ring[(int)((consumed - length) % ring.length)];
+        }
+
+        /**
+         * @return buffer index of the last consumed byte or -1 if nothing was consumed
+         */
+        public int last(){
+            return consumed == 0 ? -1 : start(1);
+        }
+        public void shift(int amount){
+            for(int i=0; i<ring.length; i++){
+                ring[i] -= amount;
+            }
+        }
+    }
+}
@@ -0,0 +1,294 @@
+package io.hyperfoil.tools.qdup.stream;
+
+import org.jboss.logging.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captures the output of the current sh command.
+ * Keeps at most window bytes in memory and moves the older bytes to a memory-mapped spill file once a spill directory is set.
+ * The tail is served from memory while the full output is read from the spill file and memory when needed.
+ * The spill file holds unfiltered output (secrets included) so it is only readable by the owner and is deleted on close.
+ * Without a spill directory or with window &lt;= 0 this acts like a ByteArrayOutputStream.
+ */
+public class OutputCapture extends OutputStream {
+    private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
+
+    //0 keeps all output in memory so the next command sees the full output
+    public static final int DEFAULT_WINDOW = 0;
+    static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int MAX_ARRAY = Integer.MAX_VALUE - 8;
+
+    private final String name;
+    private int window = 0;
+    private Path spillDirectory;
+
+    private byte[] memory = new byte[32];
+    private int count = 0;
+
+    private long spilled = 0;
+    private Path spillPath;
+    private FileChannel channel;
+    private final List<MappedByteBuffer> segments = new ArrayList<>();
+
+    public OutputCapture(){this("");}
+    public OutputCapture(String name){
+        this.name = name;
+    }
+
+    /**
+     * @param window maximum bytes to keep in memory, &lt;= 0 to keep everything in memory
+     * @param spillDirectory where to create the spill file, null to keep everything in memory
+     */
+    public synchronized void setWindow(int window, Path spillDirectory){
+        this.window = window;
+        this.spillDirectory = spillDirectory;
+    }
+    public int getWindow(){return window;}
+
+    /**
+     * @return the system temp directory, kept apart from the run output so unfiltered output is not archived with the run
+     */
+    public static Path defaultSpillDirectory(){
+        return Path.of(System.getProperty("java.io.tmpdir"));
+    }
+    public Path getSpillDirectory(){return spillDirectory;}
+
+    public synchronized long size(){
+        return spilled + count;
+    }
+    public synchronized boolean isSpilled(){
+        return spilled > 0;
+    }
+    public synchronized long getSpilled(){
+        return spilled;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        ensureCapacity(count + 1);
+        memory[count++] = (byte)b;
+        checkWindow();
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        if(len <= 0){
+            return;
+        }
+        ensureCapacity(count + len);
+        System.arraycopy(b,off,memory,count,len);
+        count += len;
+        checkWindow();
+    }
+
+    private void ensureCapacity(int needed){
+        if(needed > memory.length){
+            int newLength = Math.max(needed,Math.min(MAX_ARRAY,memory.length * 2));
+            byte[] newMemory = new byte[newLength];
+            System.arraycopy(memory,0,newMemory,0,count);
+            memory = newMemory;
+        }
+    }
+
+    /**
+     * moves the oldest bytes to the spill file so half the window stays in memory
+     */
+    private void checkWindow(){
+        if(window <= 0 || spillDirectory == null || count <= window){
+            return;
+        }
+        int toSpill = count - window / 2;
+        try {
+            spill(memory,0,toSpill);
+            System.arraycopy(memory,toSpill,memory,0,count - toSpill);
+            count -= toSpill;
+            if(memory.length > 2 * window){//release the memory from a large write
+                byte[] newMemory = new byte[Math.max(window,count)];
+                System.arraycopy(memory,0,newMemory,0,count);
+                memory = newMemory;
+            }
+        } catch (IOException e) {
+            logger.errorf("%s failed to spill output to %s, keeping output in memory\n%s",name,spillPath,e.getMessage());
+            spillDirectory = null;
+        }
+    }
+
+    private void spill(byte[] b, int off, int len) throws IOException {
+        if(channel == null){
+            Files.createDirectories(spillDirectory);
+            //createTempFile limits the file to the owner on posix file systems
+            spillPath = Files.createTempFile(spillDirectory,"qdup-"+name.replaceAll("[^a-zA-Z0-9._-]","_")+"-",".out");
+            spillPath.toFile().deleteOnExit();
+            channel = FileChannel.open(spillPath, StandardOpenOption.READ,StandardOpenOption.WRITE);
+        }
+        while(len > 0){
+            MappedByteBuffer segment = segment((int)(spilled / SEGMENT_SIZE));
+            int position = (int)(spilled % SEGMENT_SIZE);
+            int amount = Math.min(len,SEGMENT_SIZE - position);
+            segment.put(position,b,off,amount);
+            off += amount;
+            len -= amount;
+            spilled += amount;
+        }
+    }
+    private MappedByteBuffer segment(int index) throws IOException {
+        while(segments.size() <= index){
+            segments.add(channel.map(FileChannel.MapMode.READ_WRITE,(long)segments.size() * SEGMENT_SIZE,SEGMENT_SIZE));
+        }
+        return segments.get(index);
+    }
+
+    public synchronized byte byteAt(long index){
+        if(index < 0 || index >= size()){
+            throw new IndexOutOfBoundsException("index "+index+" size "+size());
+        }
+        if(index >= spilled){
+            return memory[(int)(index - spilled)];
+        }
+        return segments.get((int)(index / SEGMENT_SIZE)).get((int)(index % SEGMENT_SIZE));
+    }
+
+    /**
+     * copies the captured bytes from [from, to) into the target
+     */
+    public synchronized void copy(long from, long to, byte[] target, int offset){
+        long index = from;
+        while(index < to && index < spilled){
+            MappedByteBuffer segment = segments.get((int)(index / SEGMENT_SIZE));
+            int position = (int)(index % SEGMENT_SIZE);
+            int amount = (int)Math.min(to - index,Math.min(spilled - index,SEGMENT_SIZE - position));
+            segment.get(position,target,offset,amount);
+            offset += amount;
+            index += amount;
+        }
+        if(index < to){
+            System.arraycopy(memory,(int)(index - spilled),target,offset,(int)(to - index));
+        }
+    }
+
+    /**
+     * @return the captured bytes in [from, to) as a String, limited to the maximum array size
+     */
+    public synchronized String toString(long from, long to){
+        if(to - from > MAX_ARRAY){
+            logger.warnf("%s output is %d bytes, only using the last %d",name,to - from,MAX_ARRAY);
+            from = to - MAX_ARRAY;
+        }
+        if(from >= spilled){
+            return new String(memory,(int)(from - spilled),(int)(to - from),Charset.defaultCharset());
+        }
+        byte[] bytes = new byte[(int)(to - from)];
+        copy(from,to,bytes,0);
+        return new String(bytes,Charset.defaultCharset());
+    }
+
+    /**
+     * @return the full output, reading from the spill file if needed
+     */
+    @Override
+    public synchronized String toString(){
+        return toString(0,size());
+    }
+
+    /**
+     * @return the index of the first complete line in memory, 0 unless the output spilled
+     */
+    public synchronized long boundedStart(){
+        if(spilled == 0){
+            return 0;
+        }
+        for(int i=0; i<count; i++){
+            if(memory[i] == '\n'){
+                return spilled + i + 1;
+            }
+        }
+        return spilled;
+    }
+
+    /**
+     * @return the output that is still in memory, which is the full output unless the output spilled
+     */
+    public synchronized String peek(){
+        return new String(memory,0,count,Charset.defaultCharset());
+    }
+
+    /**
+     * @return the last lines of output, only reads the spill file if the lines are not in memory
+     */
+    public synchronized String tail(int lines){
+        if(lines<=0){
+            lines=1;
+        }
+        long index = size();
+        while(lines > 0 && index > 0){
+            index--;
+            if( byteAt(index) == '\n' ){
+                lines--;
+            }
+        }
+        return toString(index,size());
+    }
+
+    /**
+     * @return a stream of the full output that reads from the spill file and memory as it is consumed. Writes after creating the stream are not included.
+     */
+    public synchronized InputStream getInputStream(){
+        long end = size();
+        return new InputStream() {
+            private long index = 0;
+            @Override
+            public int read() {
+                return index < end ? (byteAt(index++) & 0xFF) : -1;
+            }
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if(index >= end){
+                    return -1;
+                }
+                int amount = (int)Math.min(len,end - index);
+                copy(index,index + amount,b,off);
+                index += amount;
+                return amount;
+            }
+        };
+    }
+
+    /**
+     * clears the captured output, the spill file is kept for the next command
+     */
+    public synchronized void reset(){
+        count = 0;
+        spilled = 0;
+        if(window > 0 && memory.length > window){
+            memory = new byte[window];
+        }
+    }
+
+    @Override
+    public synchronized void close(){
+        reset();
+        segments.clear();
+        if(channel != null){
+            try {
+                channel.close();
+                Files.deleteIfExists(spillPath);
+            } catch (IOException e) {
+                logger.warnf("%s failed to remove spill file %s\n%s",name,spillPath,e.getMessage());
+            }
+            channel = null;
+            spillPath = null;
+        }
+    }
+}
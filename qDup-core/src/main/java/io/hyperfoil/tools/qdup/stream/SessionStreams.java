@@ -2,11 +2,12 @@ package io.hyperfoil.tools.qdup.stream;
 
 import io.hyperfoil.tools.yaup.AsciiArt;
 import io.hyperfoil.tools.yaup.json.Json;
+import org.jboss.logging.Logger;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -17,6 +18,7 @@ import java.util.function.Consumer;
 
 public class SessionStreams extends MultiStream {
 
+   private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
 
    public EscapeFilteredStream getEscapeFilteredStream() {
       return escapeFilteredStream;
@@ -38,7 +40,7 @@ public class SessionStreams extends MultiStream {
       return filteredStream;
    }
 
-   public ByteArrayOutputStream getShStream() {
+   public OutputCapture getShStream() {
       return shStream;
    }
 
@@ -47,7 +49,7 @@ public class SessionStreams extends MultiStream {
    private SuffixStream promptStream = null;
    private LineEmittingStream lineEmittingStream = null;
    private FilteredStream filteredStream = null;
-   private ByteArrayOutputStream shStream = null;
+   private OutputCapture shStream = null;
    /* Stream hierarchy
     * escapeFilteredStream - removes bash escape sequences
     *    suffixStream - looks for substrings at the end of the write buffer (bash prompt)
@@ -58,10 +60,11 @@ public class SessionStreams extends MultiStream {
     */
 
    private String traceName;
+   private String exitCodePrefix;
 
    public SessionStreams(String name, ScheduledThreadPoolExecutor executor){
       super(name);
-      shStream = new ByteArrayOutputStream();
+      shStream = new OutputCapture(name+"-sh");
       escapeFilteredStream = new EscapeFilteredStream(name+"-efs");
       filteredStream = new FilteredStream(name+"-fs");
       suffixStream = new SuffixStream(name+"-suffix", executor);
@@ -124,7 +127,7 @@ public class SessionStreams extends MultiStream {
       rtrn.getJson("escapeFiltered").getJson("suffixStream").getJson("filteredStream").set("lineEmitting",new Json());
       rtrn.getJson("escapeFiltered").getJson("suffixStream").getJson("filteredStream").getJson("lineEmitting").set("buffer",lineEmittingStream.getBuffered().replaceAll("[\r\n]","\\\\n"));
       rtrn.getJson("escapeFiltered").getJson("suffixStream").getJson("filteredStream").set("shStream",new Json());
-      rtrn.getJson("escapeFiltered").getJson("suffixStream").getJson("filteredStream").getJson("shStream").set("buffer",shStream.toString().replaceAll("[\r\n]","\\\\n"));
+      rtrn.getJson("escapeFiltered").getJson("suffixStream").getJson("filteredStream").getJson("shStream").set("buffer",shStream.peek().replaceAll("[\r\n]","\\\\n"));
       rtrn.getJson("escapeFiltered").getJson("suffixStream").set("promptStream",new Json());
       rtrn.getJson("escapeFiltered").getJson("suffixStream").getJson("promptStream").set("buffer",promptStream.getBuffered().replaceAll("[\r\n]","\\\\n"));
 
@@ -137,7 +140,7 @@ public class SessionStreams extends MultiStream {
       sb.append("└ suffixStream "+suffixStream.getBuffered().replaceAll("[\r\n]","\\\\n")+"_\n");
       sb.append("  ├ filteredStream "+filteredStream.getBuffered().replaceAll("[\r\n]","\\\\n")+"_\n");
       sb.append("  │ ├ lineEmitting "+lineEmittingStream.getBuffered().replaceAll("[\r\n]","\\\\n")+"_\n");
-      sb.append("  │ └ shStream "+shStream.toString().replaceAll("[\r\n]","\\\\n")+"_\n");
+      sb.append("  │ └ shStream "+shStream.peek().replaceAll("[\r\n]","\\\\n")+"_\n");
       sb.append("  └ promptStream "+promptStream.getBuffered().replaceAll("[\r\n]","\\\\n")+"_\n");
       return sb.toString();
    }
@@ -156,6 +159,7 @@ public class SessionStreams extends MultiStream {
    public void close() throws IOException {
       escapeFilteredStream.close();
       suffixStream.close();
+      shStream.close();
    }
 
 
@@ -166,6 +170,12 @@ public class SessionStreams extends MultiStream {
    public void removeLineConsumer(Consumer<String> consumer){
       lineEmittingStream.removeConsumer(consumer);
    }
+   public void addLineViewConsumer(Consumer<LineView> consumer){
+      lineEmittingStream.addViewConsumer(consumer);
+   }
+   public void removeLineViewConsumer(Consumer<LineView> consumer){
+      lineEmittingStream.removeViewConsumer(consumer);
+   }
 
    @Override
    public void setName(String name){
@@ -254,10 +264,27 @@ public class SessionStreams extends MultiStream {
       suffixStream.addSuffix(name,prompt,replacement);
    }
 
+   public void setExitCodePrefix(String exitCodePrefix){
+      this.exitCodePrefix = exitCodePrefix;
+      suffixStream.setExitCodePrefix(exitCodePrefix);
+   }
+   public boolean hasExitCodePrefix(){
+      return exitCodePrefix != null;
+   }
+   /**
+    * @return the exit code included in the most recent prompt or null if the prompt did not include an exit code
+    */
+   public String getPromptExitCode(){
+      return suffixStream.getExitCode();
+   }
+
    public void sharePrompts(SessionStreams otherStreams){
       if(otherStreams==null){
          return;
       }
+      if(hasExitCodePrefix()){
+         otherStreams.setExitCodePrefix(exitCodePrefix);
+      }
       suffixStream.getSuffixes().forEach((name)->{
          otherStreams.addPrompt(name,suffixStream.getSuffix(name), suffixStream.getReplacement(name));
       });
@@ -274,22 +301,58 @@ public class SessionStreams extends MultiStream {
       shStream.reset();
    }
 
+   /**
+    * @param window maximum bytes of command output to keep in memory, &lt;= 0 to keep all output in memory
+    * @param spillDirectory where to write output that does not fit in the window
+    */
+   public void setOutputWindow(int window, Path spillDirectory){
+      shStream.setWindow(window,spillDirectory);
+   }
+   public void shareOutputWindow(SessionStreams otherStreams){
+      if(otherStreams!=null){
+         otherStreams.setOutputWindow(shStream.getWindow(),shStream.getSpillDirectory());
+      }
+   }
+
+   /**
+    * @return the full output of the current command, reading any spilled output from disk
+    */
    public String currentOutput(){
       return shStream.toString();
    }
-   public String tail(int lines){
-      if(lines<=0){
-         lines=1;
-      }
 
-      byte[] b= shStream.toByteArray();
-      int idx = b.length;
-      while(lines > 0 && idx > 0){
-         idx--;
-         if( b[idx] == '\n' ){
-            lines--;
-         }
+   /**
+    * Returns the output of the current command without leading or trailing newlines and with \r\n changed to \n.
+    * Output that spilled out of the output window is not included, the String starts at the first complete line still in memory.
+    * Use getShStream().getInputStream() to read the full output.
+    * @return the output of the current command, bounded by the output window
+    */
+   public String shOutput(){
+      long start = shStream.boundedStart();
+      long end = shStream.size();
+      if(start > 0){
+         logger.warnf("%s output is %d bytes, only the last %d bytes are kept for the next command. Increase %s to keep more",getName(),end,end - start,"sh-output-window");
+      }
+      while(start < end && isNewline(shStream.byteAt(start))){
+         start++;
+      }
+      while(end > start && isNewline(shStream.byteAt(end - 1))){
+         end--;
       }
-      return new String(b,idx,b.length-(idx));
+      String rtrn = shStream.toString(start,end);
+      return rtrn.indexOf('\r') >= 0 ? rtrn.replace("\r\n","\n") : rtrn;
+   }
+   private static boolean isNewline(byte b){
+      return b == '\n' || b == '\r';
+   }
+
+   /**
+    * @return the output that is still in memory, the full output unless it exceeded the output window
+    */
+   public String peekOutput(){
+      return shStream.peek();
+   }
+   public String tail(int lines){
+      return shStream.tail(lines);
    }
 }
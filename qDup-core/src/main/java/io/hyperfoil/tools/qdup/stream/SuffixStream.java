@@ -15,6 +15,8 @@ public class SuffixStream extends MultiStream {
     private final static Logger logger = Logger.getLogger(MethodHandles.lookup().lookupClass());
     public static final int DEFAULT_DELAY = 100; //MS
     public static final int NO_DELAY = -1;
+    //longest value we expect between the exit code prefix and the suffix (e.g. -2147483648)
+    private static final int MAX_EXIT_CODE_LENGTH = 16;
 
     private class FoundRunnable implements Runnable{
         private int lastIndex;
@@ -56,6 +58,13 @@ public class SuffixStream extends MultiStream {
     private int executorDelay = DEFAULT_DELAY;
     private ScheduledFuture future;
     private FoundRunnable foundRunnable;
+    private byte[] exitCodePrefix;
+    //matcher state for buffered[0,scanIndex)
+    private volatile MultiPatternMatcher matcher;
+    private MultiPatternMatcher.Positions positions;
+    private int matchState = MultiPatternMatcher.ROOT;
+    private int scanIndex = 0;
+    private volatile String exitCode;
 
     public SuffixStream(){
         this("",null);
@@ -74,9 +83,11 @@ public class SuffixStream extends MultiStream {
     }
     public void addInjectable(byte b){
         injectable.add(b);
+        matcher = null;
     }
     public void removeInjectable(byte b){
         injectable.remove(b);
+        matcher = null;
     }
     public boolean hasInjectable(byte b){
         return injectable.contains(b);
@@ -100,6 +111,29 @@ public class SuffixStream extends MultiStream {
     public void setExecutorDelay(int delay){
         this.executorDelay = delay;
     }
+    /**
+     * Sets the marker that precedes the exit code in a prompt, e.g. <code>PREFIX$?PROMPT</code>.
+     * The marker and exit code are removed from the output and the exit code is available from {@link #getExitCode()}
+     * while the consumers are called for the matching suffix.
+     * @param exitCodePrefix the marker or null to disable exit code detection
+     */
+    public void setExitCodePrefix(String exitCodePrefix){
+        this.exitCodePrefix = exitCodePrefix == null || exitCodePrefix.isEmpty() ? null : exitCodePrefix.getBytes();
+    }
+    public boolean hasExitCodePrefix(){
+        return exitCodePrefix != null;
+    }
+    public boolean hasExitCode(){
+        return exitCode != null;
+    }
+
+    /**
+     * @return the text between the exit code prefix and the last suffix that was found or null if the suffix was not preceded by the prefix
+     */
+    public String getExitCode(){
+        return exitCode;
+    }
+
     public boolean usesExecutor(){
         return executor != null;
     }
@@ -108,6 +142,7 @@ public class SuffixStream extends MultiStream {
         if(writeIndex>0){
             superWrite(buffered,0,writeIndex);
             writeIndex=0;
+            resetMatch();
         }
     }
 
@@ -125,6 +160,7 @@ public class SuffixStream extends MultiStream {
     public void clear(){
         suffixes.clear();
         replacements.clear();
+        matcher = null;
     }
     public void addSuffix(String name){
         addSuffix(name,name);
@@ -132,9 +168,11 @@ public class SuffixStream extends MultiStream {
     public void addSuffix(String name,String suffix){
         suffixes.put(name,suffix.getBytes());
         replacements.remove(name);
+        matcher = null;
     }
     public void addSuffix(String name,String suffix,String replacement){
         suffixes.put(name,suffix.getBytes());
+        matcher = null;
         if(replacement!=null) {
             replacements.put(name, replacement.getBytes());
         }else{
@@ -196,6 +234,7 @@ public class SuffixStream extends MultiStream {
                     superWrite(buffered, 0, writeIndex);
                     writeIndex = 0;
                 }
+                resetMatch();
                 superWrite(b, off, len);
             } else {//we are going searching for a suffix
                 if (writeIndex + len > buffered.length) {
@@ -210,19 +249,17 @@ public class SuffixStream extends MultiStream {
 
                 boolean found = false;
                 String foundName = "";
-                for (String name : suffixes.keySet()) {
-                    byte[] toFind = suffixes.get(name);
-                    MatchLength matchLength =suffixLength(buffered, toFind, writeIndex);
-                    int suffMatch = matchLength.length();
-                    if (matchLength.fullMatch()) {
-                        if (!found || trailingSuffixLength < suffMatch) {//pick the longest match
-                            found = true;
-                            foundName = name;
-                            trailingSuffixLength = suffMatch;
-                        }
-                    } else if (!found && suffMatch > trailingSuffixLength) {
-                        trailingSuffixLength = suffMatch;
+                MultiPatternMatcher currentMatcher = getMatcher();
+                int lastConsumed = scan(currentMatcher);
+                if(matchState != MultiPatternMatcher.ROOT && lastConsumed == writeIndex - 1){//a trailing injectable is not part of a match
+                    int pattern = currentMatcher.getMatch(matchState);//longest suffix that ends at the last byte
+                    if(pattern != MultiPatternMatcher.NO_MATCH){
+                        found = true;
+                        foundName = currentMatcher.getName(pattern);
                     }
+                    trailingSuffixLength = writeIndex - positions.start(currentMatcher.getDepth(matchState));
+                } else {
+                    trailingSuffixLength = 0;
                 }
                 if (found) {
                     if(executor!=null && executorDelay>=0){
@@ -239,11 +276,28 @@ public class SuffixStream extends MultiStream {
                         }
                     }
 
-                } else if (trailingSuffixLength > Integer.MIN_VALUE) {
-                    superWrite(buffered, 0, writeIndex - trailingSuffixLength);
-                    System.arraycopy(buffered, writeIndex - trailingSuffixLength, buffered, 0, trailingSuffixLength);
+                } else {
+                    if(exitCodePrefix!=null){
+                        //keep a possible exit code in the buffer until we know if the suffix follows
+                        int suffixStart = writeIndex - Math.max(0,trailingSuffixLength);
+                        int exitCodeLength = trailingSuffixLength > 0 ?
+                                exitCodeLength(buffered,suffixStart) :
+                                trailingExitCodeLength(buffered,suffixStart);
+                        if(exitCodeLength > 0){
+                            trailingSuffixLength = Math.max(0,trailingSuffixLength) + exitCodeLength;
+                        }
+                    }
+                    int flushLength = writeIndex - trailingSuffixLength;
+                    superWrite(buffered, 0, flushLength);
+                    System.arraycopy(buffered, flushLength, buffered, 0, trailingSuffixLength);
                     writeIndex = trailingSuffixLength;
-                } //don't need an else because 0 trailingSuffixLength > Integer.MIN_VALUE
+                    if(trailingSuffixLength == 0){
+                        resetMatch();
+                    }else{
+                        positions.shift(flushLength);
+                        scanIndex = writeIndex;
+                    }
+                }
             }
         }catch(Exception e){
             logger.error(e.getMessage(),e);
@@ -251,17 +305,23 @@ public class SuffixStream extends MultiStream {
         }
     }
     private boolean foundSuffix(String name,int index){
+        exitCode = null;
         try {
             if (replacements.containsKey(name)) {
                 byte replacement[] = replacements.get(name);
                 int trimLength = suffixes.get(name).length;
                 //so are seeing the writeIndex changing between when the FoundRunner starts and now?
                 if(writeIndex == index && writeIndex - trimLength >= 0){
-                    superWrite(buffered, 0, writeIndex - trimLength);
+                    int exitCodeLength = exitCodeLength(buffered, writeIndex - trimLength);
+                    if(exitCodeLength > 0){
+                        exitCode = new String(buffered, writeIndex - trimLength - exitCodeLength + exitCodePrefix.length, exitCodeLength - exitCodePrefix.length);
+                    }
+                    superWrite(buffered, 0, writeIndex - trimLength - exitCodeLength);
                     if (replacement.length > 0) {
                         superWrite(replacement, 0, replacement.length);
                     }
                     writeIndex = 0;
+                    resetMatch();
                     return true;
                 }else{
                     //log that we suspect a concurrent write while this method was executing?
@@ -270,6 +330,7 @@ public class SuffixStream extends MultiStream {
             } else {
                 superWrite(buffered, 0, writeIndex);
                 writeIndex = 0;
+                resetMatch();
                 return true;
             }
         }catch(IOException e){
@@ -277,6 +338,87 @@ public class SuffixStream extends MultiStream {
         }
         return false;
     }
+
+    /**
+     * returns the length of the exit code prefix and exit code that end at endIndex or 0 if there is not a complete exit code
+     */
+    private int exitCodeLength(byte b[], int endIndex){
+        if(exitCodePrefix == null){
+            return 0;
+        }
+        int valueLength = 0;
+        while(valueLength <= MAX_EXIT_CODE_LENGTH && endIndex - valueLength > 0){
+            byte v = b[endIndex - valueLength - 1];
+            if(v == '\n' || v == '\r'){
+                return 0;
+            }
+            if(endIndex - valueLength >= exitCodePrefix.length && matchesAt(b, endIndex - valueLength - exitCodePrefix.length, exitCodePrefix)){
+                return exitCodePrefix.length + valueLength;
+            }
+            valueLength++;
+        }
+        return 0;
+    }
+
+    /**
+     * returns the length of a complete exit code prefix and exit code or the partial exit code prefix at the end of the buffer
+     */
+    private int trailingExitCodeLength(byte b[], int endIndex){
+        int rtrn = exitCodeLength(b, endIndex);
+        if(rtrn == 0){
+            MatchLength partial = suffixLength(b, exitCodePrefix, endIndex);
+            rtrn = partial.length();
+        }
+        return rtrn;
+    }
+    private static boolean matchesAt(byte b[], int offset, byte toFind[]){
+        for(int i=0; i<toFind.length; i++){
+            if(b[offset+i] != toFind[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * @return the automaton for the current suffixes, compiling a new one if the suffixes changed
+     */
+    public MultiPatternMatcher getMatcher(){
+        MultiPatternMatcher rtrn = matcher;
+        if(rtrn == null){
+            rtrn = MultiPatternMatcher.compile(new LinkedHashMap<>(suffixes),new HashSet<>(injectable));
+            matcher = rtrn;
+            positions = new MultiPatternMatcher.Positions(rtrn);
+            resetMatch();
+        }
+        return rtrn;
+    }
+    private void resetMatch(){
+        matchState = MultiPatternMatcher.ROOT;
+        scanIndex = 0;
+        if(positions!=null){
+            positions.reset();
+        }
+    }
+
+    /**
+     * advances the matcher over the bytes written since the last scan
+     * @return the index of the last consumed (not skipped) byte or -1
+     */
+    private int scan(MultiPatternMatcher currentMatcher){
+        int state = matchState;
+        for(int index = scanIndex; index < writeIndex; index++){
+            byte value = buffered[index];
+            if(currentMatcher.skips(state,value)){
+                continue;
+            }
+            state = currentMatcher.next(state,value);
+            positions.add(index);
+        }
+        matchState = state;
+        scanIndex = writeIndex;
+        return positions.last();
+    }
+
     private void callConsumers(String name){
         consumers.forEach(c -> c.accept(name));
     }
@@ -0,0 +1,121 @@
+package io.hyperfoil.tools.qdup;
+
+import org.jboss.logmanager.ExtHandler;
+import org.jboss.logmanager.ExtLogRecord;
+import org.jboss.logmanager.MDC;
+import org.jboss.logmanager.handlers.AsyncHandler.OverflowAction;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static org.junit.Assert.*;
+
+public class AsyncLogHandlerTest {
+
+    /**
+     * Handler that keeps each message with the host MDC value and counts flushes
+     */
+    private static class CapturingHandler extends ExtHandler {
+        final List<String> messages = new CopyOnWriteArrayList<>();
+        final AtomicInteger flushes = new AtomicInteger(0);
+        final CountDownLatch release;
+
+        CapturingHandler(CountDownLatch release){
+            this.release = release;
+        }
+
+        @Override
+        protected void doPublish(ExtLogRecord record){
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            messages.add(record.getMdc("host")+":"+record.getFormattedMessage());
+        }
+
+        @Override
+        public void flush(){
+            flushes.incrementAndGet();
+        }
+    }
+
+    private static ExtLogRecord record(String message){
+        return new ExtLogRecord(Level.INFO,message,AsyncLogHandlerTest.class.getName());
+    }
+
+    @Test(timeout = 10_000)
+    public void records_in_order_with_mdc(){
+        CapturingHandler capture = new CapturingHandler(new CountDownLatch(0));
+        AsyncLogHandler handler = new AsyncLogHandler(16,4,60_000,OverflowAction.BLOCK);
+        handler.addHandler(capture);
+        for(int i=0; i<10; i++){
+            MDC.put("host","host"+i);
+            handler.publish(record("message"+i));
+        }
+        MDC.remove("host");
+        handler.close();
+        assertEquals(10,capture.messages.size());
+        for(int i=0; i<10; i++){
+            assertEquals("record should keep the MDC from the logging thread","host"+i+":message"+i,capture.messages.get(i));
+        }
+        assertTrue("close should flush",capture.flushes.get() > 0);
+        handler.publish(record("closed"));
+        assertEquals("records after close are ignored",10,capture.messages.size());
+    }
+
+    @Test(timeout = 10_000)
+    public void flush_after_interval() throws InterruptedException {
+        CapturingHandler capture = new CapturingHandler(new CountDownLatch(0));
+        AsyncLogHandler handler = new AsyncLogHandler(16,100,20,OverflowAction.BLOCK);
+        handler.addHandler(capture);
+        handler.publish(record("one"));
+        while(capture.flushes.get() == 0){
+            Thread.sleep(10);
+        }
+        assertEquals(List.of("null:one"),capture.messages);
+        handler.close();
+    }
+
+    @Test(timeout = 10_000)
+    public void discard_when_full(){
+        CountDownLatch release = new CountDownLatch(1);
+        CapturingHandler capture = new CapturingHandler(release);
+        AsyncLogHandler handler = new AsyncLogHandler(4,4,60_000,OverflowAction.DISCARD);
+        handler.addHandler(capture);
+        for(int i=0; i<100; i++){
+            handler.publish(record("message"+i));
+        }
+        assertTrue("full queue should discard records",handler.getDropped() > 0);
+        release.countDown();
+        handler.close();
+        assertTrue("writer should report the discarded records: "+capture.messages,capture.messages.stream().anyMatch(m->m.contains("discarded")));
+        assertTrue(capture.messages.size() < 100);
+    }
+
+    @Test(timeout = 10_000)
+    public void block_when_full() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CapturingHandler capture = new CapturingHandler(release);
+        AsyncLogHandler handler = new AsyncLogHandler(4,4,60_000,OverflowAction.BLOCK);
+        handler.addHandler(capture);
+        Thread logging = new Thread(()->{
+            for(int i=0; i<100; i++){
+                handler.publish(record("message"+i));
+            }
+        });
+        logging.start();
+        logging.join(200);
+        assertTrue("full queue should block the logging thread",logging.isAlive());
+        release.countDown();
+        logging.join();
+        handler.close();
+        assertEquals("block should not lose records",100,capture.messages.size());
+        assertEquals(0,handler.getDropped());
+    }
+}
@@ -0,0 +1,142 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.cmd.Cmd;
+import io.hyperfoil.tools.qdup.cmd.SpyContext;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CoordinatorTest {
+
+    /**
+     * Context that counts how many times the coordinator continued it
+     */
+    private static class CountingContext extends SpyContext {
+        final AtomicInteger nextCount = new AtomicInteger(0);
+        final CountDownLatch released;
+
+        CountingContext(CountDownLatch released){
+            this.released = released;
+        }
+
+        @Override
+        public void next(String output) {
+            nextCount.incrementAndGet();
+            released.countDown();
+        }
+    }
+
+    @Test
+    public void waiter_released_by_signal(){
+        Coordinator coordinator = new Coordinator(new Globals());
+        coordinator.setSignal("ready",2);
+        CountingContext context = new CountingContext(new CountDownLatch(1));
+        coordinator.waitFor("ready",Cmd.waitFor("ready"),context,"");
+        assertEquals(1,coordinator.getWaitCount("ready"));
+        coordinator.signal("ready");
+        assertEquals("waiter should wait for the last signal",0,context.nextCount.get());
+        coordinator.signal("ready");
+        assertEquals(1,context.nextCount.get());
+        assertEquals(0,coordinator.getWaitCount("ready"));
+        assertEquals(0,coordinator.getSignalCount("ready"));
+        assertTrue(coordinator.getLatchTimes().containsKey("ready"));
+        coordinator.signal("ready");
+        assertEquals("extra signal should not go below zero",0,coordinator.getSignalCount("ready"));
+    }
+
+    @Test
+    public void duplicate_set_signal_ignored(){
+        Coordinator coordinator = new Coordinator(new Globals());
+        coordinator.setSignal("ready",2);
+        coordinator.setSignal("ready",5);
+        assertEquals("active latch should not be replaced",2,coordinator.getSignalCount("ready"));
+        coordinator.setSignal("ready",5,true);
+        assertEquals("force should replace the latch",5,coordinator.getSignalCount("ready"));
+        assertFalse(coordinator.hasSignal("missing"));
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrent_signal_and_wait() throws Exception {
+        int threads = 8;
+        int rounds = 2_000;
+        Coordinator coordinator = new Coordinator(new Globals());
+        for (int round = 0; round < rounds; round++) {
+            coordinator.setSignal("go-" + round, threads);
+        }
+        CountDownLatch released = new CountDownLatch(threads * rounds);
+        List<CountingContext> contexts = new ArrayList<>();
+        for (int i = 0; i < threads * rounds; i++) {
+            contexts.add(new CountingContext(released));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            int offset = thread;
+            futures.add(executor.submit(() -> {
+                start.await();
+                //every thread waits for and signals each round so the last signal races with the waiters
+                for (int round = 0; round < rounds; round++) {
+                    coordinator.waitFor("go-" + round, Cmd.waitFor("go-" + round), contexts.get(round * threads + offset), "");
+                    coordinator.signal("go-" + round);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertTrue("all waiters should be released, missing " + released.getCount(), released.await(10, TimeUnit.SECONDS));
+        for (int round = 0; round < rounds; round++) {
+            assertEquals(0, coordinator.getSignalCount("go-" + round));
+            assertEquals(0, coordinator.getWaitCount("go-" + round));
+        }
+        for (CountingContext context : contexts) {
+            assertEquals("each waiter should continue once", 1, context.nextCount.get());
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrent_counters() throws Exception {
+        Coordinator coordinator = new Coordinator(new Globals());
+        int threads = 8;
+        int names = 5_000;
+        AtomicInteger reachedZero = new AtomicInteger(0);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CyclicBarrier start = new CyclicBarrier(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int thread = 0; thread < threads; thread++) {
+            futures.add(executor.submit(() -> {
+                start.await();
+                //each counter is created by whichever thread gets there first
+                for (int i = 0; i < names; i++) {
+                    coordinator.increase("count-" + i);
+                    if (coordinator.decrease("countdown-" + i, threads) == 0) {
+                        reachedZero.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        for (int i = 0; i < names; i++) {
+            assertEquals("no increase should be lost", threads, coordinator.getCounter("count-" + i));
+            assertEquals(0, coordinator.getCounter("countdown-" + i));
+        }
+        assertEquals("exactly one decrease per countdown should see zero", names, reachedZero.get());
+    }
+}
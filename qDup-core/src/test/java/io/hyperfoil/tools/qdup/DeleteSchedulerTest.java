@@ -0,0 +1,141 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.qdup.shell.LocalShell;
+import io.hyperfoil.tools.yaup.HashedSets;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import static org.junit.Assert.*;
+
+public class DeleteSchedulerTest {
+
+    @Test(timeout = 60_000)
+    public void one_exec_per_host() throws IOException {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        AtomicInteger shells = new AtomicInteger(0);
+        AtomicInteger execs = new AtomicInteger(0);
+        DeleteScheduler scheduler = new DeleteScheduler(host->{
+            shells.incrementAndGet();
+            //every host deletes local files so the test does not need ssh
+            AbstractShell shell = new LocalShell(host.getHostName(),new Host(),"",executor,new SecretFilter(),null){
+                @Override
+                public CompletableFuture<ExecResult> execAsync(String command, Consumer<String> stdout, Consumer<String> stderr){
+                    execs.incrementAndGet();
+                    return super.execAsync(command,stdout,stderr);
+                }
+            };
+            shell.connect();
+            return shell;
+        },4);
+        Path folder = Files.createTempDirectory("qdup-delete");
+        HashedSets<Host,String> pending = new HashedSets<>();
+        Host first = new Host("user","first");
+        Host second = new Host("user","second");
+        for(int i=0; i<3; i++){
+            pending.put(first,Files.createFile(folder.resolve("first-"+i)).toString());
+            pending.put(second,Files.createFile(folder.resolve("second-"+i)).toString());
+        }
+        List<DeleteScheduler.Result> results = scheduler.delete(pending);
+        executor.shutdownNow();
+
+        assertEquals(2,results.size());
+        assertEquals("one shell per host",2,shells.get());
+        assertEquals("one exec per host",2,execs.get());
+        for(DeleteScheduler.Result result : results){
+            assertEquals(result.getHost().getSafeString(),DeleteScheduler.Status.DELETED,result.getStatus());
+            assertEquals(3,result.getPaths().size());
+            assertEquals(Integer.valueOf(0),result.getExitCode());
+            assertTrue(result.getDuration() >= result.getConnectDuration());
+            assertTrue(result.toJson().has("duration"));
+        }
+        try (var remaining = Files.list(folder)) {
+            assertEquals("all the files should be deleted",0,remaining.count());
+        }
+        Files.delete(folder);
+    }
+
+    @Test(timeout = 60_000)
+    public void quoted_and_missing_paths() throws IOException {
+        Path folder = Files.createTempDirectory("qdup-delete");
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        DeleteScheduler scheduler = new DeleteScheduler(host->{
+            //ssh exec runs the command with the remote login shell, LocalShell does not use a shell for exec
+            AbstractShell shell = new LocalShell(host.getHostName(),new Host(),"",executor,new SecretFilter(),null){
+                @Override
+                public CompletableFuture<ExecResult> execAsync(String command, Consumer<String> stdout, Consumer<String> stderr){
+                    try {
+                        ProcessBuilder builder = new ProcessBuilder("bash","-c",command);
+                        builder.environment().put("HOME",folder.toString());
+                        Process process = builder.start();
+                        String err = new String(process.getErrorStream().readAllBytes());
+                        return CompletableFuture.completedFuture(new ExecResult("",err,process.waitFor()));
+                    } catch (IOException | InterruptedException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                }
+            };
+            shell.connect();
+            return shell;
+        },2);
+        Path spaces = Files.createFile(folder.resolve("with space"));
+        Path keep = Files.createFile(folder.resolve("with"));
+        Path quote = Files.createFile(folder.resolve("it's"));
+        Files.createFile(folder.resolve("glob-1.log"));
+        Files.createFile(folder.resolve("glob-2.log"));
+        Files.createFile(folder.resolve("home.log"));
+        Files.createFile(folder.resolve("brace-a"));
+        Files.createFile(folder.resolve("brace-b"));
+        Files.createFile(folder.resolve("range-1"));
+        HashedSets<Host,String> pending = new HashedSets<>();
+        Host host = new Host("user","host");
+        pending.put(host,spaces.toString());
+        pending.put(host,quote.toString());
+        pending.put(host,folder.resolve("glob-*.log").toString());
+        pending.put(host,folder.resolve("missing").toString());
+        pending.put(host,"~/home.log");
+        pending.put(host,folder.resolve("brace-{a,b}").toString());
+        pending.put(host,folder.resolve("range-[0-9]").toString());
+        List<DeleteScheduler.Result> results = scheduler.delete(pending);
+        scheduler.shutdown();
+        executor.shutdownNow();
+
+        assertEquals(1,results.size());
+        assertEquals("missing paths should not fail the host",DeleteScheduler.Status.DELETED,results.get(0).getStatus());
+        try (var remaining = Files.list(folder)) {
+            assertEquals("only the file that was not queued should remain",List.of(keep),remaining.toList());
+        }
+        Files.delete(keep);
+        Files.delete(folder);
+    }
+
+    @Test
+    public void quote(){
+        assertEquals("/tmp/with\\ space",DeleteScheduler.quote("/tmp/with space"));
+        assertEquals("/tmp/it\\'s",DeleteScheduler.quote("/tmp/it's"));
+        assertEquals("/tmp/*.log",DeleteScheduler.quote("/tmp/*.log"));
+        assertEquals("~/out.log",DeleteScheduler.quote("~/out.log"));
+        assertEquals("/tmp/{a,b}/[0-9]",DeleteScheduler.quote("/tmp/{a,b}/[0-9]"));
+        assertEquals("/tmp/$\\(reboot\\)",DeleteScheduler.quote("/tmp/$(reboot)"));
+        assertEquals("rm -f -- /tmp/a /tmp/b\\;reboot",DeleteScheduler.getCommand(List.of("/tmp/a","/tmp/b;reboot")));
+    }
+
+    @Test(timeout = 60_000)
+    public void failed_connect(){
+        DeleteScheduler scheduler = new DeleteScheduler(host->null,2);
+        HashedSets<Host,String> pending = new HashedSets<>();
+        pending.put(new Host("user","missing"),"/tmp/does-not-matter");
+        List<DeleteScheduler.Result> results = scheduler.delete(pending);
+        assertEquals(1,results.size());
+        assertEquals(DeleteScheduler.Status.FAILED,results.get(0).getStatus());
+        assertNull(results.get(0).getExitCode());
+    }
+}
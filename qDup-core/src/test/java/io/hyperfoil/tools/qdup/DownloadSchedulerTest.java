@@ -0,0 +1,138 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.cmd.impl.Download;
+import io.hyperfoil.tools.yaup.HashedSets;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class DownloadSchedulerTest {
+
+    /**
+     * Local that tracks how many downloads run at once instead of starting a process
+     */
+    private static class CountingLocal extends Local {
+        final AtomicInteger running = new AtomicInteger(0);
+        final AtomicInteger maxRunning = new AtomicInteger(0);
+        final Map<Host,AtomicInteger> hostRunning = new ConcurrentHashMap<>();
+        final Map<Host,AtomicInteger> hostMaxRunning = new ConcurrentHashMap<>();
+        final AtomicInteger failures;
+        final List<Boolean> resumed = Collections.synchronizedList(new ArrayList<>());
+
+        CountingLocal(int failures){
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public boolean download(String path, String destination, Host host, boolean resume) {
+            resumed.add(resume);
+            AtomicInteger forHost = hostRunning.computeIfAbsent(host,h->new AtomicInteger(0));
+            maxRunning.accumulateAndGet(running.incrementAndGet(),Math::max);
+            hostMaxRunning.computeIfAbsent(host,h->new AtomicInteger(0)).accumulateAndGet(forHost.incrementAndGet(),Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            forHost.decrementAndGet();
+            running.decrementAndGet();
+            return failures.getAndDecrement() <= 0;
+        }
+    }
+
+    @Test(timeout = 10_000)
+    public void limit_concurrent_downloads(){
+        CountingLocal local = new CountingLocal(0);
+        Host first = Host.parse("user@first");
+        Host second = Host.parse("user@second");
+        HashedSets<Host, Download> pending = new HashedSets<>();
+        for(int i=0; i<6; i++){
+            pending.put(first,new Download("/tmp/first/"+i,"/tmp/dest"));
+            pending.put(second,new Download("/tmp/second/"+i,"/tmp/dest"));
+        }
+        DownloadScheduler scheduler = new DownloadScheduler(local,3,2,0,0);
+        List<DownloadScheduler.Result> results = scheduler.download(pending);
+        assertEquals(12,results.size());
+        assertTrue("all downloads should work",results.stream().allMatch(r->r.getStatus() == DownloadScheduler.Status.DOWNLOADED));
+        assertTrue("downloads should run in parallel, max="+local.maxRunning.get(),local.maxRunning.get() > 1);
+        assertTrue("global limit exceeded, max="+local.maxRunning.get(),local.maxRunning.get() <= 3);
+        assertTrue("per host limit exceeded",local.hostMaxRunning.get(first).get() <= 2);
+        assertTrue("per host limit exceeded",local.hostMaxRunning.get(second).get() <= 2);
+    }
+
+    @Test(timeout = 10_000)
+    public void retry_failed_download(){
+        CountingLocal local = new CountingLocal(2);
+        HashedSets<Host, Download> pending = new HashedSets<>();
+        pending.put(Host.parse("user@host"),new Download("/tmp/file","/tmp/dest"));
+        List<DownloadScheduler.Result> results = new DownloadScheduler(local,1,1,2,0).download(pending);
+        assertEquals(1,results.size());
+        assertEquals(DownloadScheduler.Status.DOWNLOADED,results.get(0).getStatus());
+        assertEquals(3,results.get(0).getAttempts());
+        assertEquals("only retries should resume",List.of(false,true,true),local.resumed);
+    }
+
+    @Test
+    public void resume_only_default_download(){
+        Host host = Host.parse("user@host");
+        assertFalse("first attempt should not keep partial files",host.getDownload(false).contains("--partial"));
+        assertTrue("retry should keep partial files",host.getDownload(true).contains("--partial"));
+        assertEquals("--partial should follow rsync","--partial",host.getDownload(true).get(host.getDownload(true).indexOf("/usr/bin/rsync")+1));
+        host.setDownload(List.of("cp","${{source}}","${{destination}}"));
+        assertEquals("custom download should not change",host.getDownload(),host.getDownload(true));
+    }
+
+    @Test(timeout = 10_000)
+    public void fail_after_retries(){
+        CountingLocal local = new CountingLocal(10);
+        HashedSets<Host, Download> pending = new HashedSets<>();
+        pending.put(Host.parse("user@host"),new Download("/tmp/file","/tmp/dest"));
+        List<DownloadScheduler.Result> results = new DownloadScheduler(local,1,1,1,0).download(pending);
+        assertEquals(DownloadScheduler.Status.FAILED,results.get(0).getStatus());
+        assertEquals(2,results.get(0).getAttempts());
+    }
+
+    @Test(timeout = 10_000)
+    public void relative_path_not_downloaded(){
+        CountingLocal local = new CountingLocal(0);
+        HashedSets<Host, Download> pending = new HashedSets<>();
+        pending.put(Host.parse("user@host"),new Download("~/file","/tmp/dest"));
+        List<DownloadScheduler.Result> results = new DownloadScheduler(local).download(pending);
+        assertEquals(DownloadScheduler.Status.FAILED,results.get(0).getStatus());
+        assertEquals("should not try to download",0,results.get(0).getAttempts());
+    }
+
+    @Test(timeout = 30_000)
+    public void local_download_bytes() throws IOException {
+        Path source = Files.createTempDirectory("qdup-download-source");
+        Path destination = Files.createTempDirectory("qdup-download-destination");
+        Files.writeString(source.resolve("small.txt"),"small");
+        Files.writeString(source.resolve("large.txt"),"large".repeat(100));
+        HashedSets<Host, Download> pending = new HashedSets<>();
+        Host host = Host.parse(Host.LOCAL);
+        pending.put(host,new Download(source.resolve("small.txt").toString(),destination.toString()));
+        pending.put(host,new Download(source.resolve("large.txt").toString(),destination.toString(),100L));
+        List<DownloadScheduler.Result> results = new DownloadScheduler(new Local()).download(pending);
+        assertEquals(2,results.size());
+        DownloadScheduler.Result small = results.stream().filter(r->r.getPath().endsWith("small.txt")).findFirst().orElse(null);
+        DownloadScheduler.Result large = results.stream().filter(r->r.getPath().endsWith("large.txt")).findFirst().orElse(null);
+        assertNotNull(small);
+        assertNotNull(large);
+        assertEquals(DownloadScheduler.Status.DOWNLOADED,small.getStatus());
+        assertEquals(5,small.getBytes());
+        assertTrue(Files.exists(destination.resolve("small.txt")));
+        assertEquals("file larger than max size should be skipped",DownloadScheduler.Status.SKIPPED,large.getStatus());
+        assertFalse(Files.exists(destination.resolve("large.txt")));
+        assertEquals(5,small.toJson().getLong("bytes"));
+    }
+}
@@ -0,0 +1,110 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.yaup.json.graaljs.JsException;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JsContextPoolTest {
+
+    private static Object jsEval(String js){
+        return JsContextPool.jsEval(js,Collections.emptyMap(),Collections.emptyList());
+    }
+
+    @Test
+    public void reuse_context(){
+        JsContextPool pool = JsContextPool.getPool(List.of("function reuse_context(v){ return v+1; }"));
+        assertEquals(2L,pool.eval("reuse_context(1)",Collections.emptyMap()));
+        long created = JsContextPool.getCreated();
+        assertEquals(3L,pool.eval("reuse_context(2)",Collections.emptyMap()));
+        assertEquals("second evaluation should use the pooled context",created,JsContextPool.getCreated());
+        assertTrue("context should return to the pool",pool.getIdleCount() > 0);
+    }
+
+    @Test
+    public void globals_per_evaluation(){
+        Map<Object,Object> globals = new HashMap<>();
+        globals.put("foo","bar");
+        assertEquals("bar",JsContextPool.jsEval("foo",globals,Collections.emptyList()));
+        try {
+            JsContextPool.jsEval("foo",Collections.emptyMap(),Collections.emptyList());
+            fail("globals should not be visible to the next evaluation");
+        } catch (JsException e){
+            assertTrue(e.getMessage(),e.getMessage().contains("foo"));
+        }
+    }
+
+    @Test
+    public void remove_added_globals(){
+        assertEquals(3L,jsEval("globals_added = 3"));
+        assertEquals("undefined",jsEval("typeof globals_added"));
+    }
+
+    @Test
+    public void redeclare_const(){
+        assertEquals(2L,jsEval("const redeclare = 1; redeclare+1"));
+        assertEquals(3L,jsEval("const redeclare = 1; redeclare+2"));
+    }
+
+    @Test
+    public void redeclare_let(){
+        long fallbacks = JsContextPool.getFallbacks();
+        assertEquals(1L,jsEval("let redeclare_let = 1; redeclare_let"));
+        assertEquals(1L,jsEval("let redeclare_let = 1; redeclare_let"));
+        assertEquals("undefined",jsEval("typeof redeclare_let"));
+        assertEquals("a pooled context should not have the previous declaration",fallbacks,JsContextPool.getFallbacks());
+    }
+
+    @Test
+    public void reuse_context_with_nested_const(){
+        JsContextPool pool = JsContextPool.getPool(List.of("function reuse_context_with_nested_const(v){ return v; }"));
+        assertEquals(2L,pool.eval("()=>{ const nested = reuse_context_with_nested_const(1); return nested+1; }",Collections.emptyMap()));
+        long created = JsContextPool.getCreated();
+        assertEquals(2L,pool.eval("()=>{ const nested = reuse_context_with_nested_const(1); return nested+1; }",Collections.emptyMap()));
+        assertEquals("const in a function should not close the context",created,JsContextPool.getCreated());
+    }
+
+    @Test
+    public void reuse_context_with_keyword_in_name(){
+        JsContextPool pool = JsContextPool.getPool(List.of("function reuse_context_with_keyword_in_name(v){ return v; }"));
+        assertEquals(1L,pool.eval("reuse_context_with_keyword_in_name(1)",Collections.emptyMap()));
+        long created = JsContextPool.getCreated();
+        assertEquals(2L,pool.eval("outlet = 2; constant = outlet; constant",Collections.emptyMap()));
+        assertEquals(3L,pool.eval("outlet = 3; outlet",Collections.emptyMap()));
+        assertEquals("let and const in a name should not close the context",created,JsContextPool.getCreated());
+    }
+
+    @Test
+    public void restore_replaced_snippet_function(){
+        JsContextPool pool = JsContextPool.getPool(List.of("function restore_replaced_snippet_function(v){ return v+1; }"));
+        assertEquals(2L,pool.eval("restore_replaced_snippet_function(1)",Collections.emptyMap()));
+        assertEquals(0L,pool.eval("restore_replaced_snippet_function = (v)=>0; restore_replaced_snippet_function(1)",Collections.emptyMap()));
+        assertEquals("replaced function should be restored",2L,pool.eval("restore_replaced_snippet_function(1)",Collections.emptyMap()));
+    }
+
+    @Test
+    public void restore_replaced_builtins(){
+        assertEquals("replaced",jsEval("JSON.parse = (v)=>'replaced'; JSON.parse('1')"));
+        assertEquals(1L,jsEval("JSON.parse('1')"));
+        assertEquals(1L,jsEval("Array.prototype.restore_replaced_builtins = 1; [].restore_replaced_builtins"));
+        assertEquals("undefined",jsEval("typeof [].restore_replaced_builtins"));
+        assertEquals(2L,jsEval("delete Math.max; Math.max ? 1 : 2"));
+        assertEquals(3L,jsEval("Math.max(1,3)"));
+    }
+
+    @Test
+    public void resolve_promise(){
+        assertEquals(42L,jsEval("new Promise((resolve)=>resolve(42))"));
+    }
+
+    @Test
+    public void helpers_loaded(){
+        assertEquals("object",jsEval("typeof luxon"));
+        assertEquals("aGk=",jsEval("btoa('hi')"));
+    }
+}
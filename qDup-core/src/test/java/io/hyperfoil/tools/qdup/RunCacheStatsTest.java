@@ -0,0 +1,28 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.yaup.json.Json;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RunCacheStatsTest {
+
+    @Test
+    public void delta_counters_keep_size(){
+        Json start = Json.fromString("{\"regex\":{\"hits\":10,\"misses\":4,\"size\":3},\"js\":{\"evaluations\":5,\"sources\":2}}");
+        Json current = Json.fromString("{\"regex\":{\"hits\":15,\"misses\":4,\"size\":6},\"js\":{\"evaluations\":9,\"sources\":3},\"patterns\":{\"hits\":1}}");
+        Json delta = Run.getCacheDelta(start,current);
+        assertEquals("hits since start",5,delta.getJson("regex").getLong("hits"));
+        assertEquals("misses since start",0,delta.getJson("regex").getLong("misses"));
+        assertEquals("size is the current cache size",6,delta.getJson("regex").getLong("size"));
+        assertEquals("evaluations since start",4,delta.getJson("js").getLong("evaluations"));
+        assertEquals("sources is the current cache size",3,delta.getJson("js").getLong("sources"));
+        assertEquals("missing start counter counts from 0",1,delta.getJson("patterns").getLong("hits"));
+    }
+
+    @Test
+    public void delta_without_start(){
+        Json current = Json.fromString("{\"regex\":{\"hits\":15}}");
+        assertEquals(15,Run.getCacheDelta(null,current).getJson("regex").getLong("hits"));
+    }
+}
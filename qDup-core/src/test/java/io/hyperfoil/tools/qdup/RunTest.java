@@ -28,8 +28,12 @@ import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -182,6 +186,205 @@ public class RunTest extends SshTestBase {
        assertEquals(2,heard.size());
    }
 
+   @Test(timeout = 60_000)
+   public void inline_cmds_without_queueing(){
+      Parser parser = Parser.getInstance();
+      RunConfigBuilder builder = getBuilder();
+      StringBuilder steps = new StringBuilder();
+      for(int i=0; i<200; i++){
+         steps.append("    - set-state: RUN.count "+i+"\n");
+      }
+      builder.loadYaml(parser.loadFile("inline",
+              """
+               scripts:
+                 doit:
+               STEPS
+                   - sh: echo done
+               hosts:
+                 local: TARGET_HOST
+               roles:
+                 doit:
+                   hosts: [local]
+                   run-scripts:
+                   - doit
+               globals:
+                 settings:
+                   inline-cmd-budget: 1000
+               """
+                      .replace("STEPS\n",steps.toString())
+                      .replaceAll("TARGET_HOST", Host.LOCAL)
+      ));
+      RunConfig config = builder.buildConfig(parser);
+      assertFalse("runConfig errors:\n" + config.getErrorStrings().stream().collect(Collectors.joining("\n")), config.hasErrors());
+      ThreadPoolExecutor executor = new ThreadPoolExecutor(4,4,30,TimeUnit.SECONDS,new LinkedBlockingQueue<>());
+      ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(2);
+      ScheduledThreadPoolExecutor callback = new ScheduledThreadPoolExecutor(2);
+      Dispatcher dispatcher = new Dispatcher(executor,scheduler,callback);
+      Run doit = new Run(tmpDir.toString(), config, dispatcher);
+      doit.run();
+      long tasks = executor.getTaskCount();
+      executor.shutdownNow();
+      scheduler.shutdownNow();
+      callback.shutdownNow();
+
+      State state = config.getState();
+      assertEquals("199",state.get("count").toString());
+      assertTrue("set-state commands should not queue the script each time: "+tasks,tasks < 50);
+   }
+
+   @Test(timeout = 60_000)
+   public void inline_cmds_after_watcher_do_not_overlap(){
+      CountDownLatch ready = new CountDownLatch(1);
+      AtomicInteger active = new AtomicInteger(0);
+      AtomicBoolean overlapped = new AtomicBoolean(false);
+      AtomicInteger[] counts = new AtomicInteger[5];
+      Script script = new Script("doit");
+      script.then(Cmd.sh("echo watched").watch(new AwaitLatch(ready)));
+      script.then(new CountDown(ready));
+      for(int i=0; i<counts.length; i++){
+         counts[i] = new AtomicInteger(0);
+         script.then(new Count(counts[i],active,overlapped));
+      }
+      script.then(Cmd.setState("RUN.done","true"));
+
+      Parser parser = Parser.getInstance();
+      RunConfigBuilder builder = getBuilder();
+      builder.loadYaml(parser.loadFile("watched",
+              """
+               hosts:
+                 local: TARGET_HOST
+               roles:
+                 doit:
+                   hosts: [local]
+                   run-scripts:
+                   - doit
+               globals:
+                 settings:
+                   inline-cmd-budget: 1000
+               """.replaceAll("TARGET_HOST", Host.LOCAL)
+      ));
+      builder.addScript(script);
+
+      RunConfig config = builder.buildConfig(parser);
+      assertFalse("runConfig errors:\n" + config.getErrorStrings().stream().collect(Collectors.joining("\n")), config.hasErrors());
+      //needs a second command thread to pick up the context while the watcher is still running
+      Dispatcher dispatcher = new Dispatcher(4,2,2);
+      Run doit = new Run(tmpDir.toString(), config, dispatcher);
+      doit.run();
+      dispatcher.shutdown();
+
+      assertEquals("true",config.getState().get("done").toString());
+      assertFalse("commands from one script should not run at the same time",overlapped.get());
+      for(int i=0; i<counts.length; i++){
+         assertEquals("command "+i+" after the watched command should run once",1,counts[i].get());
+      }
+   }
+
+   @Test(timeout = 60_000)
+   public void inline_cmds_stop_at_blocking_cmds(){
+      Parser parser = Parser.getInstance();
+      RunConfigBuilder builder = getBuilder();
+      builder.loadYaml(parser.loadFile("blocking",
+              """
+               scripts:
+                 waiter:
+                 - for-each: item [1, 2, 3]
+                   then:
+                   - sh: echo item-${{item}}
+                   - regex: item-(?<found>\\d+)
+                   - set-state: RUN.items ${{RUN.items:}}-${{found}}
+                 - signal: looped
+                 - wait-for: go
+                 - set-state: RUN.after ${{RUN.items}} ${{RUN.flag}}
+                 sender:
+                 - wait-for: looped
+                 - sh: sleep 1
+                 - set-state: RUN.flag sent
+                 - signal: go
+               hosts:
+                 local: TARGET_HOST
+               roles:
+                 doit:
+                   hosts: [local]
+                   run-scripts:
+                   - waiter
+                   - sender
+               globals:
+                 settings:
+                   inline-cmd-budget: 1000
+               """.replaceAll("TARGET_HOST", Host.LOCAL)
+      ));
+      RunConfig config = builder.buildConfig(parser);
+      assertFalse("runConfig errors:\n" + config.getErrorStrings().stream().collect(Collectors.joining("\n")), config.hasErrors());
+      Dispatcher dispatcher = new Dispatcher();
+      Run doit = new Run(tmpDir.toString(), config, dispatcher);
+      doit.run();
+      dispatcher.shutdown();
+
+      State state = config.getState();
+      assertEquals("for-each should wait for each sh","-1-2-3",state.get("items").toString());
+      assertEquals("wait-for should wait for the signal","-1-2-3 sent",state.get("after").toString());
+   }
+
+   @Test(timeout = 60_000)
+   public void role_barrier_depends_on(){
+      Parser parser = Parser.getInstance();
+      RunConfigBuilder builder = getBuilder();
+      builder.loadYaml(parser.loadFile("barrier",
+              """
+               scripts:
+                 start-server:
+                 - sh: sleep 2
+                 - set-state: RUN.serverReady true
+                 check:
+                 - set-state: RUN.${{name}} ${{RUN.serverReady}}
+               hosts:
+                 local: TARGET_HOST
+               roles:
+                 server:
+                   hosts: [local]
+                   setup-scripts:
+                   - start-server
+                 driver:
+                   hosts: [local]
+                   depends-on: [server]
+                   run-scripts:
+                   - check:
+                       with:
+                         name: driver
+                 other:
+                   hosts: [local]
+                   run-scripts:
+                   - check:
+                       with:
+                         name: other
+               states:
+                 serverReady: false
+               globals:
+                 settings:
+                   stage-barrier: role
+               """.replaceAll("TARGET_HOST",getHost().toString())
+      ));
+      RunConfig config = builder.buildConfig(parser);
+      assertFalse("runConfig errors:\n" + config.getErrorStrings().stream().collect(Collectors.joining("\n")), config.hasErrors());
+      Dispatcher dispatcher = new Dispatcher();
+      Run doit = new Run(tmpDir.toString(), config, dispatcher);
+      doit.run();
+      dispatcher.shutdown();
+
+      State state = config.getState();
+      assertEquals("driver should wait for the server setup","true",state.get("driver").toString());
+      assertEquals("other should not wait for the server setup","false",state.get("other").toString());
+
+      Map<String,Long> timestamps = doit.getTimestamps();
+      for(String key : List.of("setupStart","setupStop","runStart","runStop")){
+         assertTrue("missing "+key+" in "+timestamps,timestamps.containsKey(key));
+      }
+      assertTrue("run should start before setup ends "+timestamps,timestamps.get("runStart") <= timestamps.get("setupStop"));
+      assertTrue("setup should end before run ends "+timestamps,timestamps.get("setupStop") <= timestamps.get("runStop"));
+      assertTrue("setup should start first "+timestamps,timestamps.get("setupStart") <= timestamps.get("runStart"));
+   }
+
    @Test(timeout = 40_000)
    public void waitfor_never_signaled(){
       Parser parser = Parser.getInstance();
@@ -1003,6 +1206,68 @@ public class RunTest extends SshTestBase {
       assertTrue("expect ran to be true",ran.get());
    }
 
+   //watcher that keeps the watched command's thread busy until the commands after it are running on another thread
+   private static class AwaitLatch extends Cmd {
+      private final CountDownLatch latch;
+      AwaitLatch(CountDownLatch latch){this.latch = latch;}
+      @Override
+      public void run(String input, Context context){}
+      @Override
+      public void postWatch(Context context){
+         try {
+            latch.await(10, TimeUnit.SECONDS);
+            //give the other thread time to mark its run loop as inline
+            Thread.sleep(200);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+      @Override
+      public Cmd copy(){return new AwaitLatch(latch);}
+   }
+   private static class CountDown extends Cmd {
+      private final CountDownLatch latch;
+      CountDown(CountDownLatch latch){this.latch = latch;}
+      @Override
+      public void run(String input, Context context){
+         latch.countDown();
+         context.next(input);
+      }
+      @Override
+      public boolean isBlocking(){return false;}
+      @Override
+      public Cmd copy(){return new CountDown(latch);}
+   }
+   //stays on the run loop for a while after moving to the next command
+   private static class Count extends Cmd {
+      private final AtomicInteger count;
+      private final AtomicInteger active;
+      private final AtomicBoolean overlapped;
+      Count(AtomicInteger count, AtomicInteger active, AtomicBoolean overlapped){
+         this.count = count;
+         this.active = active;
+         this.overlapped = overlapped;
+      }
+      @Override
+      public void run(String input, Context context){
+         if(active.incrementAndGet() > 1){
+            overlapped.set(true);
+         }
+         count.incrementAndGet();
+         context.next(input);
+         try {
+            Thread.sleep(500);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         active.decrementAndGet();
+      }
+      @Override
+      public boolean isBlocking(){return false;}
+      @Override
+      public Cmd copy(){return new Count(count,active,overlapped);}
+   }
+
    private class FakeReboot extends Sh {
 
       public FakeReboot(){
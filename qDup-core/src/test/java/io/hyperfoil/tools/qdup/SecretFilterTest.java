@@ -53,6 +53,39 @@ public class SecretFilterTest extends SshTestBase {
       assertEquals("full input should be filtered: "+filter.getSecrets(), REPLACEMENT,output);
    }
 
+   @Test
+   public void overlapping_secrets(){
+      SecretFilter filter = new SecretFilter();
+      filter.addSecret("foobar");
+      filter.addSecret("barbiz");
+      assertEquals("overlapping secrets should be one replacement","a"+REPLACEMENT+"z",filter.filter("afoobarbizz"));
+      assertEquals("adjacent secrets should each be replaced",REPLACEMENT+REPLACEMENT,filter.filter("foobarbarbiz"));
+   }
+
+   @Test
+   public void no_secret_returns_input(){
+      SecretFilter filter = new SecretFilter();
+      filter.addSecret("foo");
+      String input = "nothing to see here";
+      assertSame("input without a secret should not be copied",input,filter.filter(input));
+   }
+
+   @Test
+   public void secret_added_after_filter(){
+      SecretFilter filter = new SecretFilter();
+      filter.addSecret("foo");
+      assertEquals(REPLACEMENT+" bar",filter.filter("foo bar"));
+      filter.addSecret("bar");
+      assertEquals("filter should use the new secret",REPLACEMENT+" "+REPLACEMENT,filter.filter("foo bar"));
+   }
+
+   @Test
+   public void non_ascii_secret(){
+      SecretFilter filter = new SecretFilter();
+      filter.addSecret("p\u00e4ssw\u00f6rd");
+      assertEquals("user "+REPLACEMENT+" pass",filter.filter("user p\u00e4ssw\u00f6rd pass"));
+   }
+
    @Test
    public void add_empty_filter(){
       SecretFilter filter = new SecretFilter();
@@ -0,0 +1,74 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.qdup.shell.LocalShell;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ShellWarmerTest {
+
+    @Test(timeout = 60_000)
+    public void take_warm_shells(){
+        ScheduledThreadPoolExecutor callback = new ScheduledThreadPoolExecutor(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AtomicInteger connects = new AtomicInteger(0);
+        ShellWarmer warmer = new ShellWarmer(host->{
+            connects.incrementAndGet();
+            AbstractShell shell = new LocalShell("warm",new Host(),"",callback,new SecretFilter(),null);
+            shell.connect();
+            return shell;
+        },executor);
+        Host host = new Host();
+        Host other = new Host("user","other");
+        warmer.warm(List.of(host,host));
+        assertEquals(2,warmer.size());
+        assertNull("no shell was warmed for the other host",warmer.take(other));
+
+        AbstractShell first = warmer.take(host);
+        AbstractShell second = warmer.take(host);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertNotSame(first,second);
+        assertTrue(first.isReady());
+        assertEquals("warm shell should run commands","warm",first.shSync("echo warm").trim());
+        assertNull("only two shells were warmed",warmer.take(host));
+        assertEquals(2,connects.get());
+
+        first.close(false);
+        second.close(false);
+        executor.shutdownNow();
+        callback.shutdownNow();
+    }
+
+    @Test(timeout = 60_000)
+    public void close_unused(){
+        ScheduledThreadPoolExecutor callback = new ScheduledThreadPoolExecutor(2);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        AbstractShell[] created = new AbstractShell[1];
+        ShellWarmer warmer = new ShellWarmer(host->{
+            AbstractShell shell = new LocalShell("warm",new Host(),"",callback,new SecretFilter(),null);
+            shell.connect();
+            created[0] = shell;
+            return shell;
+        },executor);
+        Host host = new Host();
+        warmer.warm(List.of(host));
+        warmer.close();
+        assertEquals(0,warmer.size());
+        assertNull(warmer.take(host));
+        executor.shutdown();
+        while(!executor.isTerminated()){
+            Thread.onSpinWait();
+        }
+        assertNotNull(created[0]);
+        assertFalse("unused shell should be closed",created[0].isOpen());
+        callback.shutdownNow();
+    }
+}
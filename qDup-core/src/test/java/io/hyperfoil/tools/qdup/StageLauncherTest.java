@@ -0,0 +1,212 @@
+package io.hyperfoil.tools.qdup;
+
+import io.hyperfoil.tools.qdup.cmd.DispatchObserver;
+import io.hyperfoil.tools.qdup.cmd.Dispatcher;
+import io.hyperfoil.tools.qdup.cmd.Script;
+import io.hyperfoil.tools.qdup.cmd.ScriptContext;
+import io.hyperfoil.tools.qdup.shell.AbstractShell;
+import io.hyperfoil.tools.qdup.shell.LocalShell;
+import io.hyperfoil.tools.yaup.time.SystemTimer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class StageLauncherTest {
+
+    private static List<Callable<ScriptContext>> failedConnects(int count, CountDownLatch release){
+        List<Callable<ScriptContext>> rtrn = new ArrayList<>();
+        for(int i=0; i<count; i++){
+            rtrn.add(()->{
+                release.await();
+                return null;
+            });
+        }
+        return rtrn;
+    }
+
+    private static ScriptContext connected(String name, AtomicInteger closed){
+        AbstractShell shell = new LocalShell(name,new Host(),"",null,new SecretFilter(),null){
+            @Override
+            public boolean close(boolean wait){
+                closed.incrementAndGet();
+                return true;
+            }
+        };
+        return new ScriptContext(shell,new State(State.RUN_PREFIX),null,new SystemTimer(name),new Script(name),false);
+    }
+
+    @Test(timeout = 30_000)
+    public void abort_holds_contexts_until_every_connect(){
+        Dispatcher dispatcher = new Dispatcher();
+        StageLauncher launcher = new StageLauncher(2,StageLauncher.FailurePolicy.ABORT);
+        AtomicInteger closed = new AtomicInteger(0);
+        AtomicInteger aborts = new AtomicInteger(0);
+        CountDownLatch connected = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Callable<ScriptContext>> connects = new ArrayList<>();
+        connects.add(()->{
+            ScriptContext rtrn = connected("first",closed);
+            connected.countDown();
+            return rtrn;
+        });
+        connects.add(()->{
+            release.await();
+            return null;
+        });
+        StageLauncher.Launch launch = launcher.prepare(dispatcher,"setup",connects,aborts::incrementAndGet);
+        launch.start();
+        try {
+            assertTrue(connected.await(10,TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertEquals("connected context should wait for the other connects",0,dispatcher.getActiveCount());
+            release.countDown();
+            while(!launch.isCancelled()){
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            fail(e.getMessage());
+        }
+        assertEquals("failed connect should abort",1,aborts.get());
+        assertEquals("held context should not start",0,dispatcher.getActiveCount());
+        assertEquals("held shell should be closed",1,closed.get());
+        launcher.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test(timeout = 30_000)
+    public void abort_adds_contexts_when_every_connect_succeeds() throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher();
+        StageLauncher launcher = new StageLauncher(2,StageLauncher.FailurePolicy.ABORT);
+        AtomicInteger closed = new AtomicInteger(0);
+        StageLauncher.Launch launch = launcher.prepare(dispatcher,"setup",List.of(()->connected("first",closed),()->connected("second",closed)),null);
+        launch.start();
+        while(dispatcher.getPendingContexts() > 0){
+            Thread.sleep(10);
+        }
+        assertEquals("both contexts should be added",2,dispatcher.getActiveCount());
+        assertEquals(0,closed.get());
+        launcher.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test(timeout = 30_000)
+    public void stage_waits_for_connects() throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher();
+        CountDownLatch stopped = new CountDownLatch(1);
+        dispatcher.addDispatchObserver(new DispatchObserver() {
+            @Override
+            public void postStop(){
+                stopped.countDown();
+            }
+        });
+        StageLauncher launcher = new StageLauncher(2,StageLauncher.FailurePolicy.CONTINUE);
+        CountDownLatch release = new CountDownLatch(1);
+        StageLauncher.Launch launch = launcher.prepare(dispatcher,"run",failedConnects(3,release),null);
+        dispatcher.start();
+        launch.start();
+        assertFalse("stage should not end while shells are connecting",stopped.await(200,TimeUnit.MILLISECONDS));
+        assertEquals(3,dispatcher.getPendingContexts());
+        release.countDown();
+        assertTrue("stage should end after the last connect",stopped.await(10,TimeUnit.SECONDS));
+        assertEquals(3,launch.getFailed());
+        assertEquals(0,dispatcher.getPendingContexts());
+        launcher.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test(timeout = 30_000)
+    public void role_stop_keeps_stage_open() throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setRoleTracking(true);
+        StageLauncher launcher = new StageLauncher(2,StageLauncher.FailurePolicy.CONTINUE);
+        CountDownLatch stopped = new CountDownLatch(1);
+        AtomicInteger stageStops = new AtomicInteger(0);
+        List<String> roles = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch released = new CountDownLatch(0);
+        dispatcher.addDispatchObserver(new DispatchObserver() {
+            @Override
+            public void postStop(String roleName){
+                roles.add(roleName);
+                if("first".equals(roleName)){
+                    //the stage should wait for the scripts queued when a role finishes
+                    launcher.prepare(dispatcher,"run","second",failedConnects(1,released),null).start();
+                }
+            }
+            @Override
+            public void postStop(){
+                stageStops.incrementAndGet();
+                stopped.countDown();
+            }
+        });
+        StageLauncher.Launch launch = launcher.prepare(dispatcher,"setup","first",failedConnects(2,released),null);
+        assertEquals(2,dispatcher.getRoleCount("first"));
+        dispatcher.start();
+        launch.start();
+        assertTrue("stage should end after the second role",stopped.await(10,TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertEquals(List.of("first","second"),roles);
+        assertEquals("stage should only end once",1,stageStops.get());
+        assertEquals(0,dispatcher.getRoleCount("first"));
+        assertEquals(0,dispatcher.getRoleCount("second"));
+        launcher.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test(timeout = 30_000)
+    public void no_role_stop_without_role_tracking() throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher();
+        StageLauncher launcher = new StageLauncher(2,StageLauncher.FailurePolicy.CONTINUE);
+        CountDownLatch stopped = new CountDownLatch(1);
+        List<String> roles = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.addDispatchObserver(new DispatchObserver() {
+            @Override
+            public void postStop(String roleName){
+                roles.add(roleName);
+            }
+            @Override
+            public void postStop(){
+                stopped.countDown();
+            }
+        });
+        StageLauncher.Launch launch = launcher.prepare(dispatcher,"setup","first",failedConnects(2,new CountDownLatch(0)),null);
+        assertEquals("roles are not counted without role tracking",0,dispatcher.getRoleCount("first"));
+        dispatcher.start();
+        launch.start();
+        assertTrue("stage should end",stopped.await(10,TimeUnit.SECONDS));
+        assertEquals("stage barriers should not get role stops",List.of(),roles);
+        launcher.shutdown();
+        dispatcher.shutdown();
+    }
+
+    @Test(timeout = 30_000)
+    public void abort_once() throws InterruptedException {
+        Dispatcher dispatcher = new Dispatcher();
+        StageLauncher launcher = new StageLauncher(4,StageLauncher.FailurePolicy.ABORT);
+        AtomicInteger aborts = new AtomicInteger(0);
+        CountDownLatch release = new CountDownLatch(1);
+        StageLauncher.Launch launch = launcher.prepare(dispatcher,"setup",failedConnects(4,release),()->{
+            aborts.incrementAndGet();
+            dispatcher.stop(false);
+        });
+        dispatcher.start();
+        launch.start();
+        release.countDown();
+        while(!launch.isCancelled()){
+            Thread.sleep(10);
+        }
+        launcher.shutdown();
+        Thread.sleep(100);
+        assertEquals("only the first failed connect should abort",1,aborts.get());
+        assertFalse(dispatcher.isRunning());
+        assertEquals(0,dispatcher.getPendingContexts());
+        dispatcher.shutdown();
+    }
+}
@@ -466,6 +466,65 @@ public class StateTest extends SshTestBase{
         assertEquals("state.get(foo.bar.biz)", "value", found);
     }
 
+    @Test
+    public void get_after_set_and_remove() {
+        State state = new State("");
+        state.set("foo", "first");
+        assertEquals("first", state.get("foo"));
+        state.set("foo", "second");
+        assertEquals("get should see the new value", "second", state.get("foo"));
+        assertTrue(state.remove("foo"));
+        assertNull("get should not find a removed key", state.get("foo"));
+        assertFalse(state.has("foo"));
+    }
+
+    @Test
+    public void get_nested_after_change() {
+        State state = new State("");
+        state.set("foo.bar.biz", "value");
+        assertEquals("value", state.get("foo.bar.biz"));
+        assertNull("missing nested key", state.get("foo.bar.missing"));
+        assertFalse(state.has("foo.missing.biz"));
+        ((Json) state.get("foo.bar")).set("biz", "changed");
+        assertEquals("lookup should see changes to nested json", "changed", state.get("foo.bar.biz"));
+    }
+
+    @Test
+    public void index_updates_on_write() {
+        State state = new State(State.RUN_PREFIX);
+        state.set("count", "0");
+        state.set("other", "kept");
+        for (int i = 1; i <= 100; i++) {
+            state.set("RUN.count", state.get("count") + "-" + i);
+        }
+        assertTrue(state.get("count").toString().endsWith("-99-100"));
+        assertEquals("writes to one key should keep the other keys", "kept", state.get("other"));
+        state.set("foo.bar", "nested");
+        assertEquals("nested", state.get("foo.bar"));
+        assertTrue(state.get("foo") instanceof Json);
+        state.set("_password", "hunter2");
+        assertEquals("secret key should be indexed without the prefix", "hunter2", state.get("password"));
+        assertFalse(state.has("_password"));
+        assertTrue(state.remove("other"));
+        assertFalse(state.has("other"));
+        State clone = state.clone();
+        assertEquals("clone should index the copied keys", "nested", clone.get("foo.bar"));
+    }
+
+    @Test
+    public void child_sees_parent_prefix_set() {
+        State run = new State(State.RUN_PREFIX);
+        State host = run.addChild("host", State.HOST_PREFIX);
+        State first = host.addChild("first", null);
+        State second = host.addChild("second", null);
+        assertNull(second.get("foo"));
+        first.set("RUN.foo", "run");
+        assertEquals("second should see the value set in run", "run", second.get("foo"));
+        first.set("HOST.foo", "host");
+        assertEquals("host value should hide run value", "host", second.get("foo"));
+        assertEquals("run", second.get("RUN.foo"));
+    }
+
 
     @Test
     public void emptyPrefixMakesParentsReadOnly() {
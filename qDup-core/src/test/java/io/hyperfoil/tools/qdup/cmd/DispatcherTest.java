@@ -0,0 +1,47 @@
+package io.hyperfoil.tools.qdup.cmd;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DispatcherTest {
+
+    @Test(timeout = 30_000)
+    public void virtualThreadExecutor_not_bounded_by_pool_size() throws InterruptedException {
+        ThreadPoolExecutor executor = Dispatcher.newVirtualThreadExecutor();
+        int count = 200;
+        CountDownLatch started = new CountDownLatch(count);
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < count; i++) {
+                executor.submit(() -> {
+                    started.countDown();
+                    try {
+                        release.await();//blocks like a watcher waiting on lineQueue.take()
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            assertTrue("all blocking tasks should start", started.await(20, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualThreads_mode(){
+        boolean supported = Runtime.version().feature() >= 21;
+        Dispatcher dispatcher = new Dispatcher(true);
+        assertEquals("dispatcher should only report virtual threads when the jvm supports them", supported, dispatcher.isVirtualThreads());
+        dispatcher.shutdown();
+        dispatcher = new Dispatcher(false);
+        assertFalse("dispatcher should not use virtual threads", dispatcher.isVirtualThreads());
+        dispatcher.shutdown();
+    }
+}
@@ -0,0 +1,97 @@
+package io.hyperfoil.tools.qdup.cmd;
+
+import io.hyperfoil.tools.yaup.PopulatePatternException;
+import io.hyperfoil.tools.yaup.StringUtil;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class PatternTemplateTest {
+
+    private static String populate(String pattern, Map<Object, Object> map) throws PopulatePatternException {
+        return PatternTemplate.populatePattern(pattern, map, Collections.emptyList());
+    }
+
+    @Test
+    public void template_cached() throws PopulatePatternException {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("foo", "one");
+        String pattern = "echo ${{foo}} template_cached";
+        PatternTemplate first = PatternTemplate.compile(pattern, StringUtil.PATTERN_PREFIX, StringUtil.PATTERN_DEFAULT_SEPARATOR, StringUtil.PATTERN_SUFFIX, StringUtil.PATTERN_JAVASCRIPT_PREFIX);
+        assertSame("second compile should use the cached template", first, PatternTemplate.compile(pattern, StringUtil.PATTERN_PREFIX, StringUtil.PATTERN_DEFAULT_SEPARATOR, StringUtil.PATTERN_SUFFIX, StringUtil.PATTERN_JAVASCRIPT_PREFIX));
+        assertNotSame("template should be keyed by the separator", first, PatternTemplate.compile(pattern, StringUtil.PATTERN_PREFIX, "_", StringUtil.PATTERN_SUFFIX, StringUtil.PATTERN_JAVASCRIPT_PREFIX));
+        assertEquals("echo one template_cached", populate(pattern, map));
+        map.put("foo", "two");
+        assertEquals("cached template should use the current values", "echo two template_cached", populate(pattern, map));
+    }
+
+    @Test
+    public void default_value() throws PopulatePatternException {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("empty", "");
+        assertEquals("a-b", populate("${{missing:a}}-${{empty:b}}", map));
+    }
+
+    @Test
+    public void javascript() throws PopulatePatternException {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("count", 2L);
+        assertEquals("3", populate("${{= count + 1}}", map));
+        assertEquals("big", populate("${{= count > 1 ? 'big' : 'small'}}", map));
+        assertEquals("4", PatternTemplate.populatePattern("${{=twice(count)}}", map, List.of("function twice(v){ return v*2; }")));
+    }
+
+    @Test
+    public void injected_evaluator() throws PopulatePatternException {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("count", 2L);
+        List<String> evaluated = new ArrayList<>();
+        String populated = PatternTemplate.populatePattern("${{= count + 1}}", map, Collections.emptyList(),
+            StringUtil.PATTERN_PREFIX, StringUtil.PATTERN_DEFAULT_SEPARATOR, StringUtil.PATTERN_SUFFIX, StringUtil.PATTERN_JAVASCRIPT_PREFIX,
+            (js, globals, evals) -> {
+                evaluated.add(js);
+                return "evaluated";
+            });
+        assertEquals("evaluated", populated);
+        assertEquals(List.of(" count + 1"), evaluated);
+    }
+
+    @Test
+    public void missing_keeps_pattern() {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("foo", "found");
+        try {
+            populate("${{foo}} ${{missing}}", map);
+            fail("missing value should throw");
+        } catch (PopulatePatternException e) {
+            assertEquals("found ${{missing}}", e.getResult());
+            assertFalse(e.isJsFailure());
+        }
+    }
+
+    @Test
+    public void replacement_with_pattern() throws PopulatePatternException {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("foo", "${{bar}}");
+        map.put("bar", "bar");
+        map.put("dollar", "$");
+        assertEquals("replacement should also be populated", "bar", populate("${{foo}}", map));
+        assertEquals("replacement that creates a pattern should be populated", "bar", populate("${{dollar}}{{bar}}", map));
+    }
+
+    @Test
+    public void nested_pattern() throws PopulatePatternException {
+        Map<Object, Object> map = new HashMap<>();
+        map.put("name", "foo");
+        map.put("foo", "value");
+        assertEquals("value", populate("${{${{name}}}}", map));
+        map.put("count", 2L);
+        assertEquals("javascript in a nested pattern", "3", populate("${{= ${{count}} + 1}}", map));
+    }
+}
@@ -1,6 +1,7 @@
 package io.hyperfoil.tools.qdup.cmd.impl;
 
 import io.hyperfoil.tools.qdup.SshTestBase;
+import io.hyperfoil.tools.qdup.cmd.Cmd;
 import io.hyperfoil.tools.qdup.cmd.SpyContext;
 import io.hyperfoil.tools.yaup.json.Json;
 import org.junit.Ignore;
@@ -26,4 +27,54 @@ public class ParseTest extends SshTestBase {
         //have to convert with parseDouble because it apparently uses BigDecimal?
         assertEquals(6.001,Double.parseDouble(js.get("decimal").toString()),0.0001);
     }
+
+    @Test
+    public void watcher_streams_records(){
+        Json cfg = Json.fromString("[{\"name\":\"foo\",\"pattern\": \"foo=(?<foo>\\\\d+)\",\"rules\":[\"PreClose\"]},{\"name\":\"bar\",\"pattern\": \"bar=(?<bar>\\\\w+)\"}]");
+        ParseCmd cmd = new ParseCmd(cfg.toString(0));
+        Cmd sh = Cmd.sh("long running command");
+        sh.watch(cmd);
+        assertTrue("parse should be a watcher",cmd.isWatcher());
+        SpyContext spyContext = new SpyContext();
+
+        cmd.run("foo=1",spyContext);
+        assertNull("record is not done until the next record starts",spyContext.getNext());
+        cmd.run("bar=one",spyContext);
+        assertNull(spyContext.getNext());
+        cmd.run("foo=2",spyContext);
+        assertNotNull("first record should be emitted when the second starts",spyContext.getNext());
+        Json first = Json.fromString(spyContext.getNext());
+        assertEquals(1,Integer.parseInt(first.get("foo").toString()));
+        assertEquals("one",first.get("bar"));
+
+        spyContext.clear();
+        cmd.postWatch(spyContext);
+        assertNotNull("last record should be emitted when the command ends",spyContext.getNext());
+        Json second = Json.fromString(spyContext.getNext());
+        assertEquals(2,Integer.parseInt(second.get("foo").toString()));
+
+        spyContext.clear();
+        cmd.postWatch(spyContext);
+        assertNull("parser should be closed after the command ends",spyContext.getNext());
+    }
+
+    @Test
+    public void watcher_reset_drops_unfinished_record(){
+        Json cfg = Json.fromString("[{\"name\":\"foo\",\"pattern\": \"foo=(?<foo>\\\\d+)\",\"rules\":[\"PreClose\"]}]");
+        ParseCmd cmd = new ParseCmd(cfg.toString(0));
+        Cmd sh = Cmd.sh("long running command");
+        sh.watch(cmd);
+        SpyContext spyContext = new SpyContext();
+
+        cmd.run("foo=1",spyContext);
+        assertNull("record is not done until the next record starts",spyContext.getNext());
+        //the watched command stopped without postWatch, e.g. the run aborted
+        cmd.resetRunState();
+
+        cmd.run("foo=2",spyContext);
+        assertNull("the record from the previous run should not be emitted",spyContext.getNext());
+        cmd.postWatch(spyContext);
+        Json record = Json.fromString(spyContext.getNext());
+        assertEquals(2,Integer.parseInt(record.get("foo").toString()));
+    }
 }
@@ -24,6 +24,42 @@ import static org.junit.Assert.*;
 
 public class RegexTest extends SshTestBase {
 
+    @Test
+    public void compiled_pattern_cached(){
+        Regex.clearCache();
+        Regex regex = new Regex("cpu=(?<cpu.usage>\\d+)");
+        SpyContext spyContext = new SpyContext();
+        regex.run("cpu=10",spyContext);
+        regex.run("cpu=20",spyContext);
+        new Regex("cpu=(?<cpu.usage>\\d+)").run("cpu=30",spyContext);
+        assertEquals("first run should compile",1,Regex.getCacheMisses());
+        assertEquals("later runs should use the cache",2,Regex.getCacheHits());
+        assertEquals("30",spyContext.getState().get("cpu.usage").toString());
+    }
+
+    @Test
+    public void compiled_pattern_keyed_by_populated_pattern(){
+        Regex.clearCache();
+        SpyContext spyContext = new SpyContext();
+        spyContext.getState().set("key","cpu");
+        Regex regex = new Regex("${{key}}=(?<value>\\d+)");
+        regex.run("cpu=10",spyContext);
+        assertEquals("10",spyContext.getState().get("value").toString());
+        spyContext.getState().set("key","mem");
+        regex.run("mem=20",spyContext);
+        assertEquals("20",spyContext.getState().get("value").toString());
+        assertEquals("each populated pattern should compile",2,Regex.getCacheMisses());
+    }
+
+    @Test
+    public void invalid_pattern_not_cached(){
+        Regex.clearCache();
+        Regex regex = new Regex("(?<broken>");
+        SpyContext spyContext = new SpyContext();
+        regex.run("anything",spyContext);
+        assertEquals(0,Regex.getCacheSize());
+    }
+
     @Test
     public void embedded_dot_all(){
         Regex regex = new Regex("(?s)cat=(?<cat>.+)");
@@ -23,6 +23,20 @@ public class RepeatUntilSignalTest {
         Assert.assertTrue("Should count as self signaling\n"+repeatUntilSignal.tree(2,true),repeatUntilSignal.isSelfSignaling());
     }
 
+    @Test
+    public void selfSignaling_copy(){
+        RepeatUntilSignal repeatUntilSignal = new RepeatUntilSignal("foo");
+        repeatUntilSignal.then(Cmd.sleep("1s").then(Cmd.signal("foo")));
+        Assert.assertTrue(repeatUntilSignal.isSelfSignaling());
+        Cmd copy = repeatUntilSignal.deepCopy();
+        Assert.assertTrue("copy should be self signaling\n"+copy.tree(2,true),((RepeatUntilSignal)copy).isSelfSignaling());
+
+        RepeatUntilSignal other = new RepeatUntilSignal("foo");
+        other.then(Cmd.sleep("1s").then(Cmd.signal("bar")));
+        Assert.assertFalse("signal for another name is not self signaling",other.isSelfSignaling());
+        Assert.assertFalse(((RepeatUntilSignal)other.deepCopy()).isSelfSignaling());
+    }
+
     @Test
     public void nextAndSkipTest(){
         Cmd start = Cmd.NO_OP();
@@ -292,6 +292,54 @@ public class ScriptCmdTest extends SshTestBase {
       assertEquals("race condition prevented correct output","-<one+uno>-<one+dos>-<two+uno>-<two+dos>",foo);
    }
 
+   @Test
+   public void repeated_script_call_resets_commands(){
+      Parser parser = Parser.getInstance();
+      RunConfigBuilder builder = getBuilder();
+      builder.loadYaml(parser.loadFile("",
+         """
+         scripts:
+           inner:
+           - sh: echo value-${{item}}
+           - regex: value-(?<num>1\\d*)
+             then:
+             - set-state: RUN.nums ${{RUN.nums:}}+${{num}}
+             else:
+             - set-state: RUN.misses ${{RUN.misses:}}!${{item}}
+           - for-each: sub [5, 6]
+             then:
+             - set-state: RUN.subs ${{RUN.subs:}}${{item}}${{sub}},
+           - script: leaf
+             with:
+               tag: ${{item}}
+           leaf:
+           - set-state: RUN.leaf ${{RUN.leaf:}}<${{tag}}>
+           foo:
+           - for-each: item [1, 2, 7, 13]
+             then:
+             - script: inner
+         hosts:
+           local: TARGET_HOST
+         roles:
+           doit:
+             hosts: [local]
+             run-scripts: [foo]
+         """.replaceAll("TARGET_HOST",getHost().toString())
+      ));
+
+      RunConfig config = builder.buildConfig(parser);
+      Dispatcher dispatcher = new Dispatcher();
+      Run doit = new Run(tmpDir.toString(), config, dispatcher);
+      doit.run();
+      dispatcher.shutdown();
+
+      State state = config.getState();
+      assertEquals("regex then should run for each match\n"+state.tree(),"+1+13",state.get("nums").toString());
+      assertEquals("regex else should run for each miss\n"+state.tree(),"!2!7",state.get("misses").toString());
+      assertEquals("for-each should restart on each call\n"+state.tree(),"15,16,25,26,75,76,135,136,",state.get("subs").toString());
+      assertEquals("with should use the current item\n"+state.tree(),"<1><2><7><13>",state.get("leaf").toString());
+   }
+
    @Test
    public void javascript_array_spread(){
       Parser parser = Parser.getInstance();
@@ -382,6 +382,79 @@ public class SignalCountsTest extends SshTestBase {
         assertEquals("signal count for FOO",1,signalCounts.getSignalCount("FOO"));
     }
     @Test
+    public void role_barrier_waitfor_in_other_role_setup(){
+        Parser parser = Parser.getInstance();
+        RunConfigBuilder builder = new RunConfigBuilder();
+        builder.loadYaml(parser.loadFile("signal",
+                """
+                scripts:
+                  sig:
+                    - signal: FOO
+                  inv:
+                    - wait-for: FOO
+                hosts:
+                  local: me@localhost
+                roles:
+                  server:
+                    hosts: [local]
+                    setup-scripts:
+                    - inv
+                  driver:
+                    hosts: [local]
+                    run-scripts:
+                    - sig
+                globals:
+                  settings:
+                    stage-barrier: role
+                """
+        ));
+        RunConfig config = builder.buildConfig(parser);
+
+        RunSummary summary = new RunSummary();
+        SignalCounts signalCounts = new SignalCounts();
+        summary.addRule("signals",signalCounts);
+        summary.scan(config.getRolesValues(),builder);
+
+        assertEquals("expected number of errors:\n"+summary.getErrors().stream().map(Objects::toString).collect(Collectors.joining("\n")),0,summary.getErrors().size());
+    }
+    @Test
+    public void error_role_barrier_waitfor_in_depends_on_setup(){
+        Parser parser = Parser.getInstance();
+        RunConfigBuilder builder = new RunConfigBuilder();
+        builder.loadYaml(parser.loadFile("signal",
+                """
+                scripts:
+                  sig:
+                    - signal: FOO
+                  inv:
+                    - wait-for: FOO
+                hosts:
+                  local: me@localhost
+                roles:
+                  server:
+                    hosts: [local]
+                    setup-scripts:
+                    - inv
+                  driver:
+                    hosts: [local]
+                    depends-on: [server]
+                    run-scripts:
+                    - sig
+                globals:
+                  settings:
+                    stage-barrier: role
+                """
+        ));
+        RunConfig config = builder.buildConfig(parser);
+
+        RunSummary summary = new RunSummary();
+        SignalCounts signalCounts = new SignalCounts();
+        summary.addRule("signals",signalCounts);
+        summary.scan(config.getRolesValues(),builder);
+
+        assertEquals("expected number of errors:\n"+summary.getErrors().stream().map(Objects::toString).collect(Collectors.joining("\n")),1,summary.getErrors().size());
+    }
+    @Test
     public void error_signal_after_waitfor(){
         Parser parser = Parser.getInstance();
         RunConfigBuilder builder = new RunConfigBuilder();
@@ -62,6 +62,102 @@ public class UndefinedStateVariablesTest {
 
     }
 
+    @Test
+    public void role_barrier_set_in_other_role_setup(){
+        Parser parser = Parser.getInstance();
+        RunConfigBuilder builder = getBuilder();
+        builder.loadYaml(parser.loadFile("",
+                """
+                scripts:
+                  start:
+                  - set-state: RUN.port 8080
+                  drive:
+                  - sh: curl localhost:${{RUN.port}}
+                hosts:
+                  local: fake@localhost
+                roles:
+                  server:
+                    hosts: [local]
+                    setup-scripts:
+                    - start
+                  driver:
+                    hosts: [local]
+                    run-scripts:
+                    - drive
+                globals:
+                  settings:
+                    stage-barrier: role
+                """
+        ));
+        RunConfig config = builder.buildConfig(parser);
+        assertTrue("expected an error for the missing depends-on",config.hasErrors());
+        assertTrue("error should name the setup role:\n"+config.getErrorStrings().stream().collect(Collectors.joining("\n")),
+                config.getErrorStrings().stream().anyMatch(error->error.contains("depends-on") && error.contains("server")));
+    }
+
+    @Test
+    public void role_barrier_set_in_depends_on_setup(){
+        Parser parser = Parser.getInstance();
+        RunConfigBuilder builder = getBuilder();
+        builder.loadYaml(parser.loadFile("",
+                """
+                scripts:
+                  start:
+                  - set-state: RUN.port 8080
+                  drive:
+                  - sh: curl localhost:${{RUN.port}}
+                hosts:
+                  local: fake@localhost
+                roles:
+                  server:
+                    hosts: [local]
+                    setup-scripts:
+                    - start
+                  driver:
+                    hosts: [local]
+                    depends-on: [server]
+                    run-scripts:
+                    - drive
+                globals:
+                  settings:
+                    stage-barrier: role
+                """
+        ));
+        RunConfig config = builder.buildConfig(parser);
+        assertFalse("unexpected errors:\n"+config.getErrors().stream().map(Objects::toString).collect(Collectors.joining("\n")),config.hasErrors());
+    }
+
+    @Test
+    public void stage_barrier_set_in_other_role_setup(){
+        Parser parser = Parser.getInstance();
+        RunConfigBuilder builder = getBuilder();
+        builder.loadYaml(parser.loadFile("",
+                """
+                scripts:
+                  start:
+                  - set-state: RUN.port 8080
+                  drive:
+                  - sh: curl localhost:${{RUN.port}}
+                hosts:
+                  local: fake@localhost
+                roles:
+                  server:
+                    hosts: [local]
+                    setup-scripts:
+                    - start
+                  driver:
+                    hosts: [local]
+                    run-scripts:
+                    - drive
+                globals:
+                  settings:
+                    stage-barrier: stage
+                """
+        ));
+        RunConfig config = builder.buildConfig(parser);
+        assertFalse("unexpected errors:\n"+config.getErrors().stream().map(Objects::toString).collect(Collectors.joining("\n")),config.hasErrors());
+    }
+
     @Test
     public void script_with_at_runtime(){
         Parser parser = Parser.getInstance();
@@ -64,6 +64,21 @@ public class RoleConstructTest {
         assertEquals("setup[0]=scriptName","scriptName",((ScriptCmd)scriptCmd).getName());
     }
     @Test
+    public void depends_on(){
+        Role loaded = yaml.loadAs(
+                "roleName:\n"+
+                "  depends-on: [server, database]\n"+
+                "  run-scripts: [scriptName]", Role.class);
+        assertNotNull("should load  role",loaded);
+        assertEquals("expect 2 depends-on",2,loaded.getDependsOn().size());
+        assertTrue("depends-on server",loaded.getDependsOn().contains("server"));
+        assertTrue("depends-on database",loaded.getDependsOn().contains("database"));
+        loaded = yaml.loadAs(
+                "roleName:\n"+
+                "  depends-on: server", Role.class);
+        assertEquals("scalar depends-on",1,loaded.getDependsOn().size());
+    }
+    @Test
     public void run_only(){
         Role loaded = yaml.loadAs(
                 "roleName:\n"+
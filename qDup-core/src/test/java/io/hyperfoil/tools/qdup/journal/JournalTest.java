@@ -0,0 +1,213 @@
+package io.hyperfoil.tools.qdup.journal;
+
+import io.hyperfoil.tools.qdup.SecretFilter;
+import io.hyperfoil.tools.qdup.State;
+import io.hyperfoil.tools.qdup.cmd.Cmd;
+import io.hyperfoil.tools.qdup.cmd.Script;
+import io.hyperfoil.tools.qdup.cmd.ScriptContext;
+import io.hyperfoil.tools.qdup.cmd.SyncContext;
+import io.hyperfoil.tools.yaup.time.SystemTimer;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+public class JournalTest {
+
+    private static Path journalFile() throws IOException {
+        File file = File.createTempFile("qdup", ".journal");
+        file.deleteOnExit();
+        return file.toPath();
+    }
+
+    @Test
+    public void write_and_read(){
+        try {
+            Path path = journalFile();
+            try (JournalWriter writer = new JournalWriter(path, null)) {
+                writer.record(EventType.STAGE_START, null, "setup");
+                writer.record(EventType.CMD_START, "script:1@local", "sh: echo hi");
+                writer.record(EventType.OUTPUT, "script:1@local", null, "hi");
+                writer.record(EventType.OUTPUT, "script:1@local", null, "p\u00e4ss");
+                writer.record(EventType.CMD_STOP, "script:1@local", "sh: echo hi");
+                writer.record(EventType.STATE, "script:1@local", "foo", "bar");
+                writer.record(EventType.CMD_START, "script:1@local", "sh: echo hi");
+            }
+            List<JournalEvent> events = JournalReader.readAll(path);
+            assertEquals(7, events.size());
+            assertEquals(EventType.STAGE_START, events.get(0).getType());
+            assertNull(events.get(0).getContext());
+            assertEquals("setup", events.get(0).getName());
+            assertEquals("script:1@local", events.get(1).getContext());
+            assertEquals("sh: echo hi", events.get(1).getName());
+            assertNull(events.get(2).getName());
+            assertEquals("hi", events.get(2).getPayload());
+            assertEquals("p\u00e4ss", events.get(3).getPayload());
+            assertFalse(events.get(4).hasPayload());
+            assertEquals("bar", events.get(5).getPayload());
+            assertEquals("repeated names should use the defined string", "sh: echo hi", events.get(6).getName());
+            for (int i = 1; i < events.size(); i++) {
+                assertTrue("timestamps should not go backwards", events.get(i).getTimestamp() >= events.get(i - 1).getTimestamp());
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void secrets_filtered(){
+        try {
+            Path path = journalFile();
+            SecretFilter filter = new SecretFilter();
+            filter.addSecret("hunter2");
+            try (JournalWriter writer = new JournalWriter(path, filter)) {
+                writer.record(EventType.CMD_START, "script:1@local", "sh: login hunter2");
+                writer.record(EventType.OUTPUT, "script:1@local", null, "password=hunter2");
+            }
+            String contents = new String(Files.readAllBytes(path));
+            assertFalse("journal should not contain the secret", contents.contains("hunter2"));
+            List<JournalEvent> events = JournalReader.readAll(path);
+            assertEquals("sh: login " + SecretFilter.REPLACEMENT, events.get(0).getName());
+            assertEquals("password=" + SecretFilter.REPLACEMENT, events.get(1).getPayload());
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void truncated_tail(){
+        try {
+            Path path = journalFile();
+            try (JournalWriter writer = new JournalWriter(path, null)) {
+                writer.record(EventType.CMD_START, "script:1@local", "sh: echo hi");
+                writer.record(EventType.OUTPUT, "script:1@local", null, "a line of output");
+            }
+            byte[] bytes = Files.readAllBytes(path);
+            try (JournalReader reader = new JournalReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 3)))) {
+                List<JournalEvent> events = new ArrayList<>();
+                reader.forEachRemaining(events::add);
+                assertEquals("partial event should be skipped", 1, events.size());
+                assertTrue(reader.isTruncated());
+            }
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void not_a_journal(){
+        try {
+            new JournalReader(new ByteArrayInputStream("run.log".getBytes()));
+            fail("reader should reject a file without the journal header");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not a qDup journal"));
+        }
+    }
+
+    @Test(timeout = 60_000)
+    public void concurrent_writers() throws Exception {
+        Path path = journalFile();
+        int threads = 8;
+        int events = 20_000;
+        //small queue so the writers block on a full queue
+        try (JournalWriter writer = new JournalWriter(path, null, 64, JournalWriter.DEFAULT_SYNC_INTERVAL)) {
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            List<Future<?>> futures = new ArrayList<>();
+            for (int thread = 0; thread < threads; thread++) {
+                String context = "script:" + thread + "@local";
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < events; i++) {
+                        writer.record(EventType.OUTPUT, context, null, Integer.toString(i));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            executor.shutdown();
+        }
+        int[] next = new int[threads];
+        try (JournalReader reader = new JournalReader(path)) {
+            reader.forEachRemaining(event -> {
+                int thread = Integer.parseInt(event.getContext().substring("script:".length(), event.getContext().indexOf('@')));
+                assertEquals("events from one thread should be in order", Integer.toString(next[thread]), event.getPayload());
+                next[thread]++;
+            });
+            assertFalse(reader.isTruncated());
+        }
+        for (int thread = 0; thread < threads; thread++) {
+            assertEquals("no event should be dropped", events, next[thread]);
+        }
+    }
+
+    @Test
+    public void observer_caches_script_contexts_only(){
+        try {
+            Path path = journalFile();
+            Script script = new Script("watched");
+            Cmd watcher = Cmd.echo();
+            ScriptContext scriptContext = new ScriptContext(null, new State(State.RUN_PREFIX), null, new SystemTimer("journal"), script, false);
+            try (JournalWriter writer = new JournalWriter(path, null)) {
+                JournalObserver observer = new JournalObserver(writer);
+                observer.preStart(scriptContext, script);
+                for (int i = 0; i < 100; i++) {
+                    //watchers run each line in a new SyncContext
+                    SyncContext lineContext = new SyncContext(null, null, null, null, watcher, scriptContext);
+                    observer.preStart(lineContext, watcher);
+                    observer.preStop(lineContext, watcher, "line " + i);
+                }
+                assertEquals("only the script context should be cached", 1, observer.getCachedCount());
+                observer.onDone(scriptContext);
+                assertEquals(0, observer.getCachedCount());
+            }
+            String contextId = scriptContext.getContextId();
+            List<JournalEvent> events = JournalReader.readAll(path);
+            assertEquals(202, events.size());
+            events.forEach(event -> assertEquals("watcher events should use the script context id", contextId, event.getContext()));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+
+    @Test
+    public void cli_filters(){
+        try {
+            Path path = journalFile();
+            try (JournalWriter writer = new JournalWriter(path, null)) {
+                writer.record(EventType.CMD_START, "first:1@local", "sh: echo one");
+                writer.record(EventType.OUTPUT, "first:1@local", null, "one");
+                writer.record(EventType.CMD_STOP, "first:1@local", "sh: echo one");
+                writer.record(EventType.CMD_START, "second:2@local", "sh: echo two");
+                writer.record(EventType.OUTPUT, "second:2@local", null, "two");
+                writer.record(EventType.CMD_STOP, "second:2@local", "sh: echo two");
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            new JournalCli(path, event -> EventType.OUTPUT.equals(event.getType()) && event.getContext().startsWith("second"), Long.MIN_VALUE, Long.MAX_VALUE, false, false)
+                .run(new PrintStream(bytes, true));
+            String output = bytes.toString();
+            assertTrue(output, output.contains("OUTPUT second:2@local two"));
+            assertFalse(output, output.contains("one"));
+
+            bytes.reset();
+            new JournalCli(path, event -> true, Long.MIN_VALUE, Long.MAX_VALUE, false, true).run(new PrintStream(bytes, true));
+            output = bytes.toString();
+            assertTrue(output, output.contains("CMD_START    2"));
+            assertTrue(output, output.contains("sh: echo two"));
+        } catch (IOException e) {
+            fail(e.getMessage());
+        }
+    }
+}
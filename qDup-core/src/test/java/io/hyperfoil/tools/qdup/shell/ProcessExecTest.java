@@ -0,0 +1,84 @@
+package io.hyperfoil.tools.qdup.shell;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class ProcessExecTest {
+
+    private static List<ProcessBuilder> sh(String script){
+        return List.of(new ProcessBuilder("/bin/sh","-c",script));
+    }
+
+    @Test(timeout = 30_000)
+    public void stdout_stderr_and_exit_code() throws IOException, ExecutionException, InterruptedException {
+        AbstractShell.ExecResult result = ProcessExec.start(sh("echo out; echo err 1>&2; exit 3"),null,null,null).get();
+        assertEquals("out\n",result.stdout());
+        assertEquals("err\n",result.stderr());
+        assertEquals(Integer.valueOf(3),result.exitCode());
+    }
+
+    @Test(timeout = 30_000)
+    public void full_stderr_does_not_block() throws IOException, ExecutionException, InterruptedException {
+        //more than a pipe buffer on stderr before anything is written to stdout
+        AbstractShell.ExecResult result = ProcessExec.start(sh("i=0; while [ $i -lt 5000 ]; do echo 0123456789012345678901234567890123456789 1>&2; i=$((i+1)); done; echo done"),null,null,null).get();
+        assertEquals("done\n",result.stdout());
+        assertEquals(5000 * 41,result.stderr().length());
+        assertEquals(Integer.valueOf(0),result.exitCode());
+    }
+
+    @Test(timeout = 30_000)
+    public void streams_output_before_exit() throws IOException, InterruptedException, ExecutionException {
+        List<String> chunks = new CopyOnWriteArrayList<>();
+        CompletableFuture<AbstractShell.ExecResult> future = ProcessExec.start(sh("echo first; sleep 1; echo second"),chunks::add,null,null);
+        while(chunks.isEmpty()){
+            Thread.sleep(10);
+        }
+        assertFalse("output should arrive before the process exits",future.isDone());
+        assertEquals("first\n",chunks.get(0));
+        assertEquals("first\nsecond\n",future.get().stdout());
+        assertEquals("first\nsecond\n",String.join("",chunks));
+    }
+
+    @Test(timeout = 30_000)
+    public void pipeline() throws IOException, ExecutionException, InterruptedException {
+        AbstractShell.ExecResult result = ProcessExec.start(
+            List.of(new ProcessBuilder("echo","one two three"),new ProcessBuilder("wc","-w")),
+            null,null,null
+        ).get();
+        assertEquals("3",result.stdout().trim());
+    }
+
+    @Test(timeout = 30_000)
+    public void cancel_destroys_process() throws IOException, InterruptedException {
+        CompletableFuture<AbstractShell.ExecResult> future = ProcessExec.start(sh("sleep 60"),null,null,null);
+        try {
+            future.get(100,TimeUnit.MILLISECONDS);
+            fail("sleep should still be running");
+        } catch (TimeoutException | ExecutionException e) {
+            //expected
+        }
+        future.cancel(true);
+        assertTrue(future.isCancelled());
+    }
+
+    @Test
+    public void split_multi_byte_character(){
+        StringBuilder chunks = new StringBuilder();
+        ExecOutput output = new ExecOutput(chunks::append);
+        byte[] bytes = "p\u00e4ss".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        output.write(bytes,0,2);
+        output.write(bytes,2,bytes.length-2);
+        output.finish();
+        assertEquals("p\u00e4ss",output.getText());
+        assertEquals("p\u00e4ss",chunks.toString());
+    }
+}
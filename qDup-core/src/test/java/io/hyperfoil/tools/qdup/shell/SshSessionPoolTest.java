@@ -0,0 +1,83 @@
+package io.hyperfoil.tools.qdup.shell;
+
+import io.hyperfoil.tools.qdup.Host;
+import io.hyperfoil.tools.qdup.SecretFilter;
+import io.hyperfoil.tools.qdup.SshTestBase;
+import org.junit.Test;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+import static org.junit.Assert.*;
+
+public class SshSessionPoolTest extends SshTestBase {
+
+    @Test
+    public void key_without_secrets(){
+        Host host = new Host("user","example.com","secretpassword",22);
+        String key = SshSessionPool.getKey(host);
+        assertFalse("key should not include the password: "+key,key.contains("secretpassword"));
+        assertTrue("key should start with the host: "+key,key.startsWith("user@example.com:22#"));
+        assertEquals("same credentials should share the key",key,SshSessionPool.getKey(new Host("user","example.com","secretpassword",22)));
+        assertNotEquals("other credentials should not share the key",key,SshSessionPool.getKey(new Host("user","example.com","otherpassword",22)));
+    }
+
+    @Test(timeout = 30_000)
+    public void shells_share_session(){
+        Host host = getHost();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        SshSessionPool pool = new SshSessionPool(2);
+        AbstractShell first = AbstractShell.getShell("first",host,"",executor,new SecretFilter(),null,pool);
+        AbstractShell second = AbstractShell.getShell("second",host,"",executor,new SecretFilter(),null,pool);
+        try {
+            assertTrue("first shell should be open",first.isOpen());
+            assertTrue("second shell should be open",second.isOpen());
+            assertEquals("shells should share one session",1,pool.getSessionCount(host));
+            assertEquals("first","first",first.shSync("echo first"));
+            assertEquals("second","second",second.shSync("echo second"));
+        } finally {
+            first.close();
+            second.close();
+            pool.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void new_session_when_full(){
+        Host host = getHost();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        SshSessionPool pool = new SshSessionPool(1);
+        AbstractShell first = AbstractShell.getShell("first",host,"",executor,new SecretFilter(),null,pool);
+        AbstractShell second = AbstractShell.getShell("second",host,"",executor,new SecretFilter(),null,pool);
+        try {
+            assertEquals("each shell should have a session",2,pool.getSessionCount(host));
+            assertEquals("exec should use another channel","exec",first.execSync("echo exec").trim());
+        } finally {
+            first.close();
+            second.close();
+            pool.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(timeout = 30_000)
+    public void closed_pool_closes_shells(){
+        Host host = getHost();
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(2);
+        SshSessionPool pool = new SshSessionPool();
+        AbstractShell shell = AbstractShell.getShell("shell",host,"",executor,new SecretFilter(),null,pool);
+        try {
+            assertTrue("shell should be open",shell.isOpen());
+            SshSessionPool.Lease lease = pool.acquire(host,"lease");
+            assertNotNull("pool should lease a channel",lease);
+            assertEquals("lease should share the shell session",1,pool.getSessionCount(host));
+            pool.close();
+            assertFalse("pooled session should be closed",lease.getSession().isOpen());
+            assertFalse("shell on the pooled session should be closed",shell.isOpen());
+            assertNull("closed pool should not connect",pool.acquire(host,"closed"));
+        } finally {
+            shell.close();
+            executor.shutdownNow();
+        }
+    }
+}
@@ -128,4 +128,35 @@ public class LineEmittingStreamTest {
                 fail(e.getMessage());
             }
     }
+
+    @Test
+    public void view_consumer_without_strings() throws IOException {
+        try(LineEmittingStream stream = new LineEmittingStream()){
+            List<Integer> lengths = new ArrayList<>();
+            List<Boolean> contains = new ArrayList<>();
+            stream.addViewConsumer(line->{
+                lengths.add(line.length());
+                contains.add(line.contains("do".getBytes()));
+            });
+            stream.write("uno\ndos\ntr");
+            stream.write("es\n");
+            assertEquals("expect 3 lines\n"+lengths,3,lengths.size());
+            assertEquals(List.of(3,3,4),lengths);
+            assertEquals(List.of(false,true,false),contains);
+        }
+    }
+
+    @Test
+    public void view_and_string_consumers_share_string() throws IOException {
+        try(LineEmittingStream stream = new LineEmittingStream()){
+            List<String> viewed = new ArrayList<>();
+            List<String> lines = new ArrayList<>();
+            stream.addViewConsumer(line->viewed.add(line.toString()));
+            stream.addConsumer(lines::add);
+            stream.write("uno\ndos\n");
+            assertEquals(List.of("uno","dos"),lines);
+            assertSame("one String per line",viewed.get(0),lines.get(0));
+            assertSame("one String per line",viewed.get(1),lines.get(1));
+        }
+    }
 }
@@ -0,0 +1,86 @@
+package io.hyperfoil.tools.qdup.stream;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class MultiPatternMatcherTest {
+
+    private static int feed(MultiPatternMatcher matcher, String input){
+        int state = MultiPatternMatcher.ROOT;
+        for(byte b : input.getBytes()){
+            if(!matcher.skips(state,b)){
+                state = matcher.next(state,b);
+            }
+        }
+        return state;
+    }
+
+    @Test
+    public void empty(){
+        assertTrue(MultiPatternMatcher.EMPTY.isEmpty());
+        assertEquals(MultiPatternMatcher.ROOT,feed(MultiPatternMatcher.EMPTY,"anything"));
+    }
+
+    @Test
+    public void overlapping_patterns(){
+        Map<String,byte[]> patterns = new LinkedHashMap<>();
+        patterns.put("abcd","ABCD".getBytes());
+        patterns.put("bc","BC".getBytes());
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(patterns, Collections.emptySet());
+        assertEquals(4,matcher.getMaxLength());
+
+        int state = feed(matcher,"xABC");
+        assertEquals("should still be in ABCD",3,matcher.getDepth(state));
+        assertEquals("bc",matcher.getName(matcher.getMatch(state)));
+
+        state = feed(matcher,"xABCD");
+        assertEquals("abcd",matcher.getName(matcher.getMatch(state)));
+
+        state = feed(matcher,"xBCD");
+        assertEquals(MultiPatternMatcher.NO_MATCH,matcher.getMatch(state));
+        assertEquals(MultiPatternMatcher.ROOT,state);
+    }
+
+    @Test
+    public void failure_link_keeps_partial(){
+        Map<String,byte[]> patterns = new LinkedHashMap<>();
+        patterns.put("prompt","#_#".getBytes());
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(patterns, Collections.emptySet());
+        int state = feed(matcher,"#_#_#");
+        assertEquals("prompt",matcher.getName(matcher.getMatch(state)));
+        state = feed(matcher,"##_");
+        assertEquals(2,matcher.getDepth(state));
+    }
+
+    @Test
+    public void injectable_skipped_inside_match(){
+        Map<String,byte[]> patterns = new LinkedHashMap<>();
+        patterns.put("foo","FOO".getBytes());
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(patterns, Set.of((byte)'\r'));
+        int state = feed(matcher,"F\rO\rO");
+        assertEquals("foo",matcher.getName(matcher.getMatch(state)));
+        assertFalse("injectable is not skipped before a match",matcher.skips(MultiPatternMatcher.ROOT,(byte)'\r'));
+    }
+
+    @Test
+    public void positions_start(){
+        Map<String,byte[]> patterns = new LinkedHashMap<>();
+        patterns.put("foo","FOO".getBytes());
+        MultiPatternMatcher matcher = MultiPatternMatcher.compile(patterns, Collections.emptySet());
+        MultiPatternMatcher.Positions positions = new MultiPatternMatcher.Positions(matcher);
+        assertEquals(-1,positions.last());
+        for(int i=0; i<10; i++){
+            positions.add(i);
+        }
+        assertEquals(9,positions.last());
+        assertEquals(7,positions.start(3));
+        positions.shift(5);
+        assertEquals(2,positions.start(3));
+    }
+}
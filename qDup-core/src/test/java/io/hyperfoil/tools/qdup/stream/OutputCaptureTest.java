@@ -0,0 +1,104 @@
+package io.hyperfoil.tools.qdup.stream;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class OutputCaptureTest {
+
+    private static String lines(int count){
+        StringBuilder sb = new StringBuilder();
+        for(int i=0; i<count; i++){
+            sb.append("line ").append(i).append("\n");
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void no_spill_without_directory(){
+        OutputCapture capture = new OutputCapture("test");
+        capture.setWindow(10,null);
+        String content = lines(100);
+        capture.write(content.getBytes(),0,content.length());
+        assertFalse(capture.isSpilled());
+        assertEquals(content,capture.toString());
+        assertEquals(content,capture.peek());
+    }
+
+    @Test
+    public void spill_keeps_full_output() throws IOException {
+        Path directory = Files.createTempDirectory("qdup-capture");
+        OutputCapture capture = new OutputCapture("test");
+        try {
+            capture.setWindow(64, directory);
+            String content = lines(1000);
+            byte[] bytes = content.getBytes();
+            for (int off = 0; off < bytes.length; off += 7) {
+                capture.write(bytes, off, Math.min(7, bytes.length - off));
+            }
+            assertTrue("output should spill", capture.isSpilled());
+            assertEquals(bytes.length, capture.size());
+            assertTrue("memory should be bounded by the window", capture.peek().length() <= 64);
+            assertTrue(content.endsWith(capture.peek()));
+            assertEquals(content, capture.toString());
+            assertEquals("same as the previous SessionStreams.tail", "\nline 998\nline 999\n", capture.tail(3));
+            try (InputStream stream = capture.getInputStream()) {
+                assertEquals(content, new String(stream.readAllBytes()));
+            }
+
+            capture.reset();
+            assertEquals(0, capture.size());
+            capture.write("after\n".getBytes(), 0, 6);
+            assertEquals("after\n", capture.toString());
+        } finally {
+            capture.close();
+        }
+        try(var files = Files.list(directory)){
+            assertEquals("close should remove the spill file",0,files.count());
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void bounded_start_after_spill() throws IOException {
+        Path directory = Files.createTempDirectory("qdup-capture");
+        OutputCapture capture = new OutputCapture("test");
+        try {
+            capture.setWindow(64, directory);
+            assertEquals("nothing spilled", 0, capture.boundedStart());
+            String content = lines(100);
+            capture.write(content.getBytes(), 0, content.length());
+            assertTrue("output should spill", capture.isSpilled());
+            long start = capture.boundedStart();
+            assertTrue("bounded output should start in memory", start >= capture.getSpilled());
+            assertTrue("bounded output should start on a line", content.charAt((int) start - 1) == '\n');
+            String bounded = capture.toString(start, capture.size());
+            assertTrue("bounded output should fit in the window", bounded.length() <= 64);
+            assertTrue(content.endsWith(bounded));
+            try (var files = Files.list(directory)) {
+                Path spill = files.findFirst().orElseThrow();
+                if (directory.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+                    assertEquals("spill file should only be readable by the owner",
+                            java.nio.file.attribute.PosixFilePermissions.fromString("rw-------"),
+                            Files.getPosixFilePermissions(spill));
+                }
+            }
+        } finally {
+            capture.close();
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void tail_without_newline(){
+        OutputCapture capture = new OutputCapture("test");
+        capture.write("one\ntwo".getBytes(),0,7);
+        assertEquals("\ntwo",capture.tail(1));
+        assertEquals("one\ntwo",capture.tail(5));
+    }
+}
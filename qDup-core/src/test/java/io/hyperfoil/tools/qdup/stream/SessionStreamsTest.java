@@ -151,4 +151,41 @@ public class SessionStreamsTest {
 
    }
 
+
+   @Test
+   public void shOutput_full_without_window() throws IOException {
+      SessionStreams streams = getStreams();
+      try {
+         StringBuilder sb = new StringBuilder();
+         for (int i = 0; i < 100; i++) {
+            sb.append("line ").append(i).append("\r\n");
+         }
+         streams.getShStream().write(sb.toString().getBytes(), 0, sb.length());
+         String output = streams.shOutput();
+         assertTrue("output should start with the first line: " + output, output.startsWith("line 0\n"));
+         assertTrue("output should end with the last line: " + output, output.endsWith("line 99"));
+      } finally {
+         streams.close();
+      }
+   }
+
+   @Test
+   public void shOutput_bounded_by_window_when_set() throws IOException {
+      SessionStreams streams = getStreams();
+      try {
+         streams.setOutputWindow(64, OutputCapture.defaultSpillDirectory());
+         StringBuilder sb = new StringBuilder();
+         for (int i = 0; i < 100; i++) {
+            sb.append("line ").append(i).append("\r\n");
+         }
+         streams.getShStream().write(sb.toString().getBytes(), 0, sb.length());
+         String output = streams.shOutput();
+         assertTrue("output should be bounded by the window: " + output.length(), output.length() <= 64);
+         assertTrue("output should start on a line: " + output, output.startsWith("line "));
+         assertTrue("output should end with the last line: " + output, output.endsWith("line 99"));
+         assertFalse("\\r\\n should be replaced", output.contains("\r"));
+      } finally {
+         streams.close();
+      }
+   }
 }
@@ -177,4 +177,63 @@ public class SuffixStreamTest {
         }
     }
 
+
+    @Test
+    public void exitCode_removed_from_output(){
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SuffixStream stream = new SuffixStream();
+        stream.setExitCodePrefix("<EC>");
+        stream.addSuffix("FOO","FOO","");
+        stream.addStream("baos",baos);
+        StringBuilder exitCode = new StringBuilder();
+        stream.addConsumer((s)->{exitCode.append(stream.getExitCode());});
+        try {
+            stream.write("output\n<EC>127FOO".getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        assertEquals("exit code should be from the prompt","127",exitCode.toString());
+        assertEquals("output\n",baos.toString());
+    }
+    @Test
+    public void exitCode_split_write(){
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SuffixStream stream = new SuffixStream();
+        stream.setExitCodePrefix("<EC>");
+        stream.addSuffix("FOO","FOO","");
+        stream.addStream("baos",baos);
+        StringBuilder exitCode = new StringBuilder();
+        stream.addConsumer((s)->{exitCode.append(stream.getExitCode());});
+        try {
+            stream.write("no newline<E".getBytes());
+            stream.write("C>".getBytes());
+            stream.write("0".getBytes());
+            assertEquals("exit code should not be written before the prompt","no newline",baos.toString());
+            stream.write("FO".getBytes());
+            stream.write("O".getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        assertEquals("exit code should be from the prompt","0",exitCode.toString());
+        assertEquals("no newline",baos.toString());
+    }
+    @Test
+    public void exitCode_missing(){
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        SuffixStream stream = new SuffixStream();
+        stream.setExitCodePrefix("<EC>");
+        stream.addSuffix("FOO","FOO","");
+        stream.addStream("baos",baos);
+        AtomicBoolean called = new AtomicBoolean(false);
+        stream.addConsumer((s)->{called.set(true);});
+        try {
+            stream.write("<EC>\n0FOO".getBytes());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        assertTrue(called.get());
+        assertNull("exit code should not span lines",stream.getExitCode());
+        assertEquals("<EC>\n0",baos.toString());
+    }
+
 }
@@ -62,6 +62,8 @@ public class QDup implements Callable<Integer>, QuarkusApplication {
 
     @CommandLine.Option(names = {"-c","--commandPool"},description = "number of threads for executing commands", defaultValue = "24")
     int commandPool;
+    @CommandLine.Option(names = {"--virtual-threads"},description = "run each script on a virtual thread instead of the commandPool", defaultValue = "false")
+    boolean virtualThreads;
     @CommandLine.Option(names = {"-t","--timeout"},description = "session connection timeout in seconds", defaultValue = "5")
     int sessionTimeout;
     @CommandLine.Option(names = {"-C","--colorTerminal"},description = "flag to enable color formatted console output", defaultValue = "false")
@@ -95,6 +97,16 @@ public class QDup implements Callable<Integer>, QuarkusApplication {
     Set<Stage> skipStages;
     @CommandLine.Option(names = {"--"+Globals.STREAM_LOGGING}, description = "log sh output as each line is available", defaultValue = "false")
     boolean streamLogging;
+    @CommandLine.Option(names = {"--"+Globals.JOURNAL}, description = "record command, output, signal and state events in a binary run.journal", defaultValue = "false")
+    boolean journal;
+    @CommandLine.Option(names = {"--"+Globals.LOG_QUEUE}, description = "messages queued for the run.log writer, 0 writes and flushes each message when it is logged (default "+AsyncLogHandler.DEFAULT_QUEUE+")")
+    Integer logQueue;
+    @CommandLine.Option(names = {"--"+Globals.LOG_FLUSH_SIZE}, description = "flush run.log after writing this many messages (default "+AsyncLogHandler.DEFAULT_FLUSH_SIZE+")")
+    Integer logFlushSize;
+    @CommandLine.Option(names = {"--"+Globals.LOG_FLUSH_INTERVAL}, description = "flush run.log at least this often (ms) while there are messages (default "+AsyncLogHandler.DEFAULT_FLUSH_INTERVAL+")")
+    Integer logFlushInterval;
+    @CommandLine.Option(names = {"--"+Globals.LOG_OVERFLOW}, description = "block or discard when the run.log queue is full (default block)")
+    String logOverflow;
 
     @CommandLine.Parameters(description = "qdup automation configuration source(s)")
     List<String> yamlPaths;
@@ -267,6 +279,11 @@ public class QDup implements Callable<Integer>, QuarkusApplication {
         }
         if(skipStages!=null){ skipStages.forEach(runConfigBuilder::addSkipStage); }
         runConfigBuilder.setStreamLogging(streamLogging);
+        runConfigBuilder.setJournal(journal);
+        if(logQueue!=null){ runConfigBuilder.getGlobals().addSetting(Globals.LOG_QUEUE,logQueue); }
+        if(logFlushSize!=null){ runConfigBuilder.getGlobals().addSetting(Globals.LOG_FLUSH_SIZE,logFlushSize); }
+        if(logFlushInterval!=null){ runConfigBuilder.getGlobals().addSetting(Globals.LOG_FLUSH_INTERVAL,logFlushInterval); }
+        if(logOverflow!=null){ runConfigBuilder.getGlobals().addSetting(Globals.LOG_OVERFLOW,logOverflow); }
 
         String runConsoleFormat = ConfigProvider.getConfig().getOptionalValue("qdup.run.console.format",String.class).orElse(RunConfigBuilder.DEFAULT_RUN_CONSOLE_FORMAT);
         runConfigBuilder.setConsoleFormatPattern(runConsoleFormat);
@@ -316,7 +333,9 @@ public class QDup implements Callable<Integer>, QuarkusApplication {
             return rtrn;
         };
 
-        ThreadPoolExecutor executor = new ThreadPoolExecutor(commandPool / 2, commandPool, 30, TimeUnit.MINUTES, workQueue, factory);
+        ThreadPoolExecutor executor = virtualThreads ?
+                Dispatcher.newVirtualThreadExecutor() :
+                new ThreadPoolExecutor(commandPool / 2, commandPool, 30, TimeUnit.MINUTES, workQueue, factory);
 
         ScheduledThreadPoolExecutor scheduled = new ScheduledThreadPoolExecutor(schedulePool, runnable -> new Thread(runnable, "qdup-scheduled-" + scheduledCounter.getAndIncrement()));
         ScheduledThreadPoolExecutor callback = new ScheduledThreadPoolExecutor(schedulePool, runnable -> new Thread(runnable, "qdup-callback-" + callbackCounter.getAndIncrement()));
@@ -338,6 +357,9 @@ public class QDup implements Callable<Integer>, QuarkusApplication {
         if(config.isStreamLogging()){
             logger.info("stream logging enabled");
         }
+        if(virtualThreads){
+            logger.info("virtual thread execution enabled");
+        }
 
         Signal.handle(new Signal("INT"),(signal)->{
             if (!run.isAborted() && dispatcher.isRunning() && !dispatcher.isStopping()) {